@@ -0,0 +1,107 @@
+package com.lab1.distributedfs.Codec;
+
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+import com.lab1.distributedfs.IO.Buffer.BufferPool;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <h1>BinaryReader</h1>
+ *
+ * <p>
+ *  Reads the values written by a {@link BinaryWriter} back from a buffer.
+ *  The reader can be pointed at a new buffer with {@link #reset(ByteBuffer)}, so one instance can decode any number of messages.
+ * </p>
+ */
+public class BinaryReader {
+    private ByteBuffer buffer;
+
+    public BinaryReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public BinaryReader reset(ByteBuffer buffer) {
+        this.buffer = buffer;
+        return this;
+    }
+
+    public int remaining() {
+        return this.buffer.remaining();
+    }
+
+    public int readByte() {
+        return this.buffer.get();
+    }
+
+    public int readInt() {
+        return this.buffer.getInt();
+    }
+
+    public boolean readBoolean() {
+        return this.buffer.get() != 0;
+    }
+
+    public int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = this.buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) { return value; }
+        }
+        throw new IllegalStateException("malformed varint");
+    }
+
+    public long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = this.buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) { return value; }
+        }
+        throw new IllegalStateException("malformed varlong");
+    }
+
+    public int readSignedVarInt() {
+        int value = this.readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public long readSignedVarLong() {
+        long value = this.readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public String readString() {
+        int length = this.readLength();
+        String value;
+        if (this.buffer.hasArray()) {
+            value = new String(this.buffer.array(), this.buffer.arrayOffset() + this.buffer.position(), length, StandardCharsets.UTF_8);
+            this.buffer.position(this.buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            this.buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    /**
+     * Reads a length-prefixed byte range into a pooled buffer (the input buffer is usually reused, so the data has to be copied out once).
+     * @return The data, owned by the caller
+     */
+    public BlockBuffer readBytes(BufferPool pool) {
+        int length = this.readLength();
+        BlockBuffer data = pool.allocate(length);
+        data.nioBuffer().put(this.buffer.slice(this.buffer.position(), length));
+        this.buffer.position(this.buffer.position() + length);
+        return data;
+    }
+
+    private int readLength() {
+        int length = this.readVarInt();
+        if (length < 0 || length > this.buffer.remaining()) { throw new BufferUnderflowException(); }
+        return length;
+    }
+}
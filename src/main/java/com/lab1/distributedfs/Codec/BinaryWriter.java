@@ -0,0 +1,101 @@
+package com.lab1.distributedfs.Codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <h1>BinaryWriter</h1>
+ *
+ * <p>
+ *  Writes primitive values into a growable buffer that is meant to be reused ({@link #clear()}) between messages.
+ *  Integers are written as varints (7 bits per byte, small values take a single byte), signed values are zigzag encoded first,
+ *  strings and byte ranges are prefixed with their length.
+ * </p>
+ */
+public class BinaryWriter {
+    private ByteBuffer buffer;
+
+    public BinaryWriter(int initialCapacity) {
+        this.buffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    public BinaryWriter clear() {
+        this.buffer.clear();
+        return this;
+    }
+
+    public int size() {
+        return this.buffer.position();
+    }
+
+    /**
+     * @return View of everything written so far (position 0, limit = size), valid until the next write or clear
+     */
+    public ByteBuffer toByteBuffer() {
+        return this.buffer.duplicate().flip();
+    }
+
+    public void writeByte(int value) {
+        this.ensureCapacity(1);
+        this.buffer.put((byte) value);
+    }
+
+    // Fixed width, for values that do not get smaller as a varint (e.g. checksums)
+    public void writeInt(int value) {
+        this.ensureCapacity(4);
+        this.buffer.putInt(value);
+    }
+
+    public void writeBoolean(boolean value) {
+        this.writeByte(value ? 1 : 0);
+    }
+
+    public void writeVarInt(int value) {
+        this.ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            this.buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        this.buffer.put((byte) value);
+    }
+
+    public void writeVarLong(long value) {
+        this.ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            this.buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        this.buffer.put((byte) value);
+    }
+
+    // Zigzag encoding maps small negative numbers (e.g. -1) to small varints as well
+    public void writeSignedVarInt(int value) {
+        this.writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    public void writeSignedVarLong(long value) {
+        this.writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        this.writeVarInt(bytes.length);
+        this.ensureCapacity(bytes.length);
+        this.buffer.put(bytes);
+    }
+
+    // Length-prefixed byte range, copied straight from the source buffer (its position is not touched)
+    public void writeBytes(ByteBuffer source) {
+        this.writeVarInt(source.remaining());
+        this.ensureCapacity(source.remaining());
+        this.buffer.put(source.duplicate());
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (this.buffer.remaining() >= bytes) { return; }
+        int capacity = Math.max(this.buffer.capacity() * 2, this.buffer.position() + bytes);
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        grown.put(this.buffer.flip());
+        this.buffer = grown;
+    }
+}
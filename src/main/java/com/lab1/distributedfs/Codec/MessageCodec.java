@@ -0,0 +1,528 @@
+package com.lab1.distributedfs.Codec;
+
+import com.lab1.distributedfs.FileSystem.BlockNode;
+import com.lab1.distributedfs.FileSystem.Compression;
+import com.lab1.distributedfs.FileSystem.FileNode;
+import com.lab1.distributedfs.FileSystem.StoragePolicy;
+import com.lab1.distributedfs.FileSystem.TierPolicy;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+import com.lab1.distributedfs.IO.Buffer.BufferPool;
+import com.lab1.distributedfs.IO.Client.Open;
+import com.lab1.distributedfs.IO.Client.OpenMode;
+import com.lab1.distributedfs.IO.DataNodeIO.*;
+import com.lab1.distributedfs.Message.Message;
+import com.lab1.distributedfs.Message.MessageAction;
+import com.lab1.distributedfs.Message.MessageType;
+import com.lab1.distributedfs.Node.DataNodeStatus;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * <h1>MessageCodec</h1>
+ *
+ * <p>
+ *  Hand-written binary encoding of a {@link Message} and every payload type that is exchanged between the nodes.
+ *  The layout of a message is:
+ * </p>
+ * <ul>
+ *     <li>Version (1 byte, {@link #VERSION})</li>
+ *     <li>Source node ID (zigzag varint, the client and "any" node IDs can be negative)</li>
+ *     <li>Message type and action (1 byte each, enum ordinals)</li>
+ *     <li>Request ID (varlong)</li>
+ *     <li>Payload (1 byte tag followed by the fields of the payload type, see {@link #encodePayload})</li>
+ * </ul>
+ *
+ * <p>
+ *  A codec keeps its {@link BinaryWriter} and {@link BinaryReader} between calls, so it is not thread-safe:
+ *  use one instance per thread (or per connection).
+ *  Block data is copied out of the encoded frame into buffers from {@link BufferPool#DIRECT}, the decoded message owns them.
+ *  {@link #encodeParts} encodes large block data by reference instead (e.g. to write a mapped block to a socket without copying it).
+ * </p>
+ */
+public class MessageCodec {
+    public static final int VERSION = 12;
+
+    // Payload tags (never reorder, only append)
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int FILE_NODE = 2;
+    private static final int BLOCK_NODE = 3;
+    private static final int OPEN = 4;
+    private static final int READ_REQUEST = 5;
+    private static final int READ_RESPONSE = 6;
+    private static final int WRITE_REQUEST = 7;
+    private static final int WRITE_RESPONSE = 8;
+    private static final int BATCH_REQUEST = 9;
+    private static final int BATCH_RESPONSE = 10;
+    private static final int DATANODE_STATUS = 11;
+    private static final int DATANODE_STATUS_MAP = 12;
+    private static final int PACKET = 13;
+    private static final int PACKET_ACK = 14;
+
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+    private static final MessageAction[] MESSAGE_ACTIONS = MessageAction.values();
+    private static final OpenMode[] OPEN_MODES = OpenMode.values();
+    private static final Compression[] COMPRESSIONS = Compression.values();
+    private static final StoragePolicy[] STORAGE_POLICIES = StoragePolicy.values();
+    private static final TierPolicy[] TIER_POLICIES = TierPolicy.values();
+
+    private final BinaryWriter writer;
+    private final BinaryReader reader;
+    private final BufferPool bufferPool;
+    private int gatherSize = Integer.MAX_VALUE;                     // Block data of at least this size is not copied
+    private final List<Gathered> gathered = new ArrayList<>();
+
+    // Block data that goes after the first bytes of the writer
+    private record Gathered(int position, ByteBuffer data) {}
+
+    public MessageCodec() {
+        this(BufferPool.DIRECT);
+    }
+
+    public MessageCodec(BufferPool bufferPool) {
+        this.writer = new BinaryWriter(256);
+        this.reader = new BinaryReader(null);
+        this.bufferPool = bufferPool;
+    }
+
+    // ================================================== ENCODE =======================================================
+
+    /**
+     * @return The encoded message, backed by the internal buffer of this codec (valid until the next call to encode)
+     */
+    public ByteBuffer encode(Message<?> message) {
+        this.writer.clear();
+        this.writer.writeByte(VERSION);
+        this.encodeMessage(message);
+        return this.writer.toByteBuffer();
+    }
+
+    /**
+     * Encodes a message in parts that are written one after the other (e.g. with a gathering write), block data of at
+     * least minDataSize bytes is a view of the data of the message (not copied), so it must not be released before
+     * the parts were written. The other parts are copies (they stay valid after the next call).
+     * @return The parts, which together are exactly what {@link #encode} returns
+     */
+    public ByteBuffer[] encodeParts(Message<?> message, int minDataSize) {
+        this.gatherSize = minDataSize;
+        try {
+            ByteBuffer encoded = this.encode(message);
+            ByteBuffer copy = ByteBuffer.allocate(encoded.remaining()).put(encoded).flip();
+            ByteBuffer[] parts = new ByteBuffer[2 * this.gathered.size() + 1];
+            int from = 0;
+            for (int i = 0; i < this.gathered.size(); i++) {
+                Gathered data = this.gathered.get(i);
+                parts[2 * i] = copy.slice(from, data.position - from);
+                parts[2 * i + 1] = data.data;
+                from = data.position;
+            }
+            parts[parts.length - 1] = copy.slice(from, copy.limit() - from);
+            return parts;
+        } finally {
+            this.gatherSize = Integer.MAX_VALUE;
+            this.gathered.clear();
+        }
+    }
+
+    private void encodeMessage(Message<?> message) {
+        this.writer.writeSignedVarInt(message.getSrcNodeID());
+        this.writer.writeByte(message.getMessageType().ordinal());
+        this.writer.writeByte(message.getMessageAction().ordinal());
+        this.writer.writeVarLong(message.getRequestID());
+        this.encodePayload(message.getData());
+    }
+
+    private void encodePayload(Object data) {
+        // Subclasses have to be matched before their parents (e.g. ReadResponse extends ReadRequest)
+        switch (data) {
+            case null -> this.writer.writeByte(NULL);
+            case String string -> {
+                this.writer.writeByte(STRING);
+                this.writer.writeString(string);
+            }
+            case FileNode fileNode -> {
+                this.writer.writeByte(FILE_NODE);
+                this.encodeFileNode(fileNode);
+            }
+            case BlockNode blockNode -> {
+                this.writer.writeByte(BLOCK_NODE);
+                this.encodeBlockNode(blockNode, null);
+            }
+            case Open open -> {
+                this.writer.writeByte(OPEN);
+                this.writer.writeByte(open.openMode.ordinal());
+                this.writer.writeString(open.path);
+                this.writer.writeBoolean(open.fileNode != null);
+                if (open.fileNode != null) { this.encodeFileNode(open.fileNode); }
+            }
+            case ReadResponse readResponse -> {
+                this.writer.writeByte(READ_RESPONSE);
+                this.encodeBlock(readResponse);
+                this.encodeRange(readResponse);
+                this.encodeData(readResponse.getData());
+                int[] checksums = readResponse.getChecksums();
+                this.writer.writeBoolean(checksums != null);
+                if (checksums != null) {
+                    this.writer.writeVarInt(checksums.length);
+                    for (int checksum : checksums) { this.writer.writeInt(checksum); }
+                }
+            }
+            case ReadRequest readRequest -> {
+                this.writer.writeByte(READ_REQUEST);
+                this.encodeBlock(readRequest);
+                this.encodeRange(readRequest);
+            }
+            case PacketAck packetAck -> {
+                this.writer.writeByte(PACKET_ACK);
+                this.encodeBlock(packetAck);
+                this.writer.writeVarLong(packetAck.getStreamID());
+                this.writer.writeVarInt(packetAck.getSequence());
+                this.writer.writeVarInt(packetAck.getNumBytesWritten());
+                this.writer.writeSignedVarInt(packetAck.getStoredSize());
+            }
+            case WriteResponse writeResponse -> {
+                this.writer.writeByte(WRITE_RESPONSE);
+                this.encodeBlock(writeResponse);
+                this.writer.writeBoolean(writeResponse.isAppendBlock());
+                this.writer.writeVarInt(writeResponse.getNumBytesWritten());
+                this.writer.writeSignedVarInt(writeResponse.getStoredSize());
+            }
+            case Packet packet -> {
+                this.writer.writeByte(PACKET);
+                this.encodeBlock(packet);
+                this.writer.writeVarLong(packet.getStreamID());
+                this.writer.writeVarInt(packet.getSequence());
+                this.writer.writeBoolean(packet.isLast());
+                this.writer.writeBoolean(packet.isAppendBlock());
+                this.encodePipeline(packet);
+                this.writer.writeVarInt(packet.getBlockSize());
+                this.writer.writeByte(packet.getTierPolicy().ordinal());
+                this.encodeData(packet.getData());
+            }
+            case WriteRequest writeRequest -> {
+                this.writer.writeByte(WRITE_REQUEST);
+                this.encodeBlock(writeRequest);
+                this.writer.writeBoolean(writeRequest.isAppendBlock());
+                this.encodePipeline(writeRequest);
+                this.writer.writeVarInt(writeRequest.getBlockSize());
+                this.writer.writeByte(writeRequest.getTierPolicy().ordinal());
+                this.encodeData(writeRequest.getData());
+            }
+            case BatchRequest batchRequest -> {
+                this.writer.writeByte(BATCH_REQUEST);
+                this.writer.writeSignedVarInt(batchRequest.getNodeID());
+                this.writer.writeVarInt(batchRequest.size());
+                for (Block operation : batchRequest.getOperations()) { this.encodePayload(operation); }
+            }
+            case BatchResponse batchResponse -> {
+                this.writer.writeByte(BATCH_RESPONSE);
+                this.writer.writeSignedVarInt(batchResponse.getNodeID());
+                this.writer.writeVarInt(batchResponse.getResults().size());
+                for (Message<?> result : batchResponse.getResults()) { this.encodeMessage(result); }
+            }
+            case DataNodeStatus dataNodeStatus -> {
+                this.writer.writeByte(DATANODE_STATUS);
+                this.encodeDataNodeStatus(dataNodeStatus);
+            }
+            case Map<?, ?> map -> {
+                // The only map that is sent around is the NameNode's view of the DataNodes (STAT),
+                // it is updated concurrently so the count is taken from a snapshot
+                List<?> statuses = new ArrayList<>(map.values());
+                this.writer.writeByte(DATANODE_STATUS_MAP);
+                this.writer.writeVarInt(statuses.size());
+                for (Object status : statuses) {
+                    if (!(status instanceof DataNodeStatus dataNodeStatus)) {
+                        throw new IllegalArgumentException("unsupported map value: " + status.getClass().getName());
+                    }
+                    this.encodeDataNodeStatus(dataNodeStatus);
+                }
+            }
+            default -> throw new IllegalArgumentException("unsupported payload type: " + data.getClass().getName());
+        }
+    }
+
+    private void encodeFileNode(FileNode fileNode) {
+        // Filename, size and format are derived from the path and the blocks when decoding
+        this.writer.writeString(fileNode.getPath());
+        this.writer.writeByte(fileNode.getCompression().ordinal());
+        this.writer.writeByte(fileNode.getStoragePolicy().ordinal());
+        this.writer.writeVarInt(fileNode.getBlockSize());
+        this.writer.writeByte(fileNode.getTierPolicy().ordinal());
+        this.writer.writeVarInt(fileNode.getBlockList().size());
+        for (BlockNode blockNode : fileNode.getBlockList()) { this.encodeBlockNode(blockNode, fileNode.getPath()); }
+    }
+
+    // The blocks of a file normally carry the path of the file as their filename, which is then only written once
+    private void encodeBlockNode(BlockNode blockNode, String path) {
+        this.writer.writeVarInt(blockNode.getBlockID());
+        boolean samePath = blockNode.getFilename().equals(path);
+        this.writer.writeBoolean(samePath);
+        if (!samePath) { this.writer.writeString(blockNode.getFilename()); }
+        this.writer.writeVarInt(blockNode.getSize());
+        this.writer.writeByte(blockNode.getCompression().ordinal());
+        this.writer.writeVarInt(blockNode.getStoredSize());
+        this.writer.writeVarInt(blockNode.getDataCells());
+        this.writer.writeVarInt(blockNode.getParityCells());
+        this.writer.writeVarInt(blockNode.getCapacity());
+        this.writer.writeVarInt(blockNode.getReplicas().size());
+        for (int replica : blockNode.getReplicas()) { this.writer.writeSignedVarInt(replica); }
+        this.writer.writeVarInt(blockNode.getCorruptReplicas().size());
+        for (int replicaIndex : blockNode.getCorruptReplicas()) { this.writer.writeVarInt(replicaIndex); }
+    }
+
+    private void encodeBlock(Block block) {
+        this.writer.writeSignedVarInt(block.getNodeID());
+        this.writer.writeSignedVarInt(block.getReplica());
+        this.writer.writeString(block.getPathname());
+        this.writer.writeVarInt(block.getBlockID());
+        this.writer.writeByte(block.getCompression().ordinal());
+    }
+
+    private void encodeRange(ReadRequest readRequest) {
+        this.writer.writeVarInt(readRequest.getOffset());
+        this.writer.writeSignedVarInt(readRequest.getLength());
+    }
+
+    private void encodePipeline(WriteRequest writeRequest) {
+        this.writer.writeVarInt(writeRequest.getPipeline().size());
+        for (int dataNodeID : writeRequest.getPipeline()) { this.writer.writeSignedVarInt(dataNodeID); }
+    }
+
+    private void encodeData(BlockBuffer data) {
+        // A write without data is a delete, which is different from writing zero bytes
+        this.writer.writeBoolean(data != null);
+        if (data == null) { return; }
+        if (data.length() >= this.gatherSize) {
+            // Only the length is written, the data goes right after it
+            this.writer.writeVarInt(data.length());
+            this.gathered.add(new Gathered(this.writer.size(), data.nioBuffer()));
+        } else {
+            this.writer.writeBytes(data.nioBuffer());
+        }
+    }
+
+    private void encodeDataNodeStatus(DataNodeStatus dataNodeStatus) {
+        this.writer.writeSignedVarInt(dataNodeStatus.nodeId);
+        this.writer.writeVarLong(dataNodeStatus.lastSeen);
+        this.writer.writeBoolean(dataNodeStatus.alive);
+        this.writer.writeVarInt(dataNodeStatus.blockCount);
+        this.writer.writeVarLong(dataNodeStatus.storageUsed);
+        this.writer.writeVarLong(dataNodeStatus.logicalStorageUsed);
+        this.writer.writeVarLong(dataNodeStatus.creditBytes);
+        this.writer.writeVarInt(dataNodeStatus.creditRequests);
+        this.writer.writeVarInt(dataNodeStatus.controlQueueDepth);
+        this.writer.writeVarInt(dataNodeStatus.dataQueueDepth);
+        this.writer.writeVarLong(dataNodeStatus.cacheHits);
+        this.writer.writeVarLong(dataNodeStatus.cacheMisses);
+        this.writer.writeVarLong(dataNodeStatus.cacheEvictions);
+        this.writer.writeVarInt(dataNodeStatus.ramTierBlocks);
+        this.writer.writeVarLong(dataNodeStatus.ramTierBytes);
+        this.writer.writeVarInt(dataNodeStatus.unpersistedBlocks);
+        this.writer.writeVarLong(dataNodeStatus.tierPromotions);
+        this.writer.writeVarLong(dataNodeStatus.tierDemotions);
+    }
+
+    /**
+     * Releases the block data that is referenced by a message (e.g. after the message was encoded for another process,
+     * which gets its own copy of the data, and the message itself is not delivered locally).
+     */
+    public static void releaseData(Message<?> message) {
+        forEachData(message.getData(), BlockBuffer::release);
+    }
+
+    // Takes another reference on the block data of a message (e.g. one per process a message is sent to)
+    public static void retainData(Message<?> message) {
+        forEachData(message.getData(), BlockBuffer::retain);
+    }
+
+    private static void forEachData(Object data, Consumer<BlockBuffer> action) {
+        switch (data) {
+            case ReadResponse readResponse -> { if (readResponse.getData() != null) { action.accept(readResponse.getData()); } }
+            case WriteRequest writeRequest -> { if (writeRequest.getData() != null) { action.accept(writeRequest.getData()); } }
+            case BatchRequest batchRequest -> batchRequest.getOperations().forEach(operation -> forEachData(operation, action));
+            case BatchResponse batchResponse -> batchResponse.getResults().forEach(result -> forEachData(result.getData(), action));
+            case null, default -> {}
+        }
+    }
+
+    // ================================================== DECODE =======================================================
+
+    /**
+     * Decodes one message from the remaining bytes of the buffer (the position of the buffer is advanced).
+     * @throws IllegalArgumentException If the message was encoded with another version of the codec
+     */
+    public Message<?> decode(ByteBuffer buffer) {
+        this.reader.reset(buffer);
+        int version = this.reader.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException(String.format("unsupported codec version %d (expected %d)", version, VERSION));
+        }
+        return this.decodeMessage();
+    }
+
+    private Message<?> decodeMessage() {
+        int srcNodeID = this.reader.readSignedVarInt();
+        MessageType messageType = MESSAGE_TYPES[this.reader.readByte()];
+        MessageAction messageAction = MESSAGE_ACTIONS[this.reader.readByte()];
+        long requestID = this.reader.readVarLong();
+        return new Message<>(srcNodeID, messageType, messageAction, this.decodePayload(), requestID);
+    }
+
+    private Object decodePayload() {
+        int tag = this.reader.readByte();
+        return switch (tag) {
+            case NULL -> null;
+            case STRING -> this.reader.readString();
+            case FILE_NODE -> this.decodeFileNode();
+            case BLOCK_NODE -> this.decodeBlockNode(null);
+            case OPEN -> {
+                OpenMode openMode = OPEN_MODES[this.reader.readByte()];
+                String path = this.reader.readString();
+                FileNode fileNode = this.reader.readBoolean() ? this.decodeFileNode() : null;
+                yield new Open(openMode, path, fileNode);
+            }
+            case READ_REQUEST -> this.decodeReadRequest().range(this.reader.readVarInt(), this.reader.readSignedVarInt());
+            case READ_RESPONSE -> {
+                ReadRequest readRequest = this.decodeReadRequest().range(this.reader.readVarInt(), this.reader.readSignedVarInt());
+                BlockBuffer data = this.decodeData();
+                int[] checksums = null;
+                if (this.reader.readBoolean()) {
+                    checksums = new int[this.reader.readVarInt()];
+                    for (int i = 0; i < checksums.length; i++) { checksums[i] = this.reader.readInt(); }
+                }
+                yield new ReadResponse(readRequest, data, checksums);
+            }
+            case WRITE_REQUEST -> {
+                ReadRequest block = this.decodeReadRequest();
+                boolean appendBlock = this.reader.readBoolean();
+                List<Integer> pipeline = this.decodePipeline();
+                int blockSize = this.reader.readVarInt();
+                TierPolicy tierPolicy = TIER_POLICIES[this.reader.readByte()];
+                yield new WriteRequest(block, this.decodeData(), appendBlock, pipeline, blockSize, tierPolicy);
+            }
+            case WRITE_RESPONSE -> {
+                ReadRequest block = this.decodeReadRequest();
+                boolean appendBlock = this.reader.readBoolean();
+                WriteRequest writeRequest = new WriteRequest(block, null, appendBlock);
+                yield new WriteResponse(writeRequest, this.reader.readVarInt(), this.reader.readSignedVarInt());
+            }
+            case PACKET -> {
+                ReadRequest block = this.decodeReadRequest();
+                long streamID = this.reader.readVarLong();
+                int sequence = this.reader.readVarInt();
+                boolean last = this.reader.readBoolean();
+                boolean appendBlock = this.reader.readBoolean();
+                List<Integer> pipeline = this.decodePipeline();
+                int blockSize = this.reader.readVarInt();
+                TierPolicy tierPolicy = TIER_POLICIES[this.reader.readByte()];
+                yield new Packet(block, streamID, sequence, last, this.decodeData(), appendBlock, pipeline, blockSize, tierPolicy);
+            }
+            case PACKET_ACK -> {
+                ReadRequest block = this.decodeReadRequest();
+                WriteRequest writeRequest = new WriteRequest(block, null, true);
+                yield new PacketAck(writeRequest, this.reader.readVarLong(), this.reader.readVarInt(), this.reader.readVarInt(), this.reader.readSignedVarInt());
+            }
+            case BATCH_REQUEST -> {
+                BatchRequest batchRequest = new BatchRequest(this.reader.readSignedVarInt());
+                int size = this.reader.readVarInt();
+                for (int i = 0; i < size; i++) { batchRequest.add((Block) this.decodePayload()); }
+                yield batchRequest;
+            }
+            case BATCH_RESPONSE -> {
+                int nodeID = this.reader.readSignedVarInt();
+                int size = this.reader.readVarInt();
+                List<Message<?>> results = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) { results.add(this.decodeMessage()); }
+                yield new BatchResponse(nodeID, results);
+            }
+            case DATANODE_STATUS -> this.decodeDataNodeStatus();
+            case DATANODE_STATUS_MAP -> {
+                int size = this.reader.readVarInt();
+                Map<Integer, DataNodeStatus> statuses = new ConcurrentHashMap<>(size);
+                for (int i = 0; i < size; i++) {
+                    DataNodeStatus dataNodeStatus = this.decodeDataNodeStatus();
+                    statuses.put(dataNodeStatus.nodeId, dataNodeStatus);
+                }
+                yield statuses;
+            }
+            default -> throw new IllegalArgumentException("unknown payload tag: " + tag);
+        };
+    }
+
+    private FileNode decodeFileNode() {
+        String path = this.reader.readString();
+        Compression compression = COMPRESSIONS[this.reader.readByte()];
+        StoragePolicy storagePolicy = STORAGE_POLICIES[this.reader.readByte()];
+        int blockSize = this.reader.readVarInt();
+        TierPolicy tierPolicy = TIER_POLICIES[this.reader.readByte()];
+        int size = this.reader.readVarInt();
+        List<BlockNode> blockList = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) { blockList.add(this.decodeBlockNode(path)); }
+        return new FileNode(path, blockList, compression, storagePolicy, blockSize, tierPolicy);
+    }
+
+    private BlockNode decodeBlockNode(String path) {
+        int blockID = this.reader.readVarInt();
+        String filename = this.reader.readBoolean() ? path : this.reader.readString();
+        int blockSize = this.reader.readVarInt();
+        Compression compression = COMPRESSIONS[this.reader.readByte()];
+        int storedSize = this.reader.readVarInt();
+        int dataCells = this.reader.readVarInt();
+        int parityCells = this.reader.readVarInt();
+        int capacity = this.reader.readVarInt();
+        int size = this.reader.readVarInt();
+        List<Integer> replicas = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) { replicas.add(this.reader.readSignedVarInt()); }
+        BlockNode blockNode = new BlockNode(blockID, filename, blockSize, replicas, compression, capacity);
+        blockNode.setStoredSize(storedSize);
+        blockNode.setCells(dataCells, parityCells);
+        int corrupt = this.reader.readVarInt();
+        for (int i = 0; i < corrupt; i++) { blockNode.markCorrupt(this.reader.readVarInt()); }
+        return blockNode;
+    }
+
+    // Also used to read the common block attributes of the write payloads (same layout as encodeBlock)
+    private ReadRequest decodeReadRequest() {
+        return new ReadRequest(
+            this.reader.readSignedVarInt(), this.reader.readSignedVarInt(), this.reader.readString(), this.reader.readVarInt(),
+            0, -1, COMPRESSIONS[this.reader.readByte()]
+        );
+    }
+
+    private List<Integer> decodePipeline() {
+        int size = this.reader.readVarInt();
+        List<Integer> pipeline = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) { pipeline.add(this.reader.readSignedVarInt()); }
+        return pipeline;
+    }
+
+    private BlockBuffer decodeData() {
+        return this.reader.readBoolean() ? this.reader.readBytes(this.bufferPool) : null;
+    }
+
+    private DataNodeStatus decodeDataNodeStatus() {
+        DataNodeStatus dataNodeStatus = new DataNodeStatus(this.reader.readSignedVarInt(), this.reader.readVarLong());
+        dataNodeStatus.alive = this.reader.readBoolean();
+        dataNodeStatus.blockCount = this.reader.readVarInt();
+        dataNodeStatus.storageUsed = this.reader.readVarLong();
+        dataNodeStatus.logicalStorageUsed = this.reader.readVarLong();
+        dataNodeStatus.creditBytes = this.reader.readVarLong();
+        dataNodeStatus.creditRequests = this.reader.readVarInt();
+        dataNodeStatus.controlQueueDepth = this.reader.readVarInt();
+        dataNodeStatus.dataQueueDepth = this.reader.readVarInt();
+        dataNodeStatus.cacheHits = this.reader.readVarLong();
+        dataNodeStatus.cacheMisses = this.reader.readVarLong();
+        dataNodeStatus.cacheEvictions = this.reader.readVarLong();
+        dataNodeStatus.ramTierBlocks = this.reader.readVarInt();
+        dataNodeStatus.ramTierBytes = this.reader.readVarLong();
+        dataNodeStatus.unpersistedBlocks = this.reader.readVarInt();
+        dataNodeStatus.tierPromotions = this.reader.readVarLong();
+        dataNodeStatus.tierDemotions = this.reader.readVarLong();
+        return dataNodeStatus;
+    }
+}
@@ -1,5 +1,8 @@
 package com.lab1.distributedfs;
 
+import com.lab1.distributedfs.Message.DispatchMode;
+import com.lab1.distributedfs.Storage.StorageEngine;
+
 import java.nio.file.Paths;
 
 public class Const {
@@ -12,6 +15,8 @@ public class Const {
 
     // Replication Constants
     public static final int REPLICATION_FACTOR = 3;             // Number of replicas for each block
+    public static final int EC_DATA_CELLS = 3;                  // Data cells per block group of erasure coded files (RS(k,m))
+    public static final int EC_PARITY_CELLS = 2;                // Parity cells per block group (k + m must not exceed NUM_DATA_NODES)
 
     // NameNode parameters
     public static final int NAME_NODE_ID = 0;
@@ -19,13 +24,63 @@ public class Const {
     // Worker (DataNode) parameters
     public static final int         NUM_DATA_NODES = 5;                     // Number of DataNodes (threads)
     public static final int         WORKER_TIMEOUT = 5000;                  // In terms of milliseconds
-    public static final int         BLOCK_SIZE = 4 * BYTE_SIZE;
+    public static final int         BLOCK_SIZE = 4 * BYTE_SIZE;             // Default block size (files can pick their own, see FileNode)
+    public static final int         MAX_BLOCK_SIZE = 1024 * BYTE_SIZE * BYTE_SIZE;  // Largest block size a file can pick (1 GB)
     public static final String      DATANODE_ROOT_DIR = "dataNodes";
     public static final String      BLOCK_FILETYPE = ".blk";                // Short for "block"
+    public static final String      COMPRESSED_BLOCK_FILETYPE = ".blkz";    // Blocks that are stored compressed (see Compression)
+    public static final String      DATANODE_GROUP = "datanodes";           // Message broker group of all the DataNodes
+
+    // Storage parameters (how a DataNode lays its blocks out on disk, see StorageEngine)
+    public static final StorageEngine STORAGE_ENGINE = StorageEngine.FILE;
+    public static final int         SEGMENT_SIZE = 1024 * (BLOCK_SIZE + 256);   // Preallocated size of a segment file (~1024 blocks)
+    public static final double      SEGMENT_COMPACTION_THRESHOLD = 0.5;     // Fraction of dead bytes that gets a full segment compacted
+    public static final int         CHECKSUM_CHUNK_SIZE = 512;              // Bytes of block data covered by one CRC32C checksum
+    public static final long        SCRUB_BYTES_PER_SECOND = 1024 * 1024;   // I/O budget of the background scrubber of a DataNode
+    public static final int         SCRUB_INTERVAL = 60 * 1000;             // Pause between two scrubber passes (in terms of milliseconds)
+    public static final long        BLOCK_CACHE_BYTES = 256 * BLOCK_SIZE;   // Max. bytes of recently read blocks cached per DataNode (0 = off)
+    public static final int         GROUP_COMMIT_INTERVAL = 5;              // Max. time a write waits for its fsync (in terms of milliseconds)
+    public static final int         GROUP_COMMIT_BATCH_SIZE = 64;           // Number of waiting writes that triggers an fsync right away
+    public static final int         BLOCK_LOCK_STRIPES = 64;                // Locks per DataNode that writes of the same block take turns on
+    public static final int         COMPRESSION_LEVEL = 1;                  // Deflate level of compressed blocks (1 = fastest, 9 = smallest)
+    public static final int         DIRECT_IO_THRESHOLD = 0;                // Block transfers of at least this many bytes bypass the page cache (0 = off, e.g. STREAM_PACKET_SIZE)
+    public static final long        RAM_TIER_BYTES = 16 * BYTE_SIZE * BYTE_SIZE;    // Max. bytes of blocks a DataNode keeps in its RAM tier (0 = off)
+    public static final int         TIER_INTERVAL = 1000;                   // Pause between two passes of the tier mover (in terms of milliseconds)
+    public static final int         LAZY_PERSIST_DELAY = 500;               // Time a lazy-persist block has not been written to before it is flushed (ms)
+    public static final int         TIER_PROMOTE_READS = 4;                 // Reads (halved every pass of the mover) that make a block on disk hot
+    public static final int         TIER_DEMOTE_IDLE = 5 * 60 * 1000;       // Time a block stays in RAM without being read or written (ms)
+
+    // Streaming parameters (blocks larger than a packet are transferred as a stream of packets, see Packet)
+    public static final int         STREAM_PACKET_SIZE = 64 * BYTE_SIZE;    // Data per packet (a multiple of CHECKSUM_CHUNK_SIZE)
+    public static final int         STREAM_WINDOW = 8;                      // Max. unacknowledged packets per stream
+    public static final int         ZERO_COPY_THRESHOLD = STREAM_PACKET_SIZE;   // Block reads of at least this many bytes are mapped, not copied (0 = off)
+
+    // Buffer parameters
+    public static final int         BUFFER_POOL_CAPACITY = 256;             // Max. idle block buffers kept per pool
+    public static final int         BUFFER_CHUNK_SIZE = Math.min(BLOCK_SIZE, STREAM_PACKET_SIZE);  // Size of a pooled buffer
+
+    // Threading parameters
+    public static final ExecutionEngine EXECUTION_ENGINE = ExecutionEngine.VIRTUAL;
+
+    // Message broker parameters
+    public static final DispatchMode BROKER_DISPATCH_MODE = DispatchMode.MAILBOX;
+    public static final int         MAILBOX_CAPACITY = 1024;                // Max. pending messages per node (mailbox mode)
+    public static final int         MAILBOX_BATCH_SIZE = 64;                // Max. messages handled per event loop wake-up
+    public static final int         BATCH_MAX_OPERATIONS = 64;              // Max. block operations per BATCH envelope
+
+    // Flow control parameters (budget every DataNode advertises, see CreditGate)
+    public static final int         DATANODE_CREDIT_BYTES = 256 * BLOCK_SIZE;   // Max. bytes in flight per DataNode
+    public static final int         DATANODE_CREDIT_REQUESTS = 16;          // Max. requests (e.g. BATCH envelopes) in flight per DataNode
+    public static final int         WRITE_FILE_WINDOW = 256 * BLOCK_SIZE;   // write_file reads (and sends) the file this much at a time
+    public static final int         RPC_TICK_DURATION = 10;                 // Precision of request timeouts (in terms of milliseconds)
+    public static final int         RPC_WHEEL_SIZE = 512;                   // Number of buckets in the request timeout wheel
+
+    // Socket transport parameters (multi-process mode, see Main)
+    public static final int         TRANSPORT_BASE_PORT = 7400;             // Node i listens on TRANSPORT_BASE_PORT + i (localhost)
 
     public static final int         NUM_NODES = NUM_DATA_NODES + 3;         // +2 b.c. name node & client node
-    public static final int         CLIENT_NODE_ID = NUM_DATA_NODES - 2;
-    public static final int         MAIN_NODE_ID = NUM_DATA_NODES - 1;
+    public static final int         CLIENT_NODE_ID = NUM_DATA_NODES + 1;
+    public static final int         MAIN_NODE_ID = NUM_DATA_NODES + 2;
 
     // Name Node - 0
     // Data Node - 1
@@ -0,0 +1,67 @@
+package com.lab1.distributedfs;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <h1>ExecutionEngine</h1>
+ *
+ * <p>
+ *  Decides what kind of threads the nodes and the message broker run on.
+ *  All the thread pools (and the mailbox event loops) are created through here,
+ *  so switching the whole simulator between platform and virtual threads is a single constant
+ *  ({@link Const#EXECUTION_ENGINE}).
+ * </p>
+ *
+ * <ul>
+ *     <li>PLATFORM - Fixed-size pools of OS threads (one event loop thread per node in mailbox mode)</li>
+ *     <li>VIRTUAL - Virtual threads (Java 21), a blocking disk read/write in a DataNode handler only parks the
+ *     virtual thread, so thousands of in-flight block requests do not need thousands of OS threads</li>
+ * </ul>
+ */
+public enum ExecutionEngine {
+    PLATFORM,
+    VIRTUAL;
+
+    /**
+     * Thread pool for running handlers / node tasks.
+     * @param name Prefix for the names of the threads
+     * @param numberOfThreads Size of the pool (ignored for virtual threads, every task gets its own thread)
+     */
+    public ExecutorService newPool(String name, int numberOfThreads) {
+        return switch (this) {
+            case PLATFORM -> Executors.newFixedThreadPool(numberOfThreads, this.threadFactory(name));
+            case VIRTUAL -> Executors.newThreadPerTaskExecutor(this.threadFactory(name));
+        };
+    }
+
+    /**
+     * Thread pool for periodic tasks (e.g. heartbeat).
+     */
+    public ScheduledExecutorService newScheduledPool(String name, int numberOfThreads) {
+        return Executors.newScheduledThreadPool(numberOfThreads, this.threadFactory(name));
+    }
+
+    /**
+     * Creates (but does not start) a long-running thread, e.g. the event loop of a mailbox.
+     */
+    public Thread newThread(String name, Runnable task) {
+        return switch (this) {
+            case PLATFORM -> {
+                Thread thread = new Thread(task, name);
+                thread.setDaemon(true);
+                yield thread;
+            }
+            case VIRTUAL -> Thread.ofVirtual().name(name).unstarted(task);
+        };
+    }
+
+    private ThreadFactory threadFactory(String name) {
+        return switch (this) {
+            case PLATFORM -> Thread.ofPlatform().name(name + "-", 0).factory();
+            case VIRTUAL -> Thread.ofVirtual().name(name + "-", 0).factory();
+        };
+    }
+}
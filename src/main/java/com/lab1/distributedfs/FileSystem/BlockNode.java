@@ -4,7 +4,9 @@ import com.lab1.distributedfs.Const;
 
 import java.io.Serial;
 import java.io.Serializable;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class BlockNode implements Serializable {
     @Serial
@@ -12,15 +14,31 @@ public class BlockNode implements Serializable {
 
     private final int blockID;
     private final String filename;
-    private int blockSize;                      // Track the current size of block
+    private int blockSize;                      // Track the current size of block (logical, i.e. uncompressed bytes)
+    private int storedSize;                     // Bytes the block takes up on disk, per replica (or over all the cells of a group), 0 if unknown
+    private Compression compression;            // How the block is stored (null for older fsimages: uncompressed)
+    private int dataCells;                      // Erasure coded block groups: data cells of the group (0 for replicated blocks)
+    private int parityCells;                    // Erasure coded block groups: parity cells of the group
+    private final int capacity;                 // Max. size of the block, i.e. the block size of its file (0 for the default one)
 
     private final List<Integer> dataNodes;      // Replicas are stored here
+    private Set<Integer> corruptReplicas;       // Indexes of the replicas that failed their checksums (null if none, e.g. older fsimages)
 
     public BlockNode(int blockID, String filename, int blockSize, List<Integer> dataNodes) {
+        this(blockID, filename, blockSize, dataNodes, Compression.NONE);
+    }
+
+    public BlockNode(int blockID, String filename, int blockSize, List<Integer> dataNodes, Compression compression) {
+        this(blockID, filename, blockSize, dataNodes, compression, 0);
+    }
+
+    public BlockNode(int blockID, String filename, int blockSize, List<Integer> dataNodes, Compression compression, int capacity) {
         this.blockID = blockID;
         this.filename = filename;
         this.dataNodes = dataNodes;
         this.blockSize = blockSize;
+        this.compression = compression;
+        this.capacity = capacity;
     }
 
     public int getBlockID() {
@@ -42,6 +60,20 @@ public class BlockNode implements Serializable {
         catch (NullPointerException e) { return false; }
     }
 
+    // Corrupt replicas keep their index (it is part of the block filename), readers just skip them
+    public boolean markCorrupt(int replicaIndex) {
+        if (this.corruptReplicas == null) { this.corruptReplicas = new HashSet<>(); }
+        return this.corruptReplicas.add(replicaIndex);
+    }
+
+    public boolean isCorrupt(int replicaIndex) {
+        return this.corruptReplicas != null && this.corruptReplicas.contains(replicaIndex);
+    }
+
+    public Set<Integer> getCorruptReplicas() {
+        return this.corruptReplicas == null ? Set.of() : this.corruptReplicas;
+    }
+
     public boolean addReplica(int replica) {
         try { return this.dataNodes.add(replica); }
         catch (NullPointerException e) { return false; }
@@ -50,12 +82,60 @@ public class BlockNode implements Serializable {
     public int expand(int size) {
         // Appending more data to the current block (if it is not full)
         // Note that here is no "shrink" method
-        if (size + this.blockSize > Const.BLOCK_SIZE) { return -1; }
+        if (size + this.blockSize > this.getCapacity()) { return -1; }
         return this.blockSize += size;
     }
 
     public int getFreeSpace() {
-        return Const.BLOCK_SIZE - this.blockSize;
+        return this.getCapacity() - this.blockSize;
+    }
+
+    public int getCapacity() {
+        return this.capacity > 0 ? this.capacity : Const.BLOCK_SIZE;
     }
     public int getSize() { return blockSize; }
+
+    // Uncompressed blocks take up their size (appends to compressed blocks add frames, so it is not derived)
+    public int getStoredSize() {
+        return this.storedSize > 0 || this.getCompression() != Compression.NONE ? this.storedSize : this.blockSize;
+    }
+
+    public void setStoredSize(int storedSize) {
+        this.storedSize = storedSize;
+    }
+
+    // The cells of a group add up
+    public void addStoredSize(int storedSize) {
+        this.storedSize += storedSize;
+    }
+
+    public Compression getCompression() {
+        return this.compression == null ? Compression.NONE : this.compression;
+    }
+
+    /**
+     * Turns the block into an erasure coded block group: cell i of the group is stored on the DataNode of replica i
+     * (its index takes the place of the replica index in the block filename), the data cells come first.
+     */
+    public void setCells(int dataCells, int parityCells) {
+        this.dataCells = dataCells;
+        this.parityCells = parityCells;
+    }
+
+    public boolean isErasureCoded() {
+        return this.dataCells > 0;
+    }
+
+    public int getDataCells() {
+        return this.dataCells;
+    }
+
+    public int getParityCells() {
+        return this.parityCells;
+    }
+
+    // Every cell of a group has the same size, the last data cell is padded with zeros
+    public int getCellSize() {
+        return (this.blockSize + this.dataCells - 1) / this.dataCells;
+    }
 }
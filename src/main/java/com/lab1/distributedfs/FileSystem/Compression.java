@@ -0,0 +1,32 @@
+package com.lab1.distributedfs.FileSystem;
+
+import com.lab1.distributedfs.Const;
+
+/**
+ * How the blocks of a file are stored on the DataNodes. Compressed blocks are deflated by the DataNode (see
+ * {@link com.lab1.distributedfs.Storage.BlockCompressor}), the client always sends and receives the logical data.
+ */
+public enum Compression {
+    NONE(Const.BLOCK_FILETYPE),
+    DEFLATE(Const.COMPRESSED_BLOCK_FILETYPE);
+
+    private final String fileType;
+
+    Compression(String fileType) {
+        this.fileType = fileType;
+    }
+
+    // Compressed blocks are told apart by their file extension (e.g. a DataNode that starts up)
+    public String getFileType() {
+        return fileType;
+    }
+
+    // Text compresses well, everything else is stored as is
+    public static Compression forFormat(FileFormat fileFormat) {
+        return fileFormat == FileFormat.TXT ? DEFLATE : NONE;
+    }
+
+    public static Compression fromBlockName(String blockName) {
+        return blockName.endsWith(DEFLATE.fileType) ? DEFLATE : NONE;
+    }
+}
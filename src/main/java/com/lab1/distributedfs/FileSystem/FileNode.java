@@ -1,5 +1,7 @@
 package com.lab1.distributedfs.FileSystem;
 
+import com.lab1.distributedfs.Const;
+
 import java.io.File;
 import java.io.Serial;
 import java.io.Serializable;
@@ -15,9 +17,19 @@ public class FileNode implements Serializable {
     private final long fileSize;
     private final List<BlockNode> blockList;
     private final FileFormat fileFormat; // Variable to hold the file format
+    private final Compression compression;  // How new blocks of the file are stored (null for files of older fsimages)
+    private final StoragePolicy storagePolicy;  // How the blocks of the file are made durable (null for files of older fsimages)
+    private final int blockSize;            // Max. size of the blocks of the file (0 for the default one, e.g. older fsimages)
+    private final TierPolicy tierPolicy;    // Storage tier the blocks of the file are written to (null for files of older fsimages)
 
     // New constructor that extracts filename from path
     public FileNode(String path, List<BlockNode> blockList) {
+        this(path, blockList, null, null, 0, null);
+    }
+
+    // Compression null picks the one of the file format, storage policy null replicates, block size 0 is the default one,
+    // tier policy null writes to disk
+    public FileNode(String path, List<BlockNode> blockList, Compression compression, StoragePolicy storagePolicy, int blockSize, TierPolicy tierPolicy) {
         this.path = path;
         // Extract the filename from the path
         this.filename = new File(path).getName();
@@ -27,6 +39,10 @@ public class FileNode implements Serializable {
         this.fileSize = tempSize;
         this.blockList = blockList;
         this.fileFormat = FileFormat.fromExtension(filename); // Extract file format based on the filename
+        this.compression = compression != null ? compression : Compression.forFormat(this.fileFormat);
+        this.storagePolicy = storagePolicy != null ? storagePolicy : StoragePolicy.REPLICATED;
+        this.blockSize = blockSize;
+        this.tierPolicy = tierPolicy != null ? tierPolicy : TierPolicy.DISK;
     }
 
     public String getPath() {
@@ -50,6 +66,24 @@ public class FileNode implements Serializable {
         return fileFormat; // Getter to access the file format
     }
 
+    // Files from before compression existed keep their blocks uncompressed
+    public Compression getCompression() {
+        return compression == null ? Compression.NONE : compression;
+    }
+
+    public StoragePolicy getStoragePolicy() {
+        return storagePolicy == null ? StoragePolicy.REPLICATED : storagePolicy;
+    }
+
+    // Only the last block of a file is shorter (or one that was appended to before the file grew)
+    public int getBlockSize() {
+        return blockSize > 0 ? blockSize : Const.BLOCK_SIZE;
+    }
+
+    public TierPolicy getTierPolicy() {
+        return tierPolicy == null ? TierPolicy.DISK : tierPolicy;
+    }
+
     @Override
     public String toString() {
         return "FileNode{" +
@@ -58,6 +92,10 @@ public class FileNode implements Serializable {
                 ", fileSize=" + fileSize +
                 ", blockCount=" + blockList.size() +
                 ", fileFormat=" + fileFormat +  // Include file format in toString
+                ", compression=" + getCompression() +
+                ", storagePolicy=" + getStoragePolicy() +
+                ", blockSize=" + getBlockSize() +
+                ", tierPolicy=" + getTierPolicy() +
                 '}';
     }
 }
\ No newline at end of file
@@ -0,0 +1,21 @@
+package com.lab1.distributedfs.FileSystem;
+
+import com.lab1.distributedfs.Const;
+
+/**
+ * How the blocks of a file are made durable.
+ * <ul>
+ *     <li>REPLICATED - Every block is stored {@link Const#REPLICATION_FACTOR} times (on as many DataNodes)</li>
+ *     <li>EC - Every block is a group of {@link Const#EC_DATA_CELLS} data and {@link Const#EC_PARITY_CELLS} parity cells
+ *     (Reed-Solomon, see {@link com.lab1.distributedfs.Storage.ReedSolomon}), each one on another DataNode</li>
+ * </ul>
+ */
+public enum StoragePolicy {
+    REPLICATED,
+    EC;
+
+    // DataNodes a block of the policy is spread over
+    public int getWidth() {
+        return this == EC ? Const.EC_DATA_CELLS + Const.EC_PARITY_CELLS : Const.REPLICATION_FACTOR;
+    }
+}
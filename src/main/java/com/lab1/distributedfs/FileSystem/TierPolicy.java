@@ -0,0 +1,19 @@
+package com.lab1.distributedfs.FileSystem;
+
+import com.lab1.distributedfs.Const;
+
+/**
+ * Which storage tier the blocks of a file are written to on the DataNodes (see {@link com.lab1.distributedfs.Storage.TieredBlockStore}).
+ * <ul>
+ *     <li>DISK - Written to disk, acknowledged once they are durable</li>
+ *     <li>LAZY_PERSIST - Written to the RAM tier, and flushed to disk in the background once they have not been written
+ *     to for {@link Const#LAZY_PERSIST_DELAY} ms (what was not flushed yet is lost if a DataNode crashes)</li>
+ *     <li>TRANSIENT - Only kept in the RAM tier, never written to disk (scratch files, lost when a DataNode stops)</li>
+ * </ul>
+ * The blocks go to disk after all if the RAM tier of a DataNode is full.
+ */
+public enum TierPolicy {
+    DISK,
+    LAZY_PERSIST,
+    TRANSIENT
+}
@@ -1,8 +1,13 @@
 package com.lab1.distributedfs;
 
-import java.io.File;
-import java.io.FileInputStream;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+import com.lab1.distributedfs.IO.Buffer.BufferPool;
+
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -41,47 +46,54 @@ public class Helper {
         return "/" + reconstructedPath;
     }
 
-    // Method to read the file and split it into chunks of 4KB (or whatever that is specified int the constants)
-    // Method to read the file into a byte array
-    public static byte[] readFileIntoByteArray(String filePath) throws IOException {
-        File file = new File(filePath);
-        try (FileInputStream fis = new FileInputStream(file)) {
-            byte[] fileData = new byte[(int) file.length()];
-            fis.read(fileData);
-            return fileData;
+    /**
+     * Parses a size given in bytes, or with a unit (e.g. "512", "4K", "64M", "1G", also "64MB").
+     * @throws NumberFormatException If it is not a size (or does not fit an int)
+     */
+    public static int parseSize(String size) {
+        String value = size.trim().toUpperCase();
+        if (value.endsWith("B")) { value = value.substring(0, value.length() - 1); }
+        long unit = 1;
+        if (!value.isEmpty() && "KMG".indexOf(value.charAt(value.length() - 1)) >= 0) {
+            unit = (long) Math.pow(Const.BYTE_SIZE, "KMG".indexOf(value.charAt(value.length() - 1)) + 1);
+            value = value.substring(0, value.length() - 1);
         }
+        try { return Math.toIntExact(Math.multiplyExact(Long.parseLong(value), unit)); }
+        catch (ArithmeticException e) { throw new NumberFormatException("size too large: " + size); }
     }
 
-    // Method to split the byte array into chunks
-    public static List<byte[]> splitFileIntoChunks(byte[] fileData) {
-        List<byte[]> chunks = new ArrayList<>();
-        int chunkSize = Const.BLOCK_SIZE;
-        int totalChunks = (int) Math.ceil((double) fileData.length / chunkSize);
+    // Method to read the file into a (direct) buffer, so that its data can be sliced into blocks without copying
+    public static BlockBuffer readFileIntoBuffer(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            return readFileIntoBuffer(channel, 0, (int) channel.size());
+        }
+    }
 
-        for (int i = 0; i < totalChunks; i++) {
-            int start = i * chunkSize;
-            int end = Math.min(start + chunkSize, fileData.length);
+    // Same as above, but only reads part of the file (e.g. to process a large file one window at a time)
+    public static BlockBuffer readFileIntoBuffer(FileChannel channel, long position, int length) throws IOException {
+        BlockBuffer buffer = BufferPool.DIRECT.allocate(length);
+        ByteBuffer target = buffer.nioBuffer();
+        while (target.hasRemaining() && channel.read(target, position + target.position()) >= 0) { continue; }
+        return buffer;
+    }
 
-            byte[] chunk = Arrays.copyOfRange(fileData, start, end);
-            chunks.add(chunk);
-        }
-        return chunks;
+    // Method to split the data into chunks of 4KB (or whatever that is specified int the constants)
+    public static List<BlockBuffer> splitDataIntoChunks(BlockBuffer data) {
+        return splitDataIntoChunks(data, Const.BLOCK_SIZE);
     }
 
-    public static List<byte[]> splitDataIntoChunks(byte[] data) {
-        List<byte[]> chunks = new ArrayList<>();
-        int dataLength = data.length;
-        int chunkSize = Const.BLOCK_SIZE; // Assuming BLOCK_SIZE is the chunk size (e.g., 4KB)
+    // Same as above, with the block size of a file (the last chunk is the only shorter one)
+    // Every chunk is a zero-copy slice of the data, release each of them once they are no longer needed
+    public static List<BlockBuffer> splitDataIntoChunks(BlockBuffer data, int chunkSize) {
+        List<BlockBuffer> chunks = new ArrayList<>();
+        int dataLength = data.length();
 
         // Process the data in chunks
         for (int i = 0; i < dataLength; i += chunkSize) {
             // Calculate the remaining bytes to read
             int remaining = dataLength - i;
             int currentChunkSize = Math.min(chunkSize, remaining);
-
-            byte[] chunk = new byte[currentChunkSize];
-            System.arraycopy(data, i, chunk, 0, currentChunkSize);
-            chunks.add(chunk);
+            chunks.add(data.slice(i, currentChunkSize));
         }
 
         return chunks;
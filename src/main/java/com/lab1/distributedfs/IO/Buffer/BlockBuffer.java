@@ -0,0 +1,138 @@
+package com.lab1.distributedfs.IO.Buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <h1>BlockBuffer</h1>
+ *
+ * <p>
+ *  A reference-counted view over a {@link ByteBuffer}, used to carry block data between the nodes without copying it.
+ *  Slices of a buffer share the memory (and the reference count) of the buffer they were cut from,
+ *  once the last reference is released the memory is handed back to the {@link BufferPool} it came from.
+ * </p>
+ *
+ * <p>
+ *  Ownership rules:
+ *  <ul>
+ *      <li>Whoever allocates, slices or retains a buffer owns one reference and must {@link #release()} it exactly once</li>
+ *      <li>Sending a buffer inside a request/response hands that reference over to the receiver (the consumer releases it)</li>
+ *      <li>A buffer that is never released is simply garbage collected, it only misses the chance of being reused</li>
+ *  </ul>
+ * </p>
+ */
+public class BlockBuffer {
+    private final ByteBuffer buffer;            // View of this handle (position 0, limit = length)
+    private final Memory memory;                // Shared by every slice of the same allocation
+
+    private BlockBuffer(ByteBuffer buffer, Memory memory) {
+        this.buffer = buffer;
+        this.memory = memory;
+    }
+
+    // Allocation from a pool (or unpooled if pool is null)
+    static BlockBuffer allocate(ByteBuffer memory, BufferPool pool, int length) {
+        return new BlockBuffer(memory.slice(0, length), new Memory(memory, pool));
+    }
+
+    // Wraps existing data without copying it (unpooled)
+    public static BlockBuffer wrap(byte[] data) {
+        return allocate(ByteBuffer.wrap(data), null, data.length);
+    }
+
+    public static BlockBuffer wrap(ByteBuffer data) {
+        return allocate(data.slice(), null, data.remaining());
+    }
+
+    /**
+     * Zero-copy slice of this buffer, the slice holds its own reference (release it separately).
+     */
+    public BlockBuffer slice(int offset, int length) {
+        this.memory.retain();
+        return new BlockBuffer(this.buffer.slice(offset, length), this.memory);
+    }
+
+    /**
+     * Slice of a buffer that may be released concurrently (e.g. a block that leaves a cache).
+     * @return The slice (with its own reference), or null if the buffer was already released
+     */
+    public BlockBuffer trySlice(int offset, int length) {
+        if (!this.memory.tryRetain()) { return null; }
+        return new BlockBuffer(this.buffer.slice(offset, length), this.memory);
+    }
+
+    /**
+     * Adds one more reference to this buffer (e.g. one per replica that the same data is sent to).
+     */
+    public BlockBuffer retain() {
+        this.memory.retain();
+        return this;
+    }
+
+    public void release() {
+        this.memory.release();
+    }
+
+    /**
+     * @return Independent NIO view of the data (own position/limit), the data itself is shared
+     */
+    public ByteBuffer nioBuffer() {
+        return this.buffer.duplicate();
+    }
+
+    public int length() {
+        return this.buffer.limit();
+    }
+
+    public boolean isDirect() {
+        return this.buffer.isDirect();
+    }
+
+    // E.g. a slice of a mapped block file
+    public boolean isReadOnly() {
+        return this.buffer.isReadOnly();
+    }
+
+    public int refCount() {
+        return this.memory.refCount.get();
+    }
+
+    // Copies the data out of the buffer (only for when a byte[] is really needed)
+    public byte[] getBytes() {
+        byte[] bytes = new byte[this.length()];
+        this.nioBuffer().get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BlockBuffer[length=%d, direct=%b]", this.length(), this.isDirect());
+    }
+
+    private static class Memory {
+        private final ByteBuffer memory;
+        private final BufferPool pool;
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        private Memory(ByteBuffer memory, BufferPool pool) {
+            this.memory = memory;
+            this.pool = pool;
+        }
+
+        private void retain() {
+            if (!this.tryRetain()) {
+                throw new IllegalStateException("buffer has already been released");
+            }
+        }
+
+        private boolean tryRetain() {
+            return this.refCount.getAndUpdate(count -> count > 0 ? count + 1 : count) > 0;
+        }
+
+        private void release() {
+            int count = this.refCount.decrementAndGet();
+            if (count < 0) { throw new IllegalStateException("buffer has already been released"); }
+            if (count == 0 && this.pool != null) { this.pool.recycle(this.memory); }
+        }
+    }
+}
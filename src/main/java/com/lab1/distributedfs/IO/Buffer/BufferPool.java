@@ -0,0 +1,97 @@
+package com.lab1.distributedfs.IO.Buffer;
+
+import com.lab1.distributedfs.Const;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>BufferPool</h1>
+ *
+ * <p>
+ *  Pool of block-sized buffers, so that block data (writes, reads) does not allocate a new <code>byte[]</code> per request.
+ *  Requests up to the chunk size (a block) are served from the pool, anything larger is allocated unpooled.
+ *  There are two variants, {@link #HEAP} and {@link #DIRECT} (off-heap, not touched by the garbage collector at all).
+ * </p>
+ */
+public class BufferPool {
+    // A chunk holds a whole block, or a packet of a large block that is streamed (see Const#STREAM_PACKET_SIZE)
+    public static final BufferPool HEAP = new BufferPool(false, Const.BUFFER_CHUNK_SIZE, Const.BUFFER_POOL_CAPACITY);
+    public static final BufferPool DIRECT = new BufferPool(true, Const.BUFFER_CHUNK_SIZE, Const.BUFFER_POOL_CAPACITY);
+
+    private final boolean direct;
+    private final int chunkSize;
+    private final int capacity;                 // Max. number of idle chunks kept around
+    private final int alignment;                // Memory address alignment of the buffers (0 = any), e.g. for direct I/O
+    private final Queue<ByteBuffer> freeChunks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger freeCount = new AtomicInteger(0);
+
+    // Statistics
+    private final AtomicLong allocations = new AtomicLong(0);
+    private final AtomicLong reuses = new AtomicLong(0);
+
+    public BufferPool(boolean direct, int chunkSize, int capacity) {
+        this(direct, chunkSize, capacity, 0);
+    }
+
+    public BufferPool(boolean direct, int chunkSize, int capacity, int alignment) {
+        this.direct = direct || alignment > 0;
+        this.chunkSize = chunkSize;
+        this.capacity = capacity;
+        this.alignment = alignment;
+    }
+
+    public BlockBuffer allocate(int size) {
+        if (size > this.chunkSize) {
+            // Too large to be pooled
+            this.allocations.incrementAndGet();
+            return BlockBuffer.allocate(this.newBuffer(size), null, size);
+        }
+
+        ByteBuffer chunk = this.freeChunks.poll();
+        if (chunk == null) {
+            this.allocations.incrementAndGet();
+            chunk = this.newBuffer(this.chunkSize);
+        } else {
+            this.freeCount.decrementAndGet();
+            this.reuses.incrementAndGet();
+            chunk.clear();
+        }
+        return BlockBuffer.allocate(chunk, this, size);
+    }
+
+    void recycle(ByteBuffer chunk) {
+        if (chunk.capacity() != this.chunkSize) { return; }
+        if (this.freeCount.incrementAndGet() > this.capacity) {
+            // The pool is full, let the GC take care of it
+            this.freeCount.decrementAndGet();
+            return;
+        }
+        this.freeChunks.add(chunk);
+    }
+
+    private ByteBuffer newBuffer(int size) {
+        if (this.alignment > 0) { return allocateAligned(size, this.alignment); }
+        return this.direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    // Direct buffer whose memory address is aligned (and whose capacity is exactly the size)
+    public static ByteBuffer allocateAligned(int size, int alignment) {
+        return ByteBuffer.allocateDirect(size + alignment).alignedSlice(alignment).limit(size).slice();
+    }
+
+    public long getAllocations() {
+        return allocations.get();
+    }
+
+    public long getReuses() {
+        return reuses.get();
+    }
+
+    public int getFreeCount() {
+        return freeCount.get();
+    }
+}
@@ -1,6 +1,9 @@
 package com.lab1.distributedfs.IO.Client;
 
+import com.lab1.distributedfs.FileSystem.Compression;
 import com.lab1.distributedfs.FileSystem.FileNode;
+import com.lab1.distributedfs.FileSystem.StoragePolicy;
+import com.lab1.distributedfs.FileSystem.TierPolicy;
 
 import java.util.ArrayList;
 
@@ -10,9 +13,18 @@ public class Open {
     public final FileNode fileNode;
 
     public Open(OpenMode openMode, String path) {
+        this(openMode, path, null, null, 0);
+    }
+
+    public Open(OpenMode openMode, String path, Compression compression, StoragePolicy storagePolicy, int blockSize) {
+        this(openMode, path, compression, storagePolicy, blockSize, null);
+    }
+
+    // Compression, storage policy, block size and tier policy of the file if it is created (null and 0 pick the defaults)
+    public Open(OpenMode openMode, String path, Compression compression, StoragePolicy storagePolicy, int blockSize, TierPolicy tierPolicy) {
         this.openMode = openMode;
         this.path = path;
-        this.fileNode = new FileNode(path, new ArrayList<>());
+        this.fileNode = new FileNode(path, new ArrayList<>(), compression, storagePolicy, blockSize, tierPolicy);
     }
 
     public Open(OpenMode openMode, String path, FileNode fileNode) {
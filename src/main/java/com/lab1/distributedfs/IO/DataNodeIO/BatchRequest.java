@@ -0,0 +1,41 @@
+package com.lab1.distributedfs.IO.DataNodeIO;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Envelope for many block operations that target the same DataNode.
+ * An operation is a {@link WriteRequest} (a write without data is a delete) or a {@link ReadRequest}.
+ */
+public class BatchRequest {
+    private final int nodeID;
+    private final List<Block> operations;
+
+    public BatchRequest(int nodeID) {
+        this.nodeID = nodeID;
+        this.operations = new ArrayList<>();
+    }
+
+    public BatchRequest(int nodeID, List<Block> operations) {
+        this.nodeID = nodeID;
+        this.operations = operations;
+    }
+
+    public void add(Block operation) {
+        if (operation.getNodeID() != this.nodeID) {
+            throw new IllegalArgumentException(String.format("operation for node%s added to batch of node%s", operation.getNodeID(), this.nodeID));
+        }
+        this.operations.add(operation);
+    }
+
+    public int getNodeID() { return nodeID; }
+
+    public List<Block> getOperations() { return operations; }
+
+    public int size() { return operations.size(); }
+
+    @Override
+    public String toString() {
+        return String.format("BatchRequest[nodeID=%d, operations=%d]", nodeID, operations.size());
+    }
+}
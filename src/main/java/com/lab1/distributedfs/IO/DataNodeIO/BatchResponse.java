@@ -0,0 +1,33 @@
+package com.lab1.distributedfs.IO.DataNodeIO;
+
+import com.lab1.distributedfs.Message.Message;
+
+import java.util.List;
+
+/**
+ * Aggregated response to a {@link BatchRequest}: one result per operation, in the same order as the operations.
+ * Every result is the response the operation would have gotten on its own (e.g. WRITE, READ or FAIL).
+ */
+public class BatchResponse {
+    private final int nodeID;
+    private final List<Message<?>> results;
+
+    public BatchResponse(BatchRequest batchRequest, List<Message<?>> results) {
+        this.nodeID = batchRequest.getNodeID();
+        this.results = results;
+    }
+
+    public BatchResponse(int nodeID, List<Message<?>> results) {
+        this.nodeID = nodeID;
+        this.results = results;
+    }
+
+    public int getNodeID() { return nodeID; }
+
+    public List<Message<?>> getResults() { return results; }
+
+    @Override
+    public String toString() {
+        return String.format("BatchResponse[nodeID=%d, results=%d]", nodeID, results.size());
+    }
+}
@@ -1,6 +1,7 @@
 package com.lab1.distributedfs.IO.DataNodeIO;
 
 import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.FileSystem.Compression;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -11,17 +12,25 @@ public class Block {
     private final int replica;
     private final String pathname;
     private final int blockID;          // Basically the index of the data chunk
+    private final Compression compression;      // How the DataNode stores the block
 
     // Regex expression for the naming pattern of blocks within a DataNode
     // File naming format replica{i}_pathname_block{i}.{file extension}
-    public static final Pattern pattern = Pattern.compile("replica(\\d+)_([^_]+)_block(\\d+)" + Const.BLOCK_FILETYPE);
+    public static final Pattern pattern = Pattern.compile(
+        "replica(\\d+)_([^_]+)_block(\\d+)(" + Pattern.quote(Const.BLOCK_FILETYPE) + "|" + Pattern.quote(Const.COMPRESSED_BLOCK_FILETYPE) + ")"
+    );
 
     // Constructor that takes replica, pathname, and blockID
     public Block(int nodeID, int replica, String pathname, int blockID) {
+        this(nodeID, replica, pathname, blockID, Compression.NONE);
+    }
+
+    public Block(int nodeID, int replica, String pathname, int blockID, Compression compression) {
         this.nodeID = nodeID;
         this.replica = replica;
         this.pathname = pathname;
         this.blockID = blockID;
+        this.compression = compression;
     }
 
     // Constructor that extracts replica and blockID from the filename using regex
@@ -36,6 +45,7 @@ public class Block {
             this.replica = Integer.parseInt(matcher.group(1));  // Extract replica number
             this.pathname = matcher.group(2);
             this.blockID = Integer.parseInt(matcher.group(3));  // Extract block number
+            this.compression = Compression.fromBlockName(matcher.group(4));
         } else {
             throw new Exception("invalid filename format (data node block)");
         }
@@ -44,7 +54,7 @@ public class Block {
     public int getNodeID() { return nodeID; }
 
     public String getFilename() {
-        return getBlockName(this.replica, this.pathname, this.blockID).replace("/", "\\") + Const.BLOCK_FILETYPE;
+        return getBlockName(this.replica, this.pathname, this.blockID).replace("/", "\\") + this.compression.getFileType();
     }
 
     public int getReplica() {
@@ -59,6 +69,10 @@ public class Block {
         return blockID;
     }
 
+    public Compression getCompression() {
+        return compression;
+    }
+
     // Static helper function
     static public String getBlockName(int replica, String filename, int block) {
         return String.format("replica%s_%s_block%s", replica, filename, block);
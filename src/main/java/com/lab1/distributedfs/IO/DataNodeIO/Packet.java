@@ -0,0 +1,57 @@
+package com.lab1.distributedfs.IO.DataNodeIO;
+
+import com.lab1.distributedfs.FileSystem.TierPolicy;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+
+import java.util.List;
+
+/**
+ * One packet of a streamed block write: a block that is larger than a packet is sent as a sequence of packets
+ * (at most {@link com.lab1.distributedfs.Const#STREAM_PACKET_SIZE} bytes each), every one of them is acknowledged
+ * with a {@link PacketAck} once the DataNode wrote it. The first packet writes (or appends to) the block,
+ * the following ones append to it.
+ * Streamed reads need no packets of their own, they are a sequence of ranged {@link ReadRequest}s.
+ */
+public class Packet extends WriteRequest {
+    private final long streamID;                // Unique per stream (block transfer)
+    private final int sequence;                 // Index of the packet in its stream, starting at 0
+    private final boolean last;                 // The last packet is only acknowledged once the block is on disk
+
+    // The packets of a pipelined write go down the pipeline of the write they were cut from
+    public Packet(Block block, long streamID, int sequence, boolean last, BlockBuffer data, boolean isAppendBlock) {
+        this(block, streamID, sequence, last, data, isAppendBlock, block instanceof WriteRequest writeRequest ? writeRequest.getPipeline() : List.of());
+    }
+
+    public Packet(Block block, long streamID, int sequence, boolean last, BlockBuffer data, boolean isAppendBlock, List<Integer> pipeline) {
+        this(block, streamID, sequence, last, data, isAppendBlock, pipeline, block instanceof WriteRequest writeRequest ? writeRequest.getBlockSize() : 0);
+    }
+
+    public Packet(Block block, long streamID, int sequence, boolean last, BlockBuffer data, boolean isAppendBlock, List<Integer> pipeline, int blockSize) {
+        this(block, streamID, sequence, last, data, isAppendBlock, pipeline, blockSize, block instanceof WriteRequest writeRequest ? writeRequest.getTierPolicy() : null);
+    }
+
+    public Packet(Block block, long streamID, int sequence, boolean last, BlockBuffer data, boolean isAppendBlock, List<Integer> pipeline, int blockSize, TierPolicy tierPolicy) {
+        super(block, data, isAppendBlock, pipeline, blockSize, tierPolicy);
+        this.streamID = streamID;
+        this.sequence = sequence;
+        this.last = last;
+    }
+
+    public long getStreamID() {
+        return streamID;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+
+    // The next DataNode gets the same packet of the same stream
+    @Override
+    public Packet forward(BlockBuffer data) {
+        return new Packet(super.forward(null), streamID, sequence, last, data, isAppendBlock());
+    }
+}
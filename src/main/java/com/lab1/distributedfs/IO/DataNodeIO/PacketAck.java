@@ -0,0 +1,24 @@
+package com.lab1.distributedfs.IO.DataNodeIO;
+
+public class PacketAck extends WriteResponse {
+    private final long streamID;
+    private final int sequence;
+
+    public PacketAck(Packet packet, int bytesWritten, int storedSize) {
+        this(packet, packet.getStreamID(), packet.getSequence(), bytesWritten, storedSize);
+    }
+
+    public PacketAck(WriteRequest block, long streamID, int sequence, int bytesWritten, int storedSize) {
+        super(block, bytesWritten, storedSize);
+        this.streamID = streamID;
+        this.sequence = sequence;
+    }
+
+    public long getStreamID() {
+        return streamID;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+}
@@ -1,14 +1,61 @@
 package com.lab1.distributedfs.IO.DataNodeIO;
 
+import com.lab1.distributedfs.FileSystem.Compression;
+
 public class ReadRequest extends Block {
+    // Byte range of the block to read (length -1 reads up to the end of the block)
+    private final int offset;
+    private final int length;
+    // Max. size of the block (or cell) that is read, 0 if unknown (only known to the reader, it is not sent)
+    private final int capacity;
+
     // Read from any replica file
     public ReadRequest(int dataNodeID, String filename, int blockID) {
         super(dataNodeID, -1, filename, blockID);
+        this.offset = 0;
+        this.length = -1;
+        this.capacity = 0;
     }
 
     // Read from a specific replica file
     public ReadRequest(int dataNodeID, int replica, String filename, int blockID) {
-        super(dataNodeID, replica, filename, blockID);
+        this(dataNodeID, replica, filename, blockID, 0, -1);
+    }
+
+    // Read part of a specific replica file
+    public ReadRequest(int dataNodeID, int replica, String filename, int blockID, int offset, int length) {
+        this(dataNodeID, replica, filename, blockID, offset, length, Compression.NONE);
     }
-}
 
+    public ReadRequest(int dataNodeID, int replica, String filename, int blockID, int offset, int length, Compression compression) {
+        this(dataNodeID, replica, filename, blockID, offset, length, compression, 0);
+    }
+
+    public ReadRequest(int dataNodeID, int replica, String filename, int blockID, int offset, int length, Compression compression, int capacity) {
+        super(dataNodeID, replica, filename, blockID, compression);
+        this.offset = offset;
+        this.length = length;
+        this.capacity = capacity;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isWholeBlock() {
+        return offset == 0 && length < 0;
+    }
+
+    // Same block, other byte range
+    public ReadRequest range(int offset, int length) {
+        return new ReadRequest(getNodeID(), getReplica(), getPathname(), getBlockID(), offset, length, getCompression(), capacity);
+    }
+}
@@ -1,18 +1,32 @@
 package com.lab1.distributedfs.IO.DataNodeIO;
 
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+
 public class ReadResponse extends ReadRequest {
-    private final byte[] data;
+    private final BlockBuffer data;             // The receiver (client) releases the buffer once it is consumed
+    private final int[] checksums;              // CRC32C per chunk of the data (see Checksums), null if the block has none
+
+    public ReadResponse(ReadRequest readRequest, BlockBuffer data) {
+        this(readRequest, data, null);
+    }
 
-    public ReadResponse(ReadRequest readRequest, byte[] data) {
-        super(readRequest.getNodeID(), readRequest.getReplica(), readRequest.getPathname(), readRequest.getBlockID());
+    public ReadResponse(ReadRequest readRequest, BlockBuffer data, int[] checksums) {
+        // The byte range is the one of the data (e.g. widened to whole checksum chunks), not always the requested one
+        super(readRequest.getNodeID(), readRequest.getReplica(), readRequest.getPathname(), readRequest.getBlockID(),
+            readRequest.getOffset(), data == null ? readRequest.getLength() : data.length(), readRequest.getCompression());
         this.data = data;
+        this.checksums = checksums;
     }
 
-    public byte[] getBytes() {
+    public BlockBuffer getData() {
         return data;
     }
 
+    public int[] getChecksums() {
+        return checksums;
+    }
+
     public int getNumBytes() {
-        return data.length;
+        return data.length();
     }
-}
\ No newline at end of file
+}
@@ -1,29 +1,99 @@
 package com.lab1.distributedfs.IO.DataNodeIO;
 
+import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.FileSystem.Compression;
+import com.lab1.distributedfs.FileSystem.TierPolicy;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+
+import java.util.List;
+
 public class WriteRequest extends Block {
     private final boolean appendBlock;
-    private final byte[] data;
+    private final BlockBuffer data;             // The receiving DataNode releases the buffer once it is persisted
+    private final List<Integer> pipeline;       // DataNodes of the next replicas, each one forwards the write to the next one
+    private final int blockSize;                // Max. size of the block (the block size of its file)
+    private final TierPolicy tierPolicy;        // Storage tier the block is written to (the tier policy of its file)
 
+    // Copies the block attributes only (not the data), e.g. for building the response
     public WriteRequest(WriteRequest writeRequest) {
-        super(writeRequest.getNodeID(), writeRequest.getReplica(), writeRequest.getPathname(), writeRequest.getBlockID());
-        this.data = writeRequest.getData();
-        this.appendBlock = writeRequest.appendBlock;
+        this(writeRequest, null, writeRequest.appendBlock);
     }
 
-    public WriteRequest(int dataNodeID, int replica, String pathname, int blockID, byte[] data) {
-        super(dataNodeID, replica, pathname, blockID);
-        this.data = data;
-        this.appendBlock = false;
+    // Same block (attributes of any block payload, e.g. a decoded one), with this data
+    public WriteRequest(Block block, BlockBuffer data, boolean isAppendBlock) {
+        this(block, data, isAppendBlock, List.of());
+    }
+
+    public WriteRequest(Block block, BlockBuffer data, boolean isAppendBlock, List<Integer> pipeline) {
+        this(block, data, isAppendBlock, pipeline, block instanceof WriteRequest writeRequest ? writeRequest.blockSize : 0);
+    }
+
+    public WriteRequest(Block block, BlockBuffer data, boolean isAppendBlock, List<Integer> pipeline, int blockSize) {
+        this(block, data, isAppendBlock, pipeline, blockSize, block instanceof WriteRequest writeRequest ? writeRequest.tierPolicy : null);
+    }
+
+    public WriteRequest(Block block, BlockBuffer data, boolean isAppendBlock, List<Integer> pipeline, int blockSize, TierPolicy tierPolicy) {
+        this(block.getNodeID(), block.getReplica(), block.getPathname(), block.getBlockID(), data, isAppendBlock, block.getCompression(), pipeline, blockSize, tierPolicy);
+    }
+
+    public WriteRequest(int dataNodeID, int replica, String pathname, int blockID, BlockBuffer data) {
+        this(dataNodeID, replica, pathname, blockID, data, false);
+    }
+
+    public WriteRequest(int dataNodeID, int replica, String pathname, int blockID, BlockBuffer data, boolean isAppendBlock) {
+        this(dataNodeID, replica, pathname, blockID, data, isAppendBlock, Compression.NONE);
+    }
+
+    public WriteRequest(int dataNodeID, int replica, String pathname, int blockID, BlockBuffer data, boolean isAppendBlock, Compression compression) {
+        this(dataNodeID, replica, pathname, blockID, data, isAppendBlock, compression, List.of());
     }
 
-    public WriteRequest(int dataNodeID, int replica, String pathname, int blockID, byte[] data, boolean isAppendBlock) {
-        super(dataNodeID, replica, pathname, blockID);
+    public WriteRequest(int dataNodeID, int replica, String pathname, int blockID, BlockBuffer data, boolean isAppendBlock, Compression compression, List<Integer> pipeline) {
+        this(dataNodeID, replica, pathname, blockID, data, isAppendBlock, compression, pipeline, 0);
+    }
+
+    public WriteRequest(int dataNodeID, int replica, String pathname, int blockID, BlockBuffer data, boolean isAppendBlock, Compression compression, List<Integer> pipeline, int blockSize) {
+        this(dataNodeID, replica, pathname, blockID, data, isAppendBlock, compression, pipeline, blockSize, null);
+    }
+
+    // Block size 0 is the default one (Const.BLOCK_SIZE), tier policy null writes to disk
+    public WriteRequest(int dataNodeID, int replica, String pathname, int blockID, BlockBuffer data, boolean isAppendBlock, Compression compression, List<Integer> pipeline, int blockSize, TierPolicy tierPolicy) {
+        super(dataNodeID, replica, pathname, blockID, compression);
         this.data = data;
         this.appendBlock = isAppendBlock;
+        this.pipeline = List.copyOf(pipeline);
+        this.blockSize = blockSize > 0 ? blockSize : Const.BLOCK_SIZE;
+        this.tierPolicy = tierPolicy != null ? tierPolicy : TierPolicy.DISK;
     }
 
-    public byte[] getData() {
+    public BlockBuffer getData() {
         return data;
     }
     public boolean isAppendBlock() { return this.appendBlock; }
-}
\ No newline at end of file
+
+    public List<Integer> getPipeline() {
+        return pipeline;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public TierPolicy getTierPolicy() {
+        return tierPolicy;
+    }
+
+    public boolean isPipelined() {
+        return !pipeline.isEmpty();
+    }
+
+    /**
+     * @param data Data of the forwarded write (its own reference)
+     * @return The write that the next DataNode of the pipeline gets (the next replica of the same block)
+     */
+    public WriteRequest forward(BlockBuffer data) {
+        return new WriteRequest(
+            pipeline.getFirst(), getReplica() + 1, getPathname(), getBlockID(), data, appendBlock, getCompression(), pipeline.subList(1, pipeline.size()), blockSize, tierPolicy
+        );
+    }
+}
@@ -2,10 +2,16 @@ package com.lab1.distributedfs.IO.DataNodeIO;
 
 public class WriteResponse extends WriteRequest{
     private final int bytesWritten;
+    private final int storedSize;               // Bytes the block takes up on disk after the write (compressed), -1 if unknown
 
     public WriteResponse(WriteRequest writeRequest, int bytesWritten) {
+        this(writeRequest, bytesWritten, -1);
+    }
+
+    public WriteResponse(WriteRequest writeRequest, int bytesWritten, int storedSize) {
         super(writeRequest);
         this.bytesWritten = bytesWritten;
+        this.storedSize = storedSize;
     }
 
     public String getFilename() {
@@ -15,4 +21,8 @@ public class WriteResponse extends WriteRequest{
     public int getNumBytesWritten() {
         return bytesWritten;
     }
+
+    public int getStoredSize() {
+        return storedSize;
+    }
 }
\ No newline at end of file
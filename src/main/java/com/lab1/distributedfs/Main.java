@@ -1,15 +1,84 @@
 package com.lab1.distributedfs;
 
+import com.lab1.distributedfs.Message.MessageAction;
+import com.lab1.distributedfs.Message.MessageType;
+import com.lab1.distributedfs.Message.SocketTransport;
+import com.lab1.distributedfs.Node.DataNode;
+import com.lab1.distributedfs.Node.NameNode;
+import com.lab1.distributedfs.Node.Node;
+
 import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
 
+/**
+ * Usage:
+ * <ul>
+ *     <li><code>Main</code> - Shell with every node running in this JVM (in-process message broker)</li>
+ *     <li><code>Main namenode</code> - Runs only the NameNode (socket transport)</li>
+ *     <li><code>Main datanode &lt;id&gt;</code> - Runs only DataNode &lt;id&gt; (1 to {@link Const#NUM_DATA_NODES}, socket transport)</li>
+ *     <li><code>Main shell</code> - Shell for a cluster that was started with the two commands above</li>
+ * </ul>
+ * Every process must be started from the same working directory (the data directory is relative).
+ */
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            runShell(null);
+            return;
+        }
+
+        switch (args[0]) {
+            case "namenode" -> {
+                SocketTransport transport = clusterTransport();
+                runNode(new NameNode(transport), transport);
+            }
+            case "datanode" -> {
+                int nodeID = args.length > 1 ? Integer.parseInt(args[1]) : -1;
+                if (nodeID < 1 || nodeID > Const.NUM_DATA_NODES) {
+                    System.err.printf("DataNode ID must be between 1 and %s\n", Const.NUM_DATA_NODES);
+                    System.exit(1);
+                }
+                SocketTransport transport = clusterTransport();
+                runNode(new DataNode(nodeID, transport), transport);
+            }
+            case "shell" -> runShell(clusterTransport());
+            default -> {
+                System.err.println("Usage: Main [namenode | datanode <id> | shell]");
+                System.exit(1);
+            }
+        }
+    }
+
+    private static void runShell(SocketTransport transport) {
         Scanner scanner = new Scanner(System.in);
-        Shell shell = new Shell(scanner);
+        Shell shell = new Shell(scanner, transport);
         shell.printWelcome();
         while (shell.run()) {
             continue;
         }
         scanner.close();
     }
+
+    // Runs a single node until it receives EXIT (e.g. when the shell quits)
+    private static void runNode(Node node, SocketTransport transport) throws InterruptedException {
+        CountDownLatch exited = new CountDownLatch(1);
+        node.run();
+        transport.subscribe(node.getNodeID(), message -> {
+            if (message.getMessageType() == MessageType.Request && message.getMessageAction() == MessageAction.EXIT) {
+                exited.countDown();
+            }
+        });
+        exited.await();
+        transport.shutdown();
+        System.exit(0);
+    }
+
+    // Every process knows the (fixed) layout of the cluster, see Const
+    private static SocketTransport clusterTransport() {
+        SocketTransport transport = new SocketTransport(Const.TRANSPORT_BASE_PORT, Const.NUM_NODES);
+        transport.addPeer(Const.NAME_NODE_ID);
+        for (int i = 1; i < Const.NUM_DATA_NODES + 1; i++) { transport.joinGroup(Const.DATANODE_GROUP, i); }
+        transport.addPeer(Const.CLIENT_NODE_ID);
+        return transport;
+    }
 }
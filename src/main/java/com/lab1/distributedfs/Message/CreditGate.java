@@ -0,0 +1,120 @@
+package com.lab1.distributedfs.Message;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <h1>CreditGate</h1>
+ *
+ * <p>
+ *  Credit-based flow control for the requests that are sent to the DataNodes.
+ *  Every DataNode advertises how many bytes and how many requests it accepts to have in flight (see DataNodeStatus),
+ *  a sender takes credit from the budget of the target node before sending and returns it once the request is answered
+ *  (or has timed out). A sender that runs out of credit parks until enough credit is returned, so the data that is
+ *  queued up in memory stays bounded no matter how much data is being written.
+ * </p>
+ *
+ * <p>
+ *  A single request that is larger than the whole byte budget is let through once nothing else is in flight
+ *  (otherwise it could never be sent).
+ * </p>
+ */
+public class CreditGate {
+    private final long defaultBytes;
+    private final int defaultRequests;
+    private final Map<Integer, Account> accounts = new ConcurrentHashMap<>();
+
+    /**
+     * @param defaultBytes Byte budget of a node that has not advertised its own budget (yet)
+     * @param defaultRequests Request budget of a node that has not advertised its own budget (yet)
+     */
+    public CreditGate(long defaultBytes, int defaultRequests) {
+        this.defaultBytes = defaultBytes;
+        this.defaultRequests = defaultRequests;
+    }
+
+    // Updates the budget of a node (credit that is already taken stays taken)
+    public void advertise(int nodeID, long bytes, int requests) {
+        if (bytes <= 0 || requests <= 0) { return; }      // Nothing advertised (e.g. a status that was never filled in)
+        this.account(nodeID).setLimits(bytes, requests);
+    }
+
+    /**
+     * Takes credit for one request, parking the caller until enough credit is available.
+     * @param bytes Data carried by the request (or expected in its response)
+     */
+    public void acquire(int nodeID, long bytes) throws InterruptedException {
+        this.account(nodeID).acquire(bytes);
+    }
+
+    // Returns the credit of a request that was answered (or timed out)
+    public void release(int nodeID, long bytes) {
+        this.account(nodeID).release(bytes);
+    }
+
+    public long getInFlightBytes(int nodeID) {
+        return this.account(nodeID).inFlightBytes;
+    }
+
+    public int getInFlightRequests(int nodeID) {
+        return this.account(nodeID).inFlightRequests;
+    }
+
+    private Account account(int nodeID) {
+        return this.accounts.computeIfAbsent(nodeID, k -> new Account(this.defaultBytes, this.defaultRequests));
+    }
+
+    private static class Account {
+        // ReentrantLock (not synchronized) so that a waiting virtual thread unmounts instead of pinning its carrier
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition creditReturned = lock.newCondition();
+
+        private long limitBytes;
+        private int limitRequests;
+        private volatile long inFlightBytes = 0;
+        private volatile int inFlightRequests = 0;
+
+        Account(long limitBytes, int limitRequests) {
+            this.limitBytes = limitBytes;
+            this.limitRequests = limitRequests;
+        }
+
+        void setLimits(long limitBytes, int limitRequests) {
+            this.lock.lock();
+            try {
+                this.limitBytes = limitBytes;
+                this.limitRequests = limitRequests;
+                this.creditReturned.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        void acquire(long bytes) throws InterruptedException {
+            this.lock.lock();
+            try {
+                while (this.inFlightRequests >= this.limitRequests
+                        || (this.inFlightRequests > 0 && this.inFlightBytes + bytes > this.limitBytes)) {
+                    this.creditReturned.await();
+                }
+                this.inFlightRequests++;
+                this.inFlightBytes += bytes;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        void release(long bytes) {
+            this.lock.lock();
+            try {
+                this.inFlightRequests--;
+                this.inFlightBytes -= bytes;
+                this.creditReturned.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+}
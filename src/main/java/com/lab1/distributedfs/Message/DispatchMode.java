@@ -0,0 +1,9 @@
+package com.lab1.distributedfs.Message;
+
+/**
+ * How the {@link MessageBroker} hands messages over to the subscribed handlers.
+ */
+public enum DispatchMode {
+    POOLED,         // Every handler invocation is submitted as its own task to a shared thread pool (no ordering)
+    MAILBOX         // Every topic owns a bounded queue drained by its own event loop (per-node FIFO ordering)
+}
@@ -0,0 +1,22 @@
+package com.lab1.distributedfs.Message;
+
+/**
+ * Priority lane of a message. Messages of the CONTROL lane are always handled (and sent) before the messages of the
+ * DATA lane that are already waiting, the messages of one lane keep their order.
+ * <ul>
+ *     <li>CONTROL - Heartbeats and status polling (small, and late ones make healthy nodes look dead)</li>
+ *     <li>DATA - Everything else, e.g. block reads/writes and metadata requests</li>
+ * </ul>
+ */
+public enum Lane {
+    CONTROL,
+    DATA;
+
+    public static Lane of(Message<?> message) {
+        // EXIT stays in the DATA lane on purpose: a node should only stop after the work that was queued before it
+        return switch (message.getMessageAction()) {
+            case HEARTBEAT, STAT -> CONTROL;
+            default -> DATA;
+        };
+    }
+}
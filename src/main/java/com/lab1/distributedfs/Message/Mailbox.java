@@ -0,0 +1,152 @@
+package com.lab1.distributedfs.Message;
+
+import com.lab1.distributedfs.ExecutionEngine;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * <h1>Mailbox</h1>
+ *
+ * <p>
+ *  A bounded, single-consumer message queue owned by one subscriber (topic) of the {@link MessageBroker}.
+ *  Every mailbox is drained by its own event loop thread, so the messages of one node are handled strictly
+ *  in the order they were posted (FIFO), and nodes never compete with each other for the same worker threads.
+ * </p>
+ *
+ * <p>
+ *  The event loop drains the queue in batches (up to <code>batchSize</code> messages per wake-up),
+ *  which keeps the cost of waking the thread up low when many messages arrive in a burst.
+ * </p>
+ *
+ * <p>
+ *  Every {@link Lane} has its own bounded queue. The next message is always taken from the CONTROL lane if it has one,
+ *  so a heartbeat never waits behind the block writes that are already queued (only behind the one being handled).
+ * </p>
+ */
+public class Mailbox implements Runnable {
+    private final int topic;
+    private final int batchSize;
+    private final long postTimeout;                         // In terms of milliseconds
+    private final BlockingQueue<Message<?>>[] lanes;
+    private final Semaphore available = new Semaphore(0);   // One permit per queued message (over all the lanes)
+    private final List<Consumer<Message<?>>> handlers = new CopyOnWriteArrayList<>();
+
+    private final Thread eventLoop;
+    private volatile boolean running = true;                // Set to false to stop the loop once the queue is empty
+    private volatile boolean closed = false;                // Set once the event loop has exited
+
+    public Mailbox(int topic, int capacity, int batchSize, long postTimeout, ExecutionEngine executionEngine) {
+        this.topic = topic;
+        this.batchSize = batchSize;
+        this.postTimeout = postTimeout;
+        this.lanes = newLanes(capacity);
+        this.eventLoop = executionEngine.newThread(String.format("mailbox-%s", topic), this);
+    }
+
+    public void start() {
+        this.eventLoop.start();
+    }
+
+    public void addHandler(Consumer<Message<?>> handler) {
+        this.handlers.add(handler);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BlockingQueue<Message<?>>[] newLanes(int capacity) {
+        BlockingQueue<Message<?>>[] lanes = new BlockingQueue[Lane.values().length];
+        for (int i = 0; i < lanes.length; i++) { lanes[i] = new ArrayBlockingQueue<>(capacity); }
+        return lanes;
+    }
+
+    /**
+     * Posts a message into its lane of the mailbox, blocking the sender while that lane is full (backpressure).
+     * @param message The message to deliver
+     * @return False if the message was dropped (mailbox closed, or still full after the post timeout), the sender
+     * still owns it then (see {@link Transport#sendToSubscriber})
+     */
+    public boolean post(Message<?> message) {
+        if (this.closed) { return false; }
+        BlockingQueue<Message<?>> lane = this.lanes[Lane.of(message).ordinal()];
+        try {
+            // A node posting into its own full mailbox would wait on itself, so never block the event loop
+            boolean posted = Thread.currentThread() == this.eventLoop
+                    ? lane.offer(message)
+                    : lane.offer(message, this.postTimeout, TimeUnit.MILLISECONDS);
+            if (posted) {
+                this.available.release();
+                return true;
+            }
+            System.err.printf("Mailbox %s is full, dropping %s\n", this.topic, message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    public int size() {
+        return this.available.availablePermits();
+    }
+
+    // Queue depth of a single lane
+    public int size(Lane lane) {
+        return this.lanes[lane.ordinal()].size();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (this.running || this.available.availablePermits() > 0) {
+                // Wait for the first message, then take whatever else is already pending
+                if (!this.available.tryAcquire(100, TimeUnit.MILLISECONDS)) { continue; }
+                int batch = 1;
+                while (batch < this.batchSize && this.available.tryAcquire()) { batch++; }
+
+                // The lane is picked per message, so a control message that arrives during the batch still goes next
+                for (int i = 0; i < batch; i++) {
+                    this.deliver(this.next());
+                    // A handler interrupting its own thread means that the node has exited (e.g. EXIT request)
+                    if (Thread.currentThread().isInterrupted()) { return; }
+                }
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            this.closed = true;
+            for (BlockingQueue<Message<?>> lane : this.lanes) { lane.clear(); }
+        }
+    }
+
+    // Every permit stands for a message that was already queued, so one of the lanes always has it
+    private Message<?> next() {
+        for (BlockingQueue<Message<?>> lane : this.lanes) {
+            Message<?> message = lane.poll();
+            if (message != null) { return message; }
+        }
+        throw new IllegalStateException("mailbox " + this.topic + " is out of sync");
+    }
+
+    private void deliver(Message<?> message) {
+        for (Consumer<Message<?>> handler : this.handlers) {
+            try {
+                handler.accept(message);
+            } catch (RuntimeException e) {
+                // One bad message should not take down the whole event loop of the node
+                System.err.printf("Mailbox %s failed to handle %s: %s\n", this.topic, message, e);
+            }
+        }
+    }
+
+    /**
+     * Stops the event loop once every message that was already posted has been handled.
+     * @param timeout Max. time to wait for the event loop to finish (in terms of milliseconds)
+     */
+    public void close(long timeout) throws InterruptedException {
+        this.running = false;
+        this.eventLoop.join(timeout);
+    }
+}
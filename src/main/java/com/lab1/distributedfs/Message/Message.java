@@ -1,8 +1,11 @@
 package com.lab1.distributedfs.Message;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Message<T> implements Serializable {
+    private static final AtomicLong nextRequestID = new AtomicLong(1);
+
     /*
     By default, node 0 should be the main node (name server),
     any node above 0 would be a data node, and -1 means "any" node.
@@ -10,14 +13,21 @@ public class Message<T> implements Serializable {
     private int srcNodeID;
     private final MessageType messageType;      // Request / response
     private final MessageAction messageAction;    // The type of response (e.g., ACK, NACK, SUCCESS, FAILURE, etc.)
+    private final long requestID;               // Unique per request, a response carries the ID of its request
 
     private T data;                             // Data related to the request
 
     public Message(int srcNodeID, MessageType messageType, MessageAction messageAction, T data) {
+        // Every new request gets a new ID, responses should use the constructor below
+        this(srcNodeID, messageType, messageAction, data, messageType == MessageType.Request ? nextRequestID.getAndIncrement() : 0);
+    }
+
+    public Message(int srcNodeID, MessageType messageType, MessageAction messageAction, T data, long requestID) {
         this.srcNodeID = srcNodeID;
         this.messageType = messageType;
         this.messageAction = messageAction;
         this.data = data;
+        this.requestID = requestID;
     }
 
     public int getSrcNodeID() {
@@ -34,6 +44,8 @@ public class Message<T> implements Serializable {
 
     public MessageAction getMessageAction() { return messageAction; }
 
+    public long getRequestID() { return requestID; }
+
     public T getData() {
         return data;
     }
@@ -45,7 +57,8 @@ public class Message<T> implements Serializable {
     @Override
     public String toString() {
         return  "Message{" +
-                "messageType=" + messageType +
+                "requestID=" + requestID +
+                ", messageType=" + messageType +
                 ", responseType=" + messageAction +
                 ", data=" + data +
                 '}';
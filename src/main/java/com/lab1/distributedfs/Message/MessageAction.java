@@ -15,8 +15,14 @@ public enum MessageAction {
     READ,           // On read success returns the BlockNode wrapped inside the IO component
     WRITE,          // On write success returns the BlockNode wrapped inside the IO component
 
+    BATCH,          // Many READ/WRITE operations for the same data node in one envelope (payload is a BatchRequest),
+                    // answered with a single BatchResponse that holds one result per operation
+    PACKET,         // One packet of a streamed block write (payload is a Packet), answered with PACKET (a PacketAck) once written
+
     STAT,
 
+    CORRUPT,        // DataNode -> NameNode: a replica failed its checksums (payload is the ReadRequest of the replica)
+
     // FS tree operations
     // FIND operation usually results in FOUND or NOTFOUND, FAIL is only thrown if there is an internal error
     FIND,
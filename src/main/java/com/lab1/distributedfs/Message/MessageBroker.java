@@ -1,45 +1,172 @@
 package com.lab1.distributedfs.Message;
 
+import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.ExecutionEngine;
+
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
 
-public class MessageBroker {
-    // Maps subscriber identifiers to their corresponding message handlers
+/**
+ * In-process {@link Transport}: every node runs in this JVM and messages are handed over by reference
+ * (either to a shared worker pool or to the mailbox of the receiving node, see {@link DispatchMode}).
+ */
+public class MessageBroker implements Transport {
+    private final DispatchMode dispatchMode;
+    private final ExecutionEngine executionEngine;
+
+    // [POOLED] Maps subscriber identifiers to their corresponding message handlers
     private final Map<Integer, List<Consumer<Message<?>>>> subscribers = new ConcurrentHashMap<>();
     private final ExecutorService executorService;
+    // [POOLED] Messages waiting for a worker, one queue per lane (a worker always takes a CONTROL message first)
+    private final BlockingQueue<Runnable>[] pooledLanes = newLanes();
+
+    // [MAILBOX] Maps subscriber identifiers to their own mailbox (queue + event loop)
+    private final Map<Integer, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    // Named groups of subscribers (e.g. all the DataNodes), for multicasting to only part of the subscribers
+    private final Map<String, Set<Integer>> groups = new ConcurrentHashMap<>();
 
     public MessageBroker(int numberOfThreads) {
-        this.executorService = Executors.newFixedThreadPool(numberOfThreads);
+        this(numberOfThreads, Const.BROKER_DISPATCH_MODE, Const.EXECUTION_ENGINE);
+    }
+
+    public MessageBroker(int numberOfThreads, DispatchMode dispatchMode) {
+        this(numberOfThreads, dispatchMode, Const.EXECUTION_ENGINE);
+    }
+
+    public MessageBroker(int numberOfThreads, DispatchMode dispatchMode, ExecutionEngine executionEngine) {
+        this.dispatchMode = dispatchMode;
+        this.executionEngine = executionEngine;
+        this.executorService = dispatchMode == DispatchMode.POOLED
+                ? executionEngine.newPool("broker", numberOfThreads)
+                : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BlockingQueue<Runnable>[] newLanes() {
+        BlockingQueue<Runnable>[] lanes = new BlockingQueue[Lane.values().length];
+        for (int i = 0; i < lanes.length; i++) { lanes[i] = new LinkedBlockingQueue<>(); }
+        return lanes;
+    }
+
+    public DispatchMode getDispatchMode() {
+        return dispatchMode;
+    }
+
+    @Override
+    public ExecutionEngine getExecutionEngine() {
+        return executionEngine;
     }
 
     // Method to subscribe a consumer (worker) to a particular topic
+    @Override
     public void subscribe(int topic, Consumer<Message<?>> handler) {
+        if (this.dispatchMode == DispatchMode.MAILBOX) {
+            this.mailboxes.computeIfAbsent(topic, k -> {
+                Mailbox mailbox = new Mailbox(
+                        k, Const.MAILBOX_CAPACITY, Const.MAILBOX_BATCH_SIZE, Const.WORKER_TIMEOUT, this.executionEngine
+                );
+                mailbox.start();
+                return mailbox;
+            }).addHandler(handler);
+            return;
+        }
         subscribers.computeIfAbsent(topic, k -> new ArrayList<>()).add(handler);
     }
 
+    // Method to subscribe a consumer to a particular topic and add the topic to a group
+    @Override
+    public void subscribe(int topic, String group, Consumer<Message<?>> handler) {
+        this.subscribe(topic, handler);
+        this.joinGroup(group, topic);
+    }
+
+    @Override
+    public void joinGroup(String group, int topic) {
+        this.groups.computeIfAbsent(group, k -> ConcurrentHashMap.newKeySet()).add(topic);
+    }
+
+    @Override
+    public void leaveGroup(String group, int topic) {
+        Set<Integer> members = this.groups.get(group);
+        if (members != null) { members.remove(topic); }
+    }
+
     // Method to send a message to a specific subscriber
-    public void sendToSubscriber(int topic, Message<?> message) {
+    @Override
+    public boolean sendToSubscriber(int topic, Message<?> message) {
+        if (this.dispatchMode == DispatchMode.MAILBOX) {
+            Mailbox mailbox = this.mailboxes.get(topic);
+            return mailbox != null && mailbox.post(message);
+        }
         List<Consumer<Message<?>>> handlers = subscribers.get(topic);
-        if (handlers != null) {
-            for (Consumer<Message<?>> handler : handlers) {
-                executorService.submit(() -> handler.accept(message));
-            }
+        if (handlers == null) { return false; }
+        for (Consumer<Message<?>> handler : handlers) { this.submit(handler, message); }
+        return true;
+    }
+
+    // Method to send a message to every subscriber of a group (and only to them)
+    @Override
+    public void multicast(String group, Message<?> message) {
+        Set<Integer> members = this.groups.get(group);
+        if (members != null) {
+            for (int topic : members) { this.sendToSubscriber(topic, message); }
         }
     }
 
     // Method to broadcast a message to all subscribers
+    @Override
     public void broadcast(Message<?> message) {
+        if (this.dispatchMode == DispatchMode.MAILBOX) {
+            this.mailboxes.values().forEach(mailbox -> mailbox.post(message));
+            return;
+        }
         subscribers.values().forEach(handlers -> {
-            for (Consumer<Message<?>> handler : handlers) {
-                executorService.submit(() -> handler.accept(message));
-            }
+            for (Consumer<Message<?>> handler : handlers) { this.submit(handler, message); }
         });
     }
 
-    // Shutdown the executor service when done
+    /**
+     * Number of messages waiting to be handled in a lane (for a topic in mailbox mode,
+     * for all the topics together in pooled mode since they share the same workers).
+     */
+    @Override
+    public int getQueueDepth(int topic, Lane lane) {
+        if (this.dispatchMode == DispatchMode.MAILBOX) {
+            Mailbox mailbox = this.mailboxes.get(topic);
+            return mailbox == null ? 0 : mailbox.size(lane);
+        }
+        return this.pooledLanes[lane.ordinal()].size();
+    }
+
+    // [POOLED] Queues the message in its lane, the worker that picks up the task takes the most urgent message at that time
+    private void submit(Consumer<Message<?>> handler, Message<?> message) {
+        this.pooledLanes[Lane.of(message).ordinal()].add(() -> handler.accept(message));
+        executorService.execute(this::runNext);
+    }
+
+    private void runNext() {
+        for (BlockingQueue<Runnable> lane : this.pooledLanes) {
+            Runnable task = lane.poll();
+            if (task == null) { continue; }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Message handler failed: " + e);
+            }
+            return;
+        }
+    }
+
+    // Shutdown the executor service (or the mailbox event loops) when done
+    @Override
     public void shutdown() {
         try {
+            if (this.dispatchMode == DispatchMode.MAILBOX) {
+                for (Mailbox mailbox : this.mailboxes.values()) { mailbox.close(5000); }
+                return;
+            }
             executorService.shutdown();
             assert executorService.awaitTermination(5, TimeUnit.SECONDS);
             assert executorService.isTerminated();
@@ -48,4 +175,3 @@ public class MessageBroker {
         }
     }
 }
-
@@ -0,0 +1,80 @@
+package com.lab1.distributedfs.Message;
+
+import com.lab1.distributedfs.Const;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <h1>RpcClient</h1>
+ *
+ * <p>
+ *  Correlates responses with the requests that caused them.
+ *  Every request message carries a unique request ID (see {@link Message#getRequestID()}), which is copied into its response.
+ *  Registering a request returns a {@link CompletableFuture} that is completed by the response with the same ID,
+ *  so any number of requests can be in flight at the same time and a late reply can never be mistaken for the reply of another request.
+ * </p>
+ *
+ * <p>
+ *  A request that is not answered in time is completed with a {@link MessageAction#TIMEOUT} response by the {@link TimerWheel},
+ *  a reply that arrives after that is simply dropped.
+ * </p>
+ */
+public class RpcClient {
+    private final Map<Long, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+    private final TimerWheel timerWheel;
+
+    public RpcClient() {
+        this.timerWheel = new TimerWheel(Const.RPC_TICK_DURATION, Const.RPC_WHEEL_SIZE, Const.EXECUTION_ENGINE);
+    }
+
+    public CompletableFuture<Message<?>> register(Message<?> request) {
+        return this.register(request, Const.WORKER_TIMEOUT);
+    }
+
+    /**
+     * Starts tracking a request, this must be done BEFORE the request is sent (otherwise the response might arrive first).
+     * @param request The request message
+     * @param timeout Time to wait for the response (in terms of milliseconds)
+     * @return Future that completes with the response (or a TIMEOUT response)
+     */
+    public CompletableFuture<Message<?>> register(Message<?> request, long timeout) {
+        long requestID = request.getRequestID();
+        CompletableFuture<Message<?>> future = new CompletableFuture<>();
+        // The task must not hold on to the request (its block data would stay reachable until the timeout is due)
+        MessageAction messageAction = request.getMessageAction();
+        TimerWheel.Timeout expiry = this.timerWheel.schedule(() -> {
+            PendingRequest pendingRequest = this.pendingRequests.remove(requestID);
+            if (pendingRequest != null) {
+                String errorMessage = String.format("request %s (%s) timed out", requestID, messageAction);
+                pendingRequest.future.complete(
+                        new Message<>(-1, MessageType.Response, MessageAction.TIMEOUT, errorMessage, requestID)
+                );
+            }
+        }, timeout);
+        this.pendingRequests.put(requestID, new PendingRequest(future, expiry));
+        return future;
+    }
+
+    /**
+     * Completes the request the response belongs to.
+     * @return False if no request is waiting for the response (unknown, already answered or timed out)
+     */
+    public boolean complete(Message<?> response) {
+        PendingRequest pendingRequest = this.pendingRequests.remove(response.getRequestID());
+        if (pendingRequest == null) { return false; }
+        pendingRequest.expiry.cancel();
+        return pendingRequest.future.complete(response);
+    }
+
+    public int getPendingCount() {
+        return this.pendingRequests.size();
+    }
+
+    public void shutdown() {
+        this.timerWheel.shutdown();
+    }
+
+    private record PendingRequest(CompletableFuture<Message<?>> future, TimerWheel.Timeout expiry) {}
+}
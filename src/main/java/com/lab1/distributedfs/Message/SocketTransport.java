@@ -0,0 +1,486 @@
+package com.lab1.distributedfs.Message;
+
+import com.lab1.distributedfs.Codec.MessageCodec;
+import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.ExecutionEngine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * <h1>SocketTransport</h1>
+ *
+ * <p>
+ *  {@link Transport} for running the nodes as separate processes on the same machine.
+ *  Every topic (node ID) listens on its own TCP port on the loopback interface (<code>basePort + topic</code>),
+ *  so no registry is needed to find a node, only the layout of the cluster (which topics exist, see {@link #addPeer}).
+ * </p>
+ *
+ * <ul>
+ *     <li>Messages for a topic of this process go straight to an internal {@link MessageBroker} (no encoding)</li>
+ *     <li>Messages for any other topic are encoded with the {@link MessageCodec} and written as a frame
+ *     (4 byte length + encoded message) on a connection to that topic, which is opened on the first send</li>
+ *     <li>A single selector thread accepts connections, reads the incoming frames and flushes the outgoing ones,
+ *     senders never block on the network (frames are queued per connection)</li>
+ *     <li>The decoded messages of an incoming connection are handed to the local topic by a thread of that connection,
+ *     so a full mailbox only stalls its own connection (which stops being read), never the selector</li>
+ * </ul>
+ *
+ * <p>
+ *  Connections are one-way (a reply travels over the connection to the port of the requester).
+ *  The block data of a message that is sent to another process is released once it is encoded,
+ *  the receiving process decodes it into its own pooled buffers. Block data of at least
+ *  {@link Const#ZERO_COPY_THRESHOLD} bytes is not copied into the frame: the frame is written with a gathering write
+ *  straight from the data (e.g. a mapped block file), which is only released once the frame was written.
+ * </p>
+ */
+public class SocketTransport implements Transport {
+    private static final int FRAME_HEADER = Integer.BYTES;
+    private static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_UNDELIVERED = 256;          // Messages of an incoming connection that wait for delivery, before reading stops
+
+    private final int basePort;
+    private final MessageBroker localBroker;                 // Delivers the messages of the topics in this process
+    private final Selector selector;
+    private final Thread selectorThread;
+    private volatile boolean running = true;
+
+    private final Map<Integer, ServerSocketChannel> listeners = new ConcurrentHashMap<>();
+    private final Map<Integer, Connection> connections = new ConcurrentHashMap<>();
+    private final Set<Integer> peers = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<Integer>> groups = new ConcurrentHashMap<>();
+    private final Set<Integer> unreachable = ConcurrentHashMap.newKeySet();     // Only log a failed connect once
+
+    // Work handed to the selector thread (registering channels, enabling OP_WRITE)
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+
+    // The codec is not thread-safe, every sending thread encodes with its own instance
+    private final ThreadLocal<MessageCodec> encoders = ThreadLocal.withInitial(MessageCodec::new);
+    private final MessageCodec decoder = new MessageCodec();            // Only used by the selector thread
+
+    public SocketTransport(int basePort, int numberOfThreads) {
+        this(basePort, numberOfThreads, Const.BROKER_DISPATCH_MODE, Const.EXECUTION_ENGINE);
+    }
+
+    public SocketTransport(int basePort, int numberOfThreads, DispatchMode dispatchMode, ExecutionEngine executionEngine) {
+        this.basePort = basePort;
+        this.localBroker = new MessageBroker(numberOfThreads, dispatchMode, executionEngine);
+        try {
+            this.selector = Selector.open();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // select() is a blocking system call, so it gets an OS thread of its own regardless of the execution engine
+        this.selectorThread = ExecutionEngine.PLATFORM.newThread("transport-selector", this::selectLoop);
+        this.selectorThread.start();
+    }
+
+    public int getPort(int topic) {
+        return this.basePort + topic;
+    }
+
+    // Makes a topic of another process known to this transport (for broadcasts)
+    public void addPeer(int topic) {
+        this.peers.add(topic);
+    }
+
+    @Override
+    public int getQueueDepth(int topic, Lane lane) {
+        return this.localBroker.getQueueDepth(topic, lane);
+    }
+
+    @Override
+    public ExecutionEngine getExecutionEngine() {
+        return this.localBroker.getExecutionEngine();
+    }
+
+    // ================================================== SUBSCRIBE ====================================================
+
+    @Override
+    public void subscribe(int topic, Consumer<Message<?>> handler) {
+        this.listeners.computeIfAbsent(topic, this::listen);
+        this.peers.add(topic);
+        this.localBroker.subscribe(topic, handler);
+    }
+
+    @Override
+    public void subscribe(int topic, String group, Consumer<Message<?>> handler) {
+        this.subscribe(topic, handler);
+        this.joinGroup(group, topic);
+    }
+
+    // Group membership is only addressing, so topics of other processes can join a group as well
+    @Override
+    public void joinGroup(String group, int topic) {
+        this.groups.computeIfAbsent(group, k -> ConcurrentHashMap.newKeySet()).add(topic);
+        this.peers.add(topic);
+    }
+
+    @Override
+    public void leaveGroup(String group, int topic) {
+        Set<Integer> members = this.groups.get(group);
+        if (members != null) { members.remove(topic); }
+    }
+
+    private ServerSocketChannel listen(int topic) {
+        try {
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.getPort(topic)));
+            serverChannel.configureBlocking(false);
+            this.runOnSelector(() -> {
+                try {
+                    serverChannel.register(this.selector, SelectionKey.OP_ACCEPT, topic);
+                } catch (ClosedChannelException e) {
+                    System.err.printf("Transport failed to listen for topic %s: %s\n", topic, e);
+                }
+            });
+            return serverChannel;
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("failed to listen on port %s (topic %s)", this.getPort(topic), topic), e);
+        }
+    }
+
+    // ==================================================== SEND =======================================================
+
+    @Override
+    public boolean sendToSubscriber(int topic, Message<?> message) {
+        if (this.listeners.containsKey(topic)) { return this.localBroker.sendToSubscriber(topic, message); }
+        return this.sendRemote(topic, message);
+    }
+
+    // False if the topic can not be reached (the data of the message is not released then)
+    private boolean sendRemote(int topic, Message<?> message) {
+        Connection connection = this.connect(topic);
+        if (connection == null) { return false; }
+        connection.enqueue(this.encode(message), Lane.of(message));
+        return true;
+    }
+
+    @Override
+    public void multicast(String group, Message<?> message) {
+        Set<Integer> members = this.groups.get(group);
+        if (members != null) { this.sendToAll(List.copyOf(members), message); }
+    }
+
+    @Override
+    public void broadcast(Message<?> message) {
+        this.sendToAll(List.copyOf(this.peers), message);
+    }
+
+    /**
+     * Every topic of another process releases the data of the message once it was encoded (or written), so each of
+     * them takes a reference of its own before anything is sent. The local topics share the reference of the sender
+     * (like on the in-process broker), which is released here if there is no local topic.
+     */
+    private void sendToAll(List<Integer> topics, Message<?> message) {
+        List<Integer> remote = topics.stream().filter(topic -> !this.listeners.containsKey(topic)).toList();
+        for (int i = 0; i < remote.size(); i++) { MessageCodec.retainData(message); }
+        for (int topic : topics) {
+            if (remote.contains(topic)) {
+                if (!this.sendRemote(topic, message)) { MessageCodec.releaseData(message); }
+            }
+            else { this.localBroker.sendToSubscriber(topic, message); }
+        }
+        if (remote.size() == topics.size()) { MessageCodec.releaseData(message); }
+    }
+
+    private Frame encode(Message<?> message) {
+        int threshold = Const.ZERO_COPY_THRESHOLD > 0 ? Const.ZERO_COPY_THRESHOLD : Integer.MAX_VALUE;
+        ByteBuffer[] encoded = this.encoders.get().encodeParts(message, threshold);
+        ByteBuffer[] parts = new ByteBuffer[encoded.length + 1];
+        System.arraycopy(encoded, 0, parts, 1, encoded.length);
+        parts[0] = ByteBuffer.allocate(FRAME_HEADER).putInt(Arrays.stream(encoded).mapToInt(ByteBuffer::remaining).sum()).flip();
+        if (encoded.length > 1) { return new Frame(parts, message); }
+
+        // The data was copied into the frame, the receiving process works on its own copy
+        MessageCodec.releaseData(message);
+        return new Frame(parts, null);
+    }
+
+    private Connection connect(int topic) {
+        Connection connection = this.connections.get(topic);
+        if (connection != null) { return connection; }
+
+        synchronized (this.connections) {
+            connection = this.connections.get(topic);
+            if (connection != null) { return connection; }
+            try {
+                // Connecting over loopback either succeeds or is refused right away, so this is done by the sender
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.getPort(topic)));
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.configureBlocking(false);
+                Connection newConnection = new Connection(topic, channel);
+                this.connections.put(topic, newConnection);
+                this.unreachable.remove(topic);
+                this.runOnSelector(() -> newConnection.register(SelectionKey.OP_READ));
+                return newConnection;
+            } catch (IOException e) {
+                // e.g. the node is not (yet) running, the message is dropped like any other undeliverable message
+                if (this.unreachable.add(topic)) {
+                    System.err.printf("Transport cannot reach topic %s (port %s): %s\n", topic, this.getPort(topic), e.getMessage());
+                }
+                return null;
+            }
+        }
+    }
+
+    private void runOnSelector(Runnable task) {
+        this.selectorTasks.add(task);
+        this.selector.wakeup();
+    }
+
+    // ================================================== SELECTOR =====================================================
+
+    private void selectLoop() {
+        while (this.running) {
+            try {
+                this.selector.select();
+                Runnable task;
+                while ((task = this.selectorTasks.poll()) != null) { task.run(); }
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    this.handleKey(key);
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (this.running) { System.err.println("Transport selector failed: " + e); }
+                return;
+            }
+        }
+    }
+
+    private void handleKey(SelectionKey key) {
+        try {
+            if (!key.isValid()) { return; }
+            if (key.isAcceptable()) {
+                this.accept(key);
+            } else if (key.attachment() instanceof Inbound inbound) {
+                if (key.isReadable()) { inbound.read(); }
+            } else if (key.attachment() instanceof Connection connection) {
+                if (key.isReadable()) { connection.checkClosed(); }
+                if (key.isValid() && key.isWritable()) { connection.flush(); }
+            }
+        } catch (IOException | RuntimeException e) {
+            // A broken connection only affects its own messages (a new one is opened on the next send)
+            if (key.attachment() instanceof Connection connection) { connection.close(e); }
+            else {
+                key.cancel();
+                try { key.channel().close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private void accept(SelectionKey key) throws IOException {
+        SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+        if (channel == null) { return; }
+        channel.configureBlocking(false);
+        Inbound inbound = new Inbound((Integer) key.attachment(), channel);
+        inbound.key = channel.register(this.selector, SelectionKey.OP_READ, inbound);
+        this.getExecutionEngine().newThread("transport-inbound-" + inbound.topic, inbound::deliver).start();
+    }
+
+    @Override
+    public void shutdown() {
+        // Give the frames that are still queued (e.g. a broadcast EXIT) a chance to go out
+        long deadline = System.currentTimeMillis() + Const.WORKER_TIMEOUT;
+        while (this.connections.values().stream().anyMatch(Connection::hasPending)
+                && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        this.localBroker.shutdown();
+        this.running = false;
+        this.selector.wakeup();
+        try {
+            this.selectorThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            for (SelectionKey key : this.selector.keys()) { key.channel().close(); }
+            this.selector.close();
+        } catch (IOException e) {
+            System.err.println("Transport failed to close: " + e);
+        }
+    }
+
+    // ================================================= CONNECTIONS ===================================================
+
+    /**
+     * Incoming frames for one local topic. The selector decodes them, the delivery thread of the connection hands them
+     * to the topic in order (blocking while its mailbox is full), and the selector stops reading the connection while
+     * {@link #MAX_UNDELIVERED} messages wait for that (until half of them are delivered).
+     */
+    private class Inbound {
+        private final int topic;
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final BlockingQueue<Message<?>> undelivered = new LinkedBlockingQueue<>();
+        private volatile boolean paused = false;
+
+        Inbound(int topic, SocketChannel channel) {
+            this.topic = topic;
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            if (this.channel.read(this.buffer) < 0) { throw new ClosedChannelException(); }
+            this.buffer.flip();
+            while (this.buffer.remaining() >= FRAME_HEADER) {
+                int frameSize = this.buffer.getInt(this.buffer.position());
+                if (frameSize < 0 || frameSize > MAX_FRAME_SIZE) { throw new IOException("invalid frame size " + frameSize); }
+                if (this.buffer.remaining() < FRAME_HEADER + frameSize) { break; }
+
+                this.buffer.position(this.buffer.position() + FRAME_HEADER);
+                ByteBuffer frame = this.buffer.slice(this.buffer.position(), frameSize);
+                this.buffer.position(this.buffer.position() + frameSize);
+                this.undelivered.add(decoder.decode(frame));
+            }
+            this.buffer.compact();
+            if (this.undelivered.size() >= MAX_UNDELIVERED) {
+                this.paused = true;
+                this.key.interestOps(0);
+            }
+
+            // Make room for a frame that does not fit into the buffer yet
+            if (this.buffer.position() >= FRAME_HEADER) {
+                int needed = FRAME_HEADER + this.buffer.getInt(0);
+                if (needed > this.buffer.capacity() && needed <= FRAME_HEADER + MAX_FRAME_SIZE) {
+                    ByteBuffer grown = ByteBuffer.allocate(needed);
+                    grown.put(this.buffer.flip());
+                    this.buffer = grown;
+                }
+            }
+        }
+
+        // Runs on the delivery thread of the connection, until the connection is closed and every message is delivered
+        void deliver() {
+            try {
+                while (this.channel.isOpen() || !this.undelivered.isEmpty()) {
+                    if (this.paused && this.undelivered.size() <= MAX_UNDELIVERED / 2) {
+                        this.paused = false;
+                        runOnSelector(this::resume);
+                    }
+                    Message<?> message = this.undelivered.poll(100, TimeUnit.MILLISECONDS);
+                    if (message != null && !localBroker.sendToSubscriber(this.topic, message)) { MessageCodec.releaseData(message); }
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }
+
+        private void resume() {
+            if (this.key.isValid()) { this.key.interestOps(SelectionKey.OP_READ); }
+        }
+    }
+
+    // Parts of a frame (length first), and the message whose data some of the parts are (null if it was copied)
+    private record Frame(ByteBuffer[] parts, Message<?> message) {
+        // A gathering write can stop in any part (e.g. in the data, the part after it is empty if the data comes last)
+        boolean hasRemaining() {
+            for (ByteBuffer part : this.parts) {
+                if (part.hasRemaining()) { return true; }
+            }
+            return false;
+        }
+
+        void release() {
+            if (this.message != null) { MessageCodec.releaseData(this.message); }
+        }
+    }
+
+    // Outgoing frames for one topic of another process, queued per lane (CONTROL frames go out first)
+    private class Connection {
+        private final int topic;
+        private final SocketChannel channel;
+        private final List<Queue<Frame>> pending = Arrays.stream(Lane.values())
+                .<Queue<Frame>>map(lane -> new ConcurrentLinkedQueue<>()).toList();
+        private volatile Frame current;             // Frame that is partially written (has to be finished first)
+        private SelectionKey key;
+
+        Connection(int topic, SocketChannel channel) {
+            this.topic = topic;
+            this.channel = channel;
+        }
+
+        void register(int interestOps) {
+            try {
+                this.key = this.channel.register(selector, interestOps, this);
+                if (this.hasPending()) { this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE); }
+            } catch (ClosedChannelException e) {
+                this.close(e);
+            }
+        }
+
+        boolean hasPending() {
+            return this.current != null || this.pending.stream().anyMatch(lane -> !lane.isEmpty());
+        }
+
+        void enqueue(Frame frame, Lane lane) {
+            this.pending.get(lane.ordinal()).add(frame);
+            runOnSelector(() -> {
+                if (this.key != null && this.key.isValid()) { this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE); }
+            });
+        }
+
+        void flush() throws IOException {
+            while (this.current != null || (this.current = this.nextFrame()) != null) {
+                this.channel.write(this.current.parts);
+                if (this.current.hasRemaining()) { return; }    // Socket buffer is full, continue on the next OP_WRITE
+                this.current.release();
+                this.current = null;
+            }
+            this.key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private Frame nextFrame() {
+            for (Queue<Frame> lane : this.pending) {
+                Frame frame = lane.poll();
+                if (frame != null) { return frame; }
+            }
+            return null;
+        }
+
+        // Nothing is ever sent back on an outgoing connection, so a readable channel means that it was closed
+        void checkClosed() throws IOException {
+            if (this.channel.read(ByteBuffer.allocate(1)) < 0) { throw new ClosedChannelException(); }
+        }
+
+        void close(Exception cause) {
+            connections.remove(this.topic, this);
+            if (this.key != null) { this.key.cancel(); }
+            try { this.channel.close(); } catch (IOException ignored) {}
+            if (this.hasPending()) {
+                System.err.printf("Transport lost connection to topic %s, dropping the queued messages: %s\n", this.topic, cause);
+            }
+            if (this.current != null) {
+                this.current.release();
+                this.current = null;
+            }
+            for (Queue<Frame> lane : this.pending) {
+                for (Frame frame; (frame = lane.poll()) != null; ) { frame.release(); }
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.lab1.distributedfs.Message;
+
+import com.lab1.distributedfs.ExecutionEngine;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>TimerWheel</h1>
+ *
+ * <p>
+ *  A hashed timer wheel for the request timeouts of the RPC layer.
+ *  Scheduling and cancelling a timeout are O(1), and a single ticker thread expires all the timeouts,
+ *  instead of every request blocking its own thread in a timed <code>poll</code>.
+ * </p>
+ *
+ * <p>
+ *  The wheel has <code>wheelSize</code> buckets, each covering <code>tickDuration</code> milliseconds.
+ *  A timeout further away than one revolution of the wheel waits for the required number of extra rounds.
+ *  Timeouts fire with a precision of one tick, which is plenty for request timeouts.
+ * </p>
+ */
+public class TimerWheel {
+    private final long tickDuration;                        // In terms of milliseconds
+    private final List<List<Timeout>> wheel;
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final Thread ticker;
+    private volatile boolean running = true;
+    private long tick = 0;                                  // Only accessed by the ticker thread
+
+    public TimerWheel(long tickDuration, int wheelSize, ExecutionEngine executionEngine) {
+        this.tickDuration = tickDuration;
+        this.wheel = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) { this.wheel.add(new ArrayList<>()); }
+        this.ticker = executionEngine.newThread("timer-wheel", this::run);
+        this.ticker.start();
+    }
+
+    /**
+     * Schedules a task to run (on the ticker thread, so keep it short) after the given delay.
+     * @param task The task to run once the timeout expires
+     * @param delay Delay in terms of milliseconds
+     * @return Handle that can be used to cancel the timeout
+     */
+    public Timeout schedule(Runnable task, long delay) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay));
+        this.pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    public void shutdown() {
+        this.running = false;
+        this.ticker.interrupt();
+    }
+
+    private void run() {
+        long startTime = System.nanoTime();
+        while (this.running) {
+            // Sleep until the start of the next tick
+            long deadline = startTime + TimeUnit.MILLISECONDS.toNanos((this.tick + 1) * this.tickDuration);
+            long sleepTime = deadline - System.nanoTime();
+            if (sleepTime > 0) {
+                try { TimeUnit.NANOSECONDS.sleep(sleepTime); }
+                catch (InterruptedException e) { return; }
+            }
+
+            this.transferPendingTimeouts(startTime);
+            this.expireTimeouts(this.wheel.get((int) (this.tick % this.wheel.size())));
+            this.tick++;
+        }
+    }
+
+    private void transferPendingTimeouts(long startTime) {
+        Timeout timeout;
+        while ((timeout = this.pendingTimeouts.poll()) != null) {
+            if (timeout.cancelled) { continue; }
+            long ticks = Math.max(
+                    TimeUnit.NANOSECONDS.toMillis(timeout.deadline - startTime) / this.tickDuration,
+                    this.tick                                   // Already overdue, expire on the current tick
+            );
+            timeout.remainingRounds = (ticks - this.tick) / this.wheel.size();
+            this.wheel.get((int) (ticks % this.wheel.size())).add(timeout);
+        }
+    }
+
+    private void expireTimeouts(List<Timeout> bucket) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.cancelled) {
+                iterator.remove();
+            } else if (timeout.remainingRounds <= 0) {
+                iterator.remove();
+                Runnable task = timeout.task;
+                if (task == null) { continue; }             // Cancelled in the meantime
+                try { task.run(); }
+                catch (RuntimeException e) { System.err.println("Timer task failed: " + e); }
+            } else {
+                timeout.remainingRounds--;
+            }
+        }
+    }
+
+    public static class Timeout {
+        private volatile Runnable task;                     // Dropped on cancel (the timeout stays in its bucket until then)
+        private final long deadline;                        // System.nanoTime() based
+        private long remainingRounds;
+        private volatile boolean cancelled = false;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public void cancel() {
+            this.cancelled = true;
+            this.task = null;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.lab1.distributedfs.Message;
+
+import com.lab1.distributedfs.ExecutionEngine;
+
+import java.util.function.Consumer;
+
+/**
+ * <h1>Transport</h1>
+ *
+ * <p>
+ *  Delivers messages between the nodes, every node is addressed by its node ID (topic).
+ *  The nodes only talk to each other through this interface, so the same node code runs on:
+ * </p>
+ * <ul>
+ *     <li>{@link MessageBroker} - Every node lives in the same JVM, messages are handed over by reference</li>
+ *     <li>{@link SocketTransport} - Nodes live in separate processes, messages are encoded and sent over TCP (localhost)</li>
+ * </ul>
+ */
+public interface Transport {
+    // Registers a handler for the messages sent to a topic (node ID) that lives in this process
+    void subscribe(int topic, Consumer<Message<?>> handler);
+
+    // Same as above, and adds the topic to a group
+    void subscribe(int topic, String group, Consumer<Message<?>> handler);
+
+    void joinGroup(String group, int topic);
+
+    void leaveGroup(String group, int topic);
+
+    /**
+     * @return False if the message could not be delivered (e.g. the topic is unknown or unreachable, or its mailbox
+     * stayed full), the data of the message is not released then (the sender still owns it, e.g. to answer with FAIL)
+     */
+    boolean sendToSubscriber(int topic, Message<?> message);
+
+    // Sends a message to every member of a group (and only to them)
+    void multicast(String group, Message<?> message);
+
+    // Sends a message to every known topic
+    void broadcast(Message<?> message);
+
+    // Number of messages for a topic of this process that are waiting to be handled in a lane
+    int getQueueDepth(int topic, Lane lane);
+
+    // Kind of threads that the nodes using this transport should run on
+    ExecutionEngine getExecutionEngine();
+
+    void shutdown();
+}
@@ -1,14 +1,17 @@
 package com.lab1.distributedfs.Node;
 
+import com.lab1.distributedfs.Codec.MessageCodec;
 import com.lab1.distributedfs.FileSystem.FileNode;
 import com.lab1.distributedfs.Helper;
 import com.lab1.distributedfs.IO.Client.Open;
 import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.IO.DataNodeIO.BatchRequest;
 import com.lab1.distributedfs.IO.DataNodeIO.Block;
 import com.lab1.distributedfs.Message.*;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 
 /**
@@ -26,58 +29,56 @@ import java.util.concurrent.*;
  */
 public class Client implements Runnable {
     private final BlockingQueue<Message<?>> requestQueue;
-    private final BlockingQueue<Message<?>> responseQueue;
+    private final RpcClient rpcClient;                       // Responses are matched with the waiting request
+    private final CreditGate creditGate;                     // Updated with the budgets the DataNodes advertise
 
     // Threading
     private final ExecutorService executorService;
     // Communication
-    public final MessageBroker messageBroker;
+    public final Transport transport;
+    private final boolean embedded;                          // Whether the NameNode & DataNodes run inside this client
     // Thread-safe hashmap to track "opened files" and also implement a locking mechanism
     private final ConcurrentHashMap<String, Open> busyPaths;
     private final List<String> recentBusyPath;
 
     private int nodeID;
 
-    public Client(BlockingQueue<Message<?>> requestQueue, BlockingQueue<Message<?>> responseQueue) {
+    public Client(BlockingQueue<Message<?>> requestQueue, RpcClient rpcClient, CreditGate creditGate) {
+        // Every node runs in this JVM and talks over the in-process message broker
+        this(requestQueue, rpcClient, creditGate, new MessageBroker(Const.NUM_NODES), true);
+    }
+
+    /**
+     * @param transport Transport to reach the other nodes with
+     * @param embedded True to start the NameNode and the DataNodes on this transport,
+     *                 false if they run elsewhere (e.g. as separate processes, see {@link SocketTransport})
+     */
+    public Client(BlockingQueue<Message<?>> requestQueue, RpcClient rpcClient, CreditGate creditGate, Transport transport, boolean embedded) {
         // Bidirectional communication with the main thread
         this.requestQueue = requestQueue;
-        this.responseQueue = responseQueue;
+        this.rpcClient = rpcClient;
+        this.creditGate = creditGate;
         // Initialize the thread pool
-        this.executorService = Executors.newFixedThreadPool(Const.NUM_NODES - 1);
+        this.executorService = Const.EXECUTION_ENGINE.newPool("client", Const.NUM_NODES - 1);
         // Communication
-        this.messageBroker = new MessageBroker(Const.NUM_NODES);
+        this.transport = transport;
+        this.embedded = embedded;
         this.busyPaths = new ConcurrentHashMap<>();
         this.recentBusyPath = new ArrayList<>();
     }
 
     @Override
     public void run() {
-        // Initialize the NameNode worker
-        NameNode nameNode = new NameNode(messageBroker);
-        executorService.execute(nameNode);
-
-        // Initialize the DataNode workers
-        for (int i = 1; i < Const.NUM_DATA_NODES + 1; i++) {
-            DataNode dataNode;
-            try {
-                dataNode = new DataNode(i, this.messageBroker);
-            } catch (Exception e) {
-                System.err.println("FATAL error while initializing data node, node's data directory might be damaged or corrupt?");
-                System.err.println(e.getMessage());
-                throw new RuntimeException(e);
-            }
-            executorService.execute(dataNode);
-        }
+        if (this.embedded) { this.startNodes(); }
 
         this.nodeID = Const.CLIENT_NODE_ID;
 
         // Subscribe to the message broker and begin handling requests
         // Communication between threads (NameNode, DataNodes, & Client)
-        this.messageBroker.subscribe(this.nodeID, message -> {
+        this.transport.subscribe(this.nodeID, message -> {
             // Handle message
             if (message != null && message.getMessageType() == MessageType.Response) {
-                try { this.handleResponse(message); }
-                catch (InterruptedException e) { throw new RuntimeException(e); }
+                this.handleResponse(message);
             }
         });
 
@@ -91,19 +92,47 @@ public class Client implements Runnable {
         }
     }
 
-    private void handleResponse(Message<?> message) throws InterruptedException {
+    private void startNodes() {
+        // Initialize the NameNode worker
+        NameNode nameNode = new NameNode(transport);
+        executorService.execute(nameNode);
+
+        // Initialize the DataNode workers
+        for (int i = 1; i < Const.NUM_DATA_NODES + 1; i++) {
+            DataNode dataNode;
+            try {
+                dataNode = new DataNode(i, this.transport);
+            } catch (Exception e) {
+                System.err.println("FATAL error while initializing data node, node's data directory might be damaged or corrupt?");
+                System.err.println(e.getMessage());
+                throw new RuntimeException(e);
+            }
+            executorService.execute(dataNode);
+        }
+    }
+
+    private void handleResponse(Message<?> message) {
         // Handle the responses from the message broker (response)
         if (message.getMessageType() != MessageType.Response) return;
         assert message.getMessageType() == MessageType.Response;
 
         switch (message.getMessageAction()) {
-            case WRITE, READ, LSFS, FILE, STAT, ADD, DELETE, FAIL -> responseQueue.put(message);
+            case WRITE, READ, PACKET, BATCH, LSFS, FILE, ADD, DELETE, FAIL -> rpcClient.complete(message);
+            case STAT -> {
+                // The status of every DataNode carries the flow control budget it currently advertises
+                if (message.getData() instanceof Map<?, ?> statuses) {
+                    for (Object status : statuses.values()) {
+                        if (status instanceof DataNodeStatus s) { creditGate.advertise(s.nodeId, s.creditBytes, s.creditRequests); }
+                    }
+                }
+                rpcClient.complete(message);
+            }
             case HEARTBEAT -> {}    // So far there are no logic that handles heartbeat responses in the client node
-            default -> sendResponse(MessageAction.FAIL, "unexpected response");
+            default -> sendResponse(message, MessageAction.FAIL, "unexpected response");
         }
     }
 
-    public void handleCommand(Message<?> message) throws InterruptedException {
+    public void handleCommand(Message<?> message) {
         // Handles commands from the main thread (exclusive requests)
         if (message.getMessageType() != MessageType.Request) return;
         assert message.getMessageType() == MessageType.Request;
@@ -112,42 +141,45 @@ public class Client implements Runnable {
         message.setSrcNodeID(this.nodeID);
         switch (message.getMessageAction()) {
             // Simply forward the FIND message to the name node
-            case LSFS, ADD, STAT -> this.messageBroker.sendToSubscriber(Const.NAME_NODE_ID, message);
+            case LSFS, ADD, STAT -> this.forward(Const.NAME_NODE_ID, message);
             case FIND -> {
                 // If the path for find operation is empty then use the most recent opened file (if there is)
                 String path = (String) message.getData();
                 path = (path.isEmpty() && (this.recentBusyPath != null)) ? this.recentBusyPath.getLast() : path;
                 if (path.isEmpty()) {
-                    sendResponse(MessageAction.FAIL, "path is empty");
+                    sendResponse(message, MessageAction.FAIL, "path is empty");
                     return;
                 }
                 if (busyPaths.containsKey(path)) {
-                    sendResponse(MessageAction.FILE, busyPaths.get(path).fileNode);
-                } else { this.messageBroker.sendToSubscriber(Const.NAME_NODE_ID, message); }
+                    sendResponse(message, MessageAction.FILE, busyPaths.get(path).fileNode);
+                } else { this.forward(Const.NAME_NODE_ID, message); }
             }
             case DELETE -> {
                 // Ensure the file to delete is not busy.
                 if (busyPaths.containsKey((String) message.getData())) {
-                    sendResponse(MessageAction.FAIL, "file is busy");
-                } else { this.messageBroker.sendToSubscriber(Const.NAME_NODE_ID, message); }
+                    sendResponse(message, MessageAction.FAIL, "file is busy");
+                } else { this.forward(Const.NAME_NODE_ID, message); }
             }
             // Handle open & close commands
             case OPEN -> this.handleOpenFile(message);
             case CLOSE -> this.handleCloseFile(message);
             // Data Node commands should be passed directly
-            case WRITE, READ -> {
-                if (message.getData() instanceof Block blk) this.messageBroker.sendToSubscriber(blk.getNodeID(), message);
+            case WRITE, READ, PACKET -> {
+                if (message.getData() instanceof Block blk) this.forward(blk.getNodeID(), message);
+            }
+            case BATCH -> {
+                if (message.getData() instanceof BatchRequest batch) this.forward(batch.getNodeID(), message);
             }
             // Termination
             case EXIT -> this.shutdown();
         }
     }
 
-    private void handleOpenFile(Message<?> message) throws InterruptedException {
+    private void handleOpenFile(Message<?> message) {
         if (message.getData() instanceof Open open) {
             if (Helper.getPathParts(open.path).length == 0) {
                 if (this.recentBusyPath.isEmpty()) {
-                    sendResponse(MessageAction.FAIL, "no file opened");
+                    sendResponse(message, MessageAction.FAIL, "no file opened");
                     return;
                 }
                 open = busyPaths.get(this.recentBusyPath.getLast());
@@ -156,16 +188,16 @@ public class Client implements Runnable {
                 recentBusyPath.add(open.path);
             }
             open = busyPaths.get(open.path);
-            sendResponse(MessageAction.OPEN, open);
+            sendResponse(message, MessageAction.OPEN, open);
         }
-        else sendResponse(MessageAction.FAIL, "failed to open file");
+        else sendResponse(message, MessageAction.FAIL, "failed to open file");
     }
 
-    private void handleCloseFile(Message<?> message) throws InterruptedException {
+    private void handleCloseFile(Message<?> message) {
         String path = (String) message.getData();
 
         if (busyPaths.isEmpty()) {
-            sendResponse(MessageAction.FAIL, "no files opened");
+            sendResponse(message, MessageAction.FAIL, "no files opened");
             return;
         }
         try {
@@ -180,17 +212,24 @@ public class Client implements Runnable {
 
             FileNode fileNode = open.fileNode;
             if (fileNode == null) {
-                sendResponse(MessageAction.FAIL, "fileNode is null for file");
+                sendResponse(message, MessageAction.FAIL, "fileNode is null for file");
                 return;
             }
-            sendResponse(MessageAction.CLOSE, open);
+            sendResponse(message, MessageAction.CLOSE, open);
             return;
         } catch (NullPointerException ignored) {}
-        sendResponse(MessageAction.FAIL, "file not found");
+        sendResponse(message, MessageAction.FAIL, "file not found");
+    }
+
+    // A request that the target node did not take (e.g. its mailbox stayed full) fails right away instead of timing out
+    private void forward(int target, Message<?> request) {
+        if (this.transport.sendToSubscriber(target, request)) { return; }
+        MessageCodec.releaseData(request);
+        sendResponse(request, MessageAction.FAIL, String.format("node %s did not take the request", target));
     }
 
-    private<T> void sendResponse(MessageAction messageAction, T data) throws InterruptedException {
-        responseQueue.put(new Message<>(this.nodeID, MessageType.Response, messageAction, data));
+    private<T> void sendResponse(Message<?> request, MessageAction messageAction, T data) {
+        rpcClient.complete(new Message<>(this.nodeID, MessageType.Response, messageAction, data, request.getRequestID()));
     }
 
     /**
@@ -202,7 +241,7 @@ public class Client implements Runnable {
      */
     public void shutdown() {
         // Interrupt all worker threads to stop them
-        messageBroker.broadcast(new Message<>(this.nodeID, MessageType.Request, MessageAction.EXIT, null));
+        transport.broadcast(new Message<>(this.nodeID, MessageType.Request, MessageAction.EXIT, null));
         // Shutdown all threads
         executorService.shutdown();
         try {
@@ -211,7 +250,7 @@ public class Client implements Runnable {
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
-        messageBroker.shutdown();
+        transport.shutdown();
         Thread.currentThread().interrupt();
     }
 }
@@ -1,19 +1,32 @@
 package com.lab1.distributedfs.Node;
 
+import com.lab1.distributedfs.Codec.MessageCodec;
 import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.FileSystem.Compression;
+import com.lab1.distributedfs.FileSystem.TierPolicy;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
 import com.lab1.distributedfs.IO.DataNodeIO.*;
 import com.lab1.distributedfs.Message.*;
+import com.lab1.distributedfs.Storage.BlockCache;
+import com.lab1.distributedfs.Storage.BlockCompressor;
+import com.lab1.distributedfs.Storage.BlockScrubber;
+import com.lab1.distributedfs.Storage.BlockStore;
+import com.lab1.distributedfs.Storage.Checksums;
+import com.lab1.distributedfs.Storage.GroupCommitter;
+import com.lab1.distributedfs.Storage.StorageTier;
+import com.lab1.distributedfs.Storage.StripedLock;
+import com.lab1.distributedfs.Storage.TieredBlockStore;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
+import java.io.UncheckedIOException;
 import java.util.*;
-import java.nio.file.Paths;
-import java.nio.file.Path;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.nio.file.Paths;
 
 /**
  * <h1>DataNode</h1>
@@ -31,46 +44,95 @@ import java.util.concurrent.atomic.AtomicLong;
  *     <li>Heartbeat</li>
  *     <li>Exit (stop the current thread)</li>
  * </ul>
+ *
+ * <p>
+ *  The blocks are kept by a {@link BlockStore} ({@link Const#STORAGE_ENGINE}: one file per block, or memory-mapped segments).
+ *  Recently read blocks are kept in a {@link BlockCache}, so repeated reads of hot blocks do not go to disk.
+ *  Large reads are read-only slices of the mapped block (no copy), which go out to the client as they are.
+ *  The store is tiered ({@link TieredBlockStore}): blocks of lazy-persist and transient files are written to RAM (and
+ *  acknowledged without an fsync), blocks that are read often are promoted to RAM, idle ones go back to disk.
+ *  Writes are acknowledged once they are durable, the fsyncs are shared between writes by a {@link GroupCommitter}
+ *  (the acknowledgements go out from a pool of this DataNode, so that a slow receiver never holds up the next commit).
+ *  Every block is stored with CRC32C checksums ({@link Checksums}) that reads verify, a {@link BlockScrubber} verifies
+ *  the cold blocks in the background, and corrupt replicas are reported to the NameNode (CORRUPT).
+ *  Large blocks are written as a stream of packets (PACKET), each packet is written as soon as its turn comes while
+ *  the next ones are still on their way (packets that overtook an earlier one wait for it), only the last one waits
+ *  for the group commit.
+ *  Messages can be handled concurrently (e.g. {@link DispatchMode#POOLED}), so the writes of a block take turns on a
+ *  {@link StripedLock} (the size check and the write are one step), while writes of other blocks run in parallel.
+ *  Blocks of compressed files ({@link Compression}) are deflated here on the way in and inflated on the way out
+ *  ({@link BlockCompressor}), size checks, ranged reads and the checksums the client gets are about the logical data.
+ *  A ranged read only inflates the frames that cover the range (e.g. a block that is streamed to a reader packet by packet).
+ *  Writes are replicated down a pipeline: the client sends a block to the DataNode of its first replica only, which
+ *  writes it and forwards it to the DataNode of the next replica (and so on), a write is acknowledged once this
+ *  DataNode committed it and the rest of the pipeline acknowledged it.
+ *  All the disk I/O is done on the thread that handles the message,
+ *  with {@link com.lab1.distributedfs.ExecutionEngine#VIRTUAL} that is a virtual thread, so a blocked read/write
+ *  does not hold on to an OS thread.
+ * </p>
  */
 public class DataNode extends Node {
-    private final File storageDir;
-    private final AtomicInteger blockCount  = new AtomicInteger(0);
-    private final AtomicLong storageUsed = new AtomicLong(0);
+    private final TieredBlockStore store;
+    private final BlockCache cache = new BlockCache(Const.BLOCK_CACHE_BYTES);
+    private final GroupCommitter committer;
+    private final BlockScrubber scrubber;
+    private final Map<Long, PacketStream> streams = new ConcurrentHashMap<>(); // Streamed writes in progress (and failed or complete ones)
+    private final StripedLock blockLocks = new StripedLock(Const.BLOCK_LOCK_STRIPES);
+    private final AtomicLong compressionSavings = new AtomicLong(0);         // Logical minus stored bytes of the compressed blocks
+    private final Map<String, BlockCompressor.Frames> frames = new ConcurrentHashMap<>();   // Frame index of compressed blocks (kept up to date by writes)
+    private final RpcClient rpcClient = new RpcClient();                      // Acknowledgements of the writes forwarded down a pipeline
+    private final ExecutorService replier;                                    // Sends the replies of the writes that waited for a commit
 
-    public DataNode(int nodeID, MessageBroker messageBroker) throws Exception {
-        super(nodeID, messageBroker);
+    // The packets of one streamed block write (guarded by the lock of the block)
+    private static final class PacketStream {
+        private final String blockName;
+        private int next = 0;                                           // Sequence of the next packet to write
+        private boolean failed = false;                                 // Every later packet fails as well
+        private boolean complete = false;                               // The last packet was written (late packets are answered)
+        private volatile long lastActive = System.currentTimeMillis();  // Read by expireStreams without the lock
+        private final Map<Integer, Message<?>> early = new HashMap<>(); // Packets that wait for an earlier one
 
-        // Create directory to store blocks if it doesn't exist
+        private PacketStream(String blockName) {
+            this.blockName = blockName;
+        }
+    }
+
+    public DataNode(int nodeID, Transport transport) throws Exception {
         // node#/...
-        String nodeDir = String.format("node%s", nodeID);
-        String path = Paths.get(Const.getPath(Const.DATANODE_ROOT_DIR), nodeDir).toString();
-        this.storageDir = new File(path);
+        this(nodeID, transport, new File(Paths.get(Const.getPath(Const.DATANODE_ROOT_DIR), String.format("node%s", nodeID)).toString()));
+    }
+
+    public DataNode(int nodeID, Transport transport, File storageDir) throws Exception {
+        super(nodeID, transport);
+
+        // Create directory to store blocks if it doesn't exist
         if (!storageDir.exists()) {
             storageDir.mkdirs();
         }
 
-        // Read data node blocks (if they exist)
-        // Calculate block count & data node size
-        File[] existingFiles = storageDir.listFiles((dir, name) -> Block.pattern.matcher(name).matches());
-        if (existingFiles != null) {
-            for (File f : existingFiles) {
-                if (!f.isFile()) { continue; }
-                // reconstruct your Block object from its filename
-                Block block = new Block(this.nodeID, f.getName());
-                List<Block> blocks = Collections.synchronizedList(new ArrayList<>());
-                blocks.add(block);
-                blockCount.incrementAndGet();
-                storageUsed.addAndGet(f.length());
+        // Open the blocks of the data node (if they exist), the store calculates block count & data node size
+        this.store = new TieredBlockStore(String.format("datanode%s-tier", nodeID), Const.STORAGE_ENGINE.open(storageDir));
+        // The logical size of compressed blocks is only kept in their frame headers (read once, then kept in memory)
+        for (String blockName : this.store.getBlockNames()) {
+            if (Compression.fromBlockName(blockName) == Compression.NONE) { continue; }
+            try {
+                this.compressionSavings.addAndGet(this.savingsOf(blockName));
+            } catch (IOException e) {
+                System.err.printf("DataNode %s: failed to read the frames of block %s: %s%n", nodeID, blockName, e.getMessage());
             }
-        } else {
-            blockCount.set(0);
-            storageUsed.set(0);
         }
+        this.committer = new GroupCommitter(
+            String.format("datanode%s-commit", nodeID), this.store, Const.GROUP_COMMIT_INTERVAL, Const.GROUP_COMMIT_BATCH_SIZE
+        );
+        this.scrubber = new BlockScrubber(
+            String.format("datanode%s-scrub", nodeID), this.store.getDisk(), this.cache, Const.SCRUB_BYTES_PER_SECOND, Const.SCRUB_INTERVAL, this::reportCorrupt
+        );
+        this.replier = transport.getExecutionEngine().newPool(String.format("datanode%s-reply", nodeID), 2);
     }
 
     @Override
     public void run() {
-        this.messageBroker.subscribe(this.nodeID, message -> {
+        this.transport.subscribe(this.nodeID, Const.DATANODE_GROUP, message -> {
             // Handle message
             if (message != null) {
                 this.handleMessage(message);
@@ -81,9 +143,8 @@ public class DataNode extends Node {
     // ========================================== INTERNAL FUNCTIONS ===================================================
     private void handleMessage(Message<?> message) {
         if (message.getMessageType() != MessageType.Request) {
-            // DataNoes are "worker threads", they only accept request messages, they do not send any requests
-            // Therefore, if the message is NOT a request, then something must have gone horribly wrong.
-            // throw new RuntimeException("Invalid message type: " + message.getMessageType());
+            // DataNoes are "worker threads", the only requests they send are the writes they forward down a pipeline
+            this.rpcClient.complete(message);
             return;
         }
 
@@ -91,7 +152,9 @@ public class DataNode extends Node {
         switch (message.getMessageAction()) {
             case READ -> handleReadRequest(message);
             case WRITE -> handleWriteRequest(message);
-            case HEARTBEAT -> handleHeartbeat();
+            case BATCH -> handleBatchRequest(message);
+            case PACKET -> handlePacket(message);
+            case HEARTBEAT -> handleHeartbeat(message);
             case STAT -> handleStatusRequest(message);
             case EXIT -> handleExit();
         }
@@ -99,33 +162,7 @@ public class DataNode extends Node {
 
     private void handleReadRequest(Message<?> message) {
         if (message.getData() instanceof ReadRequest readRequest) {
-            // Construct the path to the requested block file
-            String blockFileName = readRequest.getFilename();
-            Path path = Paths.get(storageDir.getPath(), blockFileName);
-
-            // Check if the file exists
-            File file = path.toFile();
-            if (!file.exists()) {
-                // If the file doesn't exist, respond with failure
-                String errorMessage = String.format("Error: file block not found (node%s, %s)", this.nodeID, blockFileName);
-                reply(message, MessageAction.FAIL, errorMessage);
-                return;
-            }
-
-            try {
-                // Read the file data into a byte array
-                byte[] fileData = java.nio.file.Files.readAllBytes(path);
-                // Send the data back via the response queue
-                reply(message, MessageAction.READ, new ReadResponse(readRequest, fileData));
-            } catch (IOException e) {
-                String errorMessage = String.format(
-                    "Error: while reading file block (node%s, %s): %s%n\n",
-                    this.nodeID,
-                    readRequest.getPathname(),
-                    e.getMessage()
-                );
-                reply(message, MessageAction.FAIL, errorMessage + Arrays.toString(e.getStackTrace()));
-            }
+            reply(message, this.read(readRequest));
         } else {
             // If the data is not of the expected type, handle it gracefully
             String errorMessage = String.format("Error: unexpected data type: %s", message.getData().getClass().getName());
@@ -139,51 +176,499 @@ public class DataNode extends Node {
             reply(message, MessageAction.FAIL, errorMessage);
             return;
         }
+        // The write is forwarded in the same turn on the block lock, so every replica gets the writes of a block in the same order
+        BlockBuffer forwarded = retainForward(writeRequest);
+        Lock lock = this.blockLocks.get(writeRequest.getFilename());
+        Message<?> result;
+        CompletableFuture<Message<?>> downstream;
+        lock.lock();
+        try {
+            result = this.write(writeRequest);
+            downstream = this.forward(writeRequest, forwarded, result);
+        } finally {
+            lock.unlock();
+        }
+        this.replyWhenCommitted(message, result.getMessageAction() == MessageAction.WRITE && isDurable(writeRequest), result, downstream);
+    }
 
-        byte[] dataBytes = writeRequest.getData();
-        String blockFileName = writeRequest.getFilename();
-        Path path = Paths.get(storageDir.getPath(), blockFileName);
-        File blockFile = path.toFile();
-        int size = (int) blockFile.length();
-
-        // If no data, delete the block file instead of writing
-        if (dataBytes == null || dataBytes.length == 0) {
-            if (blockFile.exists()) {
-                if (!blockFile.delete()) {
-                    String err = String.format("Error: failed to delete block (node%s, %s)", this.nodeID, blockFileName);
-                    reply(message, MessageAction.FAIL, err);
+    /**
+     * Handles many read/write/delete operations for this DataNode in one envelope.
+     * The operations are executed in order and answered with one aggregated response
+     * (one result per operation, in the same order).
+     * The pipelined writes are forwarded in one BATCH per next DataNode once they were all written here. A block has a
+     * single writer (the client that has its file open), so its writes can not overtake each other on the way down.
+     */
+    private void handleBatchRequest(Message<?> message) {
+        if (!(message.getData() instanceof BatchRequest batchRequest)) {
+            String errorMessage = String.format( "Error: unexpected data type: %s", message.getData().getClass().getName());
+            reply(message, MessageAction.FAIL, errorMessage);
+            return;
+        }
+
+        List<Message<?>> results = new ArrayList<>(batchRequest.size());
+        Map<Integer, BatchRequest> forwards = new LinkedHashMap<>();            // Next DataNode -> writes forwarded to it
+        Map<Integer, List<Integer>> forwardedResults = new HashMap<>();          // Next DataNode -> indexes of their results
+        boolean wrote = false;
+        for (Block operation : batchRequest.getOperations()) {
+            if (operation instanceof WriteRequest writeRequest) {
+                BlockBuffer forwarded = retainForward(writeRequest);
+                Message<?> result = this.write(writeRequest);
+                wrote |= result.getMessageAction() == MessageAction.WRITE && isDurable(writeRequest);
+                if (writeRequest.isPipelined() && result.getMessageAction() == MessageAction.WRITE) {
+                    WriteRequest next = writeRequest.forward(forwarded);
+                    forwards.computeIfAbsent(next.getNodeID(), BatchRequest::new).add(next);
+                    forwardedResults.computeIfAbsent(next.getNodeID(), nodeID -> new ArrayList<>()).add(results.size());
+                } else if (forwarded != null) {
+                    forwarded.release();
+                }
+                results.add(result);
+            }
+            else if (operation instanceof ReadRequest readRequest) results.add(this.read(readRequest));
+            else results.add(responseMessage(MessageAction.FAIL, "Error: unexpected operation: " + operation.getClass().getName()));
+        }
+
+        // The writes that failed further down the pipeline fail here as well (before the response goes out)
+        List<CompletableFuture<Message<?>>> acks = new ArrayList<>();
+        for (Map.Entry<Integer, BatchRequest> forward : forwards.entrySet()) {
+            List<Integer> indexes = forwardedResults.get(forward.getKey());
+            acks.add(this.request(forward.getKey(), MessageAction.BATCH, forward.getValue()).thenApply(ack -> {
+                for (int i = 0; i < indexes.size(); i++) {
+                    Message<?> result = ack.getData() instanceof BatchResponse batchResponse ? batchResponse.getResults().get(i) : ack;
+                    if (result.getMessageAction() != MessageAction.WRITE) { results.set(indexes.get(i), pipelineFailure(result)); }
+                }
+                return null;
+            }));
+        }
+        CompletableFuture<Message<?>> downstream = CompletableFuture.allOf(acks.toArray(CompletableFuture[]::new)).thenApply(ignored -> null);
+        this.replyWhenCommitted(message, wrote, responseMessage(MessageAction.BATCH, new BatchResponse(batchRequest, results)), downstream);
+    }
+
+    /**
+     * Writes one packet of a streamed block write, and acknowledges it. Messages can be handled concurrently (and a
+     * sender has up to {@link Const#STREAM_WINDOW} packets in flight), so a packet can overtake the ones before it:
+     * it waits for them (unacknowledged, so at most a window of packets waits), and is written right after them.
+     * A packet that is outside of the window, a duplicate, or empty fails the stream, and so does a failed write:
+     * the packets that wait fail with it, and so does every later packet of it (the sender gives up on the first
+     * failed packet). A stream that does not move on for {@link Const#WORKER_TIMEOUT} ms is dropped.
+     * A complete stream is kept until then as well, so that a late duplicate of one of its packets is acknowledged
+     * again (rather than written a second time, or waiting for packets that never come).
+     */
+    private void handlePacket(Message<?> message) {
+        if (!(message.getData() instanceof Packet packet)) {
+            String errorMessage = String.format( "Error: unexpected data type: %s", message.getData().getClass().getName());
+            reply(message, MessageAction.FAIL, errorMessage);
+            return;
+        }
+
+        this.expireStreams();
+        Lock lock = this.blockLocks.get(packet.getFilename());
+        lock.lock();
+        try {
+            PacketStream stream = this.streams.computeIfAbsent(packet.getStreamID(), id -> new PacketStream(packet.getFilename()));
+            stream.lastActive = System.currentTimeMillis();
+            int sequence = packet.getSequence();
+            if (stream.complete) {
+                this.answerLatePacket(message, packet, stream);
+                return;
+            }
+            // A packet always carries data (a write without data would be a delete)
+            boolean empty = packet.getData() == null || packet.getData().length() == 0;
+            if (stream.failed || empty || sequence < stream.next || sequence >= stream.next + Const.STREAM_WINDOW || stream.early.containsKey(sequence)) {
+                String err = String.format(
+                    "Error: packet %d of stream %d is out of order or empty (node%s, %s)", sequence, packet.getStreamID(), this.nodeID, packet.getFilename()
+                );
+                this.failPacket(message, err);
+                this.failStream(packet.getStreamID(), stream);
+                return;
+            }
+            if (sequence > stream.next) {
+                stream.early.put(sequence, message);
+                return;
+            }
+
+            // Its turn, and then the turn of the packets that waited for it
+            for (Message<?> next = message; next != null; next = stream.early.remove(stream.next)) {
+                if (!this.writePacket(next, (Packet) next.getData(), stream)) {
+                    this.failStream(packet.getStreamID(), stream);
                     return;
                 }
             }
-            // Acknowledge "write" of 0 bytes (i.e. deletion)
-            this.blockCount.addAndGet(-1);
-            this.storageUsed.addAndGet(-size);
-            reply(message, MessageAction.WRITE, new WriteResponse(writeRequest, (int) blockFile.length()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns false if the packet failed (it was replied to)
+    private boolean writePacket(Message<?> message, Packet packet, PacketStream stream) {
+        int length = packet.getData().length();
+        BlockBuffer forwarded = retainForward(packet);
+        Message<?> result = this.write(packet);
+        CompletableFuture<Message<?>> downstream = this.forward(packet, forwarded, result);
+        if (result.getMessageAction() != MessageAction.WRITE) {
+            reply(message, result);
+            return false;
+        }
+
+        int storedSize = ((WriteResponse) result.getData()).getStoredSize();
+        Message<?> ack = responseMessage(MessageAction.PACKET, new PacketAck(packet, length, storedSize));
+        stream.next++;
+        stream.complete = packet.isLast();
+        // The commit of the last packet covers the whole stream, every packet waits for the rest of the pipeline
+        this.replyWhenCommitted(message, packet.isLast() && isDurable(packet), ack, downstream);
+        return true;
+    }
+
+    // A packet of a complete stream was either written already (its acknowledgement got lost, or it was sent twice), or it does not belong to the stream
+    private void answerLatePacket(Message<?> message, Packet packet, PacketStream stream) {
+        if (packet.getSequence() >= stream.next) {
+            this.failPacket(message, String.format(
+                "Error: packet %d of stream %d comes after its last packet (node%s, %s)", packet.getSequence(), packet.getStreamID(), this.nodeID, packet.getFilename()
+            ));
             return;
         }
+        int length = packet.getData() == null ? 0 : packet.getData().length();
+        MessageCodec.releaseData(message);
+        reply(message, responseMessage(MessageAction.PACKET, new PacketAck(packet, length, -1)));
+    }
+
+    // The stream is kept (failed) until it expires, so that the packets that are still on their way fail as well
+    private void failStream(long streamID, PacketStream stream) {
+        stream.failed = true;
+        for (Message<?> waiting : stream.early.values()) {
+            Packet packet = (Packet) waiting.getData();
+            this.failPacket(waiting, String.format(
+                "Error: packet %d of stream %d is dropped, an earlier packet failed (node%s, %s)", packet.getSequence(), streamID, this.nodeID, packet.getFilename()
+            ));
+        }
+        stream.early.clear();
+    }
 
-        // Otherwise, normal single‐block write logic
-        int totalBlocks = (int) Math.ceil((double) (dataBytes.length + size) / Const.BLOCK_SIZE);
-        if (totalBlocks > 1) {
-            String err = String.format(
-                "Error: while persisting block (node%s, %s): data exceeds block size",
-                this.nodeID, blockFileName
-            );
+    private void failPacket(Message<?> message, String err) {
+        MessageCodec.releaseData(message);
+        reply(message, MessageAction.FAIL, err);
+    }
+
+    // Drops the streams that did not move on for a while (e.g. the sender gave up), unless their block is busy
+    private void expireStreams() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, PacketStream> entry : this.streams.entrySet()) {
+            PacketStream stream = entry.getValue();
+            if (now - stream.lastActive < Const.WORKER_TIMEOUT) { continue; }
+            Lock lock = this.blockLocks.get(stream.blockName);
+            if (!lock.tryLock()) { continue; }
+            try {
+                if (now - stream.lastActive < Const.WORKER_TIMEOUT || !this.streams.remove(entry.getKey(), stream)) { continue; }
+                this.failStream(entry.getKey(), stream);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Writes to the RAM tier are not made durable (nor waited for), see TierPolicy
+    private static boolean isDurable(WriteRequest writeRequest) {
+        return writeRequest.getTierPolicy() == TierPolicy.DISK;
+    }
+
+    // Own reference to the data of a write that goes on down a pipeline (the local write releases the one of the request)
+    private static BlockBuffer retainForward(WriteRequest writeRequest) {
+        return writeRequest.isPipelined() && writeRequest.getData() != null ? writeRequest.getData().retain() : null;
+    }
+
+    /**
+     * Forwards a write to the next DataNode of its pipeline, if it has one and it succeeded here.
+     * @param data Reference of the data for the next DataNode (see {@link #retainForward}), released if nothing is forwarded
+     * @return Future of the failed acknowledgement of the rest of the pipeline, null if it succeeded (or there is none)
+     */
+    private CompletableFuture<Message<?>> forward(WriteRequest writeRequest, BlockBuffer data, Message<?> result) {
+        if (!writeRequest.isPipelined() || result.getMessageAction() != MessageAction.WRITE) {
+            if (data != null) { data.release(); }
+            return CompletableFuture.completedFuture(null);
+        }
+        MessageAction messageAction = writeRequest instanceof Packet ? MessageAction.PACKET : MessageAction.WRITE;
+        WriteRequest next = writeRequest.forward(data);
+        return this.request(next.getNodeID(), messageAction, next)
+            .thenApply(ack -> ack.getMessageAction() == messageAction ? null : pipelineFailure(ack));
+    }
+
+    private CompletableFuture<Message<?>> request(int target, MessageAction messageAction, Object data) {
+        Message<?> request = requestMessage(messageAction, data);
+        CompletableFuture<Message<?>> response = this.rpcClient.register(request);
+        if (!this.transport.sendToSubscriber(target, request)) {
+            // The next DataNode did not take it (e.g. its mailbox stayed full), it fails right away instead of timing out
+            MessageCodec.releaseData(request);
+            this.rpcClient.complete(responseMessage(request, MessageAction.FAIL, String.format("Error: node%s did not take the request", target)));
+        }
+        return response;
+    }
+
+    private Message<?> pipelineFailure(Message<?> ack) {
+        return responseMessage(MessageAction.FAIL, String.format("Error: write failed down the pipeline (after node%s): %s", this.nodeID, ack.getData()));
+    }
+
+    /**
+     * Writes are only acknowledged once they are on disk: the reply waits for the next group commit (one fsync for
+     * every write that is waiting), without holding up the next messages of this DataNode.
+     * @param wrote False if nothing was written to disk (e.g. the write failed, or went to the RAM tier), then the reply is sent right away
+     */
+    private void replyWhenCommitted(Message<?> message, boolean wrote, Message<?> response) {
+        this.replyWhenCommitted(message, wrote, response, CompletableFuture.completedFuture(null));
+    }
+
+    /**
+     * Pipelined writes also wait for the rest of the pipeline (which commits at the same time as this DataNode).
+     * @param downstream Future of the failed acknowledgement of the rest of the pipeline (null if it succeeded)
+     */
+    private void replyWhenCommitted(Message<?> message, boolean wrote, Message<?> response, CompletableFuture<Message<?>> downstream) {
+        CompletableFuture<Void> committed = wrote ? this.committer.commit() : CompletableFuture.completedFuture(null);
+        // Not on the thread that completed the commit (the committer) or the acknowledgement, a reply can block
+        committed.thenCombine(downstream, (ignored, failure) -> failure).whenCompleteAsync((failure, error) -> {
+            if (error == null && failure == null) {
+                reply(message, response);
+                return;
+            }
+            MessageCodec.releaseData(response);
+            if (failure != null) {
+                reply(message, failure);
+                return;
+            }
+            String err = String.format("Error: while committing writes (node%s): %s", this.nodeID, error.getMessage());
             reply(message, MessageAction.FAIL, err);
-            return;
+        }, this.replier);
+    }
+
+    private Message<?> read(ReadRequest readRequest) {
+        String blockFileName = readRequest.getFilename();
+        // Ranged reads are widened to whole checksum chunks, so that the data can be verified (the client cuts it again)
+        int[] range = Checksums.align(readRequest.getOffset(), readRequest.getLength());
+        boolean compressed = readRequest.getCompression() != Compression.NONE;
+        this.store.touch(blockFileName);
+        try {
+            // Serve hot blocks from the cache, otherwise read the block data into a pooled buffer
+            // (either way the buffer is released by the client once consumed)
+            BlockCache.Entry block = this.cache.get(blockFileName);
+            boolean whole = block != null || readRequest.isWholeBlock();
+            if (block == null) {
+                long generation = this.cache.generation();
+                if (whole) {
+                    block = this.readVerified(blockFileName, 0, -1);
+                } else if (compressed) {
+                    // Only the frames that cover the range are read and inflated (already with the logical data)
+                    block = this.readCompressedRange(blockFileName, range[0], range[1]);
+                } else {
+                    block = this.readVerified(blockFileName, range[0], range[1]);
+                }
+                if (block == null) {
+                    // If the block doesn't exist, respond with failure
+                    String errorMessage = String.format("Error: file block not found (node%s, %s)", this.nodeID, blockFileName);
+                    return responseMessage(MessageAction.FAIL, errorMessage);
+                }
+                if (block.data() == null) {
+                    this.reportCorrupt(blockFileName);
+                    String errorMessage = String.format("Error: file block is corrupt (node%s, %s)", this.nodeID, blockFileName);
+                    return responseMessage(MessageAction.FAIL, errorMessage);
+                }
+                if (compressed && whole) {
+                    block = inflate(block);
+                }
+                // Only whole blocks are cached, and blocks in RAM (or mapped from the page cache) only if they have to be inflated
+                if (whole && (compressed || this.store.getTier(blockFileName) != StorageTier.RAM && !block.data().isReadOnly())) {
+                    this.cache.put(blockFileName, block.data(), block.checksums(), generation);
+                }
+            }
+            if (whole && !readRequest.isWholeBlock()) {
+                block = slice(block, range[0], range[1]);
+            }
+            // The checksums go along, so the client can verify the data once it arrived
+            ReadRequest served = readRequest.range(range[0], block.data().length());
+            return responseMessage(MessageAction.READ, new ReadResponse(served, block.data(), block.checksums()));
+        } catch (IOException e) {
+            String errorMessage = String.format(
+                "Error: while reading file block (node%s, %s): %s%n\n",
+                this.nodeID,
+                readRequest.getPathname(),
+                e.getMessage()
+            );
+            return responseMessage(MessageAction.FAIL, errorMessage + Arrays.toString(e.getStackTrace()));
+        }
+    }
+
+    /**
+     * Reads (a chunk aligned range of) a block with its checksums, and verifies the data (chunk by chunk) before it
+     * leaves the DataNode. A concurrent write can make a block look corrupt (data and checksums are read one after the
+     * other), so it is only considered corrupt if it fails twice.
+     * @return The range with the checksums of its chunks, an entry without data if it is corrupt, or null if it does not exist
+     */
+    private BlockCache.Entry readVerified(String blockFileName, int offset, int length) throws IOException {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            int[] checksums = this.store.readChecksums(blockFileName);
+            BlockBuffer data = this.store.read(blockFileName, offset, length);
+            if (data == null) { return null; }
+            checksums = Checksums.slice(checksums, offset, data.length());
+            if (Checksums.isValid(data, checksums)) { return new BlockCache.Entry(data, checksums); }
+            data.release();
+        }
+        return new BlockCache.Entry(null, null);
+    }
+
+    /**
+     * Reads a (chunk aligned) range of the logical data of a compressed block: the frames that cover it are read,
+     * verified and inflated, the range is cut out of them.
+     * @return The range with the checksums of its chunks, an entry without data if it is corrupt, or null if it does not exist
+     */
+    private BlockCache.Entry readCompressedRange(String blockFileName, int offset, int length) throws IOException {
+        BlockCompressor.Frames index = this.framesOf(blockFileName);
+        if (index == null) { return null; }
+        long[] cover = index.cover(offset, length);
+        if (cover[1] == 0) { return new BlockCache.Entry(BlockBuffer.wrap(new byte[0]), new int[0]); }
+
+        int[] stored = Checksums.align((int) cover[0], (int) cover[1]);
+        BlockCache.Entry entry = this.readVerified(blockFileName, stored[0], stored[1]);
+        if (entry == null || entry.data() == null) { return entry; }
+        BlockBuffer inflated;
+        try {
+            int from = (int) cover[0] - stored[0];
+            BlockBuffer covering = entry.data().slice(from, Math.min((int) cover[1], entry.data().length() - from));
+            try {
+                inflated = BlockCompressor.decompress(covering);
+            } finally {
+                covering.release();
+            }
+        } finally {
+            entry.data().release();
+        }
+        BlockBuffer data = slice(new BlockCache.Entry(inflated, null), offset - (int) cover[2], length).data();
+        return new BlockCache.Entry(data, Checksums.compute(data.nioBuffer()));
+    }
+
+    // Frame index of a compressed block, read from its frame headers once (writes update it, see writeBlock)
+    private BlockCompressor.Frames framesOf(String blockFileName) throws IOException {
+        try {
+            return this.frames.computeIfAbsent(blockFileName, name -> {
+                try {
+                    return BlockCompressor.frames(this.store, name);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Cuts a (chunk aligned) range out of a cached block, the range is cut at the end of the block
+    private static BlockCache.Entry slice(BlockCache.Entry block, int offset, int length) {
+        BlockBuffer whole = block.data();
+        int from = Math.min(offset, whole.length());
+        int available = whole.length() - from;
+        BlockBuffer data = whole.slice(from, length < 0 ? available : Math.min(length, available));
+        whole.release();
+        return new BlockCache.Entry(data, Checksums.slice(block.checksums(), from, data.length()));
+    }
+
+    // Compressed blocks leave the DataNode inflated, with the checksums of the logical data
+    private static BlockCache.Entry inflate(BlockCache.Entry stored) throws IOException {
+        try {
+            BlockBuffer data = BlockCompressor.decompress(stored.data());
+            return new BlockCache.Entry(data, Checksums.compute(data.nioBuffer()));
+        } finally {
+            stored.data().release();
+        }
+    }
+
+    // Logical minus stored bytes of a compressed block (0 if it does not exist)
+    private long savingsOf(String blockFileName) throws IOException {
+        BlockCompressor.Frames index = this.framesOf(blockFileName);
+        return index == null ? 0 : index.logicalLength() - Math.max(0, this.store.size(blockFileName));
+    }
+
+    /**
+     * Lets the NameNode know that a replica of this DataNode failed its checksums (read path, or scrubber),
+     * so that readers skip it from then on.
+     */
+    private void reportCorrupt(String blockFileName) {
+        System.err.printf("DataNode %s: block %s failed its checksums%n", this.nodeID, blockFileName);
+        try {
+            Block block = new Block(this.nodeID, blockFileName);
+            String pathname = block.getPathname().replace("\\", "/");
+            send(Const.NAME_NODE_ID, MessageAction.CORRUPT, new ReadRequest(this.nodeID, block.getReplica(), pathname, block.getBlockID()));
+        } catch (Exception e) {
+            System.err.printf("DataNode %s: failed to report corrupt block %s: %s%n", this.nodeID, blockFileName, e.getMessage());
+        }
+    }
+
+    private Message<?> write(WriteRequest writeRequest) {
+        // Writes of the same block take turns (otherwise two appends could both pass the size check, or interleave)
+        Lock lock = this.blockLocks.get(writeRequest.getFilename());
+        lock.lock();
+        try {
+            return this.writeBlock(writeRequest);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Message<?> writeBlock(WriteRequest writeRequest) {
+        BlockBuffer dataBytes = writeRequest.getData();
+        String blockFileName = writeRequest.getFilename();
+        boolean compressed = writeRequest.getCompression() != Compression.NONE;
+
+        // If no data, delete the block instead of writing
+        if (dataBytes == null || dataBytes.length() == 0) {
+            if (dataBytes != null) { dataBytes.release(); }
+            try {
+                long savings = compressed ? this.savingsOf(blockFileName) : 0;
+                if (this.store.delete(blockFileName)) { this.compressionSavings.addAndGet(-savings); }
+            } catch (IOException e) {
+                String err = String.format("Error: failed to delete block (node%s, %s): %s", this.nodeID, blockFileName, e.getMessage());
+                return responseMessage(MessageAction.FAIL, err);
+            } finally {
+                this.cache.invalidate(blockFileName);
+                this.frames.remove(blockFileName);
+            }
+            // Acknowledge "write" of 0 bytes (i.e. deletion)
+            return responseMessage(MessageAction.WRITE, new WriteResponse(writeRequest, 0));
         }
 
+        // Otherwise, normal single‐block write logic
+        BlockBuffer stored = null;
+        BlockCompressor.Frames index = null;
         try {
-            // write (or overwrite) the block file
-            this.persistBlock(path, dataBytes);
-            reply(message, MessageAction.WRITE, new WriteResponse(writeRequest, totalBlocks));
-            if (!writeRequest.isAppendBlock()) {
-                this.blockCount.addAndGet(1);
+            // The size check is about the logical size (for compressed blocks the frame index adds it up)
+            long storedBefore = Math.max(0, this.store.size(blockFileName));
+            BlockCompressor.Frames before = compressed ? this.framesOf(blockFileName) : null;
+            long logicalBefore = compressed ? (before == null ? 0 : before.logicalLength()) : storedBefore;
+            long size = writeRequest.isAppendBlock() ? logicalBefore : 0;
+            int totalBlocks = (int) Math.ceil((double) (dataBytes.length() + size) / writeRequest.getBlockSize());
+            if (totalBlocks > 1) {
+                String err = String.format(
+                    "Error: while persisting block (node%s, %s): data exceeds block size",
+                    this.nodeID, blockFileName
+                );
+                return responseMessage(MessageAction.FAIL, err);
+            }
+
+            // write (append to, or overwrite) the block, compressed blocks get one more frame
+            stored = compressed ? BlockCompressor.compress(dataBytes) : dataBytes.retain();
+            this.store.write(blockFileName, stored, writeRequest.isAppendBlock(), writeRequest.getTierPolicy());
+            long storedAfter = this.store.size(blockFileName);
+            if (compressed) {
+                long logicalAfter = size + dataBytes.length();
+                this.compressionSavings.addAndGet((logicalAfter - storedAfter) - (logicalBefore - storedBefore));
+                // The new frame goes on the index, rather than having the next write scan every frame header again
+                index = (writeRequest.isAppendBlock() && before != null ? before : BlockCompressor.Frames.EMPTY)
+                    .append(stored.length() - BlockCompressor.HEADER_SIZE, dataBytes.length());
             }
-            this.storageUsed.addAndGet(dataBytes.length);
+            return responseMessage(MessageAction.WRITE, new WriteResponse(writeRequest, totalBlocks, (int) storedAfter));
         } catch (IOException e) {
             String err = String.format("Error: while persisting block (node%s, %s): %s", this.nodeID, blockFileName, e.getMessage());
-            reply(message, MessageAction.FAIL, err);
+            return responseMessage(MessageAction.FAIL, err);
+        } finally {
+            if (stored != null) { stored.release(); }
+            this.cache.invalidate(blockFileName);
+            if (index != null) { this.frames.put(blockFileName, index); }
+            else { this.frames.remove(blockFileName); }
+            dataBytes.release();
         }
     }
 
@@ -194,46 +679,42 @@ public class DataNode extends Node {
             return;
         }
 
-        dataNodeStatus.blockCount = this.blockCount.get();
-        dataNodeStatus.storageUsed = this.storageUsed.get();
+        dataNodeStatus.blockCount = this.store.getBlockCount();
+        dataNodeStatus.storageUsed = this.store.getStorageUsed();
+        dataNodeStatus.logicalStorageUsed = dataNodeStatus.storageUsed + this.compressionSavings.get();
+        dataNodeStatus.creditBytes = Const.DATANODE_CREDIT_BYTES;
+        dataNodeStatus.creditRequests = Const.DATANODE_CREDIT_REQUESTS;
+        dataNodeStatus.controlQueueDepth = this.transport.getQueueDepth(this.nodeID, Lane.CONTROL);
+        dataNodeStatus.dataQueueDepth = this.transport.getQueueDepth(this.nodeID, Lane.DATA);
+        dataNodeStatus.cacheHits = this.cache.getHits();
+        dataNodeStatus.cacheMisses = this.cache.getMisses();
+        dataNodeStatus.cacheEvictions = this.cache.getEvictions();
+        dataNodeStatus.ramTierBlocks = this.store.getRamBlockCount();
+        dataNodeStatus.ramTierBytes = this.store.getRamBytes();
+        dataNodeStatus.unpersistedBlocks = this.store.getUnpersistedBlockCount();
+        dataNodeStatus.tierPromotions = this.store.getPromotions();
+        dataNodeStatus.tierDemotions = this.store.getDemotions();
         reply(message, MessageAction.STAT, dataNodeStatus);
     }
 
     /**
-     * Helper function for writing data to a block (file).
-     * We assume that the file block will always be successfully written (if no IOException is raised, guaranteed by the system)
-     * @param path The filepath to write the file to
-     * @param data Data to write (an array of bytes)
-     * @throws IOException Thrown if a file fails to write
+     * Sends an ACK response back to the sender (name node) only, ACKing its heartbeat request.
      */
-    private void persistBlock(Path path, byte[] data) throws IOException {
-        // 1) Make sure the directory tree exists
-        Path parent = path.getParent();
-        if (parent != null) {
-            Files.createDirectories(parent);
-        }
-
-        // 2) Open the file via NIO, with CREATE/TRUNCATE semantics
-        try (BufferedOutputStream out = new BufferedOutputStream(
-            Files.newOutputStream(path,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.WRITE,
-                StandardOpenOption.APPEND))
-        ) {
-            out.write(data);
-            out.flush();
-        }
-    }
-
-    /**
-     * Sends an ACK response to the response queue, ACKing the heartbeat request from the main thread.
-     */
-    private void handleHeartbeat() {
-        broadcastReply(MessageAction.HEARTBEAT, null);
+    private void handleHeartbeat(Message<?> message) {
+        reply(message, MessageAction.HEARTBEAT, null);
     }
 
     public void handleExit() {
         System.out.printf("DataNode %s exiting...\n", this.nodeID);
+        try {
+            this.scrubber.close();
+            this.rpcClient.shutdown();
+            this.committer.close();
+            this.replier.shutdown();        // The replies of the last commit still go out
+            this.store.close();
+        } catch (IOException e) {
+            System.err.printf("DataNode %s: failed to close its block store: %s%n", this.nodeID, e.getMessage());
+        }
         Thread.currentThread().interrupt();
     }
 }
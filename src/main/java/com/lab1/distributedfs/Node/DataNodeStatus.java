@@ -5,21 +5,50 @@ public class DataNodeStatus {
     public long lastSeen;
     public boolean alive;
     public int blockCount;
-    public long storageUsed;
+    public long storageUsed;            // Bytes the blocks take up on disk (compressed blocks count compressed)
+    public long logicalStorageUsed;     // Bytes of block data before compression
+    public long creditBytes;            // Flow control budget advertised by the DataNode (in-flight bytes)
+    public int creditRequests;          // Flow control budget advertised by the DataNode (in-flight requests)
+    public int controlQueueDepth;       // Messages waiting in the CONTROL lane of the DataNode (heartbeats, status)
+    public int dataQueueDepth;          // Messages waiting in the DATA lane of the DataNode (block reads/writes)
+    public long cacheHits;              // Block reads served by the block cache of the DataNode
+    public long cacheMisses;            // Block reads that went to the block store
+    public long cacheEvictions;         // Blocks dropped from the block cache to make room
+    public int ramTierBlocks;           // Blocks in the RAM tier of the DataNode (see TieredBlockStore)
+    public long ramTierBytes;           // Bytes of the blocks in the RAM tier
+    public int unpersistedBlocks;       // Blocks only in RAM (lazy-persist ones that are not flushed yet, and transient ones)
+    public long tierPromotions;         // Blocks moved from disk to RAM because they were read often
+    public long tierDemotions;          // Blocks moved out of RAM because they were idle, or to make room
 
-    DataNodeStatus(int nodeId, long lastSeen) {
+    public DataNodeStatus(int nodeId, long lastSeen) {
         this.nodeId = nodeId;
         this.lastSeen = lastSeen;
         this.alive = true;
         this.blockCount = 0;
         this.storageUsed = 0;
+        this.logicalStorageUsed = 0;
+        this.creditBytes = 0;
+        this.creditRequests = 0;
+        this.controlQueueDepth = 0;
+        this.dataQueueDepth = 0;
+        this.cacheHits = 0;
+        this.cacheMisses = 0;
+        this.cacheEvictions = 0;
+        this.ramTierBlocks = 0;
+        this.ramTierBytes = 0;
+        this.unpersistedBlocks = 0;
+        this.tierPromotions = 0;
+        this.tierDemotions = 0;
     }
 
     @Override
     public String toString() {
         return String.format(
-            "DataNodeStatus[nodeId=%d, lastSeen=%d, alive=%b, blockCount=%d, storageUsed=%d]",
-            nodeId, lastSeen, alive, blockCount, storageUsed
+            "DataNodeStatus[nodeId=%d, lastSeen=%d, alive=%b, blockCount=%d, storageUsed=%d, logicalStorageUsed=%d, creditBytes=%d, creditRequests=%d, " +
+            "controlQueueDepth=%d, dataQueueDepth=%d, cacheHits=%d, cacheMisses=%d, cacheEvictions=%d, " +
+            "ramTierBlocks=%d, ramTierBytes=%d, unpersistedBlocks=%d, tierPromotions=%d, tierDemotions=%d]",
+            nodeId, lastSeen, alive, blockCount, storageUsed, logicalStorageUsed, creditBytes, creditRequests, controlQueueDepth, dataQueueDepth,
+            cacheHits, cacheMisses, cacheEvictions, ramTierBlocks, ramTierBytes, unpersistedBlocks, tierPromotions, tierDemotions
         );
     }
 }
@@ -1,19 +1,21 @@
 package com.lab1.distributedfs.Node;
 
 import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.FileSystem.BlockNode;
 import com.lab1.distributedfs.FileSystem.FileNode;
 import com.lab1.distributedfs.FileSystem.FileSystemTree;
+import com.lab1.distributedfs.IO.DataNodeIO.ReadRequest;
 import com.lab1.distributedfs.Message.Message;
 import com.lab1.distributedfs.Message.MessageType;
 import com.lab1.distributedfs.Message.MessageAction;
-import com.lab1.distributedfs.Message.MessageBroker;
+import com.lab1.distributedfs.Message.Transport;
 
 import java.io.File;
 import java.io.IOException;
 import java.security.InvalidParameterException;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -35,9 +37,9 @@ public class NameNode extends Node {
     // For handling heartbeat
     private final ScheduledExecutorService scheduledExecutorService;
 
-    public NameNode(MessageBroker messageBroker) {
+    public NameNode(Transport transport) {
         // The node ID for the name node is 0 by default (there is always only one)
-        super(Const.NAME_NODE_ID, messageBroker);
+        super(Const.NAME_NODE_ID, transport);
 
         this.fileSystemTree = new FileSystemTree();
         this.dataNodeStatus = new ConcurrentHashMap<>();
@@ -53,7 +55,7 @@ public class NameNode extends Node {
             }
         }
 
-        this.scheduledExecutorService = Executors.newScheduledThreadPool(2);
+        this.scheduledExecutorService = transport.getExecutionEngine().newScheduledPool("namenode", 2);
         this.scheduleHeartbeatRequest();
         this.scheduleDataNodeStatusCheck();
     }
@@ -61,7 +63,7 @@ public class NameNode extends Node {
     @Override
     public void run() {
         // Subscribe to the message broker and start handling messages
-        this.messageBroker.subscribe(this.nodeID, message -> {
+        this.transport.subscribe(this.nodeID, message -> {
             // Handle message
             if (message != null) {
                 try {
@@ -83,6 +85,7 @@ public class NameNode extends Node {
                     case ADD -> handleAdd(message);
                     case DELETE -> handleDelete(message);
                     case STAT -> handleStat(message);
+                    case CORRUPT -> handleCorrupt(message);
                     case EXIT -> handleExit();
                 }
             }
@@ -145,6 +148,30 @@ public class NameNode extends Node {
         reply(message, MessageAction.STAT, this.dataNodeStatus);
     }
 
+    /**
+     * A DataNode found a replica that fails its checksums: the replica is marked as corrupt in the metadata of its
+     * block (it keeps its place in the replica list), so that readers skip it. No reply is sent.
+     */
+    private void handleCorrupt(Message<?> message) {
+        if (!(message.getData() instanceof ReadRequest replica)) {
+            throw new InvalidParameterException("Invalid command parameters (or data).");
+        }
+        try {
+            FileNode fileNode = this.fileSystemTree.getFile(replica.getPathname());
+            for (BlockNode blockNode : fileNode.getBlockList()) {
+                List<Integer> replicas = blockNode.getReplicas();
+                if (blockNode.getBlockID() != replica.getBlockID() || replica.getReplica() >= replicas.size()) { continue; }
+                if (replicas.get(replica.getReplica()) != replica.getNodeID()) { continue; }
+                if (blockNode.markCorrupt(replica.getReplica())) {
+                    System.err.printf("NameNode: replica %d of block %d of \"%s\" (node%d) is corrupt%n",
+                        replica.getReplica(), replica.getBlockID(), replica.getPathname(), replica.getNodeID());
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // The file is gone already
+        }
+    }
+
     private void handleExit() {
         System.out.printf("NameNode %s exiting...\n", this.nodeID);
         this.scheduledExecutorService.shutdown();
@@ -161,7 +188,8 @@ public class NameNode extends Node {
     // Other
 
     private void handleHeartbeatACK(Message<?> message) {
-        long currentTime = System.nanoTime();
+        // Must be on the same clock as the status check (see scheduleDataNodeStatusCheck)
+        long currentTime = System.currentTimeMillis();
         int senderID = message.getSrcNodeID();
 
         if (this.dataNodeStatus.containsKey(senderID)) {
@@ -194,8 +222,8 @@ public class NameNode extends Node {
     private void scheduleHeartbeatRequest() {
         // Periodically broadcast heartbeat request signals
         this.scheduledExecutorService.scheduleAtFixedRate(() -> {
-            // Send heartbeat request to each DataNode's request queue
-            broadcast(MessageAction.HEARTBEAT, null);
+            // Send heartbeat request to each DataNode's request queue (only the DataNodes, not every subscriber)
+            multicast(Const.DATANODE_GROUP, MessageAction.HEARTBEAT, null);
         }, 0, 50, TimeUnit.MILLISECONDS);
     }
 
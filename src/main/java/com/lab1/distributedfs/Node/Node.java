@@ -1,23 +1,28 @@
 package com.lab1.distributedfs.Node;
 
+import com.lab1.distributedfs.Codec.MessageCodec;
 import com.lab1.distributedfs.Message.Message;
 import com.lab1.distributedfs.Message.MessageAction;
-import com.lab1.distributedfs.Message.MessageBroker;
+import com.lab1.distributedfs.Message.Transport;
 import com.lab1.distributedfs.Message.MessageType;
 
 public class Node implements Runnable {
-    protected final MessageBroker messageBroker;
+    protected final Transport transport;
     protected final int nodeID;
 
-    public Node(int nodeID, MessageBroker messageBroker) {
+    public Node(int nodeID, Transport transport) {
         this.nodeID = nodeID;
-        this.messageBroker = messageBroker;
+        this.transport = transport;
+    }
+
+    public int getNodeID() {
+        return nodeID;
     }
 
     @Override
     public void run() {
         // Example implementation
-        messageBroker.subscribe(this.nodeID, message -> {
+        transport.subscribe(this.nodeID, message -> {
             // Handle message
             System.out.println(this.nodeID + " received: " + message.toString());
         });
@@ -31,19 +36,37 @@ public class Node implements Runnable {
         return new Message<>(this.nodeID, MessageType.Response, messageAction, data);
     }
 
+    protected <T> Message<?> responseMessage(Message<?> prevMessage, MessageAction messageAction, T data) {
+        return new Message<>(this.nodeID, MessageType.Response, messageAction, data, prevMessage.getRequestID());
+    }
+
     protected <T> void send(int target, MessageAction messageAction, T data) {
-        this.messageBroker.sendToSubscriber(target, requestMessage(messageAction, data));
+        this.deliver(target, requestMessage(messageAction, data));
+    }
+
+    protected <T> void multicast(String group, MessageAction messageAction, T data) {
+        this.transport.multicast(group, requestMessage(messageAction, data));
     }
 
     protected <T> void broadcast(MessageAction messageAction, T data) {
-        this.messageBroker.broadcast(requestMessage(messageAction, data));
+        this.transport.broadcast(requestMessage(messageAction, data));
     }
 
     protected <T> void reply(Message<?> prevMessage, MessageAction messageAction, T data) {
-        this.messageBroker.sendToSubscriber(prevMessage.getSrcNodeID(), responseMessage(messageAction, data));
+        this.deliver(prevMessage.getSrcNodeID(), responseMessage(prevMessage, messageAction, data));
+    }
+
+    // Nobody is waiting for the outcome of a one-way message, its data is only released if it was not delivered
+    private void deliver(int target, Message<?> message) {
+        if (!this.transport.sendToSubscriber(target, message)) { MessageCodec.releaseData(message); }
+    }
+
+    // Replies with a response that was already built (e.g. by a handler that is shared with batch requests)
+    protected void reply(Message<?> prevMessage, Message<?> response) {
+        reply(prevMessage, response.getMessageAction(), response.getData());
     }
 
     protected <T> void broadcastReply(MessageAction messageAction, T data) {
-        this.messageBroker.broadcast(responseMessage(messageAction, data));
+        this.transport.broadcast(responseMessage(messageAction, data));
     }
 }
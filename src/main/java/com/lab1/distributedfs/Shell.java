@@ -1,6 +1,9 @@
 package com.lab1.distributedfs;
 
+import com.lab1.distributedfs.Message.CreditGate;
 import com.lab1.distributedfs.Message.Message;
+import com.lab1.distributedfs.Message.RpcClient;
+import com.lab1.distributedfs.Message.Transport;
 import com.lab1.distributedfs.Node.Client;
 import com.lab1.distributedfs.ShellCommand.*;
 import com.lab1.distributedfs.ShellParser.ParseException;
@@ -14,14 +17,24 @@ public class Shell {
     final Map<String, Command> commands;
 
     final BlockingQueue<Message<?>> requestQueue = new LinkedBlockingQueue<>();
-    final BlockingQueue<Message<?>> responseQueue = new LinkedBlockingQueue<>();
+    final RpcClient rpcClient = new RpcClient();
+    final CreditGate creditGate = new CreditGate(Const.DATANODE_CREDIT_BYTES, Const.DATANODE_CREDIT_REQUESTS);
     final ExecutorService executorService = Executors.newFixedThreadPool(1);
 
     public Shell(Scanner scanner) {
+        // Every node runs inside this shell (in-process message broker)
+        this(scanner, null);
+    }
+
+    // Shell for a cluster whose nodes run in other processes (reachable over the given transport)
+    public Shell(Scanner scanner, Transport transport) {
         // Initialize the client thread
-        Command.client = new Client(requestQueue, responseQueue);
+        Command.client = transport == null
+                ? new Client(requestQueue, rpcClient, creditGate)
+                : new Client(requestQueue, rpcClient, creditGate, transport, false);
         Command.requestQueue = this.requestQueue;
-        Command.responseQueue = this.responseQueue;
+        Command.rpcClient = this.rpcClient;
+        Command.creditGate = this.creditGate;
         Command.executorService = this.executorService;
 
         this.executorService.execute(Command.client);
@@ -44,8 +44,7 @@ public class CloseCommand extends Command {
         path = Helper.reconstructPathname(pathParts);
 
         try {
-            makeRequest(MessageAction.CLOSE, path);
-            Message<?> closeReply = waitForResponse();
+            Message<?> closeReply = request(MessageAction.CLOSE, path);
             assert closeReply != null;
 
             if (closeReply.getMessageAction() == MessageAction.CLOSE && closeReply.getData() instanceof Open open) {
@@ -55,8 +54,7 @@ public class CloseCommand extends Command {
                 return true;
             }
 
-            makeRequest(MessageAction.ADD, open.fileNode);
-            Message<?> addReply = waitForResponse();
+            Message<?> addReply = request(MessageAction.ADD, open.fileNode);
             assert addReply != null;
 
             if (addReply.getMessageAction() != MessageAction.ADD || !(addReply.getData() instanceof FileNode)) {
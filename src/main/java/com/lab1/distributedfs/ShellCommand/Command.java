@@ -1,19 +1,33 @@
 package com.lab1.distributedfs.ShellCommand;
 
 import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.Helper;
+import com.lab1.distributedfs.IO.DataNodeIO.BatchRequest;
+import com.lab1.distributedfs.IO.DataNodeIO.BatchResponse;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+import com.lab1.distributedfs.IO.DataNodeIO.Block;
+import com.lab1.distributedfs.IO.DataNodeIO.Packet;
+import com.lab1.distributedfs.IO.DataNodeIO.ReadRequest;
+import com.lab1.distributedfs.IO.DataNodeIO.WriteRequest;
+import com.lab1.distributedfs.Message.CreditGate;
 import com.lab1.distributedfs.Message.Message;
 import com.lab1.distributedfs.Message.MessageAction;
 import com.lab1.distributedfs.Message.MessageType;
+import com.lab1.distributedfs.Message.RpcClient;
 import com.lab1.distributedfs.Node.Client;
 
-import java.util.List;
+import java.io.IOException;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Command {
     public static Client client;
     public static ExecutorService executorService;
     public static BlockingQueue<Message<?>> requestQueue = new LinkedBlockingQueue<>();
-    public static BlockingQueue<Message<?>> responseQueue = new LinkedBlockingQueue<>();
+    public static RpcClient rpcClient;
+    public static CreditGate creditGate;
+    private static final AtomicLong nextStreamID = new AtomicLong(System.nanoTime());
 
     public String getDescription() { return ""; }
 
@@ -26,27 +40,196 @@ public class Command {
     public static void shutdown() {
         System.out.println("Attempting to shutdown...");
         try {
-            makeRequest(MessageAction.EXIT, null);
+            // Nobody replies to EXIT, so there is no point in tracking it
+            requestQueue.put(new Message<>(Const.MAIN_NODE_ID, MessageType.Request, MessageAction.EXIT, null));
             executorService.shutdown();
             assert executorService.awaitTermination(5, TimeUnit.SECONDS);
             assert executorService.isTerminated();
+            rpcClient.shutdown();
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
     }
 
-    protected static <T> void makeRequest(MessageAction messageAction, T data) throws InterruptedException {
-        requestQueue.put(new Message<>(Const.MAIN_NODE_ID, MessageType.Request, messageAction, data));
+    /**
+     * Sends a request to the client thread without waiting for the response.
+     * Several requests can be in flight at the same time, each response completes the future of its own request.
+     * Requests for a DataNode first take credit from its budget (see {@link CreditGate}), which blocks while the
+     * DataNode already has too much in flight, the credit is returned once the response (or timeout) arrives.
+     * @return Future of the response (a TIMEOUT response if no response arrived within the worker timeout)
+     */
+    protected static <T> CompletableFuture<Message<?>> makeRequest(MessageAction messageAction, T data) throws InterruptedException {
+        int dataNodeID = switch (data) {
+            case Block block -> block.getNodeID();
+            case BatchRequest batchRequest -> batchRequest.getNodeID();
+            case null, default -> -1;
+        };
+        long credit = dataNodeID == -1 ? 0 : creditFor(data);
+        if (dataNodeID != -1) { creditGate.acquire(dataNodeID, credit); }
+
+        Message<?> request = new Message<>(Const.MAIN_NODE_ID, MessageType.Request, messageAction, data);
+        CompletableFuture<Message<?>> response = rpcClient.register(request);
+        if (dataNodeID != -1) { response = response.whenComplete((reply, e) -> creditGate.release(dataNodeID, credit)); }
+        requestQueue.put(request);
+        return response;
+    }
+
+    // Bytes a DataNode request keeps in flight: the data that is written, or the data that a read can bring back
+    private static long creditFor(Object data) {
+        return switch (data) {
+            case WriteRequest writeRequest -> writeRequest.getData() == null ? 0 : writeRequest.getData().length();
+            // A read brings back at most the whole block (its capacity), ranged reads come back widened to whole
+            // checksum chunks (at most one more chunk on each side)
+            case ReadRequest readRequest -> {
+                long capacity = readRequest.getCapacity() > 0 ? readRequest.getCapacity() : Const.BLOCK_SIZE;
+                yield readRequest.getLength() < 0 ? capacity : Math.min(capacity, readRequest.getLength() + 2L * Const.CHECKSUM_CHUNK_SIZE);
+            }
+            case BatchRequest batchRequest -> batchRequest.getOperations().stream().mapToLong(Command::creditFor).sum();
+            default -> 0;
+        };
+    }
+
+    protected static Message<?> waitForResponse(CompletableFuture<Message<?>> response) {
+        return response.join();
+    }
+
+    // Sends a request and blocks until its response (or timeout) arrives
+    protected static <T> Message<?> request(MessageAction messageAction, T data) throws InterruptedException {
+        return waitForResponse(makeRequest(messageAction, data));
     }
 
-    protected static Message<?> waitForResponse() {
+    /**
+     * Sends block operations (reads/writes/deletes) grouped into one BATCH envelope per target DataNode
+     * (at most {@link Const#BATCH_MAX_OPERATIONS} operations per envelope), with all the envelopes in flight at once.
+     * @param operations The operations, each one is sent to the DataNode of its {@link Block#getNodeID()}
+     * @return The result of every operation, in the same order as the operations
+     */
+    protected static List<Message<?>> requestBatched(List<? extends Block> operations) throws InterruptedException {
+        // Group the operations per DataNode (by their position, so that the order can be restored afterwards)
+        Map<Integer, List<Integer>> operationsPerNode = new LinkedHashMap<>();
+        for (int i = 0; i < operations.size(); i++) {
+            operationsPerNode.computeIfAbsent(operations.get(i).getNodeID(), k -> new ArrayList<>()).add(i);
+        }
+
+        List<List<Integer>> batches = new ArrayList<>();
+        List<CompletableFuture<Message<?>>> batchReplies = new ArrayList<>();
+        for (Map.Entry<Integer, List<Integer>> entry : operationsPerNode.entrySet()) {
+            List<Integer> indices = entry.getValue();
+            for (int start = 0; start < indices.size(); start += Const.BATCH_MAX_OPERATIONS) {
+                List<Integer> batch = indices.subList(start, Math.min(start + Const.BATCH_MAX_OPERATIONS, indices.size()));
+                BatchRequest batchRequest = new BatchRequest(entry.getKey());
+                for (int index : batch) { batchRequest.add(operations.get(index)); }
+                batches.add(batch);
+                batchReplies.add(makeRequest(MessageAction.BATCH, batchRequest));
+            }
+        }
+
+        Message<?>[] results = new Message<?>[operations.size()];
+        for (int i = 0; i < batches.size(); i++) {
+            List<Integer> batch = batches.get(i);
+            Message<?> batchReply = waitForResponse(batchReplies.get(i));
+            if (batchReply.getMessageAction() == MessageAction.BATCH && batchReply.getData() instanceof BatchResponse batchResponse) {
+                for (int j = 0; j < batch.size(); j++) { results[batch.get(j)] = batchResponse.getResults().get(j); }
+            } else {
+                // The whole envelope failed (or timed out), so did every operation in it
+                for (int index : batch) { results[index] = batchReply; }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Parses the block size of a new file (see {@link Helper#parseSize}).
+     * @throws IllegalArgumentException If it is not a size, or not between a checksum chunk and {@link Const#MAX_BLOCK_SIZE}
+     */
+    protected static int parseBlockSize(String size) {
+        int blockSize = Helper.parseSize(size);
+        if (blockSize < Const.CHECKSUM_CHUNK_SIZE || blockSize > Const.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException(String.format(
+                    "block size %s is out of range (%d bytes to %d bytes)", size, Const.CHECKSUM_CHUNK_SIZE, Const.MAX_BLOCK_SIZE
+            ));
+        }
+        return blockSize;
+    }
+
+    // Transfers of more than one packet are streamed (see streamWrite)
+    protected static boolean isStreamed(long length) {
+        return length > Const.STREAM_PACKET_SIZE;
+    }
+
+    /**
+     * Reads a range of the data of a write, e.g. a packet of a block that is streamed from a file (so that only the
+     * packets in flight are in memory, not the whole block). The caller owns (releases) the buffer.
+     */
+    @FunctionalInterface
+    protected interface DataSource {
+        BlockBuffer read(int offset, int length) throws IOException;
+    }
+
+    /**
+     * A block write that is streamed from a source, packet by packet.
+     * @param writeRequest The write (its data is not used, the packets carry the data)
+     * @param length Bytes to write, read from the source at offsets 0 to length
+     */
+    protected record StreamedWrite(WriteRequest writeRequest, int length, DataSource source) {
+        // The data of the write itself is the source (the stream releases it)
+        protected StreamedWrite(WriteRequest writeRequest) {
+            this(writeRequest, writeRequest.getData().length(), writeRequest.getData()::slice);
+        }
+    }
+
+    /**
+     * Starts streaming block writes, one stream per write (e.g. per replica), all of them at once.
+     * @param writes The writes, the data of a write request is handed over (released) like when the request is sent
+     * @return The result of every stream (see {@link #streamWrite}), in the same order as the writes
+     */
+    protected static List<Future<Message<?>>> startStreams(List<StreamedWrite> writes) {
+        if (writes.isEmpty()) { return List.of(); }
+        List<Future<Message<?>>> streams = new ArrayList<>();
+        ExecutorService executor = Const.EXECUTION_ENGINE.newPool("stream", writes.size());
+        for (StreamedWrite write : writes) { streams.add(executor.submit(() -> streamWrite(write))); }
+        executor.shutdown();                    // The threads end with their stream
+        return streams;
+    }
+
+    /**
+     * Streams a block write to its DataNode as a sequence of packets of (at most) {@link Const#STREAM_PACKET_SIZE}
+     * bytes, with at most {@link Const#STREAM_WINDOW} packets unacknowledged at any time. The DataNode writes a packet
+     * while the next ones are still on their way, and the data in flight is bounded by the window, not by the block size.
+     * A packet is only read from the source when it is sent.
+     * @return The ack of the last packet (sent once the whole block is on disk), or the reply to the first packet that failed
+     */
+    protected static Message<?> streamWrite(StreamedWrite write) throws InterruptedException {
+        long streamID = nextStreamID.incrementAndGet();
+        WriteRequest writeRequest = write.writeRequest();
+        int packets = (write.length() + Const.STREAM_PACKET_SIZE - 1) / Const.STREAM_PACKET_SIZE;
+        Deque<CompletableFuture<Message<?>>> window = new ArrayDeque<>();
+        Message<?> result = null;
         try {
-            return responseQueue.poll(Const.WORKER_TIMEOUT, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            // That means the timer must have expired
-            System.out.println("Fatal error: timeout");
-            shutdown();
-            return null;
+            for (int sequence = 0; sequence < packets; sequence++) {
+                // A full window waits for the ack of its oldest packet, a failed packet ends the stream
+                if (window.size() == Const.STREAM_WINDOW) {
+                    result = waitForResponse(window.poll());
+                    if (result.getMessageAction() != MessageAction.PACKET) { break; }
+                }
+                int offset = sequence * Const.STREAM_PACKET_SIZE;
+                BlockBuffer packetData = write.source().read(offset, Math.min(Const.STREAM_PACKET_SIZE, write.length() - offset));
+                // Only the first packet can write the block from scratch, the others append to it
+                boolean append = sequence > 0 || writeRequest.isAppendBlock();
+                window.add(makeRequest(MessageAction.PACKET, new Packet(writeRequest, streamID, sequence, sequence == packets - 1, packetData, append)));
+            }
+        } catch (IOException e) {
+            String errorMessage = String.format("Error: failed to read the data of block %d: %s", writeRequest.getBlockID(), e.getMessage());
+            result = new Message<>(Const.MAIN_NODE_ID, MessageType.Response, MessageAction.FAIL, errorMessage);
+        } finally {
+            if (writeRequest.getData() != null) { writeRequest.getData().release(); }
+        }
+
+        // The packets still in flight (the first failure is the result of the stream)
+        while (!window.isEmpty()) {
+            Message<?> reply = waitForResponse(window.poll());
+            if (result == null || result.getMessageAction() == MessageAction.PACKET) { result = reply; }
         }
+        return result;
     }
 }
@@ -8,6 +8,7 @@ import com.lab1.distributedfs.IO.DataNodeIO.WriteResponse;
 import com.lab1.distributedfs.Message.Message;
 import com.lab1.distributedfs.Message.MessageAction;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
 
@@ -44,29 +45,29 @@ public class DeleteCommand extends Command{
         path = Helper.reconstructPathname(pathParts);
 
         try {
-            makeRequest(MessageAction.DELETE, path);
-            Message<?> deleteReply = waitForResponse();
+            Message<?> deleteReply = request(MessageAction.DELETE, path);
             assert deleteReply != null;
 
             if (deleteReply.getMessageAction() != MessageAction.DELETE)  throw new Exception("delete failed");
 
             FileNode fileNode = (FileNode) deleteReply.getData();
 
-            // Remove the blocks from the DataNode(s)
+            // Remove the blocks from the DataNode(s), grouped into one BATCH envelope per DataNode
+            List<WriteRequest> blockDeletes = new ArrayList<>();
             for (BlockNode blockNode: fileNode.getBlockList()) {
                 List<Integer> replicas = blockNode.getReplicas();
                 for (int i = 0; i < replicas.size(); i++) {
-                    WriteRequest wr = new WriteRequest(replicas.get(i), i, fileNode.getPath(), blockNode.getBlockID(), null);
-                    makeRequest(MessageAction.WRITE, wr);
-                    Message<?> blockDeleteReply = waitForResponse();
-                    assert blockDeleteReply != null;
-                    if (blockDeleteReply.getData() instanceof WriteResponse writeResponse) {
-                        if (blockDeleteReply.getMessageAction() != MessageAction.WRITE || writeResponse.getNumBytesWritten() < 0)
-                            throw new Exception("delete block failed");
-                    } else
-                        throw new Exception("delete block failed (invalid response)");
+                    blockDeletes.add(new WriteRequest(replicas.get(i), i, fileNode.getPath(), blockNode.getBlockID(), null, false, blockNode.getCompression()));
                 }
             }
+
+            for (Message<?> blockDeleteReply : requestBatched(blockDeletes)) {
+                if (blockDeleteReply.getData() instanceof WriteResponse writeResponse) {
+                    if (blockDeleteReply.getMessageAction() != MessageAction.WRITE || writeResponse.getNumBytesWritten() < 0)
+                        throw new Exception("delete block failed");
+                } else
+                    throw new Exception("delete block failed (invalid response)");
+            }
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         } catch (Exception e) {
@@ -27,8 +27,7 @@ public class LSFSCommand extends Command {
         }
 
         try {
-            makeRequest(MessageAction.LSFS, null);
-            Message<?> lsReply = waitForResponse();
+            Message<?> lsReply = request(MessageAction.LSFS, null);
             assert lsReply != null;
 
             if (lsReply.getMessageAction() == MessageAction.LSFS) {
@@ -1,12 +1,16 @@
 package com.lab1.distributedfs.ShellCommand;
 
+import com.lab1.distributedfs.FileSystem.Compression;
 import com.lab1.distributedfs.FileSystem.FileNode;
+import com.lab1.distributedfs.FileSystem.StoragePolicy;
+import com.lab1.distributedfs.FileSystem.TierPolicy;
 import com.lab1.distributedfs.Helper;
 import com.lab1.distributedfs.IO.Client.Open;
 import com.lab1.distributedfs.IO.Client.OpenMode;
 import com.lab1.distributedfs.Message.Message;
 import com.lab1.distributedfs.Message.MessageAction;
 
+import java.util.Arrays;
 import java.util.List;
 
 public class OpenCommand extends Command {
@@ -18,15 +22,20 @@ public class OpenCommand extends Command {
     @Override
     public String getHelpMessage() {
         return """
-                Usage: open <filename> <mode>?
+                Usage: open <filename> <mode>? <option>*
                     <filename> - Name of the file to open.
-                    <mode>? - (optional) Mode to open the file in (e.g., R(read), W(write)).""";
+                    <mode>? - (optional) Mode to open the file in (e.g., R(read), W(write)).
+                    <option>* - (optional) How the blocks of a new file are stored, any of:
+                                a compression (NONE, DEFLATE), by default text files are compressed,
+                                a storage policy (REPLICATED, EC), by default blocks are replicated,
+                                a block size (e.g. 64K, 64M), by default the cluster default,
+                                a tier policy (DISK, LAZY_PERSIST, TRANSIENT), by default blocks are written to disk.""";
     }
 
     @Override
     public boolean handle(List<String> commandArgs) {
         if (commandArgs.isEmpty()) {
-            System.out.println("Error: open expected one to two arguments.");
+            System.out.println("Error: open expected at least one argument.");
             return true;
         }
 
@@ -38,14 +47,43 @@ public class OpenCommand extends Command {
         String path = commandArgs.getFirst();
         String[] pathParts = Helper.getPathParts(path);
         path = Helper.reconstructPathname(pathParts);
-        OpenMode mode = commandArgs.size() > 1 ? OpenMode.valueOf(commandArgs.get(1).toUpperCase()) : OpenMode.W;
+        OpenMode mode;
+        Compression compression = null;
+        StoragePolicy storagePolicy = null;
+        int blockSize = 0;
+        TierPolicy tierPolicy = null;
+        try {
+            mode = commandArgs.size() > 1 ? OpenMode.valueOf(commandArgs.get(1).toUpperCase()) : OpenMode.W;
+        } catch (IllegalArgumentException e) {
+            System.out.printf("Error: invalid <mode> value: %s.\n", e.getMessage());
+            return true;
+        }
+        for (String option : commandArgs.subList(Math.min(2, commandArgs.size()), commandArgs.size())) {
+            String name = option.toUpperCase();
+            if (Arrays.stream(Compression.values()).anyMatch(value -> value.name().equals(name))) {
+                compression = Compression.valueOf(name);
+            } else if (Arrays.stream(StoragePolicy.values()).anyMatch(value -> value.name().equals(name))) {
+                storagePolicy = StoragePolicy.valueOf(name);
+            } else if (Arrays.stream(TierPolicy.values()).anyMatch(value -> value.name().equals(name))) {
+                tierPolicy = TierPolicy.valueOf(name);
+            } else if (Character.isDigit(name.charAt(0))) {
+                try { blockSize = parseBlockSize(name); }
+                catch (IllegalArgumentException e) {
+                    System.out.printf("Error: invalid block size: %s.\n", e.getMessage());
+                    return true;
+                }
+            } else {
+                System.out.printf("Error: invalid <option> value: %s.\n", option);
+                return true;
+            }
+        }
 
         try {
-            Open open = new Open(mode, path);
+            // Existing files keep the compression, storage policy, block size and tier policy they were created with
+            Open open = new Open(mode, path, compression, storagePolicy, blockSize, tierPolicy);
             Message<?> openReply;
 
-            makeRequest(MessageAction.FIND, path);
-            Message<?> findReply = waitForResponse();
+            Message<?> findReply = request(MessageAction.FIND, path);
             assert findReply != null;
 
             if (findReply.getMessageAction() == MessageAction.FILE && findReply.getData() instanceof FileNode fileNode) {
@@ -59,16 +97,13 @@ public class OpenCommand extends Command {
                 return true;
             }
 
-            makeRequest(MessageAction.OPEN, open);
-            openReply = waitForResponse();
+            openReply = request(MessageAction.OPEN, open);
             assert openReply != null;
 
             if (openReply.getMessageAction() == MessageAction.OPEN)
                 System.out.printf("Opened file \"%s\".\n", open.fileNode.getPath());
             else
                 System.out.printf("Error: %s.\n", openReply.getData());
-        } catch (IllegalArgumentException e) {
-            System.out.printf("Error: invalid <mode> value: %s.\n", e.getMessage());
         } catch (InterruptedException | AssertionError e) {
             throw new RuntimeException(e);
         }
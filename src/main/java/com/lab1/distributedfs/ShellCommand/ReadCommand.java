@@ -1,32 +1,45 @@
 package com.lab1.distributedfs.ShellCommand;
 
+import com.lab1.distributedfs.Const;
 import com.lab1.distributedfs.FileSystem.BlockNode;
 import com.lab1.distributedfs.FileSystem.FileNode;
 import com.lab1.distributedfs.Helper;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
 import com.lab1.distributedfs.IO.Client.Open;
 import com.lab1.distributedfs.IO.Client.OpenMode;
 import com.lab1.distributedfs.IO.DataNodeIO.ReadRequest;
 import com.lab1.distributedfs.IO.DataNodeIO.ReadResponse;
 import com.lab1.distributedfs.Message.Message;
 import com.lab1.distributedfs.Message.MessageAction;
+import com.lab1.distributedfs.Storage.Checksums;
+import com.lab1.distributedfs.Storage.ReedSolomon;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public class ReadCommand extends Command {
     @Override
     public String getDescription() {
-        return "read: Reads the content of the opened file.";
+        return "read: Reads the content (or a byte range) of the opened file.";
     }
 
     @Override
     public String getHelpMessage() {
         return """
-                Usage: read <pathname>?
+                Usage: read <pathname>? [<offset> <length>]
                     Reads the contents of the currently opened file or
                     the file of the pathname (if specified).
-                    <pathname> - (Optional) Pathname of the file to read.""";
+                    <pathname> - (Optional) Pathname of the file to read.
+                    <offset> <length> - (Optional) Byte range to read, only the blocks it touches are read.""";
     }
 
     @Override
@@ -36,57 +49,134 @@ public class ReadCommand extends Command {
             return true;
         }
 
-        if (commandArgs.size() > 1) {
+        if (commandArgs.size() > 3) {
             System.out.println("Error: invalid arguments.");
             System.out.println(this.getHelpMessage());
             return true;
         }
 
+        // A byte range comes last (after the optional pathname)
+        long offset = 0;
+        long length = -1;
+        if (commandArgs.size() >= 2) {
+            try {
+                offset = Long.parseLong(commandArgs.get(commandArgs.size() - 2));
+                length = Long.parseLong(commandArgs.getLast());
+            } catch (NumberFormatException e) {
+                offset = -1;
+            }
+            if (offset < 0 || length < 0) {
+                System.out.println("Error: invalid byte range.");
+                System.out.println(this.getHelpMessage());
+                return true;
+            }
+        }
+
         String path = "";
-        try { path = commandArgs.getFirst(); } catch (NoSuchElementException ignored) {}
+        if (commandArgs.size() % 2 == 1) { path = commandArgs.getFirst(); }
         String[] pathParts = Helper.getPathParts(path);
         path = Helper.reconstructPathname(pathParts);
 
         try {
-            // Request to open the file
-            makeRequest(MessageAction.OPEN, new Open(OpenMode.R, path));
-            Message<?> openReply = waitForResponse();
-            assert openReply != null;
-
-            // Ensure the file was successfully opened
-            if (openReply.getMessageAction() != MessageAction.OPEN) {
-                throw new Exception(String.valueOf(openReply.getData()));
+            FileNode fileNode;
+            if (pathParts.length > 0) {
+                // A file given by its pathname is looked up on the NameNode (it does not have to be opened first)
+                Message<?> findReply = request(MessageAction.FIND, path);
+                assert findReply != null;
+                if (findReply.getMessageAction() != MessageAction.FILE || !(findReply.getData() instanceof FileNode found)) {
+                    throw new Exception(String.valueOf(findReply.getData()));
+                }
+                fileNode = found;
+            } else {
+                // Request the opened file
+                Message<?> openReply = request(MessageAction.OPEN, new Open(OpenMode.R, path));
+                assert openReply != null;
+
+                // Ensure the file was successfully opened
+                if (openReply.getMessageAction() != MessageAction.OPEN) {
+                    throw new Exception(String.valueOf(openReply.getData()));
+                }
+                fileNode = ((Open) openReply.getData()).fileNode;
             }
-            Open open = (Open) openReply.getData();
-            FileNode fileNode = open.fileNode;
-
-            List<byte[]> rawDataStream  = new ArrayList<>();
-            // Iterate over the blocks in the file and request their data
-            for (BlockNode blockNode : fileNode.getBlockList()) {
-                // Send request for the block data to the appropriate data node
-                List<Integer> replicas = blockNode.getReplicas();
-                for (int i = 0; i < replicas.size(); i++) {
-                    ReadRequest rr = new ReadRequest(replicas.get(i), i, blockNode.getFilename(), blockNode.getBlockID());
-                    makeRequest(MessageAction.READ, rr);
-
-                    try {
-                        Message<?> readReply = waitForResponse();
-                        assert readReply != null;
-                        if (readReply.getMessageAction() != MessageAction.READ && !(readReply.getData() instanceof ReadResponse)) {
-                            throw new Exception(String.valueOf(readReply.getData()));
-                        }
-                        ReadResponse readResponse = (ReadResponse) readReply.getData();
-                        rawDataStream.add(readResponse.getBytes());
-                        break;
-                    } catch (InterruptedException ignored) {}
+
+            // Map the byte range to the blocks it touches (and the part of each of them), a whole block is read as such
+            List<Integer> blockIndexes = new ArrayList<>();
+            List<int[]> blockRanges = new ArrayList<>();
+            long blockStart = 0;
+            for (int blockIdx = 0; blockIdx < fileNode.getBlockList().size(); blockIdx++) {
+                long blockSize = fileNode.getBlockList().get(blockIdx).getSize();
+                if (length < 0) {
+                    blockIndexes.add(blockIdx);
+                    blockRanges.add(new int[] {0, -1});
+                } else if (blockStart < offset + length && blockStart + blockSize > offset) {
+                    int from = (int) Math.max(0, offset - blockStart);
+                    int to = (int) Math.min(blockSize, offset + length - blockStart);
+                    blockIndexes.add(blockIdx);
+                    blockRanges.add(new int[] {from, to - from});
                 }
+                blockStart += blockSize;
             }
 
-            // Display the data read from file into the console
-            System.out.printf("Data read from file \"%s\" (UTF-8):\n", open.path);
-            for (int i = 0; i < rawDataStream.size(); i++) {
-                String stringData = new String(rawDataStream.get(i));
-                System.out.printf("Block %s content: %s\n", i, stringData);
+            // Blocks (ranges) larger than a packet are streamed while they are printed (see streamBlock), the first (healthy)
+            // replica of every other block is requested at once (batched per DataNode), instead of one round trip per block
+            List<Integer> batched = new ArrayList<>();
+            List<ReadRequest> readRequests = new ArrayList<>();
+            for (int i = 0; i < blockIndexes.size(); i++) {
+                BlockNode blockNode = fileNode.getBlockList().get(blockIndexes.get(i));
+                int[] range = blockRanges.get(i);
+                if (blockNode.isErasureCoded() || isStreamed(range[1] < 0 ? blockNode.getSize() : range[1])) { continue; }
+                int first = nextReplica(blockNode, -1);
+                if (first < 0) { throw new Exception(String.format("every replica of block %d is corrupt", blockNode.getBlockID())); }
+                batched.add(i);
+                readRequests.add(readRequest(blockNode, first, range));
+            }
+            List<Message<?>> readReplies = requestBatched(readRequests);
+
+            BlockBuffer[] rawDataStream = new BlockBuffer[blockIndexes.size()];
+            for (int j = 0; j < readReplies.size(); j++) {
+                int i = batched.get(j);
+                BlockNode blockNode = fileNode.getBlockList().get(blockIndexes.get(i));
+                Message<?> readReply = readReplies.get(j);
+
+                // Fall back to the other replicas (one at a time) if the first one could not be read (or arrived corrupt)
+                int replica = readRequests.get(j).getReplica();
+                boolean intact = isIntact(readReply);
+                while (!intact && (replica = nextReplica(blockNode, replica)) >= 0) {
+                    readReply = request(MessageAction.READ, readRequest(blockNode, replica, blockRanges.get(i)));
+                    intact = isIntact(readReply);
+                }
+
+                if (!intact) {
+                    throw new Exception(readReply.getData() instanceof ReadResponse
+                        ? String.format("every replica of block %d is corrupt", blockNode.getBlockID())
+                        : String.valueOf(readReply.getData()));
+                }
+                rawDataStream[i] = requestedData((ReadResponse) readReply.getData(), readRequests.get(j));
+            }
+
+            // Erasure coded block groups are put together from their cells
+            for (int i = 0; i < blockIndexes.size(); i++) {
+                BlockNode blockNode = fileNode.getBlockList().get(blockIndexes.get(i));
+                if (blockNode.isErasureCoded()) { rawDataStream[i] = readBlockGroup(blockNode, blockRanges.get(i)); }
+            }
+
+            // Display the data read from file into the console (decoded straight from the buffers)
+            if (length < 0) {
+                System.out.printf("Data read from file \"%s\" (UTF-8):\n", fileNode.getPath());
+            } else {
+                System.out.printf("Data read from file \"%s\" (UTF-8, %d bytes from offset %d):\n", fileNode.getPath(), length, offset);
+            }
+            for (int i = 0; i < rawDataStream.length; i++) {
+                System.out.printf("Block %s content: ", blockIndexes.get(i));
+                if (rawDataStream[i] == null) {
+                    Utf8Printer printer = new Utf8Printer();
+                    streamBlock(fileNode.getBlockList().get(blockIndexes.get(i)), blockRanges.get(i), printer);
+                    printer.finish();
+                } else {
+                    System.out.print(StandardCharsets.UTF_8.decode(rawDataStream[i].nioBuffer()));
+                    rawDataStream[i].release();
+                }
+                System.out.println();
             }
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
@@ -96,4 +186,160 @@ public class ReadCommand extends Command {
 
         return true;
     }
+
+    /**
+     * Streams (a range of) a large block packet by packet: ranged reads of (at most) {@link Const#STREAM_PACKET_SIZE}
+     * bytes, with at most {@link Const#STREAM_WINDOW} of them in flight (asking for the next packet acknowledges the oldest
+     * one), so only a window of the block is ever in memory. A packet that fails (or arrives corrupt) does not restart
+     * the block, the stream resumes from that packet on the next replica.
+     * @param onPacket Gets the data of every packet, in order (and releases it)
+     */
+    private static void streamBlock(BlockNode blockNode, int[] range, Consumer<BlockBuffer> onPacket) throws Exception {
+        int position = range[0];
+        int end = range[1] < 0 ? blockNode.getSize() : range[0] + range[1];
+        Deque<ReadRequest> requested = new ArrayDeque<>();
+        Deque<CompletableFuture<Message<?>>> window = new ArrayDeque<>();
+        for (int replica = nextReplica(blockNode, -1); position < end; replica = nextReplica(blockNode, replica)) {
+            if (replica < 0) { throw new Exception(String.format("every replica of block %d failed", blockNode.getBlockID())); }
+
+            int next = position;
+            boolean failed = false;
+            while (position < end && !failed) {
+                while (window.size() < Const.STREAM_WINDOW && next < end) {
+                    ReadRequest packet = readRequest(blockNode, replica, new int[] {next, Math.min(Const.STREAM_PACKET_SIZE, end - next)});
+                    requested.add(packet);
+                    window.add(makeRequest(MessageAction.READ, packet));
+                    next += packet.getLength();
+                }
+                ReadRequest packet = requested.poll();
+                Message<?> reply = waitForResponse(window.poll());
+                failed = !isIntact(reply);
+                if (!failed) {
+                    BlockBuffer data = requestedData((ReadResponse) reply.getData(), packet);
+                    // A packet that comes back short is the end of the block
+                    position = data.length() < packet.getLength() ? end : position + data.length();
+                    onPacket.accept(data);
+                }
+            }
+
+            // Drop the packets that are still in flight (after a failure, or after a short packet)
+            while (!window.isEmpty()) {
+                requested.poll();
+                if (waitForResponse(window.poll()).getData() instanceof ReadResponse readResponse && readResponse.getData() != null) {
+                    readResponse.getData().release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads (a range of) an erasure coded block group. Its data cells are requested at once, every cell that can not be
+     * read (e.g. its DataNode is dead, or it is corrupt) is made up for by the next parity cell, and the data cells that
+     * are missing are reconstructed from the cells that arrived.
+     */
+    private static BlockBuffer readBlockGroup(BlockNode blockNode, int[] range) throws Exception {
+        int dataCells = blockNode.getDataCells();
+        int cellSize = blockNode.getCellSize();
+        byte[][] cells = new byte[dataCells + blockNode.getParityCells()][];
+        int available = 0;
+        int next = 0;
+        while (available < dataCells) {
+            List<ReadRequest> readRequests = new ArrayList<>();
+            for (; next < cells.length && readRequests.size() < dataCells - available; next++) {
+                if (!blockNode.isCorrupt(next)) { readRequests.add(readRequest(blockNode, next, new int[] {0, -1})); }
+            }
+            if (readRequests.isEmpty()) {
+                throw new Exception(String.format("block group %d lost too many cells to be reconstructed", blockNode.getBlockID()));
+            }
+            List<Message<?>> readReplies = requestBatched(readRequests);
+            for (int j = 0; j < readReplies.size(); j++) {
+                if (!isIntact(readReplies.get(j))) { continue; }
+                BlockBuffer cell = ((ReadResponse) readReplies.get(j).getData()).getData();
+                if (cell.length() == cellSize) {
+                    cells[readRequests.get(j).getReplica()] = cell.getBytes();
+                    available++;
+                }
+                cell.release();
+            }
+        }
+        new ReedSolomon(dataCells, blockNode.getParityCells()).reconstruct(cells);
+
+        // Cut the range out of the data cells (the padding of the last one is not part of the block)
+        int from = Math.min(range[0], blockNode.getSize());
+        int length = range[1] < 0 ? blockNode.getSize() - from : Math.min(range[1], blockNode.getSize() - from);
+        byte[] data = new byte[length];
+        for (int copied = 0; copied < length; ) {
+            int position = from + copied;
+            int count = Math.min(length - copied, cellSize - position % cellSize);
+            System.arraycopy(cells[position / cellSize], position % cellSize, data, copied, count);
+            copied += count;
+        }
+        return BlockBuffer.wrap(data);
+    }
+
+    private static ReadRequest readRequest(BlockNode blockNode, int replica, int[] range) {
+        int capacity = blockNode.isErasureCoded() ? blockNode.getCellSize() : blockNode.getCapacity();
+        return new ReadRequest(
+            blockNode.getReplicas().get(replica), replica, blockNode.getFilename(), blockNode.getBlockID(), range[0], range[1],
+            blockNode.getCompression(), capacity
+        );
+    }
+
+    // The DataNode sends whole checksum chunks, cuts out the range that was requested (the reply data is released)
+    private static BlockBuffer requestedData(ReadResponse readResponse, ReadRequest readRequest) {
+        BlockBuffer data = readResponse.getData();
+        if (readRequest.isWholeBlock()) { return data; }
+        int from = Math.min(readRequest.getOffset() - readResponse.getOffset(), data.length());
+        BlockBuffer requested = data.slice(from, Math.min(readRequest.getLength(), data.length() - from));
+        data.release();
+        return requested;
+    }
+
+    // Index of the next replica (after the given one) that is not known to be corrupt, -1 if there is none
+    private static int nextReplica(BlockNode blockNode, int replica) {
+        for (int i = replica + 1; i < blockNode.getReplicas().size(); i++) {
+            if (!blockNode.isCorrupt(i)) { return i; }
+        }
+        return -1;
+    }
+
+    // Verifies the received data against the checksums the DataNode sent along (a corrupt copy is dropped)
+    private static boolean isIntact(Message<?> readReply) {
+        if (readReply.getMessageAction() != MessageAction.READ || !(readReply.getData() instanceof ReadResponse readResponse)) { return false; }
+        if (Checksums.isValid(readResponse.getData(), readResponse.getChecksums())) { return true; }
+        System.out.printf("Warning: block %d from node%d failed its checksums, trying another replica.\n",
+            readResponse.getBlockID(), readResponse.getNodeID());
+        readResponse.getData().release();
+        return false;
+    }
+
+    // Prints the packets of a streamed block as they arrive (a character can be split between two packets)
+    private static class Utf8Printer implements Consumer<BlockBuffer> {
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private ByteBuffer carry = ByteBuffer.allocate(0);      // Start of a character that continues in the next packet
+
+        @Override
+        public void accept(BlockBuffer packet) {
+            ByteBuffer bytes = packet.nioBuffer();
+            if (this.carry.hasRemaining()) {
+                bytes = ByteBuffer.allocate(this.carry.remaining() + bytes.remaining()).put(this.carry).put(bytes).flip();
+            }
+            this.print(bytes, false);
+            packet.release();
+        }
+
+        public void finish() {
+            this.print(this.carry, true);
+        }
+
+        private void print(ByteBuffer bytes, boolean endOfInput) {
+            CharBuffer chars = CharBuffer.allocate(bytes.remaining() + 1);
+            this.decoder.decode(bytes, chars, endOfInput);
+            if (endOfInput) { this.decoder.flush(chars); }
+            this.carry = ByteBuffer.allocate(bytes.remaining()).put(bytes).flip();
+            System.out.print(chars.flip());
+        }
+    }
 }
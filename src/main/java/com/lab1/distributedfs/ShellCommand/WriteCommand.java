@@ -3,15 +3,22 @@ package com.lab1.distributedfs.ShellCommand;
 import com.lab1.distributedfs.Const;
 import com.lab1.distributedfs.FileSystem.BlockNode;
 import com.lab1.distributedfs.FileSystem.FileNode;
+import com.lab1.distributedfs.FileSystem.StoragePolicy;
+import com.lab1.distributedfs.FileSystem.TierPolicy;
 import com.lab1.distributedfs.Helper;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
 import com.lab1.distributedfs.IO.Client.Open;
 import com.lab1.distributedfs.IO.Client.OpenMode;
 import com.lab1.distributedfs.IO.DataNodeIO.WriteRequest;
+import com.lab1.distributedfs.IO.DataNodeIO.WriteResponse;
 import com.lab1.distributedfs.Message.Message;
 import com.lab1.distributedfs.Message.MessageAction;
 import com.lab1.distributedfs.Node.DataNodeStatus;
+import com.lab1.distributedfs.Storage.ReedSolomon;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Future;
 
 public class WriteCommand extends Command {
     @Override
@@ -48,15 +55,16 @@ public class WriteCommand extends Command {
 
         try {
             // Retrieve Open object from the client thread
-            makeRequest(MessageAction.OPEN, new Open(OpenMode.W, path));
-            Message<?> openReply = waitForResponse();
+            Message<?> openReply = request(MessageAction.OPEN, new Open(OpenMode.W, path));
             assert openReply != null;
 
             if (openReply.getMessageAction() != MessageAction.OPEN) throw new Exception(String.valueOf(openReply.getData()));
             assert openReply.getMessageAction() == MessageAction.OPEN && openReply.getData() instanceof Open;
 
             Open open = (Open) openReply.getData();
-            this.handleWrite(open, data.getBytes());
+            BlockBuffer buffer = BlockBuffer.wrap(data.getBytes());
+            try { this.handleWrite(open, buffer); }
+            finally { buffer.release(); }
         } catch (Exception e) {
             System.out.println("Error: " + e.getMessage());
             return true;
@@ -64,10 +72,24 @@ public class WriteCommand extends Command {
         return true;
     }
 
-    protected void handleWrite(Open open, byte[] data) throws Exception {
+    /**
+     * Writes (appends) the data to the opened file, block by block.
+     * The data is only ever sliced (never copied), every WriteRequest carries its own reference to the slice.
+     * @param open The opened file
+     * @param data Data to append, still owned (released) by the caller
+     */
+    protected void handleWrite(Open open, BlockBuffer data) throws Exception {
+        this.handleWrite(open, data.length(), data::slice);
+    }
+
+    /**
+     * Same as above, for data that is read from a source as it is needed (e.g. a file): the blocks that are streamed are
+     * read one packet at a time, the others (at most a packet each) as a whole.
+     * @param length Bytes to append, read from the source at offsets 0 to length
+     */
+    protected void handleWrite(Open open, int length, DataSource source) throws Exception {
         // Second: retrieve valid (active) data nodes that was can write to
-        makeRequest(MessageAction.STAT, null);
-        Message<?> statReply = waitForResponse();
+        Message<?> statReply = request(MessageAction.STAT, null);
         assert statReply != null;
 
         if (statReply.getMessageAction() != MessageAction.STAT) throw new Exception(String.valueOf(statReply.getData()));
@@ -105,72 +127,134 @@ public class WriteCommand extends Command {
                 .map(Map.Entry::getKey)
                 .toList();
 
-        // Sanity check: need at least `replicationFactor` alive nodes
-        if (nodeIds.size() < Const.REPLICATION_FACTOR) {
-            throw new Exception("not enough alive DataNodes for replication");
+        // Sanity check: need at least `replicationFactor` alive nodes (or one per cell of an erasure coded block group)
+        FileNode fileNode = open.fileNode;
+        StoragePolicy storagePolicy = fileNode.getStoragePolicy();
+        if (nodeIds.size() < storagePolicy.getWidth()) {
+            throw new Exception(String.format("not enough alive DataNodes for storage policy %s (%d needed)", storagePolicy, storagePolicy.getWidth()));
         }
 
         // Final step: send out the write tasks
 
-        // Convert the string data into a byte array using UTF-8 encoding
-        byte[] dataBytes = data;
-
-        FileNode fileNode = open.fileNode;
+        int offset = 0;                         // How much of the data has been assigned to blocks so far
+        // The writes are collected first, then sent grouped per DataNode (one BATCH envelope per node),
+        // the ones larger than a packet are streamed
+        List<WriteRequest> writeRequests = new ArrayList<>();
+        List<StreamedWrite> streamedWrites = new ArrayList<>();
 
         for (BlockNode blockNode : fileNode.getBlockList()) {
-            if (blockNode.getFreeSpace() > 0) {
+            // Block groups are written once (appending to one would mean reading it back to encode it again)
+            if (!blockNode.isErasureCoded() && blockNode.getFreeSpace() > 0) {
                 // Found a block is still has space
                 int freeSpace = blockNode.getFreeSpace();
-                int bytesToWrite = Math.min(freeSpace, dataBytes.length);
-                byte[] dataToWrite = Arrays.copyOfRange(dataBytes, 0, bytesToWrite);
-
-                List<Integer> replicas = blockNode.getReplicas();
-                for (int i = 0; i < replicas.size(); i++) {
-                    blockNode.expand(dataToWrite.length);
-                    WriteRequest writeRequest = new WriteRequest(
-                            replicas.get(i),
-                            i,
-                            open.path,
-                            blockNode.getBlockID(),
-                            dataToWrite,
-                            true
-                    );
-                    // Send the write command off to that DataNode
-                    makeRequest(MessageAction.WRITE, writeRequest);
-                    Message<?> writeReply = waitForResponse();
-                    assert writeReply != null;
-                }
-                dataBytes = Arrays.copyOfRange(dataBytes, bytesToWrite, dataBytes.length);
+                int bytesToWrite = Math.min(freeSpace, length - offset);
+                if (bytesToWrite == 0) { continue; }
+
+                blockNode.expand(bytesToWrite);
+                addWrite(writeRequests, streamedWrites, open.path, blockNode, source, offset, bytesToWrite, true, fileNode.getTierPolicy());
+                offset += bytesToWrite;
             }
         }
 
         int startBlockID = fileNode.getBlockList().size();
-        List<byte[]> chunks = Helper.splitDataIntoChunks(dataBytes);
-        for (int chunkIdx = 0; chunkIdx < chunks.size(); chunkIdx++) {
+        int chunks = (length - offset + fileNode.getBlockSize() - 1) / fileNode.getBlockSize();
+        for (int chunkIdx = 0; chunkIdx < chunks; chunkIdx++) {
             List<Integer> replicas = new ArrayList<>();
-            byte[] chunkData = chunks.get(chunkIdx);
+            int chunkOffset = offset + chunkIdx * fileNode.getBlockSize();
+            int chunkLength = Math.min(fileNode.getBlockSize(), length - chunkOffset);
             int blockID = startBlockID + chunkIdx;
             // pick N distinct targets in round-robin fashion
-            for (int r = 0; r < Const.REPLICATION_FACTOR; r++) {
+            for (int r = 0; r < storagePolicy.getWidth(); r++) {
                 int nodeIndex     = (chunkIdx + r) % nodeIds.size();
-                int dataNodeId    = nodeIds.get(nodeIndex);
-                // this goes into the “replica” field of your filename
-                replicas.add(dataNodeId);
-                // build a WriteRequest (a subclass of Block)
-                WriteRequest wr = new WriteRequest(
-                        /* dataNodeID = */ dataNodeId,
-                        /* replica    = */ r,
-                        /* pathname   = */ open.path,
-                        /* blockID    = */ blockID,
-                        /* data       = */ chunkData,
-                        /* appendBlock= */ false
-                );
-                // Send the write command off to that DataNode
-                makeRequest(MessageAction.WRITE, wr);
-                Message<?> writeReply = waitForResponse();
-                assert writeReply != null;
+                // the index in the list goes into the “replica” field of the block filename
+                replicas.add(nodeIds.get(nodeIndex));
             }
-            open.fileNode.getBlockList().add(new BlockNode(blockID, open.path, data.length, replicas));
+            BlockNode blockNode = new BlockNode(blockID, open.path, chunkLength, replicas, fileNode.getCompression(), fileNode.getBlockSize());
+            open.fileNode.getBlockList().add(blockNode);
+            if (storagePolicy == StoragePolicy.EC) {
+                blockNode.setCells(Const.EC_DATA_CELLS, Const.EC_PARITY_CELLS);
+                for (WriteRequest cellWrite : erasureCodedWrites(open.path, blockNode, source, chunkOffset, chunkLength, fileNode.getTierPolicy())) {
+                    if (isStreamed(cellWrite.getData().length())) { streamedWrites.add(new StreamedWrite(cellWrite)); }
+                    else { writeRequests.add(cellWrite); }
+                }
+            } else {
+                addWrite(writeRequests, streamedWrites, open.path, blockNode, source, chunkOffset, chunkLength, false, fileNode.getTierPolicy());
+            }
+        }
+
+        // Send the write commands off to the DataNodes and wait for every block to be acknowledged (by its whole pipeline)
+        // (the streams run while the batched writes are in flight)
+        List<Future<Message<?>>> streams = startStreams(streamedWrites);
+        for (Message<?> reply : requestBatched(writeRequests)) {
+            if (reply.getMessageAction() != MessageAction.WRITE) throw new Exception(String.valueOf(reply.getData()));
+            updateStoredSize(fileNode, reply);
+        }
+        for (Future<Message<?>> stream : streams) {
+            Message<?> reply = stream.get();
+            if (reply.getMessageAction() != MessageAction.PACKET) throw new Exception(String.valueOf(reply.getData()));
+            updateStoredSize(fileNode, reply);
+        }
+    }
+
+    // A write that fits into a packet is read right away (and batched), a larger one is read packet by packet as it is streamed
+    private static void addWrite(List<WriteRequest> writeRequests, List<StreamedWrite> streamedWrites, String path, BlockNode blockNode,
+                                 DataSource source, int offset, int length, boolean append, TierPolicy tierPolicy) throws IOException {
+        if (isStreamed(length)) {
+            streamedWrites.add(new StreamedWrite(pipelinedWrite(path, blockNode, null, append, tierPolicy), length, (from, count) -> source.read(offset + from, count)));
+        } else {
+            writeRequests.add(pipelinedWrite(path, blockNode, source.read(offset, length), append, tierPolicy));
+        }
+    }
+
+    /**
+     * The block is only sent to the DataNode of its first replica, which forwards it down the pipeline of the other
+     * replicas (see DataNode), so the client sends every block once instead of once per replica.
+     * @param data Data of the write, the request takes over the reference (null if the write is streamed)
+     */
+    private static WriteRequest pipelinedWrite(String path, BlockNode blockNode, BlockBuffer data, boolean append, TierPolicy tierPolicy) {
+        List<Integer> replicas = blockNode.getReplicas();
+        return new WriteRequest(
+                replicas.getFirst(), 0, path, blockNode.getBlockID(), data, append, blockNode.getCompression(), replicas.subList(1, replicas.size()),
+                blockNode.getCapacity(), tierPolicy
+        );
+    }
+
+    /**
+     * Splits a block into the data cells of its group and computes the parity cells, every cell is written to the
+     * DataNode of its own (see {@link BlockNode#setCells}).
+     * @param offset Where the data of the block group starts in the source (read one cell at a time)
+     */
+    private static List<WriteRequest> erasureCodedWrites(String path, BlockNode blockNode, DataSource source, int offset, int length, TierPolicy tierPolicy) throws IOException {
+        List<Integer> replicas = blockNode.getReplicas();
+        byte[][] cells = new byte[replicas.size()][blockNode.getCellSize()];
+        for (int i = 0; i < blockNode.getDataCells(); i++) {
+            int cellOffset = i * cells[i].length;
+            if (cellOffset >= length) { break; }
+            BlockBuffer cell = source.read(offset + cellOffset, Math.min(cells[i].length, length - cellOffset));
+            cell.nioBuffer().get(cells[i], 0, cell.length());
+            cell.release();
+        }
+        new ReedSolomon(blockNode.getDataCells(), blockNode.getParityCells()).encode(cells);
+
+        List<WriteRequest> writeRequests = new ArrayList<>(cells.length);
+        for (int i = 0; i < cells.length; i++) {
+            writeRequests.add(new WriteRequest(
+                    replicas.get(i), i, path, blockNode.getBlockID(), BlockBuffer.wrap(cells[i]), false, blockNode.getCompression(), List.of(),
+                    blockNode.getCapacity(), tierPolicy
+            ));
+        }
+        return writeRequests;
+    }
+
+    // The first replica tells how much of the disk the block takes up (compressed blocks are smaller than their size),
+    // the cells of a block group add up
+    private static void updateStoredSize(FileNode fileNode, Message<?> reply) {
+        if (!(reply.getData() instanceof WriteResponse writeResponse) || writeResponse.getStoredSize() < 0) { return; }
+        BlockNode blockNode = fileNode.getBlockList().get(writeResponse.getBlockID());
+        if (blockNode.isErasureCoded()) {
+            blockNode.addStoredSize(writeResponse.getStoredSize());
+        } else if (writeResponse.getReplica() == 0) {
+            blockNode.setStoredSize(writeResponse.getStoredSize());
         }
     }
 }
@@ -1,5 +1,6 @@
 package com.lab1.distributedfs.ShellCommand;
 
+import com.lab1.distributedfs.Const;
 import com.lab1.distributedfs.Helper;
 import com.lab1.distributedfs.IO.Client.Open;
 import com.lab1.distributedfs.IO.Client.OpenMode;
@@ -7,6 +8,9 @@ import com.lab1.distributedfs.Message.Message;
 import com.lab1.distributedfs.Message.MessageAction;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 
@@ -19,11 +23,12 @@ public class WriteFileCommand extends WriteCommand {
     @Override
     public String getHelpMessage() {
         return """
-                Usage: write_file <data_path> <pathname>?
+                Usage: write_file <data_path> <pathname>? <block_size>?
                     Data read from the data file will be appended to the most
                     recently opened file or file specified by the pathname.
                     <data_path> - Path to the data file we want to write (or append).
-                    <pathname> - Pathname to the file to write (or append).""";
+                    <pathname> - Pathname to the file to write (or append).
+                    <block_size> - (optional) Block size (e.g. 64K, 64M) if the file is created, by default the cluster default.""";
     }
 
     @Override
@@ -40,21 +45,32 @@ public class WriteFileCommand extends WriteCommand {
 
         String dataFilePath = commandArgs.get(0);
         String path = commandArgs.size() > 1 ? commandArgs.get(1) : "";
+        int blockSize;
+        try { blockSize = commandArgs.size() > 2 ? parseBlockSize(commandArgs.get(2)) : 0; }
+        catch (IllegalArgumentException e) {
+            System.out.printf("Error: invalid block size: %s.\n", e.getMessage());
+            return true;
+        }
 
-        try {
-            // Read and split the file into chunks
-            byte[] data = Helper.readFileIntoByteArray(dataFilePath);
-            List<byte[]> chunks = Helper.splitFileIntoChunks(data);
-
-            makeRequest(MessageAction.OPEN, new Open(OpenMode.W, path));
-            Message<?> openReply = waitForResponse();
+        try (FileChannel channel = FileChannel.open(Paths.get(dataFilePath), StandardOpenOption.READ)) {
+            // A file that is already open keeps its block size
+            Message<?> openReply = request(MessageAction.OPEN, new Open(OpenMode.W, path, null, null, blockSize));
             assert openReply != null;
 
             if (openReply.getMessageAction() != MessageAction.OPEN) throw new Exception(String.valueOf(openReply.getData()));
             assert openReply.getMessageAction() == MessageAction.OPEN && openReply.getData() instanceof Open;
 
             Open open = (Open) openReply.getData();
-            this.handleWrite(open, data);
+
+            // The file is appended one window at a time, a window holds at least one block (so that large blocks are not
+            // written as a series of appends). The blocks are read as they are sent: the small ones of a window as a whole,
+            // large ones one packet at a time (so only the packets in flight are in memory, however large the block is)
+            long fileSize = channel.size();
+            int window = Math.max(Const.WRITE_FILE_WINDOW, open.fileNode.getBlockSize());
+            for (long position = 0; position < fileSize; position += window) {
+                long start = position;
+                this.handleWrite(open, (int) Math.min(window, fileSize - position), (offset, length) -> Helper.readFileIntoBuffer(channel, start + offset, length));
+            }
         } catch (IOException e) {
             System.out.printf("Error: %s.\n", e.getMessage());
             return true;
@@ -0,0 +1,122 @@
+package com.lab1.distributedfs.Storage;
+
+import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <h1>BlockCache</h1>
+ *
+ * <p>
+ *  LRU cache of recently read blocks of a DataNode, bounded by bytes. The cached data stays in the (direct) buffers
+ *  the blocks were read into (along with their checksums), so a hit is handed out as a zero-copy slice and costs no
+ *  disk I/O at all.
+ * </p>
+ *
+ * <p>
+ *  Every write/delete of a block must {@link #invalidate} it once it is done. A read that missed only caches what it
+ *  loaded if no block was invalidated in the meantime ({@link #generation()}), so a slow read can not put stale data
+ *  back into the cache after a write.
+ * </p>
+ */
+public class BlockCache {
+    private final long capacity;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    private long generation = 0;
+
+    // Statistics
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param capacity Max. bytes of cached data (0 disables the cache)
+     */
+    public BlockCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param data Cached data (a slice on the way out, the caller owns, and must release it)
+     */
+    public record Entry(BlockBuffer data, int[] checksums) {}
+
+    /**
+     * @return The cached block, or null on a miss
+     */
+    public synchronized Entry get(String blockName) {
+        Entry cached = this.entries.get(blockName);
+        if (cached == null) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return new Entry(cached.data.slice(0, cached.data.length()), cached.checksums);
+    }
+
+    // Does not count as an access (e.g. the scrubber skips the blocks that are hot)
+    public synchronized boolean contains(String blockName) {
+        return this.entries.containsKey(blockName);
+    }
+
+    // Take before loading a block that missed, and hand it to put()
+    public synchronized long generation() {
+        return this.generation;
+    }
+
+    /**
+     * Caches a block that was loaded after a miss. The cache keeps its own reference, the caller keeps its own.
+     * @param generation Value of {@link #generation()} from before the block was loaded
+     */
+    public synchronized void put(String blockName, BlockBuffer data, int[] checksums, long generation) {
+        long charge = charge(data);
+        if (generation != this.generation || charge > this.capacity || this.entries.containsKey(blockName)) { return; }
+
+        this.entries.put(blockName, new Entry(data.slice(0, data.length()), checksums));
+        this.size += charge;
+
+        // Evict the least recently used blocks until the cache fits again
+        Iterator<Map.Entry<String, Entry>> iterator = this.entries.entrySet().iterator();
+        while (this.size > this.capacity && iterator.hasNext()) {
+            BlockBuffer evicted = iterator.next().getValue().data;
+            iterator.remove();
+            this.size -= charge(evicted);
+            evicted.release();
+            this.evictions++;
+        }
+    }
+
+    public synchronized void invalidate(String blockName) {
+        this.generation++;
+        Entry cached = this.entries.remove(blockName);
+        if (cached != null) {
+            this.size -= charge(cached.data);
+            cached.data.release();
+        }
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    public synchronized long getSize() {
+        return this.size;
+    }
+
+    // A cached block pins a whole pooled chunk (a block), even if it holds less data
+    private static long charge(BlockBuffer data) {
+        return Math.max(data.length(), Const.BLOCK_SIZE);
+    }
+}
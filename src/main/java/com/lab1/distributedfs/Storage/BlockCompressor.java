@@ -0,0 +1,226 @@
+package com.lab1.distributedfs.Storage;
+
+import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+import com.lab1.distributedfs.IO.Buffer.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <h1>BlockCompressor</h1>
+ *
+ * <p>
+ *  Stored form of compressed blocks ({@link com.lab1.distributedfs.FileSystem.Compression#DEFLATE}). Every write of a
+ *  block (and every append to it) is deflated on its own and stored as one frame, so an append never has to read,
+ *  inflate and rewrite what the block already holds:
+ * </p>
+ *
+ * <pre>
+ *  | stored length (int) | logical length (int) | data (stored length bytes) |
+ * </pre>
+ *
+ * <p>
+ *  Data that does not get smaller (e.g. a tiny append) is stored raw, which the frame tells by the two lengths being
+ *  equal. The block store only ever sees the frames: its checksums (and the scrubber) cover the stored bytes.
+ *  The frame headers are an index from the logical data to the stored bytes ({@link Frames}), so a range of a large
+ *  block is read by inflating only the frames that cover it.
+ * </p>
+ */
+public final class BlockCompressor {
+    public static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private BlockCompressor() {}
+
+    /**
+     * @return One frame holding the data, in a pooled buffer (the caller still releases the data)
+     */
+    public static BlockBuffer compress(BlockBuffer data) {
+        int length = data.length();
+        BlockBuffer frame = BufferPool.DIRECT.allocate(HEADER_SIZE + length);
+        ByteBuffer out = frame.nioBuffer().position(HEADER_SIZE);
+
+        Deflater deflater = new Deflater(Const.COMPRESSION_LEVEL, true);
+        try {
+            deflater.setInput(data.nioBuffer());
+            deflater.finish();
+            while (!deflater.finished() && out.hasRemaining()) { deflater.deflate(out); }
+            // Only worth it if it got smaller
+            if (!deflater.finished() || out.position() - HEADER_SIZE >= length) {
+                out.position(HEADER_SIZE).put(data.nioBuffer());
+            }
+        } finally {
+            deflater.end();
+        }
+
+        int stored = out.position() - HEADER_SIZE;
+        frame.nioBuffer().putInt(stored).putInt(length);
+        BlockBuffer result = frame.slice(0, HEADER_SIZE + stored);
+        frame.release();
+        return result;
+    }
+
+    /**
+     * @param stored Every frame of a block
+     * @return The logical data of the block, in a pooled buffer (the caller still releases the stored data)
+     * @throws IOException If the frames are damaged
+     */
+    public static BlockBuffer decompress(BlockBuffer stored) throws IOException {
+        ByteBuffer in = stored.nioBuffer();
+        BlockBuffer data = BufferPool.DIRECT.allocate(logicalLength(in));
+        ByteBuffer out = data.nioBuffer();
+
+        Inflater inflater = new Inflater(true);
+        try {
+            while (in.hasRemaining()) {
+                int storedLength = in.getInt();
+                int logicalLength = in.getInt();
+                ByteBuffer frame = in.slice(in.position(), storedLength);
+                ByteBuffer target = out.slice(out.position(), logicalLength);
+                if (storedLength == logicalLength) {
+                    target.put(frame);
+                } else {
+                    inflater.reset();
+                    inflater.setInput(frame);
+                    while (!inflater.finished() && target.hasRemaining()) {
+                        if (inflater.inflate(target) == 0 && (inflater.needsInput() || inflater.needsDictionary())) { break; }
+                    }
+                    if (!inflater.finished() || target.hasRemaining()) {
+                        throw new IOException("truncated compressed frame");
+                    }
+                }
+                in.position(in.position() + storedLength);
+                out.position(out.position() + logicalLength);
+            }
+            return data;
+        } catch (DataFormatException | IOException | RuntimeException e) {
+            data.release();
+            throw e instanceof IOException io ? io : new IOException("damaged compressed frame: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reads only the frame headers of a block.
+     * @return Logical (uncompressed) length of the block, or -1 if the block does not exist
+     */
+    public static long logicalLength(BlockStore store, String blockName) throws IOException {
+        Frames frames = frames(store, blockName);
+        return frames == null ? -1 : frames.logicalLength();
+    }
+
+    /**
+     * Reads only the frame headers of a block.
+     * @return Where the frames of the block are, or null if the block does not exist
+     * @throws IOException If a frame header is damaged (e.g. a frame that would end past the end of the block)
+     */
+    public static Frames frames(BlockStore store, String blockName) throws IOException {
+        long size = store.size(blockName);
+        if (size < 0) { return null; }
+        Frames frames = Frames.EMPTY;
+        for (long position = 0; position < size; position = frames.storedLength()) {
+            BlockBuffer header = store.read(blockName, (int) position, HEADER_SIZE);
+            if (header == null) { return null; }
+            try {
+                if (header.length() < HEADER_SIZE) { throw new IOException("truncated frame header of " + blockName); }
+                ByteBuffer fields = header.nioBuffer();
+                int storedLength = fields.getInt();
+                int logicalLength = fields.getInt();
+                // Every frame moves the scan forward, and stays within the block
+                if (storedLength <= 0 || logicalLength < 0 || storedLength > size - position - HEADER_SIZE) {
+                    throw new IOException(String.format("damaged frame header of %s at %d", blockName, position));
+                }
+                frames = frames.append(storedLength, logicalLength);
+            } finally {
+                header.release();
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Where the frames of a compressed block end, in the stored bytes (header included) and in the logical data.
+     * Frames are only ever appended to a block, so an index stays valid for the data it covers until the block is
+     * overwritten.
+     */
+    public static final class Frames {
+        public static final Frames EMPTY = new Frames(new long[0], new long[0]);
+
+        private final long[] storedEnds;
+        private final long[] logicalEnds;
+
+        private Frames(long[] storedEnds, long[] logicalEnds) {
+            this.storedEnds = storedEnds;
+            this.logicalEnds = logicalEnds;
+        }
+
+        public int count() {
+            return this.storedEnds.length;
+        }
+
+        public long storedLength() {
+            return this.count() == 0 ? 0 : this.storedEnds[this.count() - 1];
+        }
+
+        public long logicalLength() {
+            return this.count() == 0 ? 0 : this.logicalEnds[this.count() - 1];
+        }
+
+        // The index of the block after a frame was appended to it
+        public Frames append(int storedLength, int logicalLength) {
+            long[] storedEnds = Arrays.copyOf(this.storedEnds, this.count() + 1);
+            long[] logicalEnds = Arrays.copyOf(this.logicalEnds, this.count() + 1);
+            storedEnds[this.count()] = this.storedLength() + HEADER_SIZE + storedLength;
+            logicalEnds[this.count()] = this.logicalLength() + logicalLength;
+            return new Frames(storedEnds, logicalEnds);
+        }
+
+        /**
+         * The frames that cover a range of the logical data.
+         * @param length Length of the range, -1 for up to the end of the block
+         * @return {stored offset, stored length, logical offset} of the frames (an empty range at the end if none do)
+         */
+        public long[] cover(long offset, long length) {
+            int first = firstEndAfter(this.logicalEnds, offset);
+            if (first == this.count() || length == 0) { return new long[] {this.storedLength(), 0, this.logicalLength()}; }
+            int last = length < 0 ? this.count() - 1 : Math.min(this.count() - 1, firstEndAfter(this.logicalEnds, offset + length - 1));
+            long storedStart = first == 0 ? 0 : this.storedEnds[first - 1];
+            long logicalStart = first == 0 ? 0 : this.logicalEnds[first - 1];
+            return new long[] {storedStart, this.storedEnds[last] - storedStart, logicalStart};
+        }
+
+        // Index of the first end after the value (the frame that holds it), the number of ends if there is none
+        private static int firstEndAfter(long[] ends, long value) {
+            int low = 0;
+            int high = ends.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (ends[middle] > value) { high = middle; }
+                else { low = middle + 1; }
+            }
+            return low;
+        }
+    }
+
+    // Sum of the logical lengths of the frames in the buffer (from its position on)
+    private static int logicalLength(ByteBuffer frames) throws IOException {
+        long length = 0;
+        for (int position = frames.position(); position < frames.limit(); ) {
+            if (frames.limit() - position < HEADER_SIZE) { throw new IOException("truncated frame header"); }
+            int storedLength = frames.getInt(position);
+            int logicalLength = frames.getInt(position + Integer.BYTES);
+            if (storedLength < 0 || logicalLength < 0 || storedLength > frames.limit() - position - HEADER_SIZE) {
+                throw new IOException("damaged frame header");
+            }
+            position += HEADER_SIZE + storedLength;
+            length += logicalLength;
+        }
+        if (length > Integer.MAX_VALUE) { throw new IOException("damaged frame header"); }
+        return (int) length;
+    }
+}
@@ -0,0 +1,137 @@
+package com.lab1.distributedfs.Storage;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * <h1>BlockManifest</h1>
+ *
+ * <p>
+ *  On-disk copy of the block index of a {@link FileBlockStore} (block name -> length, checksums), so that a DataNode
+ *  starts by reading one file instead of scanning (and stat-ing) every block in its storage directory.
+ * </p>
+ *
+ * <p>
+ *  The manifest is only trusted after a clean shutdown: it is written by {@link #save} when the store is closed, and
+ *  removed by {@link #load} as soon as it is read. After a crash there is no manifest, and the index is rebuilt from
+ *  the block files. Entries that are loaded are still validated against their block on first use (lazily).
+ * </p>
+ *
+ * <pre>
+ *  | magic (int) | version (int) | count (int) | count x [name (UTF) | length (long) | checksums (int + ints)] | CRC32C (long) |
+ * </pre>
+ */
+public final class BlockManifest {
+    public static final String FILENAME = "blocks.manifest";
+    private static final int MAGIC = 0x424D4E46;                // "BMNF"
+    private static final int VERSION = 1;
+
+    private BlockManifest() {}
+
+    /**
+     * Index entry of a block.
+     */
+    public static final class Entry {
+        public final long length;
+        public final int[] checksums;               // Null if the block was stored without checksums
+        public final boolean validated;             // False if it comes from the manifest and was not compared to the block yet
+
+        public Entry(long length, int[] checksums, boolean validated) {
+            this.length = length;
+            this.checksums = checksums;
+            this.validated = validated;
+        }
+    }
+
+    /**
+     * Reads (and removes) the manifest of a storage directory.
+     * @return The index it holds (entries not validated yet), or null if there is no (intact) manifest
+     */
+    public static Map<String, Entry> load(File storageDir) {
+        Path path = new File(storageDir, FILENAME).toPath();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            CRC32C crc = new CRC32C();
+            DataInputStream checked = new DataInputStream(new CheckedInputStream(in, crc));
+            if (checked.readInt() != MAGIC || checked.readInt() != VERSION) { return null; }
+
+            int count = checked.readInt();
+            Map<String, Entry> index = new ConcurrentHashMap<>(Math.max(16, count * 4 / 3 + 1));
+            for (int i = 0; i < count; i++) {
+                String name = checked.readUTF();
+                long length = checked.readLong();
+                int chunks = checked.readInt();
+                int[] checksums = chunks < 0 ? null : new int[chunks];
+                for (int c = 0; c < chunks; c++) { checksums[c] = checked.readInt(); }
+                index.put(name, new Entry(length, checksums, false));
+            }
+            // Torn (or otherwise damaged) manifests are not used
+            if (in.readLong() != crc.getValue()) { return null; }
+            return index;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.printf("Ignoring the block manifest of %s: %s%n", storageDir, e.getMessage());
+            return null;
+        } finally {
+            // From now on the manifest would go stale with every write, until the store writes it again
+            try {
+                Files.deleteIfExists(path);
+                forceDirectory(storageDir);
+            } catch (IOException e) {
+                System.err.printf("Failed to remove the block manifest of %s: %s%n", storageDir, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes the manifest of a storage directory (atomically: a temporary file that is forced, then renamed).
+     */
+    public static void save(File storageDir, Map<String, Entry> index) throws IOException {
+        Path path = new File(storageDir, FILENAME).toPath();
+        Path temporary = new File(storageDir, FILENAME + ".tmp").toPath();
+        Files.createDirectories(storageDir.toPath());
+
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+            CRC32C crc = new CRC32C();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            DataOutputStream checked = new DataOutputStream(new CheckedOutputStream(out, crc));
+
+            Map<String, Entry> snapshot = Map.copyOf(index);
+            checked.writeInt(MAGIC);
+            checked.writeInt(VERSION);
+            checked.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+                checked.writeUTF(entry.getKey());
+                checked.writeLong(entry.getValue().length);
+                int[] checksums = entry.getValue().checksums;
+                checked.writeInt(checksums == null ? -1 : checksums.length);
+                if (checksums != null) { for (int checksum : checksums) { checked.writeInt(checksum); } }
+            }
+            checked.flush();
+            out.writeLong(crc.getValue());
+            out.flush();
+            file.getChannel().force(false);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(storageDir);
+    }
+
+    // Makes the creation/removal of files in a directory durable
+    static void forceDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+            // Not every platform can open (and force) a directory
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.lab1.distributedfs.Storage;
+
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * <h1>BlockScrubber</h1>
+ *
+ * <p>
+ *  Low-priority background thread of a DataNode that reads every block of its {@link BlockStore} again and verifies
+ *  it against its checksums, so that corruption of blocks nobody reads (e.g. bit rot, a torn write) is found before
+ *  the other replicas are gone as well.
+ * </p>
+ *
+ * <ul>
+ *     <li>Blocks that are in the {@link BlockCache} are skipped (they are hot, and were verified when they were loaded)</li>
+ *     <li>Reading is throttled to an I/O budget (bytes per second), a pass is followed by a pause</li>
+ *     <li>Corrupt blocks are handed to a callback (the DataNode reports them to the NameNode)</li>
+ * </ul>
+ */
+public class BlockScrubber implements Closeable {
+    private final BlockStore store;
+    private final BlockCache cache;
+    private final long bytesPerSecond;
+    private final long intervalMillis;
+    private final Consumer<String> onCorrupt;
+    private final Thread scrubber;
+
+    // Statistics
+    private final AtomicLong scrubbedBlocks = new AtomicLong(0);
+    private final AtomicLong corruptBlocks = new AtomicLong(0);
+
+    public BlockScrubber(String name, BlockStore store, BlockCache cache, long bytesPerSecond, long intervalMillis, Consumer<String> onCorrupt) {
+        this.store = store;
+        this.cache = cache;
+        this.bytesPerSecond = bytesPerSecond;
+        this.intervalMillis = intervalMillis;
+        this.onCorrupt = onCorrupt;
+        this.scrubber = Thread.ofPlatform().name(name).daemon().priority(Thread.MIN_PRIORITY).start(this::run);
+    }
+
+    public long getScrubbedBlocks() {
+        return this.scrubbedBlocks.get();
+    }
+
+    public long getCorruptBlocks() {
+        return this.corruptBlocks.get();
+    }
+
+    @Override
+    public void close() {
+        this.scrubber.interrupt();
+        try {
+            this.scrubber.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ========================================== INTERNAL FUNCTIONS ===================================================
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                for (String blockName : this.store.getBlockNames()) {
+                    if (Thread.currentThread().isInterrupted()) { return; }
+                    if (this.cache.contains(blockName)) { continue; }
+                    long bytes = this.scrub(blockName);
+                    // Stay within the I/O budget
+                    TimeUnit.NANOSECONDS.sleep(bytes * 1_000_000_000L / Math.max(1, this.bytesPerSecond));
+                }
+                TimeUnit.MILLISECONDS.sleep(this.intervalMillis);
+            }
+        } catch (InterruptedException ignored) {
+            // Closed
+        }
+    }
+
+    // Returns the number of bytes that were read
+    private long scrub(String blockName) {
+        BlockBuffer data = null;
+        try {
+            // The checksums are read first, a write in between then looks corrupt, so it is checked a second time
+            int[] checksums = this.store.readChecksums(blockName);
+            data = this.store.read(blockName);
+            if (data == null || checksums == null) { return 0; }
+            this.scrubbedBlocks.incrementAndGet();
+            if (Checksums.isValid(data, checksums)) { return data.length(); }
+
+            data.release();
+            data = null;
+            data = this.store.read(blockName);
+            if (data == null || Checksums.isValid(data, this.store.readChecksums(blockName))) { return 0; }
+            this.corruptBlocks.incrementAndGet();
+            this.onCorrupt.accept(blockName);
+            return data.length();
+        } catch (IOException | RuntimeException e) {
+            System.err.printf("%s: failed to scrub block %s: %s%n", Thread.currentThread().getName(), blockName, e.getMessage());
+            return 0;
+        } finally {
+            if (data != null) { data.release(); }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.lab1.distributedfs.Storage;
+
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * <h1>BlockStore</h1>
+ *
+ * <p>
+ *  Storage engine of a DataNode: keeps the data of the blocks the DataNode holds, addressed by the block name
+ *  (see {@link com.lab1.distributedfs.IO.DataNodeIO.Block#getFilename()}).
+ *  The implementations are picked with {@link StorageEngine}.
+ * </p>
+ *
+ * <ul>
+ *     <li>{@link FileBlockStore} - One file per block</li>
+ *     <li>{@link SegmentBlockStore} - Blocks are records in large, memory-mapped segment files</li>
+ * </ul>
+ *
+ * <p>
+ *  A store never takes ownership of the buffers it is given (the caller still releases them),
+ *  the buffers it returns belong to the caller.
+ * </p>
+ */
+public interface BlockStore extends Closeable {
+    /**
+     * @return The data of the block, in a pooled buffer (or null if the block does not exist)
+     */
+    default BlockBuffer read(String blockName) throws IOException {
+        return this.read(blockName, 0, -1);
+    }
+
+    /**
+     * Reads part of a block (positional read, nothing else of the block is read).
+     * @param length Max. bytes to read, -1 for up to the end of the block (the range is cut at the end of the block)
+     * @return The data of the range, in a pooled buffer (or null if the block does not exist)
+     */
+    BlockBuffer read(String blockName, int offset, int length) throws IOException;
+
+    /**
+     * @return Checksums of the data of the block (see {@link Checksums}), or null if the block does not exist or was
+     * stored without them
+     */
+    int[] readChecksums(String blockName) throws IOException;
+
+    /**
+     * Writes the data of a block (and updates its checksums).
+     * @param append True to append to the block (it is created if it does not exist), false to replace its data
+     */
+    void write(String blockName, BlockBuffer data, boolean append) throws IOException;
+
+    /**
+     * @return False if there was no such block
+     */
+    boolean delete(String blockName) throws IOException;
+
+    /**
+     * @return Size of the block in bytes (or -1 if the block does not exist)
+     */
+    long size(String blockName);
+
+    /**
+     * Forces every write (and delete) that returned so far to disk, see {@link GroupCommitter}.
+     */
+    void sync() throws IOException;
+
+    // Names of the blocks that are stored right now (a snapshot)
+    List<String> getBlockNames();
+
+    int getBlockCount();
+
+    // Bytes of block data that are stored (not counting the overhead of the storage engine)
+    long getStorageUsed();
+}
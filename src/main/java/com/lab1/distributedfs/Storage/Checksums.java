@@ -0,0 +1,120 @@
+package com.lab1.distributedfs.Storage;
+
+import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC32C checksums of the data of a block, one per chunk of {@link Const#CHECKSUM_CHUNK_SIZE} bytes (the last chunk
+ * may be shorter). They are computed on write, stored next to the block by the {@link BlockStore}, and verified on
+ * every read (by the DataNode, and again by the client once the data arrived).
+ */
+public final class Checksums {
+    private Checksums() {}
+
+    public static int chunks(long length) {
+        return (int) ((length + Const.CHECKSUM_CHUNK_SIZE - 1) / Const.CHECKSUM_CHUNK_SIZE);
+    }
+
+    public static int[] compute(ByteBuffer data) {
+        return append(new int[0], 0, null, data);
+    }
+
+    /**
+     * Checksums of a block after data was appended to it, only the last (partial) chunk is computed again.
+     * @param checksums Checksums of the block before the append
+     * @param length Length of the block before the append
+     * @param tail Data of the last partial chunk of the block (the last <code>length % chunk size</code> bytes), or null if there is none
+     * @param data Appended data
+     * @throws IllegalArgumentException If the tail is not the last partial chunk of the block
+     */
+    public static int[] append(int[] checksums, long length, ByteBuffer tail, ByteBuffer data) {
+        int tailLength = tail == null ? 0 : tail.remaining();
+        if (tailLength != length % Const.CHECKSUM_CHUNK_SIZE) {
+            throw new IllegalArgumentException(String.format("tail of %d bytes does not end a block of %d bytes", tailLength, length));
+        }
+        int fullChunks = (int) (length / Const.CHECKSUM_CHUNK_SIZE);
+        int[] result = Arrays.copyOf(checksums, chunks(length + data.remaining()));
+
+        CRC32C crc = new CRC32C();
+        int chunk = fullChunks;
+        int filled = 0;
+        if (tail != null && tail.hasRemaining()) {
+            filled = tail.remaining();
+            crc.update(tail.duplicate());
+        }
+        ByteBuffer source = data.duplicate();
+        while (source.hasRemaining()) {
+            int take = Math.min(Const.CHECKSUM_CHUNK_SIZE - filled, source.remaining());
+            crc.update(source.slice(source.position(), take));
+            source.position(source.position() + take);
+            filled += take;
+            if (filled == Const.CHECKSUM_CHUNK_SIZE) {
+                result[chunk++] = (int) crc.getValue();
+                crc.reset();
+                filled = 0;
+            }
+        }
+        if (filled > 0) { result[chunk] = (int) crc.getValue(); }
+        return result;
+    }
+
+    /**
+     * Verifies the data chunk by chunk (stops at the first mismatch).
+     * @return Index of the first corrupt chunk, or -1 if the data matches (or there are no checksums to verify against)
+     */
+    public static int verify(ByteBuffer data, int[] checksums) {
+        if (checksums == null) { return -1; }
+        if (checksums.length != chunks(data.remaining())) { return 0; }
+
+        CRC32C crc = new CRC32C();
+        for (int chunk = 0; chunk < checksums.length; chunk++) {
+            int offset = chunk * Const.CHECKSUM_CHUNK_SIZE;
+            crc.reset();
+            crc.update(data.slice(data.position() + offset, Math.min(Const.CHECKSUM_CHUNK_SIZE, data.remaining() - offset)));
+            if ((int) crc.getValue() != checksums[chunk]) { return chunk; }
+        }
+        return -1;
+    }
+
+    /**
+     * Widens a byte range of a block to whole chunks (only whole chunks can be verified).
+     * @param length Length of the range, -1 for up to the end of the block
+     * @return {offset, length} of the widened range (length -1 again for up to the end)
+     */
+    public static int[] align(int offset, int length) {
+        int start = offset / Const.CHECKSUM_CHUNK_SIZE * Const.CHECKSUM_CHUNK_SIZE;
+        if (length < 0) { return new int[] {start, -1}; }
+        int end = chunks((long) offset + length) * Const.CHECKSUM_CHUNK_SIZE;
+        return new int[] {start, end - start};
+    }
+
+    /**
+     * @return Checksums of the chunks of the data at offset (a chunk boundary), or null if there are none
+     */
+    public static int[] slice(int[] checksums, int offset, int length) {
+        if (checksums == null) { return null; }
+        int first = Math.min(offset / Const.CHECKSUM_CHUNK_SIZE, checksums.length);
+        return Arrays.copyOfRange(checksums, first, Math.min(checksums.length, first + chunks(length)));
+    }
+
+    public static boolean isValid(BlockBuffer data, int[] checksums) {
+        return verify(data.nioBuffer(), checksums) < 0;
+    }
+
+    // Stored form of the checksums (big-endian ints)
+    public static ByteBuffer toBytes(int[] checksums) {
+        ByteBuffer bytes = ByteBuffer.allocate(checksums.length * Integer.BYTES);
+        bytes.asIntBuffer().put(checksums);
+        return bytes;
+    }
+
+    public static int[] fromBytes(ByteBuffer bytes) {
+        int[] checksums = new int[bytes.remaining() / Integer.BYTES];
+        bytes.duplicate().asIntBuffer().get(checksums);
+        return checksums;
+    }
+}
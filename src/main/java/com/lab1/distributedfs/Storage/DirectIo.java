@@ -0,0 +1,163 @@
+package com.lab1.distributedfs.Storage;
+
+import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+import com.lab1.distributedfs.IO.Buffer.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <h1>DirectIo</h1>
+ *
+ * <p>
+ *  Direct I/O (<code>O_DIRECT</code>) for the bulk transfers of a {@link FileBlockStore}: the data goes between the
+ *  buffer and the disk without passing through the page cache, so streaming large blocks does not push out the pages
+ *  that the rest of the node (and the other nodes) need. Direct I/O needs the file offset, the length and the memory
+ *  address of every transfer to be aligned to the block size of the filesystem, so:
+ * </p>
+ * <ul>
+ *     <li>Writes only write the aligned part of the data, the caller writes the unaligned tail (e.g. the end of the last
+ *     packet of a block) buffered, as well as any write that does not start at an aligned offset (small appends)</li>
+ *     <li>Data that is not aligned in memory is copied through aligned scratch buffers</li>
+ *     <li>Reads are widened to aligned offsets, the result is a slice of the aligned buffer (no copy)</li>
+ *     <li>Scratch buffers and the buffers of (packet sized) reads come from a pool of aligned buffers</li>
+ * </ul>
+ *
+ * <p>
+ *  Filesystems without direct I/O (e.g. some tmpfs) make the first transfer fail, after which direct I/O is switched
+ *  off and everything falls back to buffered I/O. So does a JDK without the (JDK specific) <code>DIRECT</code> open
+ *  option, which is looked up reflectively.
+ * </p>
+ */
+public class DirectIo {
+    private static final int DEFAULT_ALIGNMENT = 4096;
+    private static final int POOL_CAPACITY = 64;
+    private static final OpenOption DIRECT = directOption();   // Null if the JDK does not have it
+
+    private final int alignment;
+    private final int scratchSize;              // Data that is not aligned in memory is copied this much at a time
+    private final BufferPool pool;              // A chunk holds a packet that is read at unaligned offsets
+    private volatile boolean enabled = true;
+
+    public DirectIo(Path directory) {
+        this.alignment = alignment(directory);
+        this.scratchSize = Math.max(this.alignment, Const.STREAM_PACKET_SIZE / this.alignment * this.alignment);
+        this.pool = new BufferPool(true, this.scratchSize + 2 * this.alignment, POOL_CAPACITY, this.alignment);
+    }
+
+    public int getAlignment() {
+        return this.alignment;
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Writes the aligned part of the data (from the position of the source on), the source is advanced past it.
+     * @return Number of bytes written, 0 if nothing could be written directly (the caller writes it buffered)
+     */
+    public int write(Path path, ByteBuffer source, long position) throws IOException {
+        int length = source.remaining() / this.alignment * this.alignment;
+        if (!this.enabled || length == 0 || position % this.alignment != 0) { return 0; }
+
+        FileChannel channel = this.open(path, StandardOpenOption.WRITE);
+        if (channel == null) { return 0; }
+        try (channel) {
+            if (source.isDirect() && source.alignmentOffset(source.position(), this.alignment) == 0) {
+                ByteBuffer aligned = source.slice(source.position(), length);
+                for (long written = 0; aligned.hasRemaining(); ) { written += channel.write(aligned, position + written); }
+            } else {
+                BlockBuffer scratch = this.pool.allocate(this.scratchSize);
+                ByteBuffer buffer = scratch.nioBuffer();
+                try {
+                    for (int copied = 0; copied < length; ) {
+                        int count = Math.min(buffer.capacity(), length - copied);
+                        buffer.clear().put(0, source, source.position() + copied, count).limit(count);
+                        while (buffer.hasRemaining()) { channel.write(buffer, position + copied + buffer.position()); }
+                        copied += count;
+                    }
+                } finally {
+                    scratch.release();
+                }
+            }
+        }
+        source.position(source.position() + length);
+        return length;
+    }
+
+    /**
+     * Reads a range of a file (widened to aligned offsets on disk).
+     * @param length Bytes to read, -1 for up to the end of the file
+     * @return The range (shorter at the end of the file), or null if direct I/O is not available
+     * @throws NoSuchFileException If there is no such file
+     */
+    public BlockBuffer read(Path path, long offset, int length) throws IOException {
+        if (!this.enabled) { return null; }
+        FileChannel channel = this.open(path, StandardOpenOption.READ);
+        if (channel == null) { return null; }
+        try (channel) {
+            long size = channel.size();
+            long from = Math.min(offset, size);
+            long to = length < 0 ? size : Math.min(size, from + length);
+            long alignedFrom = from / this.alignment * this.alignment;
+            long alignedTo = (to + this.alignment - 1) / this.alignment * this.alignment;
+
+            BlockBuffer aligned = this.pool.allocate((int) (alignedTo - alignedFrom));
+            try {
+                ByteBuffer buffer = aligned.nioBuffer();
+                // A read ends short at the end of the file (the next offset would not be aligned any more)
+                while (buffer.hasRemaining() && buffer.position() % this.alignment == 0) {
+                    if (channel.read(buffer, alignedFrom + buffer.position()) <= 0) { break; }
+                }
+                int available = (int) Math.max(0, Math.min(to, alignedFrom + buffer.position()) - from);
+                return aligned.slice((int) (from - alignedFrom), available);
+            } finally {
+                aligned.release();
+            }
+        }
+    }
+
+    // ========================================== INTERNAL FUNCTIONS ===================================================
+    private FileChannel open(Path path, StandardOpenOption mode) throws IOException {
+        try {
+            if (DIRECT == null) { throw new UnsupportedOperationException("the JDK has no direct I/O open option"); }
+            return FileChannel.open(path, mode, DIRECT);
+        } catch (NoSuchFileException e) {
+            throw e;
+        } catch (UnsupportedOperationException | IOException e) {
+            if (this.enabled) {
+                this.enabled = false;
+                System.err.printf("Direct I/O is not available for %s, falling back to buffered I/O: %s%n", path.getParent(), e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    // com.sun.nio.file.ExtendedOpenOption.DIRECT (not part of the Java SE API, so it is not referenced at compile time)
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static OpenOption directOption() {
+        try {
+            return (OpenOption) Enum.valueOf((Class<Enum>) Class.forName("com.sun.nio.file.ExtendedOpenOption"), "DIRECT");
+        } catch (ClassNotFoundException | IllegalArgumentException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    private static int alignment(Path directory) {
+        try {
+            Files.createDirectories(directory);
+            long blockSize = Files.getFileStore(directory).getBlockSize();
+            return blockSize > 0 && blockSize <= Const.STREAM_PACKET_SIZE && Long.bitCount(blockSize) == 1 ? (int) blockSize : DEFAULT_ALIGNMENT;
+        } catch (IOException | UnsupportedOperationException e) {
+            return DEFAULT_ALIGNMENT;
+        }
+    }
+}
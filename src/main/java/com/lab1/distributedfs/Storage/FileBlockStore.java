@@ -0,0 +1,398 @@
+package com.lab1.distributedfs.Storage;
+
+import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+import com.lab1.distributedfs.IO.Buffer.BufferPool;
+import com.lab1.distributedfs.IO.DataNodeIO.Block;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <h1>FileBlockStore</h1>
+ *
+ * <p>
+ *  The original layout of a DataNode: every block is a file of its own in the storage directory of the node,
+ *  named after the block (<code>replica{r}_{path}_block{n}.blk</code>), with its checksums in <code>{block}.crc</code>.
+ * </p>
+ *
+ * <p>
+ *  A written block keeps its channel open until the next {@link #sync()}, so the writes to it in between (e.g. appends)
+ *  reuse the channel, and the sync forces every written file (and the directory, for new/deleted blocks) at once.
+ * </p>
+ *
+ * <p>
+ *  The blocks are indexed in memory (block name -> length, checksums), so existence/size checks and checksums never
+ *  touch the filesystem. The index is saved as a {@link BlockManifest} when the store is closed and loaded on the next
+ *  start, only after a crash (no manifest) the storage directory is scanned again, in parallel.
+ * </p>
+ *
+ * <p>
+ *  Optionally, transfers of at least {@link Const#DIRECT_IO_THRESHOLD} bytes (e.g. the packets of large blocks that
+ *  are streamed) bypass the page cache with {@link DirectIo}, smaller ones (and unaligned tails) stay buffered.
+ * </p>
+ *
+ * <p>
+ *  Otherwise, reads of at least {@link Const#ZERO_COPY_THRESHOLD} bytes are read-only slices of a mapping of the block
+ *  (no copy, the pages stay in the page cache), the reads of a block share its mapping until it is written again.
+ *  A mapped block that is overwritten is written to a new file that is then renamed over the old one, instead of being
+ *  truncated: the slices that readers still hold keep the old data, and a reader never finds the block missing.
+ * </p>
+ */
+public class FileBlockStore implements BlockStore {
+    private static final String CHECKSUM_FILETYPE = ".crc";
+    private static final String REPLACEMENT_FILETYPE = ".new";
+
+    private final File storageDir;
+    private final Map<String, BlockManifest.Entry> index;
+    private final AtomicLong storageUsed = new AtomicLong(0);
+    private final Map<String, FileChannel> dirty = new ConcurrentHashMap<>();  // Written since the last sync
+    private final ReentrantReadWriteLock syncLock = new ReentrantReadWriteLock();  // Writes share it, sync swaps the dirty channels
+    private volatile boolean directoryDirty = false;                            // Blocks were created/deleted since the last sync
+    private final int directIoThreshold;        // Transfers of at least this many bytes use direct I/O (0 = never)
+    private final DirectIo directIo;            // Null if direct I/O is off
+    private final Map<String, Mapping> mappings = new ConcurrentHashMap<>();    // Mapped blocks (as of their index entry)
+
+    private static final int MAX_MAPPINGS = 256;
+
+    private record Mapping(BlockManifest.Entry entry, MappedByteBuffer map) {}
+
+    public FileBlockStore(File storageDir) {
+        this(storageDir, Const.DIRECT_IO_THRESHOLD);
+    }
+
+    public FileBlockStore(File storageDir, int directIoThreshold) {
+        this.storageDir = storageDir;
+        this.directIoThreshold = directIoThreshold;
+        this.directIo = directIoThreshold > 0 ? new DirectIo(storageDir.toPath()) : null;
+
+        // Load the index of the blocks of the node from the manifest, or find the blocks (if they exist) if it is stale
+        Map<String, BlockManifest.Entry> manifest = BlockManifest.load(storageDir);
+        this.index = manifest != null ? manifest : this.rebuild();
+        this.index.values().forEach(entry -> this.storageUsed.addAndGet(entry.length));
+    }
+
+    /**
+     * Builds the index from the block files: one stat (and one checksum file read) per block, spread over the
+     * common fork/join pool, since they are independent of each other.
+     */
+    private Map<String, BlockManifest.Entry> rebuild() {
+        String[] names = this.storageDir.list((dir, name) -> Block.pattern.matcher(name).matches());
+        if (names == null) { return new ConcurrentHashMap<>(); }
+
+        Map<String, BlockManifest.Entry> index = new ConcurrentHashMap<>(Math.max(16, names.length * 4 / 3 + 1));
+        Arrays.stream(names).parallel().forEach(name -> {
+            BlockManifest.Entry entry = this.loadEntry(name);
+            if (entry != null) { index.put(name, entry); }
+        });
+        return index;
+    }
+
+    // Index entry of a block, as it is on disk right now (null if there is no such block)
+    private BlockManifest.Entry loadEntry(String blockName) {
+        try {
+            long length = Files.size(this.path(blockName));
+            int[] checksums = null;
+            try {
+                checksums = Checksums.fromBytes(ByteBuffer.wrap(Files.readAllBytes(this.path(checksumName(blockName)))));
+            } catch (NoSuchFileException ignored) {
+                // Stored before checksums were kept
+            }
+            return new BlockManifest.Entry(length, checksums, true);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Entry of a block, validated against the block on disk if it was not yet (entries loaded from the manifest).
+     */
+    private BlockManifest.Entry entry(String blockName) {
+        BlockManifest.Entry entry = this.index.get(blockName);
+        if (entry == null || entry.validated) { return entry; }
+
+        BlockManifest.Entry actual = this.loadEntry(blockName);
+        if (actual == null) {
+            if (this.index.remove(blockName, entry)) { this.storageUsed.addAndGet(-entry.length); }
+        } else if (this.index.replace(blockName, entry, actual)) {
+            if (actual.length != entry.length) {
+                System.err.printf("Block manifest of %s was stale for %s (length %d, not %d)%n", this.storageDir, blockName, actual.length, entry.length);
+            }
+            this.storageUsed.addAndGet(actual.length - entry.length);
+        } else {
+            return this.index.get(blockName);       // Written in the meantime
+        }
+        return actual;
+    }
+
+    private Path path(String blockName) {
+        return Paths.get(this.storageDir.getPath(), blockName);
+    }
+
+    private static String checksumName(String blockName) {
+        return blockName + CHECKSUM_FILETYPE;
+    }
+
+    // Channel of a file that is written, kept open (and dirty) until the next sync
+    private FileChannel channel(String name) throws IOException {
+        FileChannel channel = this.dirty.get(name);
+        if (channel != null) { return channel; }
+
+        // Make sure the directory tree exists, and open the file via NIO
+        Path path = this.path(name);
+        Path parent = path.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel raced = this.dirty.putIfAbsent(name, channel);
+        if (raced != null) {
+            channel.close();
+            return raced;
+        }
+        return channel;
+    }
+
+    /**
+     * A slice of the mapping of the whole block (mapped again once the block was written), or null if the block was
+     * written while it was mapped (the file may not be the one of the entry, and only files that are never truncated
+     * may be mapped).
+     */
+    private BlockBuffer readMapped(String blockName, BlockManifest.Entry entry, int offset, int length) throws IOException {
+        Mapping mapping = this.mappings.get(blockName);
+        if (mapping == null || mapping.entry != entry) {
+            try (FileChannel channel = FileChannel.open(this.path(blockName), StandardOpenOption.READ)) {
+                if (channel.size() != entry.length) { return null; }
+                mapping = new Mapping(entry, channel.map(FileChannel.MapMode.READ_ONLY, 0, entry.length));
+            }
+            if (this.index.get(blockName) != entry) { return null; }
+            // A mapping is released once nobody uses it any more (the GC unmaps it)
+            if (this.mappings.size() >= MAX_MAPPINGS) { this.mappings.keySet().stream().findAny().ifPresent(this.mappings::remove); }
+            this.mappings.put(blockName, mapping);
+        }
+        MappedByteBuffer map = mapping.map;
+        int from = Math.min(offset, map.capacity());
+        int available = map.capacity() - from;
+        return BlockBuffer.wrap(map.slice(from, length < 0 ? available : Math.min(length, available)));
+    }
+
+    // Renames the new file of a block that was written again over the old one (the mappings of the old file stay valid)
+    private void replace(String blockName) throws IOException {
+        Files.move(this.path(replacementName(blockName)), this.path(blockName), StandardCopyOption.ATOMIC_MOVE);
+        FileChannel channel = this.dirty.put(blockName, this.dirty.remove(replacementName(blockName)));
+        if (channel != null) { channel.close(); }
+        this.directoryDirty = true;
+    }
+
+    private static String replacementName(String blockName) {
+        return blockName + REPLACEMENT_FILETYPE;
+    }
+
+    private static boolean isMapped(long length) {
+        return Const.ZERO_COPY_THRESHOLD > 0 && length >= Const.ZERO_COPY_THRESHOLD;
+    }
+
+    // Direct I/O is only worth it for bulk transfers
+    private boolean isDirect(long length) {
+        return this.directIo != null && this.directIo.isEnabled() && length >= this.directIoThreshold;
+    }
+
+    /**
+     * Reads (part of) a block (file) into a pooled direct buffer, with positional reads
+     * (large ranges with direct I/O, into an aligned buffer instead, or mapped).
+     */
+    @Override
+    public BlockBuffer read(String blockName, int offset, int length) throws IOException {
+        BlockManifest.Entry entry = this.entry(blockName);
+        if (entry == null) { return null; }
+        long size = length < 0 ? entry.length - offset : Math.min(length, entry.length - offset);
+        try {
+            if (this.isDirect(size)) {
+                BlockBuffer direct = this.directIo.read(this.path(blockName), offset, length);
+                if (direct != null) { return direct; }
+            } else if (isMapped(size)) {
+                BlockBuffer mapped = this.readMapped(blockName, entry, offset, length);
+                if (mapped != null) { return mapped; }
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(this.path(blockName), StandardOpenOption.READ)) {
+            long from = Math.min(offset, channel.size());
+            long available = channel.size() - from;
+            BlockBuffer buffer = BufferPool.DIRECT.allocate((int) (length < 0 ? available : Math.min(length, available)));
+            try {
+                ByteBuffer target = buffer.nioBuffer();
+                while (target.hasRemaining() && channel.read(target, from + target.position()) >= 0) { continue; }
+                return buffer;
+            } catch (IOException e) {
+                buffer.release();
+                throw e;
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public int[] readChecksums(String blockName) {
+        BlockManifest.Entry entry = this.entry(blockName);
+        return entry == null ? null : entry.checksums;
+    }
+
+    /**
+     * Writes data to a block (file), straight from the buffer (no intermediate copy), and its checksums to the
+     * checksum file next to it (<code>{block}.crc</code>).
+     * The data is only guaranteed to be on disk after the next {@link #sync()}.
+     */
+    @Override
+    public void write(String blockName, BlockBuffer data, boolean append) throws IOException {
+        this.syncLock.readLock().lock();
+        try {
+            BlockManifest.Entry previous = this.entry(blockName);
+            this.mappings.remove(blockName);
+            // A mapped block is not truncated, the data goes to a new file (renamed over the old one once written)
+            boolean replace = !append && previous != null && isMapped(previous.length);
+            String fileName = replace ? replacementName(blockName) : blockName;
+            FileChannel channel = this.channel(fileName);
+
+            // APPEND (or TRUNCATE) semantics, with positional writes on the shared channel
+            if (!append) { channel.truncate(0); }
+            long length = append ? channel.size() : 0;
+            int[] checksums = !append ? new int[0] : previous != null && previous.length == length ? previous.checksums : null;
+            ByteBuffer tail = null;
+            if (checksums == null) {
+                // Block from before checksums were kept (or not in the index): its whole chunks are covered here,
+                // its last partial chunk (if any) is the tail
+                ByteBuffer existing = ByteBuffer.allocate((int) length);
+                while (existing.hasRemaining() && channel.read(existing, existing.position()) >= 0) { continue; }
+                existing.flip();
+                int whole = existing.limit() - existing.limit() % Const.CHECKSUM_CHUNK_SIZE;
+                checksums = Checksums.compute(existing.slice(0, whole));
+                tail = existing.position(whole);
+                length = existing.limit();
+            } else if (length % Const.CHECKSUM_CHUNK_SIZE != 0) {
+                // The last chunk is only partial, its checksum changes
+                tail = ByteBuffer.allocate((int) (length % Const.CHECKSUM_CHUNK_SIZE));
+                long tailPosition = length - tail.capacity();
+                while (tail.hasRemaining() && channel.read(tail, tailPosition + tail.position()) >= 0) { continue; }
+                tail.flip();
+            }
+            checksums = Checksums.append(checksums, length, tail, data.nioBuffer());
+
+            long position = append ? channel.size() : 0;
+            ByteBuffer source = data.nioBuffer();
+            // The aligned part of a large write goes around the page cache, the rest (if any) is written buffered
+            // (both end up on disk with the sync of the buffered channel, fsync covers the whole file)
+            if (this.isDirect(source.remaining())) { position += this.directIo.write(this.path(fileName), source, position); }
+            while (source.hasRemaining()) { position += channel.write(source, position); }
+            if (replace) { this.replace(blockName); }
+
+            FileChannel checksumChannel = this.channel(checksumName(blockName));
+            ByteBuffer checksumBytes = Checksums.toBytes(checksums);
+            checksumChannel.truncate(checksumBytes.remaining());
+            for (long offset = 0; checksumBytes.hasRemaining(); ) { offset += checksumChannel.write(checksumBytes, offset); }
+
+            BlockManifest.Entry written = new BlockManifest.Entry(position, checksums, true);
+            previous = this.index.put(blockName, written);
+            if (previous == null) { this.directoryDirty = true; }
+            this.storageUsed.addAndGet(written.length - (previous == null ? 0 : previous.length));
+        } finally {
+            this.syncLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(String blockName) throws IOException {
+        this.syncLock.readLock().lock();
+        try {
+            for (String name : List.of(blockName, checksumName(blockName))) {
+                FileChannel channel = this.dirty.remove(name);
+                if (channel != null) { channel.close(); }
+            }
+
+            BlockManifest.Entry entry = this.index.remove(blockName);
+            if (entry != null) { this.storageUsed.addAndGet(-entry.length); }
+            this.mappings.remove(blockName);
+            Files.deleteIfExists(this.path(checksumName(blockName)));
+            if (!Files.deleteIfExists(this.path(blockName))) { return false; }
+            this.directoryDirty = true;
+            return true;
+        } finally {
+            this.syncLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        // Swap the dirty channels out (no write is using them then), and force them without blocking the writes
+        List<FileChannel> channels;
+        boolean directory;
+        this.syncLock.writeLock().lock();
+        try {
+            channels = new ArrayList<>(this.dirty.values());
+            this.dirty.clear();
+            directory = this.directoryDirty;
+            this.directoryDirty = false;
+        } finally {
+            this.syncLock.writeLock().unlock();
+        }
+
+        IOException failure = null;
+        for (FileChannel channel : channels) {
+            try (channel) {
+                channel.force(false);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (directory) {
+            // New (or removed) files are only durable once their directory entry is
+            BlockManifest.forceDirectory(this.storageDir);
+        }
+        if (failure != null) { throw failure; }
+    }
+
+    @Override
+    public long size(String blockName) {
+        BlockManifest.Entry entry = this.entry(blockName);
+        return entry == null ? -1 : entry.length;
+    }
+
+    @Override
+    public List<String> getBlockNames() {
+        return new ArrayList<>(this.index.keySet());
+    }
+
+    @Override
+    public int getBlockCount() {
+        return this.index.size();
+    }
+
+    @Override
+    public long getStorageUsed() {
+        return this.storageUsed.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.sync();
+        BlockManifest.save(this.storageDir, this.index);
+    }
+}
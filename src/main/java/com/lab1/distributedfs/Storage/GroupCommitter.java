@@ -0,0 +1,136 @@
+package com.lab1.distributedfs.Storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <h1>GroupCommitter</h1>
+ *
+ * <p>
+ *  Makes the writes of a {@link BlockStore} durable in groups: instead of one <code>force()</code> per block, the writes
+ *  that were done wait for a commit, and a committer thread forces the store once for all of them
+ *  ({@link BlockStore#sync()}), either when the commit interval is over or as soon as a batch is full.
+ * </p>
+ *
+ * <p>
+ *  A write must only be acknowledged once the future returned by {@link #commit()} completes.
+ * </p>
+ */
+public class GroupCommitter implements Closeable {
+    private final BlockStore store;
+    private final long intervalNanos;
+    private final int batchSize;
+    private final Thread committer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pendingChanged = lock.newCondition();
+    private List<CompletableFuture<Void>> pending = new ArrayList<>();
+    private boolean closed = false;
+
+    // Statistics
+    private final AtomicLong commits = new AtomicLong(0);
+    private final AtomicLong committedWrites = new AtomicLong(0);
+
+    /**
+     * @param intervalMillis Max. time a write waits for its commit
+     * @param batchSize Number of waiting writes that triggers a commit right away
+     */
+    public GroupCommitter(String name, BlockStore store, long intervalMillis, int batchSize) {
+        this.store = store;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.batchSize = Math.max(1, batchSize);
+        this.committer = Thread.ofPlatform().name(name).daemon().start(this::run);
+    }
+
+    /**
+     * Call after a write to the store returned.
+     * @return Completes once the write is on disk (exceptionally if forcing the store failed)
+     */
+    public CompletableFuture<Void> commit() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                future.completeExceptionally(new IOException("store is closed"));
+                return future;
+            }
+            this.pending.add(future);
+            if (this.pending.size() == 1 || this.pending.size() >= this.batchSize) {
+                this.pendingChanged.signal();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        return future;
+    }
+
+    public long getCommits() {
+        return this.commits.get();
+    }
+
+    public long getCommittedWrites() {
+        return this.committedWrites.get();
+    }
+
+    /**
+     * Commits the writes that are still waiting, then stops the committer thread.
+     */
+    @Override
+    public void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.pendingChanged.signal();
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            this.committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ========================================== INTERNAL FUNCTIONS ===================================================
+    private void run() {
+        while (true) {
+            List<CompletableFuture<Void>> batch;
+            this.lock.lock();
+            try {
+                // Wait for the first write, then for the batch to fill up (or the interval to run out)
+                while (this.pending.isEmpty() && !this.closed) {
+                    this.pendingChanged.awaitUninterruptibly();
+                }
+                long remaining = this.intervalNanos;
+                while (this.pending.size() < this.batchSize && remaining > 0 && !this.closed) {
+                    remaining = this.pendingChanged.awaitNanos(remaining);
+                }
+                if (this.pending.isEmpty()) { return; }         // Closed, and nothing left to commit
+                batch = this.pending;
+                this.pending = new ArrayList<>();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                this.lock.unlock();
+            }
+
+            // Every write of the batch returned before it was added, so one sync covers all of them
+            try {
+                this.store.sync();
+                this.commits.incrementAndGet();
+                this.committedWrites.addAndGet(batch.size());
+                batch.forEach(future -> future.complete(null));
+            } catch (IOException | RuntimeException e) {
+                System.err.printf("%s: failed to commit %d writes: %s%n", Thread.currentThread().getName(), batch.size(), e.getMessage());
+                batch.forEach(future -> future.completeExceptionally(e));
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.lab1.distributedfs.Storage;
+
+import java.util.Arrays;
+
+/**
+ * <h1>ReedSolomon</h1>
+ *
+ * <p>
+ *  Systematic Reed-Solomon erasure code over GF(2^8): k data cells are extended with m parity cells, and any k of the
+ *  k + m cells are enough to get the data cells back. Used by the erasure coded storage policy
+ *  ({@link com.lab1.distributedfs.FileSystem.StoragePolicy#EC}), where every cell of a block group is stored on
+ *  another DataNode, so a group survives the loss of any m DataNodes at m / k storage overhead (instead of the
+ *  REPLICATION_FACTOR - 1 of replication).
+ * </p>
+ *
+ * <p>
+ *  The encoding matrix is the identity (the data cells are stored as they are) on top of a Cauchy matrix, every k x k
+ *  sub-matrix of it is invertible, which is what makes any k cells enough. All the cells of a group have the same size.
+ * </p>
+ */
+public class ReedSolomon {
+    // GF(2^8) with the polynomial x^8 + x^4 + x^3 + x^2 + 1 (0x11D)
+    private static final int[] EXP = new int[512];
+    private static final int[] LOG = new int[256];
+    private static final byte[][] MUL = new byte[256][256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256) { x ^= 0x11D; }
+        }
+        for (int i = 255; i < EXP.length; i++) { EXP[i] = EXP[i - 255]; }
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) { MUL[a][b] = (byte) EXP[LOG[a] + LOG[b]]; }
+        }
+    }
+
+    private final int dataCells;
+    private final int parityCells;
+    private final byte[][] matrix;              // (k + m) x k encoding matrix
+
+    public ReedSolomon(int dataCells, int parityCells) {
+        if (dataCells <= 0 || parityCells < 0 || dataCells + parityCells > 256) {
+            throw new IllegalArgumentException(String.format("unsupported Reed-Solomon code RS(%d,%d)", dataCells, parityCells));
+        }
+        this.dataCells = dataCells;
+        this.parityCells = parityCells;
+        this.matrix = new byte[dataCells + parityCells][dataCells];
+        for (int i = 0; i < dataCells; i++) { this.matrix[i][i] = 1; }
+        // Cauchy rows 1 / (x_i + y_j), with x_i = k + i and y_j = j (all distinct, so x_i + y_j is never 0)
+        for (int i = 0; i < parityCells; i++) {
+            for (int j = 0; j < dataCells; j++) { this.matrix[dataCells + i][j] = (byte) inverse((dataCells + i) ^ j); }
+        }
+    }
+
+    public int getDataCells() {
+        return dataCells;
+    }
+
+    public int getParityCells() {
+        return parityCells;
+    }
+
+    /**
+     * Computes the parity cells.
+     * @param cells k data cells followed by m parity cells (overwritten), all of the same size
+     */
+    public void encode(byte[][] cells) {
+        for (int p = 0; p < this.parityCells; p++) {
+            byte[] parity = cells[this.dataCells + p];
+            Arrays.fill(parity, (byte) 0);
+            for (int d = 0; d < this.dataCells; d++) { multiplyAdd(this.matrix[this.dataCells + p][d], cells[d], parity); }
+        }
+    }
+
+    /**
+     * Reconstructs the missing data cells from any k cells that are there.
+     * @param cells k data cells followed by m parity cells, the missing ones are null (the data cells are filled in)
+     * @throws IllegalArgumentException If fewer than k cells are there
+     */
+    public void reconstruct(byte[][] cells) {
+        int cellSize = -1;
+        int[] rows = new int[this.dataCells];
+        int count = 0;
+        for (int i = 0; i < cells.length && count < this.dataCells; i++) {
+            if (cells[i] == null) { continue; }
+            rows[count++] = i;
+            cellSize = cells[i].length;
+        }
+        if (count < this.dataCells) {
+            throw new IllegalArgumentException(String.format("only %d of the %d cells that are needed are left", count, this.dataCells));
+        }
+
+        // The chosen cells are the product of their rows of the encoding matrix with the data cells, so the data cells
+        // are the product of the inverse of these rows with the chosen cells
+        byte[][] decoding = new byte[this.dataCells][];
+        for (int r = 0; r < this.dataCells; r++) { decoding[r] = this.matrix[rows[r]].clone(); }
+        decoding = invert(decoding);
+
+        for (int d = 0; d < this.dataCells; d++) {
+            if (cells[d] != null) { continue; }
+            byte[] data = new byte[cellSize];
+            for (int r = 0; r < this.dataCells; r++) { multiplyAdd(decoding[d][r], cells[rows[r]], data); }
+            cells[d] = data;
+        }
+    }
+
+    // ========================================== INTERNAL FUNCTIONS ===================================================
+    // target += coefficient * source (addition is XOR in GF(2^8))
+    private static void multiplyAdd(byte coefficient, byte[] source, byte[] target) {
+        if (coefficient == 0) { return; }
+        byte[] row = MUL[coefficient & 0xFF];
+        for (int i = 0; i < source.length; i++) { target[i] ^= row[source[i] & 0xFF]; }
+    }
+
+    private static int multiply(int a, int b) {
+        return MUL[a][b] & 0xFF;
+    }
+
+    private static int inverse(int a) {
+        return EXP[255 - LOG[a]];
+    }
+
+    // Gauss-Jordan elimination over GF(2^8)
+    private static byte[][] invert(byte[][] matrix) {
+        int n = matrix.length;
+        byte[][] result = new byte[n][n];
+        for (int i = 0; i < n; i++) { result[i][i] = 1; }
+
+        for (int column = 0; column < n; column++) {
+            int pivot = column;
+            while (pivot < n && matrix[pivot][column] == 0) { pivot++; }
+            if (pivot == n) { throw new IllegalArgumentException("singular decoding matrix"); }
+            byte[] swap = matrix[pivot]; matrix[pivot] = matrix[column]; matrix[column] = swap;
+            swap = result[pivot]; result[pivot] = result[column]; result[column] = swap;
+
+            int scale = inverse(matrix[column][column] & 0xFF);
+            for (int j = 0; j < n; j++) {
+                matrix[column][j] = (byte) multiply(matrix[column][j] & 0xFF, scale);
+                result[column][j] = (byte) multiply(result[column][j] & 0xFF, scale);
+            }
+            for (int row = 0; row < n; row++) {
+                int factor = matrix[row][column] & 0xFF;
+                if (row == column || factor == 0) { continue; }
+                for (int j = 0; j < n; j++) {
+                    matrix[row][j] ^= (byte) multiply(factor, matrix[column][j] & 0xFF);
+                    result[row][j] ^= (byte) multiply(factor, result[column][j] & 0xFF);
+                }
+            }
+        }
+        return result;
+    }
+}
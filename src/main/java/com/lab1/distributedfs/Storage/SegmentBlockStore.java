@@ -0,0 +1,432 @@
+package com.lab1.distributedfs.Storage;
+
+import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+import com.lab1.distributedfs.IO.Buffer.BufferPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <h1>SegmentBlockStore</h1>
+ *
+ * <p>
+ *  Keeps the blocks of a DataNode as records inside large, preallocated segment files
+ *  (<code>segments/segment-{n}.seg</code>) that are memory-mapped, instead of one file per block.
+ *  Writing or reading a block is a copy into / out of the mapping, no file is opened, created or deleted per block.
+ *  Large reads ({@link Const#ZERO_COPY_THRESHOLD}) are not even copied, they are read-only slices of the mapping.
+ * </p>
+ *
+ * <p>
+ *  Layout of a record (every record reserves room for a whole block, so appends are done in place, while an overwrite
+ *  gets a new record, so the data of a record never changes once it is written):
+ *  <pre>
+ *  | magic (int) | state (byte) | name length (short) | capacity (int) | length (int) | name | checksums | data (capacity bytes) |
+ *  </pre>
+ *  The checksum area holds one CRC32C per chunk of the capacity ({@link Checksums}).
+ *  New records are always appended to the last (active) segment. The in-memory index (block name -> location) is
+ *  rebuilt at startup by scanning the segments in order, so a later record of the same block wins.
+ * </p>
+ *
+ * <p>
+ *  Deleting (or relocating) a block only marks its record as deleted. Once enough of a full segment is dead
+ *  ({@link Const#SEGMENT_COMPACTION_THRESHOLD}), its live records are copied to the active segment and the segment
+ *  file is removed.
+ * </p>
+ */
+public class SegmentBlockStore implements BlockStore {
+    private static final int MAGIC = 0x424C4B32;                // "BLK2" (records with a checksum area)
+    private static final byte LIVE = 1;
+    private static final byte DELETED = 2;
+    private static final int HEADER_SIZE = 4 + 1 + 2 + 4 + 4;
+    private static final int STATE_OFFSET = 4;
+    private static final int LENGTH_OFFSET = 4 + 1 + 2 + 4;
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("^segment-(\\d+)\\.seg$");
+
+    private final File segmentDir;
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<String, Location> index = new HashMap<>();
+    private final AtomicLong storageUsed = new AtomicLong(0);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Set<Segment> dirty = new HashSet<>();        // Segments written since the last sync
+    private Segment active;
+
+    public SegmentBlockStore(File storageDir) throws IOException {
+        this.segmentDir = new File(storageDir, "segments");
+        Files.createDirectories(this.segmentDir.toPath());
+
+        // Rebuild the index from the segments (in order)
+        File[] files = this.segmentDir.listFiles((dir, name) -> SEGMENT_PATTERN.matcher(name).matches());
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = SEGMENT_PATTERN.matcher(file.getName());
+                if (!matcher.matches()) { continue; }
+                int id = Integer.parseInt(matcher.group(1));
+                this.segments.put(id, new Segment(id, file.toPath(), file.length()));
+            }
+        }
+        for (Segment segment : this.segments.values()) {
+            this.scan(segment);
+        }
+        this.active = this.segments.isEmpty() ? this.newSegment(Const.SEGMENT_SIZE) : this.segments.lastEntry().getValue();
+    }
+
+    @Override
+    public BlockBuffer read(String blockName, int offset, int length) {
+        this.lock.readLock().lock();
+        try {
+            Location location = this.index.get(blockName);
+            if (location == null) { return null; }
+            int from = Math.min(offset, location.length);
+            int available = location.length - from;
+            int size = length < 0 ? available : Math.min(length, available);
+            if (Const.ZERO_COPY_THRESHOLD > 0 && size >= Const.ZERO_COPY_THRESHOLD) {
+                // Large ranges are a read-only slice of the mapping, records are never written over (see write)
+                return BlockBuffer.wrap(location.segment.map.slice(location.dataOffset() + from, size).asReadOnlyBuffer());
+            }
+            BlockBuffer buffer = BufferPool.DIRECT.allocate(size);
+            buffer.nioBuffer().put(0, location.segment.map, location.dataOffset() + from, buffer.length());
+            return buffer;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void write(String blockName, BlockBuffer data, boolean append) throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            Location location = this.index.get(blockName);
+            int offset = append && location != null ? location.length : 0;
+            int length = offset + data.length();
+            int[] checksums = offset == 0
+                ? Checksums.compute(data.nioBuffer())
+                : Checksums.append(this.checksums(location), offset, this.tail(location), data.nioBuffer());
+
+            if (location != null && offset > 0 && length <= location.capacity) {
+                // Appended in place, behind the data that readers may hold a slice of (an overwrite gets a new record)
+                location.segment.map.put(location.dataOffset() + offset, data.nioBuffer(), 0, data.length());
+                this.putChecksums(location, checksums);
+                location.segment.map.putInt(location.offset + LENGTH_OFFSET, length);
+                this.dirty.add(location.segment);
+                this.storageUsed.addAndGet(length - location.length);
+                location.length = length;
+                return;
+            }
+
+            // Otherwise, the block goes to a new (bigger) record, keeping the data that is appended to
+            // (a block that keeps growing, e.g. a large block that is streamed in packets, doubles its record every time)
+            int capacity = location != null && offset > 0 ? (int) Math.min(2L * location.capacity, Const.MAX_BLOCK_SIZE) : 0;
+            Location relocated = this.allocate(blockName, Math.max(Const.BLOCK_SIZE, Math.max(length, capacity)));
+            if (offset > 0) {
+                relocated.segment.map.put(relocated.dataOffset(), location.segment.map, location.dataOffset(), offset);
+            }
+            relocated.segment.map.put(relocated.dataOffset() + offset, data.nioBuffer(), 0, data.length());
+            this.putChecksums(relocated, checksums);
+            this.commit(relocated, length);
+            this.storageUsed.addAndGet(length);
+            if (location != null) {
+                this.storageUsed.addAndGet(-location.length);
+                this.kill(location);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int[] readChecksums(String blockName) {
+        this.lock.readLock().lock();
+        try {
+            Location location = this.index.get(blockName);
+            return location == null ? null : this.checksums(location);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(String blockName) throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            Location location = this.index.remove(blockName);
+            if (location == null) { return false; }
+            this.storageUsed.addAndGet(-location.length);
+            this.kill(location);
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long size(String blockName) {
+        this.lock.readLock().lock();
+        try {
+            Location location = this.index.get(blockName);
+            return location == null ? -1 : location.length;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void sync() {
+        List<Segment> segments;
+        this.lock.writeLock().lock();
+        try {
+            segments = new ArrayList<>(this.dirty);
+            this.dirty.clear();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        // Forcing a mapping does not need the lock, writes to the segments can go on meanwhile
+        for (Segment segment : segments) {
+            segment.map.force();
+        }
+    }
+
+    @Override
+    public List<String> getBlockNames() {
+        this.lock.readLock().lock();
+        try {
+            return new ArrayList<>(this.index.keySet());
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getBlockCount() {
+        this.lock.readLock().lock();
+        try {
+            return this.index.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long getStorageUsed() {
+        return this.storageUsed.get();
+    }
+
+    // Number of segment files (e.g. to check that compaction gives the space back)
+    public int getSegmentCount() {
+        this.lock.readLock().lock();
+        try {
+            return this.segments.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            for (Segment segment : this.segments.values()) {
+                segment.map.force();
+                segment.channel.close();
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // ========================================== INTERNAL FUNCTIONS ===================================================
+    /**
+     * Reserves a record for a block at the end of the active segment (rolling over to a new segment if it is full),
+     * the record only becomes visible after {@link #commit}.
+     */
+    private Location allocate(String blockName, int capacity) throws IOException {
+        byte[] name = blockName.getBytes(StandardCharsets.UTF_8);
+        int recordSize = recordSize(name.length, capacity);
+        if (this.active.writePosition + recordSize > this.active.size) {
+            this.active = this.newSegment(Math.max(Const.SEGMENT_SIZE, recordSize));
+        }
+
+        Segment segment = this.active;
+        int offset = segment.writePosition;
+        segment.map.put(offset + HEADER_SIZE, name);
+        segment.writePosition += recordSize;
+        return new Location(blockName, segment, offset, name.length, capacity, 0);
+    }
+
+    // Writes the header of a record (magic last, a record without it marks the end of the segment) & indexes it
+    private void commit(Location location, int length) {
+        MappedByteBuffer map = location.segment.map;
+        map.put(location.offset + STATE_OFFSET, LIVE);
+        map.putShort(location.offset + STATE_OFFSET + 1, (short) location.nameLength);
+        map.putInt(location.offset + STATE_OFFSET + 3, location.capacity);
+        map.putInt(location.offset + LENGTH_OFFSET, length);
+        map.putInt(location.offset, MAGIC);
+
+        location.length = length;
+        location.segment.live.add(location);
+        this.dirty.add(location.segment);
+        this.index.put(location.blockName, location);
+    }
+
+    // Marks a record as deleted, and compacts its segment if enough of it is dead
+    private void kill(Location location) throws IOException {
+        Segment segment = location.segment;
+        segment.map.put(location.offset + STATE_OFFSET, DELETED);
+        this.dirty.add(segment);
+        segment.live.remove(location);
+        segment.deadBytes += location.recordSize();
+
+        if (segment != this.active && segment.deadBytes >= segment.writePosition * Const.SEGMENT_COMPACTION_THRESHOLD) {
+            this.compact(segment);
+        }
+    }
+
+    /**
+     * Moves the live records of a segment to the active segment, then removes the segment file.
+     * The mapping itself is only released once it is garbage collected, the file is unlinked right away.
+     */
+    private void compact(Segment segment) throws IOException {
+        Set<Segment> targets = new HashSet<>();
+        for (Location location : new ArrayList<>(segment.live)) {
+            Location moved = this.allocate(location.blockName, location.capacity);
+            // Same capacity, so the checksum area and the data are copied as they are
+            int size = location.dataOffset() - location.checksumOffset() + location.length;
+            moved.segment.map.put(moved.checksumOffset(), segment.map, location.checksumOffset(), size);
+            this.commit(moved, location.length);
+            targets.add(moved.segment);
+        }
+        // The moved records must be on disk before their old copies are gone
+        for (Segment target : targets) {
+            target.map.force();
+        }
+        this.segments.remove(segment.id);
+        this.dirty.remove(segment);
+        segment.channel.close();
+        Files.deleteIfExists(segment.path);
+    }
+
+    private Segment newSegment(int size) throws IOException {
+        int id = this.segments.isEmpty() ? 0 : this.segments.lastKey() + 1;
+        Path path = new File(this.segmentDir, String.format("segment-%d.seg", id)).toPath();
+        Segment segment = new Segment(id, path, size);
+        this.segments.put(id, segment);
+        return segment;
+    }
+
+    // Walks the records of a segment until the first one without a (valid) header
+    private void scan(Segment segment) {
+        MappedByteBuffer map = segment.map;
+        int offset = 0;
+        while (offset + HEADER_SIZE <= segment.size && map.getInt(offset) == MAGIC) {
+            byte state = map.get(offset + STATE_OFFSET);
+            int nameLength = map.getShort(offset + STATE_OFFSET + 1);
+            int capacity = map.getInt(offset + STATE_OFFSET + 3);
+            int length = map.getInt(offset + LENGTH_OFFSET);
+            int recordSize = recordSize(nameLength, capacity);
+            if (nameLength < 0 || capacity < 0 || length > capacity || offset + recordSize > segment.size) { break; }
+
+            if (state == LIVE) {
+                byte[] name = new byte[nameLength];
+                map.get(offset + HEADER_SIZE, name);
+                Location location = new Location(new String(name, StandardCharsets.UTF_8), segment, offset, nameLength, capacity, 0);
+                Location previous = this.index.get(location.blockName);
+                if (previous != null) {
+                    this.storageUsed.addAndGet(-previous.length);
+                    previous.segment.live.remove(previous);
+                    previous.segment.deadBytes += previous.recordSize();
+                }
+                location.length = length;
+                segment.live.add(location);
+                this.index.put(location.blockName, location);
+                this.storageUsed.addAndGet(length);
+            } else {
+                segment.deadBytes += recordSize;
+            }
+            offset += recordSize;
+        }
+        segment.writePosition = offset;
+    }
+
+    private static int recordSize(int nameLength, int capacity) {
+        return HEADER_SIZE + nameLength + Checksums.chunks(capacity) * Integer.BYTES + capacity;
+    }
+
+    private int[] checksums(Location location) {
+        int[] checksums = new int[Checksums.chunks(location.length)];
+        location.segment.map.slice(location.checksumOffset(), checksums.length * Integer.BYTES).asIntBuffer().get(checksums);
+        return checksums;
+    }
+
+    private void putChecksums(Location location, int[] checksums) {
+        location.segment.map.slice(location.checksumOffset(), checksums.length * Integer.BYTES).asIntBuffer().put(checksums);
+    }
+
+    // Data of the last partial chunk of a block (null if the last chunk is full)
+    private ByteBuffer tail(Location location) {
+        int tailLength = location.length % Const.CHECKSUM_CHUNK_SIZE;
+        if (tailLength == 0) { return null; }
+        return location.segment.map.slice(location.dataOffset() + location.length - tailLength, tailLength);
+    }
+
+    private static class Segment {
+        private final int id;
+        private final Path path;
+        private final int size;
+        private final FileChannel channel;
+        private final MappedByteBuffer map;
+        private final Set<Location> live = new HashSet<>(); // Current records of the blocks (by identity)
+        private int writePosition = 0;
+        private long deadBytes = 0;
+
+        private Segment(int id, Path path, long size) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.size = (int) size;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // Mapping past the end of the file grows it (preallocates the whole segment)
+            this.map = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static class Location {
+        private final String blockName;
+        private final Segment segment;
+        private final int offset;
+        private final int nameLength;
+        private final int capacity;
+        private int length;
+
+        private Location(String blockName, Segment segment, int offset, int nameLength, int capacity, int length) {
+            this.blockName = blockName;
+            this.segment = segment;
+            this.offset = offset;
+            this.nameLength = nameLength;
+            this.capacity = capacity;
+            this.length = length;
+        }
+
+        private int checksumOffset() {
+            return this.offset + HEADER_SIZE + this.nameLength;
+        }
+
+        private int dataOffset() {
+            return this.checksumOffset() + Checksums.chunks(this.capacity) * Integer.BYTES;
+        }
+
+        private int recordSize() {
+            return SegmentBlockStore.recordSize(this.nameLength, this.capacity);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.lab1.distributedfs.Storage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Decides how a DataNode lays its blocks out on disk ({@link com.lab1.distributedfs.Const#STORAGE_ENGINE}).
+ * <ul>
+ *     <li>FILE - One file per block (<code>replica{r}_{path}_block{n}.blk</code>), simple to inspect, but one inode
+ *     and one open/close per block operation</li>
+ *     <li>SEGMENT - Blocks are appended into large preallocated segment files that are memory-mapped, with an
+ *     in-memory index and compaction of the space of deleted blocks</li>
+ * </ul>
+ * The two layouts do not read each other's data, switching engines starts a DataNode with an empty store.
+ */
+public enum StorageEngine {
+    FILE,
+    SEGMENT;
+
+    public BlockStore open(File storageDir) throws IOException {
+        return switch (this) {
+            case FILE -> new FileBlockStore(storageDir);
+            case SEGMENT -> new SegmentBlockStore(storageDir);
+        };
+    }
+}
@@ -0,0 +1,13 @@
+package com.lab1.distributedfs.Storage;
+
+/**
+ * Where a block of a {@link TieredBlockStore} lives right now.
+ * <ul>
+ *     <li>RAM - In the memory of the DataNode (hot blocks, and blocks of lazy-persist or transient files)</li>
+ *     <li>DISK - Only in the block store on disk</li>
+ * </ul>
+ */
+public enum StorageTier {
+    RAM,
+    DISK
+}
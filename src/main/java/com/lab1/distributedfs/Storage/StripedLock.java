@@ -0,0 +1,42 @@
+package com.lab1.distributedfs.Storage;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <h1>StripedLock</h1>
+ *
+ * <p>
+ *  Lock table keyed by block name, with a fixed number of locks (stripes): a block always maps to the same stripe, so
+ *  the operations on one block take turns, while the operations on blocks of other stripes run fully in parallel.
+ *  Two blocks can share a stripe, which only costs some parallelism (never correctness), and the table does not grow
+ *  with the number of blocks.
+ * </p>
+ *
+ * <p>
+ *  The locks are {@link ReentrantLock}s (not <code>synchronized</code>), so a virtual thread that waits for one
+ *  unmounts instead of pinning its carrier thread.
+ * </p>
+ */
+public class StripedLock {
+    private final ReentrantLock[] stripes;
+
+    /**
+     * @param stripes Number of locks (rounded up to a power of two)
+     */
+    public StripedLock(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ReentrantLock[stripes <= 1 ? 1 : size];
+        for (int i = 0; i < this.stripes.length; i++) { this.stripes[i] = new ReentrantLock(); }
+    }
+
+    public ReentrantLock get(String blockName) {
+        int hash = blockName.hashCode();
+        // Spread the high bits, block names of the same file only differ at the end
+        hash ^= hash >>> 16;
+        return this.stripes[hash & (this.stripes.length - 1)];
+    }
+
+    public int getStripeCount() {
+        return this.stripes.length;
+    }
+}
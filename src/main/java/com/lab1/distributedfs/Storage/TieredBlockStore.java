@@ -0,0 +1,458 @@
+package com.lab1.distributedfs.Storage;
+
+import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.FileSystem.TierPolicy;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <h1>TieredBlockStore</h1>
+ *
+ * <p>
+ *  Puts a bounded RAM tier ({@link Const#RAM_TIER_BYTES}) in front of the block store on disk of a DataNode. A block
+ *  lives in one of the tiers ({@link StorageTier}), and moves between them:
+ * </p>
+ *
+ * <ul>
+ *     <li>Writes of lazy-persist files ({@link TierPolicy#LAZY_PERSIST}) land in RAM, a background mover flushes them to
+ *     disk once they have not been written to for a while (so a block that is streamed is flushed once, not per packet)</li>
+ *     <li>Blocks of transient files ({@link TierPolicy#TRANSIENT}) stay in RAM, they never touch the disk (they are
+ *     pinned, unless the RAM tier is full when they are written, then they go to disk like any other block)</li>
+ *     <li>Blocks on disk that are read often (the reads are counted per block, and halved by every pass of the mover)
+ *     are promoted to RAM, if need be in place of colder blocks</li>
+ *     <li>Blocks in RAM that were neither read nor written for {@link Const#TIER_DEMOTE_IDLE} ms are demoted to disk
+ *     (flushed first if they have to be)</li>
+ * </ul>
+ *
+ * <p>
+ *  A block that is in RAM is read from RAM only, it keeps its checksums in RAM as well (the DataNode verifies reads the
+ *  same way for both tiers). Writes of disk files to a block that was promoted go to disk, and drop the RAM copy.
+ *  The operations of a block take turns on a {@link StripedLock}, reads take no lock: the RAM copy of a block is only
+ *  appended to in place (after the part readers can see), anything else gets new memory (a read that finds a copy
+ *  that was freed in the meantime looks the block up again).
+ * </p>
+ */
+public class TieredBlockStore implements BlockStore {
+    private final BlockStore disk;
+    private final long capacity;
+    private final long persistDelayMillis;
+    private final int promoteReads;
+    private final long demoteIdleMillis;
+    private final Map<String, RamBlock> ram = new ConcurrentHashMap<>();
+    private final Map<String, Heat> heat = new ConcurrentHashMap<>();           // Read blocks -> how often/when they were read
+    private final StripedLock locks = new StripedLock(Const.BLOCK_LOCK_STRIPES);
+    private final AtomicLong ramUsed = new AtomicLong(0);                       // Memory held by the RAM tier
+    private final Thread mover;
+    private final ReentrantLock moverLock = new ReentrantLock();
+    private final Condition closing = moverLock.newCondition();
+    private boolean closed = false;
+
+    // Statistics
+    private final AtomicLong promotions = new AtomicLong(0);
+    private final AtomicLong demotions = new AtomicLong(0);
+
+    /**
+     * A block in the RAM tier (never changes once it is in the map, a write puts a new one).
+     * @param memory Unpooled, and at least as large as the block (appends fill it up in place)
+     * @param dirty True if the disk has no up-to-date copy of the block
+     * @param onDisk True if the disk has a copy of the block (maybe an older one)
+     */
+    private record RamBlock(BlockBuffer memory, int length, int[] checksums, TierPolicy policy, boolean dirty, boolean onDisk, long lastWrite) {
+        private RamBlock persisted() {
+            return new RamBlock(memory, length, checksums, policy, false, true, lastWrite);
+        }
+    }
+
+    private static final class Heat {
+        private final AtomicInteger reads = new AtomicInteger(0);
+        private volatile long lastRead;
+    }
+
+    public TieredBlockStore(String name, BlockStore disk) {
+        this(name, disk, Const.RAM_TIER_BYTES, Const.TIER_INTERVAL, Const.LAZY_PERSIST_DELAY, Const.TIER_PROMOTE_READS, Const.TIER_DEMOTE_IDLE);
+    }
+
+    public TieredBlockStore(String name, BlockStore disk, long capacity, long intervalMillis, long persistDelayMillis, int promoteReads, long demoteIdleMillis) {
+        this.disk = disk;
+        this.capacity = capacity;
+        this.persistDelayMillis = persistDelayMillis;
+        this.promoteReads = promoteReads;
+        this.demoteIdleMillis = demoteIdleMillis;
+        this.mover = Thread.ofPlatform().name(name).daemon().start(() -> this.run(intervalMillis));
+    }
+
+    // The store on disk (e.g. for the scrubber, the RAM tier has nothing to scrub)
+    public BlockStore getDisk() {
+        return this.disk;
+    }
+
+    public StorageTier getTier(String blockName) {
+        return this.ram.containsKey(blockName) ? StorageTier.RAM : StorageTier.DISK;
+    }
+
+    /**
+     * Counts a read of a block by a client (reads of the DataNode itself, e.g. size checks, do not make a block hot).
+     */
+    public void touch(String blockName) {
+        Heat blockHeat = this.heat.computeIfAbsent(blockName, ignored -> new Heat());
+        blockHeat.reads.incrementAndGet();
+        blockHeat.lastRead = System.currentTimeMillis();
+    }
+
+    public int getRamBlockCount() {
+        return this.ram.size();
+    }
+
+    public long getRamBytes() {
+        return this.ram.values().stream().mapToLong(RamBlock::length).sum();
+    }
+
+    // Blocks that are only in RAM (lazy-persist ones that were not flushed yet, and transient ones)
+    public int getUnpersistedBlockCount() {
+        return (int) this.ram.values().stream().filter(RamBlock::dirty).count();
+    }
+
+    public long getPromotions() {
+        return this.promotions.get();
+    }
+
+    public long getDemotions() {
+        return this.demotions.get();
+    }
+
+    @Override
+    public BlockBuffer read(String blockName, int offset, int length) throws IOException {
+        while (true) {
+            RamBlock block = this.ram.get(blockName);
+            if (block == null) { return this.disk.read(blockName, offset, length); }
+            // A slice keeps the memory alive, unless the block left RAM (and was freed) since the lookup, then look again
+            int from = Math.min(offset, block.length);
+            int available = block.length - from;
+            BlockBuffer slice = block.memory.trySlice(from, length < 0 ? available : Math.min(length, available));
+            if (slice != null) { return slice; }
+        }
+    }
+
+    @Override
+    public int[] readChecksums(String blockName) throws IOException {
+        RamBlock block = this.ram.get(blockName);
+        return block != null ? block.checksums : this.disk.readChecksums(blockName);
+    }
+
+    @Override
+    public void write(String blockName, BlockBuffer data, boolean append) throws IOException {
+        this.write(blockName, data, append, TierPolicy.DISK);
+    }
+
+    /**
+     * Writes a block to the tier of its file: a block that is in RAM because of its own policy stays there.
+     */
+    public void write(String blockName, BlockBuffer data, boolean append, TierPolicy policy) throws IOException {
+        ReentrantLock lock = this.locks.get(blockName);
+        lock.lock();
+        try {
+            RamBlock block = this.ram.get(blockName);
+            TierPolicy tier = block != null && block.policy != TierPolicy.DISK ? block.policy : policy;
+            if (tier != TierPolicy.DISK && this.writeToRam(blockName, block, data, append, tier)) { return; }
+
+            // The RAM copy would be out of date (an append needs what was not flushed yet)
+            if (block != null) {
+                if (append && block.dirty) { this.flush(blockName, block); }
+                this.free(blockName, block);
+            }
+            this.disk.write(blockName, data, append);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(String blockName) throws IOException {
+        ReentrantLock lock = this.locks.get(blockName);
+        lock.lock();
+        try {
+            RamBlock block = this.ram.get(blockName);
+            if (block != null) { this.free(blockName, block); }
+            this.heat.remove(blockName);
+            return this.disk.delete(blockName) || block != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long size(String blockName) {
+        RamBlock block = this.ram.get(blockName);
+        return block != null ? block.length : this.disk.size(blockName);
+    }
+
+    @Override
+    public void sync() throws IOException {
+        this.disk.sync();
+    }
+
+    @Override
+    public List<String> getBlockNames() {
+        List<String> names = new ArrayList<>(this.disk.getBlockNames());
+        this.ram.forEach((name, block) -> { if (!block.onDisk) { names.add(name); } });
+        return names;
+    }
+
+    @Override
+    public int getBlockCount() {
+        return this.disk.getBlockCount() + (int) this.ram.values().stream().filter(block -> !block.onDisk).count();
+    }
+
+    @Override
+    public long getStorageUsed() {
+        return this.disk.getStorageUsed() + this.ram.values().stream().filter(block -> !block.onDisk).mapToLong(RamBlock::length).sum();
+    }
+
+    // Flushes what is lazily persisted (transient blocks are dropped), and closes the store on disk
+    @Override
+    public void close() throws IOException {
+        // Not interrupted, that would close the channels of a flush that is in progress
+        this.moverLock.lock();
+        try {
+            this.closed = true;
+            this.closing.signal();
+        } finally {
+            this.moverLock.unlock();
+        }
+        try {
+            this.mover.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            for (String blockName : this.ram.keySet()) {
+                RamBlock block = this.ram.get(blockName);
+                if (block.dirty && block.policy == TierPolicy.LAZY_PERSIST) { this.flush(blockName, block); }
+                this.free(blockName, block);
+            }
+        } finally {
+            this.disk.close();
+        }
+    }
+
+    // ========================================== INTERNAL FUNCTIONS ===================================================
+    // Returns false if the RAM tier has no room for the block (it goes to disk then)
+    private boolean writeToRam(String blockName, RamBlock block, BlockBuffer data, boolean append, TierPolicy policy) throws IOException {
+        RamBlock previous = append ? block : null;
+        BlockBuffer onDisk = append && block == null ? this.disk.read(blockName) : null;
+        long reserved = 0;                  // Given back if the write does not make it into the RAM tier
+        try {
+            int base = previous != null ? previous.length : onDisk != null ? onDisk.length() : 0;
+            int length = base + data.length();
+            BlockBuffer memory;
+            if (previous != null && length <= previous.memory.length()) {
+                // Appended in place, behind what the readers of the previous length can see
+                memory = previous.memory;
+            } else {
+                int size = previous != null ? Math.max(length, 2 * previous.memory.length()) : length;
+                if (!this.reserve(size, Integer.MAX_VALUE, blockName)) { return false; }
+                reserved = size;
+                memory = BlockBuffer.wrap(ByteBuffer.allocateDirect(size));
+                if (previous != null) { memory.nioBuffer().put(0, previous.memory.nioBuffer(), 0, base); }
+                if (onDisk != null) { memory.nioBuffer().put(0, onDisk.nioBuffer(), 0, base); }
+            }
+            memory.nioBuffer().put(base, data.nioBuffer(), 0, data.length());
+
+            int[] checksums = previous != null
+                    ? Checksums.append(previous.checksums, base, tail(memory, base), data.nioBuffer())
+                    : Checksums.compute(memory.nioBuffer().limit(length));
+            boolean persisted = block != null ? block.onDisk : this.disk.size(blockName) >= 0;
+            // The new block replaces the old one before it is freed, so a read finds one or the other
+            this.ram.put(blockName, new RamBlock(memory, length, checksums, policy, true, persisted, System.currentTimeMillis()));
+            reserved = 0;
+            if (block != null && block.memory != memory) { this.free(blockName, block); }
+            return true;
+        } finally {
+            this.ramUsed.addAndGet(-reserved);
+            if (onDisk != null) { onDisk.release(); }
+        }
+    }
+
+    private void flush(String blockName, RamBlock block) throws IOException {
+        BlockBuffer data = block.memory.slice(0, block.length);
+        try {
+            this.disk.write(blockName, data, false);
+        } finally {
+            data.release();
+        }
+    }
+
+    // Last (partial) checksum chunk of the first length bytes, null if there is none
+    private static ByteBuffer tail(BlockBuffer memory, int length) {
+        int partial = length % Const.CHECKSUM_CHUNK_SIZE;
+        return partial == 0 ? null : memory.nioBuffer().slice(length - partial, partial);
+    }
+
+    private void free(String blockName, RamBlock block) {
+        this.ram.remove(blockName, block);
+        this.ramUsed.addAndGet(-block.memory.length());
+        block.memory.release();
+    }
+
+    /**
+     * Makes room for more bytes in the RAM tier, by dropping the coldest blocks that have a copy on disk.
+     * @param maxReads Only blocks that were read at most this often are dropped
+     * @param blockName Block the room is for (never dropped, its lock is held by the caller)
+     */
+    private boolean reserve(long bytes, int maxReads, String blockName) {
+        while (true) {
+            long used = this.ramUsed.get();
+            if (used + bytes <= this.capacity) {
+                if (this.ramUsed.compareAndSet(used, used + bytes)) { return true; }
+            } else if (bytes > this.capacity || !this.evictColdest(maxReads, blockName)) {
+                return false;
+            }
+        }
+    }
+
+    // Returns false if there is nothing (more) to evict
+    private boolean evictColdest(int maxReads, String except) {
+        String coldest = this.ram.entrySet().stream()
+                .filter(entry -> !entry.getValue().dirty && this.readsOf(entry.getKey()) <= maxReads && !entry.getKey().equals(except))
+                .min(Comparator.comparingInt((Map.Entry<String, RamBlock> entry) -> this.readsOf(entry.getKey()))
+                        .thenComparingLong(entry -> this.lastUsed(entry.getKey(), entry.getValue())))
+                .map(Map.Entry::getKey)
+                .orElse(null);
+        if (coldest == null) { return false; }
+
+        // The lock of the block may be held by someone that waits for this one, then the block is not evicted
+        ReentrantLock lock = this.locks.get(coldest);
+        if (!lock.tryLock()) { return false; }
+        try {
+            RamBlock block = this.ram.get(coldest);
+            if (block != null && !block.dirty) {
+                this.free(coldest, block);
+                this.demotions.incrementAndGet();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int readsOf(String blockName) {
+        Heat blockHeat = this.heat.get(blockName);
+        return blockHeat == null ? 0 : blockHeat.reads.get();
+    }
+
+    private long lastUsed(String blockName, RamBlock block) {
+        Heat blockHeat = this.heat.get(blockName);
+        return Math.max(block.lastWrite, blockHeat == null ? 0 : blockHeat.lastRead);
+    }
+
+    private void run(long intervalMillis) {
+        while (this.await(intervalMillis)) { this.pass(); }
+    }
+
+    // Waits for the next pass, returns false once the store is closed
+    private boolean await(long millis) {
+        this.moverLock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(millis);
+            while (remaining > 0 && !this.closed) { remaining = this.closing.awaitNanos(remaining); }
+            return !this.closed;
+        } catch (InterruptedException e) {
+            return false;
+        } finally {
+            this.moverLock.unlock();
+        }
+    }
+
+    /**
+     * One pass of the mover (every interval, or right away): flushes and demotes, then promotes the blocks that became
+     * hot, and lets the reads cool down.
+     */
+    public void pass() {
+        long now = System.currentTimeMillis();
+        boolean flushed = false;
+        for (String blockName : this.ram.keySet()) {
+            try {
+                flushed |= this.move(blockName, now);
+            } catch (IOException | RuntimeException e) {
+                System.err.printf("%s: failed to move block %s to disk: %s%n", Thread.currentThread().getName(), blockName, e.getMessage());
+            }
+        }
+        try {
+            if (flushed) { this.disk.sync(); }
+        } catch (IOException e) {
+            System.err.printf("%s: failed to sync the flushed blocks: %s%n", Thread.currentThread().getName(), e.getMessage());
+        }
+
+        this.heat.entrySet().stream()
+                .filter(entry -> entry.getValue().reads.get() >= this.promoteReads && !this.ram.containsKey(entry.getKey()))
+                .sorted(Comparator.comparingInt((Map.Entry<String, Heat> entry) -> entry.getValue().reads.get()).reversed())
+                .map(Map.Entry::getKey)
+                .toList()
+                .forEach(this::promote);
+
+        this.heat.entrySet().removeIf(entry -> entry.getValue().reads.updateAndGet(reads -> reads / 2) == 0 && !this.ram.containsKey(entry.getKey()));
+    }
+
+    // Flushes a lazy-persist block that is not written to any more, and demotes a block that is idle (returns true if it wrote)
+    private boolean move(String blockName, long now) throws IOException {
+        ReentrantLock lock = this.locks.get(blockName);
+        lock.lock();
+        try {
+            RamBlock block = this.ram.get(blockName);
+            if (block == null || block.policy == TierPolicy.TRANSIENT && block.dirty) { return false; }
+            boolean idle = now - this.lastUsed(blockName, block) >= this.demoteIdleMillis;
+            boolean flush = block.dirty && (idle || now - block.lastWrite >= this.persistDelayMillis);
+            if (flush) {
+                this.flush(blockName, block);
+                block = block.persisted();
+                this.ram.put(blockName, block);
+            }
+            if (idle) {
+                this.free(blockName, block);
+                this.demotions.incrementAndGet();
+            }
+            return flush;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void promote(String blockName) {
+        ReentrantLock lock = this.locks.get(blockName);
+        lock.lock();
+        long reserved = 0;
+        BlockBuffer data = null;
+        try {
+            long size = this.disk.size(blockName);
+            if (size < 0 || this.ram.containsKey(blockName)) { return; }
+            // Only blocks that are colder make room for it
+            if (!this.reserve(size, this.readsOf(blockName) - 1, blockName)) { return; }
+            reserved = size;
+            data = this.disk.read(blockName);
+            int[] checksums = this.disk.readChecksums(blockName);
+            if (data == null || checksums == null || data.length() != size) { return; }
+            BlockBuffer memory = BlockBuffer.wrap(ByteBuffer.allocateDirect((int) size).put(data.nioBuffer()).flip());
+            this.ram.put(blockName, new RamBlock(memory, (int) size, checksums, TierPolicy.DISK, false, true, System.currentTimeMillis()));
+            reserved = 0;
+            this.promotions.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            System.err.printf("%s: failed to promote block %s to RAM: %s%n", Thread.currentThread().getName(), blockName, e.getMessage());
+        } finally {
+            this.ramUsed.addAndGet(-reserved);
+            if (data != null) { data.release(); }
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package Benchmark;
+
+import com.lab1.distributedfs.Codec.MessageCodec;
+import com.lab1.distributedfs.FileSystem.BlockNode;
+import com.lab1.distributedfs.FileSystem.FileNode;
+import com.lab1.distributedfs.Message.Message;
+import com.lab1.distributedfs.Message.MessageAction;
+import com.lab1.distributedfs.Message.MessageType;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares Java serialization against the {@link MessageCodec} for a FILE reply that carries a 1,000-block FileNode
+ * (encode and decode separately, the encoded sizes are printed once during the setup).
+ * <p>
+ * Not a unit test (it is not picked up by surefire), run it with the test classpath, e.g.
+ * <code>mvn test-compile exec:java -Dexec.mainClass=Benchmark.CodecBenchmark -Dexec.classpathScope=test</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    private static final int NUM_BLOCKS = 1_000;
+
+    private Message<FileNode> message;
+    private MessageCodec codec;
+    private ByteBuffer encoded;
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<BlockNode> blockList = new ArrayList<>(NUM_BLOCKS);
+        for (int i = 0; i < NUM_BLOCKS; i++) {
+            blockList.add(new BlockNode(i, "/benchmark/file.bin", 4096, new ArrayList<>(List.of(1 + i % 5, 1 + (i + 1) % 5, 1 + (i + 2) % 5))));
+        }
+        message = new Message<>(0, MessageType.Response, MessageAction.FILE, new FileNode("/benchmark/file.bin", blockList), 42);
+
+        codec = new MessageCodec();
+        ByteBuffer frame = codec.encode(message);
+        encoded = ByteBuffer.allocate(frame.remaining()).put(frame).flip();
+        serialized = javaSerialize();
+        System.out.printf("%nencoded size: codec=%d bytes, java serialization=%d bytes%n", encoded.remaining(), serialized.length);
+    }
+
+    @Benchmark
+    public byte[] javaSerialization() throws IOException {
+        return javaSerialize();
+    }
+
+    @Benchmark
+    public Object javaDeserialization() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer codecEncode() {
+        return codec.encode(message);
+    }
+
+    @Benchmark
+    public Message<?> codecDecode() {
+        return codec.decode(encoded.duplicate());
+    }
+
+    private byte[] javaSerialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(CodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
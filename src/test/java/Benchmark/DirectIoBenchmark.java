@@ -0,0 +1,106 @@
+package Benchmark;
+
+import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+import com.lab1.distributedfs.Storage.FileBlockStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Compares buffered I/O against direct I/O ({@link com.lab1.distributedfs.Storage.DirectIo}) of a FILE block store
+ * for a multi-GB workload of large blocks, written and read back sequentially in packets (the way streamed blocks
+ * reach a DataNode). Reports the throughput, the resident set size of the process, and how much the page cache of
+ * the machine grew (the memory that buffered I/O takes away from everything else).
+ * <p>
+ * Not a unit test (it is not picked up by surefire), run it with the test classpath, e.g.
+ * <code>mvn test-compile exec:java -Dexec.mainClass=Benchmark.DirectIoBenchmark -Dexec.classpathScope=test -Dexec.args="4 /data/bench"</code>
+ * (arguments: GB to write, default 2, the directory to write them to, default the temporary directory, which has to
+ * be on a real disk since tmpfs is memory anyway, and optionally "buffered" or "direct" to only run one mode: the RSS
+ * of the second mode includes the direct buffers that the first one left to the GC)
+ */
+public class DirectIoBenchmark {
+    private static final int BLOCK_SIZE = 64 * 1024 * 1024;
+    private static final int PACKET_SIZE = Const.STREAM_PACKET_SIZE;
+
+    public static void main(String[] args) throws Exception {
+        long totalBytes = (long) ((args.length > 0 ? Double.parseDouble(args[0]) : 2) * 1024 * 1024 * 1024);
+        Path root = Paths.get(args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir"), "direct-io-bench");
+        int blocks = (int) Math.max(1, totalBytes / BLOCK_SIZE);
+
+        System.out.printf("%d blocks of %d MB in %d KB packets (%.1f GB) in %s%n", blocks, BLOCK_SIZE >> 20, PACKET_SIZE >> 10, (double) blocks * BLOCK_SIZE / (1 << 30), root);
+        System.out.printf("%-10s %-6s %12s %10s %14s%n", "mode", "phase", "MB/s", "RSS (MB)", "page cache +MB");
+        String only = args.length > 2 ? args[2] : null;
+        if (only == null || only.equals("buffered")) { run("buffered", root.resolve("buffered"), 0, blocks); }
+        if (only == null || only.equals("direct")) { run("direct", root.resolve("direct"), PACKET_SIZE, blocks); }
+    }
+
+    private static void run(String mode, Path dir, int directIoThreshold, int blocks) throws IOException {
+        byte[] packet = new byte[PACKET_SIZE];
+        new Random(42).nextBytes(packet);
+        // The packets arrive in direct buffers (like the ones a decoded message carries)
+        ByteBuffer source = ByteBuffer.allocateDirect(PACKET_SIZE).put(packet).flip();
+
+        try (FileBlockStore store = new FileBlockStore(dir.toFile(), directIoThreshold)) {
+            long cached = pageCache();
+            long start = System.nanoTime();
+            for (int block = 0; block < blocks; block++) {
+                for (int offset = 0; offset < BLOCK_SIZE; offset += PACKET_SIZE) {
+                    store.write(name(block), BlockBuffer.wrap(source.duplicate()), offset > 0);
+                }
+                store.sync();
+            }
+            report(mode, "write", blocks, start, cached);
+
+            cached = pageCache();
+            start = System.nanoTime();
+            for (int block = 0; block < blocks; block++) {
+                for (int offset = 0; offset < BLOCK_SIZE; offset += PACKET_SIZE) {
+                    store.read(name(block), offset, PACKET_SIZE).release();
+                }
+            }
+            report(mode, "read", blocks, start, cached);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static String name(int block) {
+        return "replica0_\\bench.bin_block" + block + Const.BLOCK_FILETYPE;
+    }
+
+    private static void report(String mode, String phase, int blocks, long start, long cached) throws IOException {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-10s %-6s %12.1f %10d %14d%n",
+                mode, phase, (double) blocks * BLOCK_SIZE / (1 << 20) / seconds, procValue(Paths.get("/proc/self/status"), "VmRSS:") >> 10, (pageCache() - cached) >> 10);
+    }
+
+    // Page cache of the machine (KB), 0 where there is no /proc
+    private static long pageCache() throws IOException {
+        return procValue(Paths.get("/proc/meminfo"), "Cached:");
+    }
+
+    private static long procValue(Path file, String key) throws IOException {
+        if (!Files.exists(file)) { return 0; }
+        List<String> lines = Files.readAllLines(file);
+        return lines.stream()
+                .filter(line -> line.startsWith(key))
+                .mapToLong(line -> Long.parseLong(line.substring(key.length()).trim().split("\\s+")[0]))
+                .findFirst().orElse(0);
+    }
+
+    private static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) { return; }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package Benchmark;
+
+import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.ExecutionEngine;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+import com.lab1.distributedfs.IO.DataNodeIO.WriteRequest;
+import com.lab1.distributedfs.Message.DispatchMode;
+import com.lab1.distributedfs.Message.Message;
+import com.lab1.distributedfs.Message.MessageAction;
+import com.lab1.distributedfs.Message.MessageBroker;
+import com.lab1.distributedfs.Message.MessageType;
+import com.lab1.distributedfs.Node.DataNode;
+
+import jdk.jfr.consumer.RecordingStream;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the fixed thread pools (PLATFORM) against virtual threads (VIRTUAL) for both broker dispatch modes,
+ * with 5, 50 and 500 DataNodes. Every run sends the same number of block writes (real disk I/O) spread evenly
+ * over the DataNodes and reports the throughput and the peak number of live threads: the platform (OS) threads,
+ * which include the carrier threads of the virtual threads, and the virtual threads themselves (the thread MXBean
+ * does not see those, they are counted from their JFR start/end events).
+ * <p>
+ * Not a unit test (it is not picked up by surefire), run it with the test classpath, e.g.
+ * <code>mvn test-compile exec:java -Dexec.mainClass=Benchmark.ExecutionEngineBenchmark -Dexec.classpathScope=test</code>
+ */
+public class ExecutionEngineBenchmark {
+    private static final int[] CLUSTER_SIZES = {5, 50, 500};
+    private static final int TOTAL_REQUESTS = 20_000;
+    private static final int PAYLOAD_SIZE = 512;
+    private static final String PATHNAME = "engine-bench";
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%-10s %-10s %-10s %12s %12s %14s %14s%n", "nodes", "engine", "dispatch", "time (ms)", "ops/s", "peak platform", "peak virtual");
+        for (int numDataNodes : CLUSTER_SIZES) {
+            for (DispatchMode dispatchMode : DispatchMode.values()) {
+                for (ExecutionEngine executionEngine : ExecutionEngine.values()) {
+                    run(numDataNodes, dispatchMode, executionEngine);
+                }
+            }
+        }
+    }
+
+    private static void run(int numDataNodes, DispatchMode dispatchMode, ExecutionEngine executionEngine) throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        threadMXBean.resetPeakThreadCount();
+        VirtualThreadCounter virtualThreads = new VirtualThreadCounter();
+
+        // Same pool sizing as the client (one thread per node)
+        MessageBroker messageBroker = new MessageBroker(numDataNodes + 3, dispatchMode, executionEngine);
+        for (int i = 1; i <= numDataNodes; i++) {
+            new DataNode(i, messageBroker).run();
+        }
+
+        int clientID = numDataNodes + 1;
+        CountDownLatch latch = new CountDownLatch(TOTAL_REQUESTS);
+        AtomicInteger failures = new AtomicInteger(0);
+        messageBroker.subscribe(clientID, message -> {
+            if (message.getMessageAction() != MessageAction.WRITE) { failures.incrementAndGet(); }
+            latch.countDown();
+        });
+
+        byte[] payload = new byte[PAYLOAD_SIZE];
+        long start = System.nanoTime();
+        for (int i = 0; i < TOTAL_REQUESTS; i++) {
+            int dataNodeID = (i % numDataNodes) + 1;
+            WriteRequest writeRequest = new WriteRequest(dataNodeID, 0, PATHNAME, i, BlockBuffer.wrap(payload));
+            messageBroker.sendToSubscriber(dataNodeID, new Message<>(clientID, MessageType.Request, MessageAction.WRITE, writeRequest));
+        }
+        boolean done = latch.await(5, TimeUnit.MINUTES);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        int peakPlatformThreads = threadMXBean.getPeakThreadCount();
+
+        System.out.printf("%-10d %-10s %-10s %12d %12.0f %14d %14d%s%n",
+                numDataNodes, executionEngine, dispatchMode, elapsed,
+                TOTAL_REQUESTS / Math.max(elapsed / 1000.0, 0.001),
+                peakPlatformThreads, virtualThreads.stop(),
+                done && failures.get() == 0 ? "" : String.format(" (incomplete, %d failures)", failures.get()));
+
+        // The DataNodes of a run stop with it, so that their threads (and open files) do not count towards the next run
+        for (int i = 1; i <= numDataNodes; i++) {
+            messageBroker.sendToSubscriber(i, new Message<>(clientID, MessageType.Request, MessageAction.EXIT, null));
+        }
+        messageBroker.shutdown();
+        cleanup(numDataNodes);
+    }
+
+    // Peak number of live virtual threads, from the (time ordered) JFR events of the virtual threads that start and end
+    private static class VirtualThreadCounter {
+        private final RecordingStream events = new RecordingStream();
+        private int live = 0;
+        private int peak = 0;
+
+        VirtualThreadCounter() {
+            this.events.enable("jdk.VirtualThreadStart");
+            this.events.enable("jdk.VirtualThreadEnd");
+            this.events.onEvent("jdk.VirtualThreadStart", event -> this.peak = Math.max(this.peak, ++this.live));
+            this.events.onEvent("jdk.VirtualThreadEnd", event -> this.live--);
+            this.events.startAsync();
+        }
+
+        // Waits for the events that are still on their way
+        int stop() {
+            this.events.stop();
+            this.events.close();
+            return this.peak;
+        }
+    }
+
+    private static void cleanup(int numDataNodes) {
+        for (int i = 1; i <= numDataNodes; i++) {
+            File storageDir = Paths.get(Const.getPath(Const.DATANODE_ROOT_DIR), String.format("node%s", i)).toFile();
+            File[] blocks = storageDir.listFiles((dir, name) -> name.contains("_" + PATHNAME + "_"));
+            if (blocks != null) {
+                for (File block : blocks) { block.delete(); }
+            }
+            // Only remove the directories that the benchmark created for itself
+            String[] remaining = storageDir.list();
+            if (i > Const.NUM_DATA_NODES && remaining != null && remaining.length == 0) { storageDir.delete(); }
+        }
+    }
+}
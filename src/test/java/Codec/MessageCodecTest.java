@@ -0,0 +1,172 @@
+package Codec;
+
+import com.lab1.distributedfs.Codec.MessageCodec;
+import com.lab1.distributedfs.FileSystem.BlockNode;
+import com.lab1.distributedfs.FileSystem.Compression;
+import com.lab1.distributedfs.FileSystem.FileNode;
+import com.lab1.distributedfs.FileSystem.TierPolicy;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+import com.lab1.distributedfs.IO.DataNodeIO.*;
+import com.lab1.distributedfs.Message.Message;
+import com.lab1.distributedfs.Message.MessageAction;
+import com.lab1.distributedfs.Message.MessageType;
+import com.lab1.distributedfs.Node.DataNodeStatus;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class MessageCodecTest {
+    private final MessageCodec codec = new MessageCodec();
+
+    @Test
+    public void testFileNodeRoundTrip() {
+        List<BlockNode> blockList = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            blockList.add(new BlockNode(i, "/dir/file.txt", 4096, new ArrayList<>(List.of(1, 2, 3)), Compression.DEFLATE, 64 * 1024));
+        }
+        blockList.get(999).setStoredSize(700);
+        Message<?> decoded = codec.decode(codec.encode(new Message<>(-3, MessageType.Response, MessageAction.FILE, new FileNode("/dir/file.txt", blockList, null, null, 64 * 1024, TierPolicy.LAZY_PERSIST), 7)));
+
+        assertEquals(-3, decoded.getSrcNodeID());
+        assertEquals(MessageType.Response, decoded.getMessageType());
+        assertEquals(MessageAction.FILE, decoded.getMessageAction());
+        assertEquals(7, decoded.getRequestID());
+        FileNode fileNode = cast(FileNode.class, decoded.getData());
+        assertEquals("file.txt", fileNode.getFilename());
+        assertEquals(1_000 * 4096, fileNode.getFileSize());
+        assertEquals(List.of(1, 2, 3), fileNode.getBlockList().get(999).getReplicas());
+        assertEquals(Compression.DEFLATE, fileNode.getCompression());
+        assertEquals(Compression.DEFLATE, fileNode.getBlockList().get(999).getCompression());
+        assertEquals(700, fileNode.getBlockList().get(999).getStoredSize());
+        assertEquals(64 * 1024, fileNode.getBlockSize());
+        assertEquals(64 * 1024 - 4096, fileNode.getBlockList().get(999).getFreeSpace());
+        assertEquals(TierPolicy.LAZY_PERSIST, fileNode.getTierPolicy());
+    }
+
+    @Test
+    public void testBatchRoundTrip() {
+        BatchRequest batchRequest = new BatchRequest(2);
+        batchRequest.add(new WriteRequest(2, 1, "/a.txt", 0, BlockBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8)), true));
+        batchRequest.add(new WriteRequest(2, 0, "/a.txt", 1, null));
+        batchRequest.add(new ReadRequest(2, 0, "/a.txt", 2, 1024, 100));
+
+        Message<?> decoded = codec.decode(codec.encode(new Message<>(4, MessageType.Request, MessageAction.BATCH, batchRequest)));
+        List<Block> operations = cast(BatchRequest.class, decoded.getData()).getOperations();
+        assertEquals(3, operations.size());
+
+        WriteRequest append = cast(WriteRequest.class, operations.get(0));
+        assertTrue(append.isAppendBlock());
+        assertEquals("hello", StandardCharsets.UTF_8.decode(append.getData().nioBuffer()).toString());
+        append.getData().release();
+
+        assertNull(cast(WriteRequest.class, operations.get(1)).getData(), "A delete should stay a delete.");
+        ReadRequest ranged = cast(ReadRequest.class, operations.get(2));
+        assertEquals(2, ranged.getBlockID());
+        assertEquals(1024, ranged.getOffset());
+        assertEquals(100, ranged.getLength());
+    }
+
+    @Test
+    public void testBatchResponseAndStatusRoundTrip() {
+        ReadRequest readRequest = new ReadRequest(1, 2, "/b.bin", 3);
+        WriteRequest writeRequest = new WriteRequest(1, 0, "/b.bin", 4, null);
+        List<Message<?>> results = List.of(
+                new Message<>(1, MessageType.Response, MessageAction.READ, new ReadResponse(readRequest, BlockBuffer.wrap(new byte[]{1, 2, 3}), new int[]{-7}), 9),
+                new Message<>(1, MessageType.Response, MessageAction.WRITE, new WriteResponse(writeRequest, 0), 9),
+                new Message<>(1, MessageType.Response, MessageAction.FAIL, "no such block", 9));
+        BatchResponse batchResponse = new BatchResponse(1, results);
+
+        Message<?> decoded = codec.decode(codec.encode(new Message<>(1, MessageType.Response, MessageAction.BATCH, batchResponse, 9)));
+        List<Message<?>> decodedResults = cast(BatchResponse.class, decoded.getData()).getResults();
+        ReadResponse readResponse = cast(ReadResponse.class, decodedResults.get(0).getData());
+        assertEquals(3, readResponse.getNumBytes());
+        assertArrayEquals(new int[]{-7}, readResponse.getChecksums());
+        readResponse.getData().release();
+        cast(WriteResponse.class, decodedResults.get(1).getData());
+        assertEquals("no such block", decodedResults.get(2).getData());
+
+        DataNodeStatus status = new DataNodeStatus(5, 123456789L);
+        status.blockCount = 12;
+        status.storageUsed = 1L << 40;
+        status.logicalStorageUsed = 5L << 40;
+        status.cacheHits = 300;
+        status.ramTierBlocks = 9;
+        status.unpersistedBlocks = 2;
+        Message<?> stat = codec.decode(codec.encode(new Message<>(0, MessageType.Response, MessageAction.STAT, Map.of(5, status), 1)));
+        DataNodeStatus decodedStatus = (DataNodeStatus) cast(Map.class, stat.getData()).get(5);
+        assertEquals(123456789L, decodedStatus.lastSeen);
+        assertEquals(1L << 40, decodedStatus.storageUsed);
+        assertEquals(5L << 40, decodedStatus.logicalStorageUsed);
+        assertEquals(300, decodedStatus.cacheHits);
+        assertEquals(9, decodedStatus.ramTierBlocks);
+        assertEquals(2, decodedStatus.unpersistedBlocks);
+    }
+
+    @Test
+    public void testPacketRoundTrip() {
+        WriteRequest block = new WriteRequest(3, 1, "/big.bin", 5, null, false, Compression.NONE, List.of(4), 1 << 20, TierPolicy.TRANSIENT);
+        Packet packet = new Packet(block, 1L << 40, 17, true, BlockBuffer.wrap("packet".getBytes(StandardCharsets.UTF_8)), true);
+        Packet decodedPacket = cast(Packet.class, codec.decode(codec.encode(new Message<>(6, MessageType.Request, MessageAction.PACKET, packet))).getData());
+        assertEquals(1L << 40, decodedPacket.getStreamID());
+        assertEquals(17, decodedPacket.getSequence());
+        assertTrue(decodedPacket.isLast());
+        assertTrue(decodedPacket.isAppendBlock());
+        assertEquals(packet.getFilename(), decodedPacket.getFilename());
+        assertEquals(List.of(4), decodedPacket.getPipeline());
+        assertEquals(1 << 20, decodedPacket.getBlockSize());
+        assertEquals(TierPolicy.TRANSIENT, decodedPacket.getTierPolicy());
+        assertEquals("packet", StandardCharsets.UTF_8.decode(decodedPacket.getData().nioBuffer()).toString());
+        decodedPacket.getData().release();
+
+        PacketAck ack = cast(PacketAck.class, codec.decode(codec.encode(new Message<>(3, MessageType.Response, MessageAction.PACKET, new PacketAck(packet, 6, 4242), 1))).getData());
+        assertEquals(1L << 40, ack.getStreamID());
+        assertEquals(17, ack.getSequence());
+        assertEquals(6, ack.getNumBytesWritten());
+        assertEquals(4242, ack.getStoredSize());
+    }
+
+    @Test
+    public void testEncodePartsReferencesLargeData() {
+        // A batch with a small and a large read: only the large data is a part of its own
+        byte[] large = new byte[1000];
+        Arrays.fill(large, (byte) 7);
+        ReadRequest readRequest = new ReadRequest(1, 2, "/c.bin", 3);
+        BatchResponse batchResponse = new BatchResponse(1, List.of(
+                new Message<>(1, MessageType.Response, MessageAction.READ, new ReadResponse(readRequest, BlockBuffer.wrap(new byte[]{1, 2, 3}), new int[]{-7}), 9),
+                new Message<>(1, MessageType.Response, MessageAction.READ, new ReadResponse(readRequest, BlockBuffer.wrap(large), new int[]{42}), 9)));
+        Message<?> message = new Message<>(1, MessageType.Response, MessageAction.BATCH, batchResponse, 9);
+
+        ByteBuffer[] parts = codec.encodeParts(message, 100);
+        assertEquals(3, parts.length);
+        assertSame(large, parts[1].array(), "The large data should not be copied.");
+        ByteBuffer joined = ByteBuffer.allocate(Arrays.stream(parts).mapToInt(ByteBuffer::remaining).sum());
+        for (ByteBuffer part : parts) { joined.put(part.duplicate()); }
+        assertEquals(codec.encode(message), joined.flip());
+
+        List<Message<?>> decodedResults = cast(BatchResponse.class, codec.decode(joined).getData()).getResults();
+        ReadResponse readResponse = cast(ReadResponse.class, decodedResults.get(1).getData());
+        assertArrayEquals(large, readResponse.getData().getBytes());
+        assertArrayEquals(new int[]{42}, readResponse.getChecksums());
+        readResponse.getData().release();
+    }
+
+    @Test
+    public void testRejectsOtherVersion() {
+        ByteBuffer encoded = codec.encode(new Message<>(0, MessageType.Request, MessageAction.LSFS, null));
+        ByteBuffer corrupted = ByteBuffer.allocate(encoded.remaining()).put(encoded).put(0, (byte) (MessageCodec.VERSION + 1)).flip();
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(corrupted));
+    }
+
+    // JUnit 5.5 has no assertInstanceOf
+    private static <T> T cast(Class<T> type, Object value) {
+        assertTrue(type.isInstance(value), "Expected a " + type.getSimpleName() + " but got " + value);
+        return type.cast(value);
+    }
+}
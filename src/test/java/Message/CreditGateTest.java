@@ -0,0 +1,63 @@
+package Message;
+
+import com.lab1.distributedfs.Message.CreditGate;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class CreditGateTest {
+    @Test
+    public void testSenderParksUntilCreditIsReturned() throws InterruptedException {
+        CreditGate creditGate = new CreditGate(1000, 10);
+        creditGate.acquire(1, 600);
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread sender = Thread.ofVirtual().start(() -> {
+            try {
+                creditGate.acquire(1, 600);
+                acquired.countDown();
+            } catch (InterruptedException ignored) {}
+        });
+
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS), "The byte budget should be exhausted.");
+        creditGate.release(1, 600);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS), "Returned credit should wake up the sender.");
+        assertEquals(600, creditGate.getInFlightBytes(1));
+        sender.join();
+    }
+
+    @Test
+    public void testRequestBudgetAndAdvertisement() throws InterruptedException {
+        CreditGate creditGate = new CreditGate(1000, 1);
+        creditGate.acquire(1, 0);
+        // Other nodes have their own budget
+        creditGate.acquire(2, 0);
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread sender = Thread.ofVirtual().start(() -> {
+            try {
+                creditGate.acquire(1, 0);
+                acquired.countDown();
+            } catch (InterruptedException ignored) {}
+        });
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS), "The request budget should be exhausted.");
+
+        // A larger advertised budget lets the waiting sender through
+        creditGate.advertise(1, 1000, 2);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS), "A larger budget should wake up the sender.");
+        assertEquals(2, creditGate.getInFlightRequests(1));
+        sender.join();
+    }
+
+    @Test
+    public void testOversizedRequestPassesAlone() throws InterruptedException {
+        CreditGate creditGate = new CreditGate(100, 10);
+        creditGate.acquire(1, 1_000_000);
+        assertEquals(1_000_000, creditGate.getInFlightBytes(1));
+        creditGate.release(1, 1_000_000);
+        assertEquals(0, creditGate.getInFlightBytes(1));
+    }
+}
@@ -0,0 +1,135 @@
+package Message;
+
+import com.lab1.distributedfs.ExecutionEngine;
+import com.lab1.distributedfs.Message.DispatchMode;
+import com.lab1.distributedfs.Message.Lane;
+import com.lab1.distributedfs.Message.Mailbox;
+import com.lab1.distributedfs.Message.Message;
+import com.lab1.distributedfs.Message.MessageAction;
+import com.lab1.distributedfs.Message.MessageBroker;
+import com.lab1.distributedfs.Message.MessageType;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MessageBrokerTest {
+    private static final int NUM_MESSAGES = 10_000;
+
+    private MessageBroker messageBroker;
+
+    @BeforeEach
+    public void setUp() {
+        messageBroker = new MessageBroker(4, DispatchMode.MAILBOX);
+    }
+
+    @Test
+    public void testMailboxPreservesOrder() throws InterruptedException {
+        List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(NUM_MESSAGES);
+        messageBroker.subscribe(1, message -> {
+            received.add((Integer) message.getData());
+            latch.countDown();
+        });
+
+        for (int i = 0; i < NUM_MESSAGES; i++) {
+            messageBroker.sendToSubscriber(1, new Message<>(0, MessageType.Request, MessageAction.WRITE, i));
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS), "All messages should be delivered.");
+        for (int i = 0; i < NUM_MESSAGES; i++) {
+            assertEquals(i, received.get(i), "Messages to one subscriber should be handled in FIFO order.");
+        }
+    }
+
+    @Test
+    public void testBroadcastReachesEveryMailbox() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(3);
+        for (int topic = 0; topic < 3; topic++) {
+            messageBroker.subscribe(topic, message -> latch.countDown());
+        }
+
+        messageBroker.broadcast(new Message<>(0, MessageType.Request, MessageAction.HEARTBEAT, null));
+        assertTrue(latch.await(5, TimeUnit.SECONDS), "Every subscriber should receive the broadcast.");
+    }
+
+    @Test
+    public void testMulticastOnlyReachesGroup() throws InterruptedException {
+        AtomicInteger received = new AtomicInteger(0);
+        CountDownLatch latch = new CountDownLatch(2);
+        messageBroker.subscribe(0, message -> received.incrementAndGet());
+        messageBroker.subscribe(1, "group", message -> latch.countDown());
+        messageBroker.subscribe(2, "group", message -> latch.countDown());
+
+        messageBroker.multicast("group", new Message<>(0, MessageType.Request, MessageAction.HEARTBEAT, null));
+        assertTrue(latch.await(5, TimeUnit.SECONDS), "Every member of the group should receive the multicast.");
+        assertEquals(0, received.get(), "Subscribers outside of the group should not receive the multicast.");
+    }
+
+    @Test
+    public void testControlLaneGoesFirst() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(12);
+        List<MessageAction> received = Collections.synchronizedList(new ArrayList<>());
+        messageBroker.subscribe(1, message -> {
+            if (received.isEmpty()) {
+                blocked.countDown();
+                try { unblock.await(); } catch (InterruptedException ignored) {}
+            }
+            received.add(message.getMessageAction());
+            done.countDown();
+        });
+
+        // Occupy the event loop, then queue up data before the heartbeat
+        messageBroker.sendToSubscriber(1, new Message<>(0, MessageType.Request, MessageAction.WRITE, 0));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            messageBroker.sendToSubscriber(1, new Message<>(0, MessageType.Request, MessageAction.WRITE, i));
+        }
+        messageBroker.sendToSubscriber(1, new Message<>(0, MessageType.Request, MessageAction.HEARTBEAT, null));
+        assertEquals(10, messageBroker.getQueueDepth(1, Lane.DATA));
+        assertEquals(1, messageBroker.getQueueDepth(1, Lane.CONTROL));
+
+        unblock.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS), "All messages should be delivered.");
+        assertEquals(MessageAction.HEARTBEAT, received.get(1), "The heartbeat should overtake the queued writes.");
+    }
+
+    @Test
+    public void testUndeliveredMessagesAreReportedToTheSender() throws InterruptedException {
+        assertFalse(messageBroker.sendToSubscriber(7, new Message<>(0, MessageType.Request, MessageAction.WRITE, 0)), "Nobody subscribed to the topic.");
+
+        // One message is being handled, one fits into the lane, the next one is still left over after the post timeout
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        Mailbox mailbox = new Mailbox(1, 1, 1, 50, ExecutionEngine.PLATFORM);
+        mailbox.addHandler(message -> {
+            blocked.countDown();
+            try { unblock.await(); } catch (InterruptedException ignored) {}
+        });
+        mailbox.start();
+        try {
+            assertTrue(mailbox.post(new Message<>(0, MessageType.Request, MessageAction.WRITE, 0)));
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+            assertTrue(mailbox.post(new Message<>(0, MessageType.Request, MessageAction.WRITE, 1)));
+            assertFalse(mailbox.post(new Message<>(0, MessageType.Request, MessageAction.WRITE, 2)), "The full mailbox should turn the message down.");
+        } finally {
+            unblock.countDown();
+            mailbox.close(5000);
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        messageBroker.shutdown();
+    }
+}
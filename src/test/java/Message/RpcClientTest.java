@@ -0,0 +1,57 @@
+package Message;
+
+import com.lab1.distributedfs.Message.Message;
+import com.lab1.distributedfs.Message.MessageAction;
+import com.lab1.distributedfs.Message.MessageType;
+import com.lab1.distributedfs.Message.RpcClient;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class RpcClientTest {
+    private RpcClient rpcClient;
+
+    @BeforeEach
+    public void setUp() {
+        rpcClient = new RpcClient();
+    }
+
+    @Test
+    public void testResponsesAreMatchedByRequestID() throws Exception {
+        Message<?> first = new Message<>(0, MessageType.Request, MessageAction.READ, "first");
+        Message<?> second = new Message<>(0, MessageType.Request, MessageAction.READ, "second");
+        CompletableFuture<Message<?>> firstReply = rpcClient.register(first);
+        CompletableFuture<Message<?>> secondReply = rpcClient.register(second);
+
+        // Answer out of order
+        assertTrue(rpcClient.complete(new Message<>(1, MessageType.Response, MessageAction.READ, "B", second.getRequestID())));
+        assertTrue(rpcClient.complete(new Message<>(1, MessageType.Response, MessageAction.READ, "A", first.getRequestID())));
+
+        assertEquals("A", firstReply.get(1, TimeUnit.SECONDS).getData());
+        assertEquals("B", secondReply.get(1, TimeUnit.SECONDS).getData());
+        assertEquals(0, rpcClient.getPendingCount());
+    }
+
+    @Test
+    public void testTimeoutAndLateReply() throws Exception {
+        Message<?> request = new Message<>(0, MessageType.Request, MessageAction.WRITE, null);
+        CompletableFuture<Message<?>> reply = rpcClient.register(request, 50);
+
+        Message<?> timeout = reply.get(2, TimeUnit.SECONDS);
+        assertEquals(MessageAction.TIMEOUT, timeout.getMessageAction());
+        assertEquals(request.getRequestID(), timeout.getRequestID());
+
+        // A reply after the timeout must be dropped
+        assertFalse(rpcClient.complete(new Message<>(1, MessageType.Response, MessageAction.WRITE, null, request.getRequestID())));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        rpcClient.shutdown();
+    }
+}
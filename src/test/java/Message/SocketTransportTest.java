@@ -0,0 +1,241 @@
+package Message;
+
+import com.lab1.distributedfs.Codec.MessageCodec;
+import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+import com.lab1.distributedfs.IO.DataNodeIO.WriteRequest;
+import com.lab1.distributedfs.Message.Message;
+import com.lab1.distributedfs.Message.MessageAction;
+import com.lab1.distributedfs.Message.MessageType;
+import com.lab1.distributedfs.Message.SocketTransport;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+public class SocketTransportTest {
+    private static final int BASE_PORT = 17400;
+    private static final int NUM_MESSAGES = 1_000;
+
+    // Two transports stand in for two processes
+    private SocketTransport sender;
+    private SocketTransport receiver;
+
+    @BeforeEach
+    public void setUp() {
+        sender = new SocketTransport(BASE_PORT, 2);
+        receiver = new SocketTransport(BASE_PORT, 2);
+    }
+
+    @Test
+    public void testMessagesArriveInOrderWithData() throws InterruptedException {
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(NUM_MESSAGES);
+        receiver.subscribe(1, message -> {
+            WriteRequest writeRequest = (WriteRequest) message.getData();
+            received.add(StandardCharsets.UTF_8.decode(writeRequest.getData().nioBuffer()).toString());
+            writeRequest.getData().release();
+            latch.countDown();
+        });
+
+        for (int i = 0; i < NUM_MESSAGES; i++) {
+            BlockBuffer data = BlockBuffer.wrap(String.valueOf(i).getBytes(StandardCharsets.UTF_8));
+            sender.sendToSubscriber(1, new Message<>(2, MessageType.Request, MessageAction.WRITE, new WriteRequest(1, 0, "/a.txt", i, data)));
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS), "All messages should be delivered.");
+        for (int i = 0; i < NUM_MESSAGES; i++) {
+            assertEquals(String.valueOf(i), received.get(i), "Messages over one connection should arrive in FIFO order.");
+        }
+    }
+
+    @Test
+    public void testLargeDataIsReleasedOnceWritten() throws InterruptedException {
+        // Data above the zero-copy threshold is written from the buffer of the sender, which releases it afterwards
+        int messages = 20;
+        List<byte[]> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(messages);
+        receiver.subscribe(1, message -> {
+            WriteRequest writeRequest = (WriteRequest) message.getData();
+            received.add(writeRequest.getData().getBytes());
+            writeRequest.getData().release();
+            latch.countDown();
+        });
+
+        List<BlockBuffer> sent = new ArrayList<>();
+        for (int i = 0; i < messages; i++) {
+            byte[] bytes = new byte[4 * Const.ZERO_COPY_THRESHOLD];
+            Arrays.fill(bytes, (byte) i);
+            BlockBuffer data = BlockBuffer.wrap(ByteBuffer.allocateDirect(bytes.length).put(bytes).flip().asReadOnlyBuffer());
+            sent.add(data);
+            sender.sendToSubscriber(1, new Message<>(2, MessageType.Request, MessageAction.WRITE, new WriteRequest(1, 0, "/big.bin", i, data)));
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS), "All messages should be delivered.");
+        // The last frame can arrive before the sender got to release it
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sent.stream().anyMatch(data -> data.refCount() > 0) && System.currentTimeMillis() < deadline) { Thread.sleep(10); }
+        for (int i = 0; i < messages; i++) {
+            byte[] expected = new byte[4 * Const.ZERO_COPY_THRESHOLD];
+            Arrays.fill(expected, (byte) i);
+            assertArrayEquals(expected, received.get(i));
+            assertEquals(0, sent.get(i).refCount(), "The data should be released once it was sent.");
+        }
+    }
+
+    @Test
+    public void testFramesLargerThanTheSocketBufferToSlowReceiver() throws Exception {
+        // A plain socket that reads slowly stands in for a busy process, so the frames are written in many partial writes
+        int messages = 10;
+        int size = 2 * 1024 * 1024;
+        List<byte[]> received = Collections.synchronizedList(new ArrayList<>());
+        try (ServerSocket server = new ServerSocket()) {
+            server.setReceiveBufferSize(16 * 1024);
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), sender.getPort(3)));
+            Thread reader = Thread.ofPlatform().start(() -> {
+                try (Socket socket = server.accept(); DataInputStream in = new DataInputStream(new SlowInputStream(socket.getInputStream()))) {
+                    MessageCodec codec = new MessageCodec();
+                    for (int i = 0; i < messages; i++) {
+                        byte[] frame = new byte[in.readInt()];
+                        in.readFully(frame);
+                        WriteRequest writeRequest = (WriteRequest) codec.decode(ByteBuffer.wrap(frame)).getData();
+                        received.add(writeRequest.getData().getBytes());
+                        writeRequest.getData().release();
+                    }
+                } catch (IOException e) {
+                    System.err.println("Slow receiver failed: " + e);
+                }
+            });
+
+            for (int i = 0; i < messages; i++) {
+                byte[] bytes = new byte[size];
+                Arrays.fill(bytes, (byte) i);
+                BlockBuffer data = BlockBuffer.wrap(ByteBuffer.allocateDirect(size).put(bytes).flip().asReadOnlyBuffer());
+                sender.sendToSubscriber(3, new Message<>(2, MessageType.Request, MessageAction.WRITE, new WriteRequest(3, 0, "/big.bin", i, data)));
+            }
+            reader.join(30_000);
+        }
+
+        assertEquals(messages, received.size(), "Every frame should arrive whole.");
+        for (int i = 0; i < messages; i++) {
+            byte[] expected = new byte[size];
+            Arrays.fill(expected, (byte) i);
+            assertArrayEquals(expected, received.get(i), "Frame " + i + " should not be mixed up with another one.");
+        }
+    }
+
+    @Test
+    public void testMulticastToOtherProcess() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(2);
+        receiver.subscribe(1, "group", message -> latch.countDown());
+        receiver.subscribe(2, "group", message -> latch.countDown());
+        sender.joinGroup("group", 1);
+        sender.joinGroup("group", 2);
+
+        sender.multicast("group", new Message<>(0, MessageType.Request, MessageAction.HEARTBEAT, null));
+        assertTrue(latch.await(5, TimeUnit.SECONDS), "Every member of the group should receive the multicast.");
+    }
+
+    @Test
+    public void testMulticastOfDataToSeveralProcesses() throws InterruptedException {
+        // Two topics of another process and one of this one get the same (zero-copy) data
+        List<byte[]> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(3);
+        Consumer<Message<?>> handler = message -> {
+            WriteRequest writeRequest = (WriteRequest) message.getData();
+            received.add(writeRequest.getData().getBytes());
+            writeRequest.getData().release();
+            latch.countDown();
+        };
+        receiver.subscribe(1, "group", handler);
+        receiver.subscribe(2, "group", handler);
+        sender.subscribe(3, "group", handler);
+        sender.joinGroup("group", 1);
+        sender.joinGroup("group", 2);
+
+        byte[] bytes = new byte[4 * Const.ZERO_COPY_THRESHOLD];
+        Arrays.fill(bytes, (byte) 7);
+        BlockBuffer data = BlockBuffer.wrap(ByteBuffer.allocateDirect(bytes.length).put(bytes).flip().asReadOnlyBuffer());
+        sender.multicast("group", new Message<>(0, MessageType.Request, MessageAction.WRITE, new WriteRequest(1, 0, "/big.bin", 0, data)));
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS), "Every member of the group should receive the multicast.");
+        for (byte[] copy : received) { assertArrayEquals(bytes, copy); }
+        // Every member releases its own reference (the remote ones once their frame was written)
+        long deadline = System.currentTimeMillis() + 5000;
+        while (data.refCount() > 0 && System.currentTimeMillis() < deadline) { Thread.sleep(10); }
+        assertEquals(0, data.refCount(), "The data should be released once by every member.");
+    }
+
+    @Test
+    public void testFullMailboxOnlyStallsItsOwnConnection() throws InterruptedException {
+        // The handler of topic 1 is stuck until the end, its mailbox (and the connection to it) fills up
+        int messages = Const.MAILBOX_CAPACITY + 200;
+        CountDownLatch stuck = new CountDownLatch(1);
+        CountDownLatch slow = new CountDownLatch(messages);
+        CountDownLatch other = new CountDownLatch(1);
+        receiver.subscribe(1, message -> {
+            try { stuck.await(); } catch (InterruptedException ignored) {}
+            slow.countDown();
+        });
+        receiver.subscribe(2, message -> other.countDown());
+
+        try {
+            for (int i = 0; i < messages; i++) { sender.sendToSubscriber(1, new Message<>(3, MessageType.Request, MessageAction.STAT, null)); }
+            Thread.sleep(200);
+            sender.sendToSubscriber(2, new Message<>(3, MessageType.Request, MessageAction.STAT, null));
+            assertTrue(other.await(Const.WORKER_TIMEOUT / 2, TimeUnit.MILLISECONDS), "Other topics should still get their messages.");
+        } finally {
+            stuck.countDown();
+        }
+        assertTrue(slow.await(10, TimeUnit.SECONDS), "No message should be dropped.");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        sender.shutdown();
+        receiver.shutdown();
+    }
+
+    // Reads at most 8 KB at a time, with a pause before every read
+    private static class SlowInputStream extends InputStream {
+        private final InputStream in;
+
+        SlowInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return this.read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return this.in.read(bytes, offset, Math.min(length, 8 * 1024));
+        }
+    }
+}
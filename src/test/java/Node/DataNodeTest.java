@@ -0,0 +1,293 @@
+package Node;
+
+import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.FileSystem.Compression;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+import com.lab1.distributedfs.IO.DataNodeIO.Block;
+import com.lab1.distributedfs.IO.DataNodeIO.Packet;
+import com.lab1.distributedfs.IO.DataNodeIO.ReadRequest;
+import com.lab1.distributedfs.IO.DataNodeIO.ReadResponse;
+import com.lab1.distributedfs.IO.DataNodeIO.WriteRequest;
+import com.lab1.distributedfs.IO.DataNodeIO.WriteResponse;
+import com.lab1.distributedfs.Message.DispatchMode;
+import com.lab1.distributedfs.Message.Message;
+import com.lab1.distributedfs.Message.MessageAction;
+import com.lab1.distributedfs.Message.MessageBroker;
+import com.lab1.distributedfs.Message.MessageType;
+import com.lab1.distributedfs.Node.DataNode;
+import com.lab1.distributedfs.Node.DataNodeStatus;
+import com.lab1.distributedfs.Storage.Checksums;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class DataNodeTest {
+    private static final int DATA_NODE = 1;
+    private static final int DOWNSTREAM_DATA_NODE = 2;
+    private static final int THREADS = 8;
+    private static final int APPENDS_PER_THREAD = 640;          // 8 x 640 one byte appends overflow one 4 KB block
+
+    @TempDir
+    File storageDir;
+
+    private MessageBroker messageBroker;
+    private final Map<Long, CompletableFuture<Message<?>>> replies = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // Pooled dispatch runs the messages of one node concurrently
+        messageBroker = new MessageBroker(THREADS * 2, DispatchMode.POOLED);
+        new DataNode(DATA_NODE, messageBroker, storageDir).run();
+        messageBroker.subscribe(Const.CLIENT_NODE_ID, reply -> replies.get(reply.getRequestID()).complete(reply));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        messageBroker.sendToSubscriber(DATA_NODE, new Message<>(Const.CLIENT_NODE_ID, MessageType.Request, MessageAction.EXIT, null));
+        messageBroker.shutdown();
+    }
+
+    @Test
+    public void testConcurrentAppendsToOneBlockSerialize() throws Exception {
+        List<CompletableFuture<Message<?>>> hotAppends = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            String ownFile = "/own" + t + ".txt";
+            threads.add(Thread.ofPlatform().start(() -> {
+                try { start.await(); } catch (InterruptedException e) { return; }
+                for (int i = 0; i < APPENDS_PER_THREAD; i++) {
+                    CompletableFuture<Message<?>> hot = request(MessageAction.WRITE, new WriteRequest(DATA_NODE, 0, "/hot.txt", 0, BlockBuffer.wrap(new byte[] {'h'}), true));
+                    synchronized (hotAppends) { hotAppends.add(hot); }
+                    request(MessageAction.WRITE, new WriteRequest(DATA_NODE, 0, ownFile, 0, BlockBuffer.wrap(new byte[] {'o'}), true));
+                }
+            }));
+        }
+        start.countDown();
+        for (Thread thread : threads) { thread.join(); }
+
+        // Exactly a block worth of the appends to the hot block fits, every other one is refused as a whole
+        long acknowledged = 0;
+        for (CompletableFuture<Message<?>> hot : hotAppends) {
+            if (hot.get(30, TimeUnit.SECONDS).getMessageAction() == MessageAction.WRITE) { acknowledged++; }
+        }
+        assertEquals(Const.BLOCK_SIZE, acknowledged, "Appends that pass the size check should all fit.");
+        assertEquals(Const.BLOCK_SIZE, readBlock("/hot.txt"), "No append should be lost or go over the block size.");
+
+        // The appends to the other blocks ran alongside, and all of them made it
+        for (int t = 0; t < THREADS; t++) {
+            assertEquals(APPENDS_PER_THREAD, readBlock("/own" + t + ".txt"));
+        }
+    }
+
+    @Test
+    public void testCompressedBlocks() throws Exception {
+        StringBuilder log = new StringBuilder();
+        while (log.length() < 3000) { log.append("2026-10-18 12:00:00 INFO request served in 3 ms\n"); }
+        byte[] text = log.substring(0, 3000).getBytes(StandardCharsets.UTF_8);
+
+        // Appends to a compressed block add frames, the DataNode reports how small the block is on disk
+        WriteResponse first = write(new WriteRequest(DATA_NODE, 0, "/log.txt", 0, BlockBuffer.wrap(Arrays.copyOf(text, 2000)), false, Compression.DEFLATE));
+        WriteResponse second = write(new WriteRequest(DATA_NODE, 0, "/log.txt", 0, BlockBuffer.wrap(Arrays.copyOfRange(text, 2000, 3000)), true, Compression.DEFLATE));
+        assertTrue(first.getStoredSize() < 2000 / 5, "Repetitive text should compress well: " + first.getStoredSize());
+        assertTrue(second.getStoredSize() > first.getStoredSize());
+
+        // Reads get the logical data, with its checksums (whole, and ranges that are widened to whole chunks)
+        assertArrayEquals(text, readData(new ReadRequest(DATA_NODE, 0, "/log.txt", 0, 0, -1, Compression.DEFLATE)));
+        assertArrayEquals(Arrays.copyOfRange(text, 512, 1536), readData(new ReadRequest(DATA_NODE, 0, "/log.txt", 0, 1000, 500, Compression.DEFLATE)));
+
+        // The size limit is about the logical size
+        Message<?> overflow = request(MessageAction.WRITE, new WriteRequest(DATA_NODE, 0, "/log.txt", 0, BlockBuffer.wrap(new byte[Const.BLOCK_SIZE - 2000]), true, Compression.DEFLATE)).get(30, TimeUnit.SECONDS);
+        assertEquals(MessageAction.FAIL, overflow.getMessageAction());
+
+        Message<?> stat = request(MessageAction.STAT, new DataNodeStatus(DATA_NODE, 0)).get(30, TimeUnit.SECONDS);
+        DataNodeStatus status = (DataNodeStatus) stat.getData();
+        assertEquals(second.getStoredSize(), status.storageUsed);
+        assertEquals(3000, status.logicalStorageUsed);
+    }
+
+    @Test
+    public void testRangesOfCompressedBlocksInflateOnlyTheirFrames() throws Exception {
+        // Eight appends are eight frames (random data is stored raw, 512 bytes after every 8 byte header)
+        byte[] data = new byte[Const.BLOCK_SIZE];
+        new Random(5).nextBytes(data);
+        for (int offset = 0; offset < data.length; offset += 512) {
+            write(new WriteRequest(DATA_NODE, 0, "/frames.txt", 0, BlockBuffer.wrap(Arrays.copyOfRange(data, offset, offset + 512)), offset > 0, Compression.DEFLATE));
+        }
+        assertArrayEquals(Arrays.copyOfRange(data, 1024, 2560), readData(new ReadRequest(DATA_NODE, 0, "/frames.txt", 0, 1100, 1400, Compression.DEFLATE)));
+
+        // Damage the first frame on disk: a range in the last frames does not read it, the whole block does
+        File block = new File(storageDir, "replica0_\\frames.txt_block0" + Const.COMPRESSED_BLOCK_FILETYPE);
+        byte[] onDisk = Files.readAllBytes(block.toPath());
+        onDisk[100] ^= 1;
+        Files.write(block.toPath(), onDisk);
+        assertArrayEquals(Arrays.copyOfRange(data, 3584, 4096), readData(new ReadRequest(DATA_NODE, 0, "/frames.txt", 0, 3600, 400, Compression.DEFLATE)));
+        assertArrayEquals(new byte[0], readData(new ReadRequest(DATA_NODE, 0, "/frames.txt", 0, 5000, 100, Compression.DEFLATE)));
+        Message<?> whole = request(MessageAction.READ, new ReadRequest(DATA_NODE, 0, "/frames.txt", 0, 0, -1, Compression.DEFLATE)).get(30, TimeUnit.SECONDS);
+        assertEquals(MessageAction.FAIL, whole.getMessageAction());
+
+        // An overwrite starts a new index
+        byte[] text = "short and sweet".getBytes(StandardCharsets.UTF_8);
+        write(new WriteRequest(DATA_NODE, 0, "/frames.txt", 0, BlockBuffer.wrap(text), false, Compression.DEFLATE));
+        assertArrayEquals(text, readData(new ReadRequest(DATA_NODE, 0, "/frames.txt", 0, 6, 3, Compression.DEFLATE)));
+    }
+
+    @Test
+    public void testPipelinedWrites() throws Exception {
+        new DataNode(DOWNSTREAM_DATA_NODE, messageBroker, new File(storageDir, "downstream")).run();
+        try {
+            // The first DataNode writes replica 0, and forwards the block to the next one for replica 1
+            byte[] data = "chained".getBytes(StandardCharsets.UTF_8);
+            write(new WriteRequest(DATA_NODE, 0, "/chain.txt", 0, BlockBuffer.wrap(data), false, Compression.NONE, List.of(DOWNSTREAM_DATA_NODE)));
+            assertArrayEquals(data, readData(new ReadRequest(DATA_NODE, 0, "/chain.txt", 0)));
+            assertArrayEquals(data, readData(new ReadRequest(DOWNSTREAM_DATA_NODE, 1, "/chain.txt", 0)));
+
+            // A write that fails further down the pipeline fails for the client as well
+            write(new WriteRequest(DOWNSTREAM_DATA_NODE, 1, "/full.txt", 0, BlockBuffer.wrap(new byte[Const.BLOCK_SIZE]), false));
+            WriteRequest append = new WriteRequest(DATA_NODE, 0, "/full.txt", 0, BlockBuffer.wrap(data), true, Compression.NONE, List.of(DOWNSTREAM_DATA_NODE));
+            Message<?> reply = request(MessageAction.WRITE, append).get(30, TimeUnit.SECONDS);
+            assertEquals(MessageAction.FAIL, reply.getMessageAction());
+            assertTrue(String.valueOf(reply.getData()).contains("data exceeds block size"), String.valueOf(reply.getData()));
+        } finally {
+            messageBroker.sendToSubscriber(DOWNSTREAM_DATA_NODE, new Message<>(Const.CLIENT_NODE_ID, MessageType.Request, MessageAction.EXIT, null));
+        }
+    }
+
+    @Test
+    public void testBlockSizeOfTheFile() throws Exception {
+        // Blocks of a file with larger blocks take more than the default block size, and are still limited by their own
+        int blockSize = 4 * Const.BLOCK_SIZE;
+        write(new WriteRequest(DATA_NODE, 0, "/large.bin", 0, BlockBuffer.wrap(new byte[3 * Const.BLOCK_SIZE]), false, Compression.NONE, List.of(), blockSize));
+        write(new WriteRequest(DATA_NODE, 0, "/large.bin", 0, BlockBuffer.wrap(new byte[Const.BLOCK_SIZE]), true, Compression.NONE, List.of(), blockSize));
+        assertEquals(blockSize, readBlock("/large.bin"));
+
+        Message<?> overflow = request(MessageAction.WRITE, new WriteRequest(DATA_NODE, 0, "/large.bin", 0, BlockBuffer.wrap(new byte[1]), true, Compression.NONE, List.of(), blockSize)).get(30, TimeUnit.SECONDS);
+        assertEquals(MessageAction.FAIL, overflow.getMessageAction());
+    }
+
+    @Test
+    public void testStreamedPacketsAreWrittenInOrder() throws Exception {
+        new DataNode(DOWNSTREAM_DATA_NODE, messageBroker, new File(storageDir, "downstream")).run();
+        try {
+            // Every packet of a window is sent at once (the last one first), the pooled handlers can take them in any order
+            int streams = 50;
+            int packets = Const.STREAM_WINDOW;
+            List<List<CompletableFuture<Message<?>>>> acks = new ArrayList<>();
+            for (int s = 0; s < streams; s++) {
+                List<Integer> pipeline = s % 5 == 0 ? List.of(DOWNSTREAM_DATA_NODE) : List.of();
+                WriteRequest block = new WriteRequest(DATA_NODE, 0, "/stream" + s + ".txt", 0, null, false, Compression.NONE, pipeline);
+                List<CompletableFuture<Message<?>>> streamAcks = new ArrayList<>();
+                for (int sequence = packets - 1; sequence >= 0; sequence--) {
+                    BlockBuffer data = BlockBuffer.wrap(packetData(s, sequence));
+                    streamAcks.add(request(MessageAction.PACKET, new Packet(block, s + 1, sequence, sequence == packets - 1, data, sequence > 0)));
+                }
+                acks.add(streamAcks);
+            }
+
+            for (int s = 0; s < streams; s++) {
+                for (CompletableFuture<Message<?>> ack : acks.get(s)) {
+                    Message<?> reply = ack.get(30, TimeUnit.SECONDS);
+                    assertEquals(MessageAction.PACKET, reply.getMessageAction(), String.valueOf(reply.getData()));
+                }
+                byte[] expected = new byte[0];
+                for (int sequence = 0; sequence < packets; sequence++) { expected = concat(expected, packetData(s, sequence)); }
+                assertArrayEquals(expected, readData(new ReadRequest(DATA_NODE, 0, "/stream" + s + ".txt", 0)), "stream " + s);
+                if (s % 5 == 0) { assertArrayEquals(expected, readData(new ReadRequest(DOWNSTREAM_DATA_NODE, 1, "/stream" + s + ".txt", 0)), "replica of stream " + s); }
+            }
+        } finally {
+            messageBroker.sendToSubscriber(DOWNSTREAM_DATA_NODE, new Message<>(Const.CLIENT_NODE_ID, MessageType.Request, MessageAction.EXIT, null));
+        }
+    }
+
+    @Test
+    public void testStreamFailsOnPacketOutsideOfTheWindow() throws Exception {
+        WriteRequest block = new WriteRequest(DATA_NODE, 0, "/gap.txt", 0, null, false);
+        long streamID = 1000;
+        CompletableFuture<Message<?>> waiting = request(MessageAction.PACKET, new Packet(block, streamID, 1, false, BlockBuffer.wrap(packetData(0, 1)), true));
+        Message<?> outside = request(MessageAction.PACKET, new Packet(block, streamID, Const.STREAM_WINDOW, false, BlockBuffer.wrap(packetData(0, 2)), true)).get(30, TimeUnit.SECONDS);
+        assertEquals(MessageAction.FAIL, outside.getMessageAction());
+        assertTrue(String.valueOf(outside.getData()).contains("out of order"), String.valueOf(outside.getData()));
+
+        // The packet that waited fails with the stream, and so does the packet it waited for
+        assertEquals(MessageAction.FAIL, waiting.get(30, TimeUnit.SECONDS).getMessageAction());
+        Message<?> first = request(MessageAction.PACKET, new Packet(block, streamID, 0, false, BlockBuffer.wrap(packetData(0, 0)), false)).get(30, TimeUnit.SECONDS);
+        assertEquals(MessageAction.FAIL, first.getMessageAction());
+        Message<?> missing = request(MessageAction.READ, new ReadRequest(DATA_NODE, 0, "/gap.txt", 0)).get(30, TimeUnit.SECONDS);
+        assertEquals(MessageAction.FAIL, missing.getMessageAction(), "Nothing of a failed stream should be written.");
+    }
+
+    @Test
+    public void testLatePacketsOfCompleteStreamAreAnswered() throws Exception {
+        WriteRequest block = new WriteRequest(DATA_NODE, 0, "/late.txt", 0, null, false);
+        long streamID = 2000;
+        for (int sequence = 0; sequence < 2; sequence++) {
+            Message<?> ack = request(MessageAction.PACKET, new Packet(block, streamID, sequence, sequence == 1, BlockBuffer.wrap(packetData(0, sequence)), sequence > 0)).get(30, TimeUnit.SECONDS);
+            assertEquals(MessageAction.PACKET, ack.getMessageAction(), String.valueOf(ack.getData()));
+        }
+        byte[] expected = concat(packetData(0, 0), packetData(0, 1));
+
+        // Duplicates are acknowledged again (the first one would overwrite the block), a packet after the last one fails
+        for (int sequence = 0; sequence < 2; sequence++) {
+            Message<?> again = request(MessageAction.PACKET, new Packet(block, streamID, sequence, sequence == 1, BlockBuffer.wrap(packetData(0, sequence)), sequence > 0)).get(30, TimeUnit.SECONDS);
+            assertEquals(MessageAction.PACKET, again.getMessageAction(), String.valueOf(again.getData()));
+        }
+        Message<?> after = request(MessageAction.PACKET, new Packet(block, streamID, 2, true, BlockBuffer.wrap(packetData(0, 2)), true)).get(30, TimeUnit.SECONDS);
+        assertEquals(MessageAction.FAIL, after.getMessageAction());
+        assertArrayEquals(expected, readData(new ReadRequest(DATA_NODE, 0, "/late.txt", 0)));
+    }
+
+    private static byte[] packetData(int stream, int sequence) {
+        return String.format("stream %d packet %d;", stream, sequence).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] joined = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+        return joined;
+    }
+
+    // Returns the length of the block (after verifying it against its checksums)
+    private int readBlock(String pathname) throws Exception {
+        return readData(new ReadRequest(DATA_NODE, 0, pathname, 0)).length;
+    }
+
+    private byte[] readData(ReadRequest readRequest) throws Exception {
+        Message<?> reply = request(MessageAction.READ, readRequest).get(30, TimeUnit.SECONDS);
+        assertEquals(MessageAction.READ, reply.getMessageAction(), String.valueOf(reply.getData()));
+        ReadResponse readResponse = (ReadResponse) reply.getData();
+        assertTrue(Checksums.isValid(readResponse.getData(), readResponse.getChecksums()), readRequest.getPathname());
+        byte[] data = readResponse.getData().getBytes();
+        readResponse.getData().release();
+        return data;
+    }
+
+    private WriteResponse write(WriteRequest writeRequest) throws Exception {
+        Message<?> reply = request(MessageAction.WRITE, writeRequest).get(30, TimeUnit.SECONDS);
+        assertEquals(MessageAction.WRITE, reply.getMessageAction(), String.valueOf(reply.getData()));
+        return (WriteResponse) reply.getData();
+    }
+
+    private CompletableFuture<Message<?>> request(MessageAction messageAction, Object data) {
+        Message<?> request = new Message<>(Const.CLIENT_NODE_ID, MessageType.Request, messageAction, data);
+        CompletableFuture<Message<?>> reply = new CompletableFuture<>();
+        replies.put(request.getRequestID(), reply);
+        messageBroker.sendToSubscriber(data instanceof Block block ? block.getNodeID() : DATA_NODE, request);
+        return reply;
+    }
+}
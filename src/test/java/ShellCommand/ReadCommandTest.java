@@ -0,0 +1,200 @@
+package ShellCommand;
+
+import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.FileSystem.BlockNode;
+import com.lab1.distributedfs.FileSystem.FileNode;
+import com.lab1.distributedfs.Message.Message;
+import com.lab1.distributedfs.Message.MessageAction;
+import com.lab1.distributedfs.Message.MessageBroker;
+import com.lab1.distributedfs.Message.MessageType;
+import com.lab1.distributedfs.Node.DataNode;
+import com.lab1.distributedfs.Node.DataNodeStatus;
+import com.lab1.distributedfs.Node.NameNode;
+import com.lab1.distributedfs.Shell;
+import com.lab1.distributedfs.ShellCommand.CloseCommand;
+import com.lab1.distributedfs.ShellCommand.Command;
+import com.lab1.distributedfs.ShellCommand.OpenCommand;
+import com.lab1.distributedfs.ShellCommand.ReadCommand;
+import com.lab1.distributedfs.ShellCommand.WriteCommand;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+/**
+ * Runs the shell commands against a NameNode and DataNodes in this JVM (every DataNode keeps its blocks in a
+ * temporary directory), with replicas that are damaged on disk in between.
+ */
+public class ReadCommandTest {
+    @TempDir
+    File storageDir;
+
+    private MessageBroker messageBroker;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        messageBroker = new MessageBroker(Const.NUM_NODES);
+        new NameNode(messageBroker).run();
+        for (int i = 1; i < Const.NUM_DATA_NODES + 1; i++) { new DataNode(i, messageBroker, nodeDir(i)).run(); }
+        new Shell(new Scanner(""), messageBroker);
+
+        // Writes only go to the DataNodes the NameNode has heard from
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (Probe.aliveDataNodes() < Const.NUM_DATA_NODES && System.currentTimeMillis() < deadline) { Thread.sleep(20); }
+        assertEquals(Const.NUM_DATA_NODES, Probe.aliveDataNodes());
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        // The NameNode is left running (it saves its file system image on EXIT, which is relative to the working directory)
+        for (int i = 1; i < Const.NUM_DATA_NODES + 1; i++) {
+            messageBroker.sendToSubscriber(i, new Message<>(Const.CLIENT_NODE_ID, MessageType.Request, MessageAction.EXIT, null));
+        }
+        Command.executorService.shutdownNow();
+        Command.rpcClient.shutdown();
+        messageBroker.shutdown();
+    }
+
+    @Test
+    public void testReadFallsBackFromCorruptReplica() throws Exception {
+        String data = "The quick brown fox jumps over the lazy dog.";
+        writeFile("/fallback.bin", data, "NONE");
+        BlockNode blockNode = Probe.find("/fallback.bin").getBlockList().getFirst();
+        corrupt(blockNode, 0);
+
+        // The DataNode of the first replica refuses to serve it, the read goes on with the next replica
+        assertEquals(data, read("/fallback.bin"));
+
+        // ... and reports it, the NameNode marks the replica, so that readers skip it from then on
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!Probe.find("/fallback.bin").getBlockList().getFirst().isCorrupt(0) && System.currentTimeMillis() < deadline) { Thread.sleep(20); }
+        blockNode = Probe.find("/fallback.bin").getBlockList().getFirst();
+        assertTrue(blockNode.isCorrupt(0), "The NameNode should mark the replica as corrupt.");
+        assertFalse(blockNode.isCorrupt(1));
+        assertEquals(data, read("/fallback.bin"));
+        assertEquals(data.substring(10, 25), read("/fallback.bin", "10", "15"));
+    }
+
+    @Test
+    public void testReadFailsOnceEveryReplicaIsCorrupt() throws Exception {
+        writeFile("/lost.bin", "Nothing of this survives.", "NONE");
+        BlockNode blockNode = Probe.find("/lost.bin").getBlockList().getFirst();
+        for (int replica = 0; replica < blockNode.getReplicas().size(); replica++) { corrupt(blockNode, replica); }
+
+        // The read fails, rather than returning damaged data
+        String output = run(new ReadCommand(), "/lost.bin");
+        assertTrue(output.startsWith("Error: ") && output.contains("is corrupt"), output);
+        assertFalse(output.contains("survives"), output);
+    }
+
+    @Test
+    public void testBlockGroupsAreReconstructedFromTheCellsLeft() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 2 * Const.BLOCK_SIZE + 1000; i++) { text.append("line ").append(i).append(';'); }
+        String data = text.toString();
+        writeFile("/ec.bin", data, "EC", "NONE");
+        List<BlockNode> blockGroups = Probe.find("/ec.bin").getBlockList();
+        assertEquals(3, blockGroups.size());
+
+        // As many cells as there are parity cells become unreadable in every group: the DataNode of the first one goes
+        // down, the next data cells are corrupt on disk
+        int downNode = blockGroups.getFirst().getReplicas().getFirst();
+        messageBroker.sendToSubscriber(downNode, new Message<>(Const.CLIENT_NODE_ID, MessageType.Request, MessageAction.EXIT, null));
+        for (BlockNode blockGroup : blockGroups) {
+            assertTrue(blockGroup.isErasureCoded());
+            int unreadable = blockGroup.getReplicas().contains(downNode) ? 1 : 0;
+            for (int cell = 0; unreadable < Const.EC_PARITY_CELLS; cell++) {
+                if (blockGroup.getReplicas().get(cell) == downNode) { continue; }
+                corrupt(blockGroup, cell);
+                unreadable++;
+            }
+        }
+
+        // The missing data cells are reconstructed from the parity cells (a range that spans cells, and block groups, too)
+        int cellSize = blockGroups.getFirst().getCellSize();
+        assertEquals(data, read("/ec.bin"));
+        int offset = cellSize - 100;
+        int length = Const.BLOCK_SIZE + 2 * cellSize;
+        assertEquals(data.substring(offset, offset + length), read("/ec.bin", String.valueOf(offset), String.valueOf(length)));
+    }
+
+    // ========================================== HELPERS ==============================================================
+
+    // Reaches the (protected) requests the shell commands send
+    private static class Probe extends Command {
+        static FileNode find(String path) throws InterruptedException {
+            Message<?> reply = request(MessageAction.FIND, path);
+            assertEquals(MessageAction.FILE, reply.getMessageAction(), String.valueOf(reply.getData()));
+            return (FileNode) reply.getData();
+        }
+
+        static long aliveDataNodes() throws InterruptedException {
+            Message<?> reply = request(MessageAction.STAT, null);
+            if (!(reply.getData() instanceof Map<?, ?> statuses)) { return 0; }
+            return statuses.values().stream().filter(status -> status instanceof DataNodeStatus s && s.alive).count();
+        }
+    }
+
+    private File nodeDir(int nodeID) {
+        return new File(this.storageDir, "node" + nodeID);
+    }
+
+    private static void writeFile(String path, String data, String... options) {
+        String[] openArgs = new String[options.length + 2];
+        openArgs[0] = path;
+        openArgs[1] = "W";
+        System.arraycopy(options, 0, openArgs, 2, options.length);
+        run(new OpenCommand(), openArgs);
+        String output = run(new WriteCommand(), data, path);
+        assertFalse(output.contains("Error"), output);
+        run(new CloseCommand(), path);
+    }
+
+    // The content of the blocks that were read (the data is printed block by block, one line each)
+    private static String read(String... args) {
+        String output = run(new ReadCommand(), args);
+        StringBuilder content = new StringBuilder();
+        for (String line : output.split("\n")) {
+            if (line.startsWith("Block ")) { content.append(line.substring(line.indexOf(": ") + 2)); }
+        }
+        assertTrue(output.contains("Data read from file"), output);
+        return content.toString();
+    }
+
+    private static String run(Command command, String... args) {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+        try {
+            command.handle(List.of(args));
+        } finally {
+            System.setOut(stdout);
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    // Flips the first byte of a replica (or cell) of a block on the disk of its DataNode
+    private void corrupt(BlockNode blockNode, int replica) throws Exception {
+        String suffix = "_block" + blockNode.getBlockID() + Const.BLOCK_FILETYPE;
+        File[] files = nodeDir(blockNode.getReplicas().get(replica))
+            .listFiles((dir, name) -> name.startsWith("replica" + replica + "_") && name.endsWith(suffix));
+        assertNotNull(files);
+        assertEquals(1, files.length, "Expected one file for replica " + replica);
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            int value = file.read();
+            file.seek(0);
+            file.write(value ^ 0xFF);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package Storage;
+
+import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+import com.lab1.distributedfs.Storage.BlockCache;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockCacheTest {
+    @Test
+    public void testLeastRecentlyUsedBlockIsEvicted() {
+        BlockCache cache = new BlockCache(2L * Const.BLOCK_SIZE);
+        cache.put("a", BlockBuffer.wrap(new byte[] {1}), null, cache.generation());
+        cache.put("b", BlockBuffer.wrap(new byte[] {2}), null, cache.generation());
+        cache.get("a").data().release();                            // "b" is now the least recently used
+        cache.put("c", BlockBuffer.wrap(new byte[] {3}), null, cache.generation());
+
+        assertNull(cache.get("b"));
+        BlockBuffer hit = cache.get("a").data();
+        assertEquals(1, hit.nioBuffer().get(0));
+        hit.release();
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testInvalidatedReadIsNotCached() {
+        BlockCache cache = new BlockCache(2L * Const.BLOCK_SIZE);
+        cache.put("a", BlockBuffer.wrap(new byte[] {1}), null, cache.generation());
+
+        // A read misses, then a write invalidates the block before the read puts what it loaded
+        long generation = cache.generation();
+        cache.invalidate("b");
+        cache.put("b", BlockBuffer.wrap(new byte[] {2}), null, generation);
+        assertNull(cache.get("b"));
+
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+    }
+}
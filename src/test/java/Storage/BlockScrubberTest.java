@@ -0,0 +1,71 @@
+package Storage;
+
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+import com.lab1.distributedfs.Storage.BlockCache;
+import com.lab1.distributedfs.Storage.BlockScrubber;
+import com.lab1.distributedfs.Storage.BlockStore;
+import com.lab1.distributedfs.Storage.Checksums;
+import com.lab1.distributedfs.Storage.FileBlockStore;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class BlockScrubberTest {
+    private static final String HEALTHY = "replica0_a.bin_block0.blk";
+    private static final String ROTTEN = "replica1_a.bin_block1.blk";
+    private static final String HOT = "replica2_a.bin_block2.blk";
+
+    @TempDir
+    File storageDir;
+
+    @Test
+    public void testScrubberReportsBlocksThatFailTheirChecksums() throws Exception {
+        try (BlockStore store = new FileBlockStore(this.storageDir)) {
+            for (String blockName : List.of(HEALTHY, ROTTEN, HOT)) { write(store, blockName, 3000); }
+            // Bit rot under two of the blocks, one of them is hot (in the cache)
+            flipByte(ROTTEN, 2000);
+            flipByte(HOT, 10);
+            BlockCache cache = new BlockCache(4096);
+            BlockBuffer cached = BlockBuffer.wrap(new byte[3000]);
+            cache.put(HOT, cached, Checksums.compute(cached.nioBuffer()), cache.generation());
+            cached.release();
+
+            List<String> reported = new CopyOnWriteArrayList<>();
+            BlockScrubber scrubber = new BlockScrubber("scrub-test", store, cache, 1L << 40, 60_000, reported::add);
+            try {
+                // The first pass starts right away, the next one only after the interval
+                long deadline = System.currentTimeMillis() + 10_000;
+                while ((scrubber.getScrubbedBlocks() < 2 || reported.isEmpty()) && System.currentTimeMillis() < deadline) { Thread.sleep(10); }
+            } finally {
+                scrubber.close();
+            }
+
+            assertEquals(2, scrubber.getScrubbedBlocks(), "Cached blocks should be skipped.");
+            assertEquals(1, scrubber.getCorruptBlocks());
+            assertEquals(List.of(ROTTEN), reported);
+        }
+    }
+
+    private static void write(BlockStore store, String blockName, int length) throws Exception {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) { data[i] = (byte) ('a' + i % 26); }
+        BlockBuffer buffer = BlockBuffer.wrap(data);
+        store.write(blockName, buffer, false);
+        buffer.release();
+    }
+
+    private void flipByte(String blockName, int position) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(new File(this.storageDir, blockName), "rw")) {
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xFF);
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package Storage;
+
+import com.lab1.distributedfs.Const;
+import com.lab1.distributedfs.FileSystem.TierPolicy;
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+import com.lab1.distributedfs.IO.Buffer.BufferPool;
+import com.lab1.distributedfs.Storage.BlockCompressor;
+import com.lab1.distributedfs.Storage.BlockManifest;
+import com.lab1.distributedfs.Storage.BlockStore;
+import com.lab1.distributedfs.Storage.Checksums;
+import com.lab1.distributedfs.Storage.FileBlockStore;
+import com.lab1.distributedfs.Storage.SegmentBlockStore;
+import com.lab1.distributedfs.Storage.StorageEngine;
+import com.lab1.distributedfs.Storage.StorageTier;
+import com.lab1.distributedfs.Storage.TieredBlockStore;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class BlockStoreTest {
+    private static final String A = "replica0_a.txt_block0.blk";
+    private static final String B = "replica1_b.txt_block0.blk";
+
+    @TempDir
+    File storageDir;
+
+    @Test
+    public void testEnginesReadWriteAppendDelete() throws Exception {
+        for (StorageEngine engine : StorageEngine.values()) {
+            File dir = new File(this.storageDir, engine.name());
+            try (BlockStore store = engine.open(dir)) {
+                write(store, A, "hello", false);
+                write(store, A, " world", true);
+                write(store, B, "first", false);
+                write(store, B, "second", false);
+
+                assertEquals("hello world", read(store, A), engine + ": append");
+                assertEquals("second", read(store, B), engine + ": overwrite");
+                assertEquals("o wor", read(store, A, 4, 5), engine + ": range");
+                assertEquals("world", read(store, A, 6, -1), engine + ": range to the end");
+                assertEquals("ld", read(store, A, 9, 100), engine + ": range cut at the end");
+                assertEquals("", read(store, A, 100, 5), engine + ": range after the end");
+                assertEquals(2, store.getBlockCount(), engine.name());
+                assertEquals(17, store.getStorageUsed(), engine.name());
+
+                assertTrue(store.delete(A), engine.name());
+                assertFalse(store.delete(A), engine.name());
+                assertNull(store.read(A), engine.name());
+                assertEquals(-1, store.size(A), engine.name());
+                assertEquals(1, store.getBlockCount(), engine.name());
+            }
+
+            // Reopening the store finds the blocks again
+            try (BlockStore store = engine.open(dir)) {
+                assertEquals("second", read(store, B), engine + ": reopen");
+                assertEquals(1, store.getBlockCount(), engine.name());
+                assertEquals(6, store.getStorageUsed(), engine.name());
+            }
+        }
+    }
+
+    @Test
+    public void testChecksumsFollowAppendsAndCatchCorruption() throws Exception {
+        // Appends that end in (and start from) partial chunks
+        byte[] data = new byte[3000];
+        new Random(7).nextBytes(data);
+        for (StorageEngine engine : StorageEngine.values()) {
+            try (BlockStore store = engine.open(new File(this.storageDir, engine.name()))) {
+                for (int offset = 0; offset < data.length; offset += 700) {
+                    BlockBuffer part = BlockBuffer.wrap(Arrays.copyOfRange(data, offset, Math.min(data.length, offset + 700)));
+                    store.write(A, part, offset > 0);
+                    part.release();
+                }
+                assertArrayEquals(Checksums.compute(ByteBuffer.wrap(data)), store.readChecksums(A), engine.name());
+                BlockBuffer stored = store.read(A);
+                assertTrue(Checksums.isValid(stored, store.readChecksums(A)), engine.name());
+                stored.release();
+            }
+        }
+
+        // Flip a bit of a block on disk
+        File block = new File(new File(this.storageDir, StorageEngine.FILE.name()), A);
+        byte[] onDisk = Files.readAllBytes(block.toPath());
+        onDisk[1500] ^= 1;
+        Files.write(block.toPath(), onDisk);
+        try (BlockStore store = StorageEngine.FILE.open(block.getParentFile())) {
+            BlockBuffer stored = store.read(A);
+            assertEquals(2, Checksums.verify(stored.nioBuffer(), store.readChecksums(A)));
+            stored.release();
+        }
+    }
+
+    @Test
+    public void testAppendToBlockWithoutChecksums() throws Exception {
+        // Blocks from before checksums were kept have no checksum file, one ends in a partial chunk after whole ones
+        byte[] data = new byte[2500];
+        new Random(11).nextBytes(data);
+        File dir = new File(this.storageDir, "legacy");
+        dir.mkdirs();
+        Files.write(new File(dir, A).toPath(), Arrays.copyOf(data, 1300));
+        Files.write(new File(dir, B).toPath(), Arrays.copyOf(data, 300));
+
+        try (BlockStore store = StorageEngine.FILE.open(dir)) {
+            assertNull(store.readChecksums(A));
+            BlockBuffer appended = BlockBuffer.wrap(Arrays.copyOfRange(data, 1300, data.length));
+            store.write(A, appended, true);
+            store.write(B, appended, true);
+            appended.release();
+
+            assertArrayEquals(data, bytes(store.read(A)));
+            assertArrayEquals(Checksums.compute(ByteBuffer.wrap(data)), store.readChecksums(A));
+            byte[] shorter = new byte[300 + data.length - 1300];
+            System.arraycopy(data, 0, shorter, 0, 300);
+            System.arraycopy(data, 1300, shorter, 300, data.length - 1300);
+            assertArrayEquals(shorter, bytes(store.read(B)));
+            assertArrayEquals(Checksums.compute(ByteBuffer.wrap(shorter)), store.readChecksums(B));
+        }
+
+        // The checksums were written next to the blocks
+        try (BlockStore store = StorageEngine.FILE.open(dir)) {
+            assertArrayEquals(Checksums.compute(ByteBuffer.wrap(data)), store.readChecksums(A));
+        }
+    }
+
+    @Test
+    public void testManifestIsLoadedAndValidatedLazily() throws Exception {
+        try (BlockStore store = StorageEngine.FILE.open(this.storageDir)) {
+            write(store, A, "hello", false);
+            write(store, B, "world", false);
+        }
+        File manifest = new File(this.storageDir, BlockManifest.FILENAME);
+        assertTrue(manifest.exists(), "Closing the store should save its manifest.");
+
+        // The block changes behind the back of the manifest
+        Files.writeString(new File(this.storageDir, A).toPath(), "hello again");
+        try (BlockStore store = StorageEngine.FILE.open(this.storageDir)) {
+            assertFalse(manifest.exists(), "A loaded manifest goes stale, it should be removed.");
+            assertEquals(2, store.getBlockCount());
+            assertEquals(11, store.size(A), "The entry should be validated on first use.");
+            assertEquals(16, store.getStorageUsed());
+        }
+
+        // Without a manifest (e.g. after a crash) the index is rebuilt from the blocks
+        assertTrue(manifest.delete());
+        try (BlockStore store = StorageEngine.FILE.open(this.storageDir)) {
+            assertEquals(2, store.getBlockCount());
+            assertEquals("world", read(store, B));
+        }
+    }
+
+    @Test
+    public void testSegmentCompaction() throws Exception {
+        int blocksPerSegment = Const.SEGMENT_SIZE / (Const.BLOCK_SIZE + 64);
+        int blocks = 3 * blocksPerSegment;
+        try (SegmentBlockStore store = new SegmentBlockStore(this.storageDir)) {
+            for (int i = 0; i < blocks; i++) {
+                write(store, "block" + i, "data" + i, false);
+            }
+            int segments = store.getSegmentCount();
+            assertTrue(segments >= 3);
+
+            // Drop most of the blocks, the segments that are mostly dead get compacted away
+            for (int i = 0; i < blocks; i++) {
+                if (i % 10 != 0) { assertTrue(store.delete("block" + i)); }
+            }
+            assertTrue(store.getSegmentCount() < segments, "Dead segments should be compacted.");
+            for (int i = 0; i < blocks; i += 10) {
+                assertEquals("data" + i, read(store, "block" + i));
+            }
+        }
+
+        // The compacted layout is found again on restart
+        try (SegmentBlockStore store = new SegmentBlockStore(this.storageDir)) {
+            assertEquals((blocks + 9) / 10, store.getBlockCount());
+            for (int i = 0; i < blocks; i += 10) {
+                assertEquals("data" + i, read(store, "block" + i));
+            }
+        }
+    }
+
+    @Test
+    public void testDirectIoKeepsTheData() throws Exception {
+        // Every transfer goes direct where it can: aligned (in memory, or copied) prefixes direct, tails and unaligned appends buffered
+        byte[] data = new byte[3 * Const.STREAM_PACKET_SIZE + 777];
+        new Random(11).nextBytes(data);
+        ByteBuffer aligned = BufferPool.allocateAligned(Const.STREAM_PACKET_SIZE, 4096).put(0, data, 0, Const.STREAM_PACKET_SIZE);
+        try (FileBlockStore store = new FileBlockStore(this.storageDir, 1)) {
+            store.write(A, BlockBuffer.wrap(aligned), false);
+            for (int offset = Const.STREAM_PACKET_SIZE; offset < data.length; offset += Const.STREAM_PACKET_SIZE + 100) {
+                BlockBuffer part = BlockBuffer.wrap(Arrays.copyOfRange(data, offset, Math.min(data.length, offset + Const.STREAM_PACKET_SIZE + 100)));
+                store.write(A, part, true);
+                part.release();
+            }
+            assertArrayEquals(Checksums.compute(ByteBuffer.wrap(data)), store.readChecksums(A));
+            assertArrayEquals(data, bytes(store.read(A)));
+            assertArrayEquals(Arrays.copyOfRange(data, 5000, 5000 + Const.STREAM_PACKET_SIZE), bytes(store.read(A, 5000, Const.STREAM_PACKET_SIZE)));
+            assertArrayEquals(Arrays.copyOfRange(data, data.length - 10, data.length), bytes(store.read(A, data.length - 10, 100)));
+        }
+        assertArrayEquals(data, Files.readAllBytes(new File(this.storageDir, A).toPath()));
+    }
+
+    @Test
+    public void testLargeReadsAreMapped() throws Exception {
+        byte[] first = new byte[2 * Const.ZERO_COPY_THRESHOLD];
+        byte[] second = new byte[first.length];
+        new Random(3).nextBytes(first);
+        new Random(4).nextBytes(second);
+        for (StorageEngine engine : StorageEngine.values()) {
+            try (BlockStore store = engine.open(new File(this.storageDir, engine.name()))) {
+                store.write(A, BlockBuffer.wrap(first), false);
+                BlockBuffer mapped = store.read(A);
+                assertTrue(mapped.nioBuffer().isReadOnly(), engine + ": large reads should be mapped");
+                BlockBuffer small = store.read(A, 0, 100);
+                assertFalse(small.isReadOnly(), engine + ": small reads should be copied");
+                small.release();
+                assertArrayEquals(Arrays.copyOfRange(first, 100, 100 + Const.ZERO_COPY_THRESHOLD), bytes(store.read(A, 100, Const.ZERO_COPY_THRESHOLD)), engine.name());
+
+                // Overwrites and appends do not change what a reader already has
+                store.write(A, BlockBuffer.wrap(second), false);
+                assertArrayEquals(first, mapped.getBytes(), engine + ": overwrite");
+                store.write(A, BlockBuffer.wrap(first), true);
+                assertArrayEquals(first, bytes(mapped), engine + ": append");
+
+                BlockBuffer appended = store.read(A);
+                assertArrayEquals(second, Arrays.copyOf(appended.getBytes(), second.length), engine.name());
+                assertTrue(Checksums.isValid(appended, store.readChecksums(A)), engine.name());
+                appended.release();
+            }
+        }
+    }
+
+    @Test
+    public void testMappedReadsRaceWithOverwrites() throws Exception {
+        // Mapped blocks are written to a new file that replaces the old one, readers see one of the two (never none)
+        try (BlockStore store = new FileBlockStore(this.storageDir, 0)) {
+            store.write(A, BlockBuffer.wrap(new byte[2 * Const.ZERO_COPY_THRESHOLD]), false);
+            AtomicBoolean done = new AtomicBoolean(false);
+            List<Throwable> failures = new CopyOnWriteArrayList<>();
+            List<Thread> readers = new ArrayList<>();
+            for (int r = 0; r < 4; r++) {
+                readers.add(Thread.ofPlatform().start(() -> {
+                    try {
+                        while (!done.get()) {
+                            BlockBuffer read = store.read(A);
+                            assertNotNull(read, "The block should never be missing.");
+                            byte[] bytes = bytes(read);
+                            for (byte b : bytes) { assertEquals(bytes[0], b, "A read should see one whole version of the block."); }
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }));
+            }
+            try {
+                for (int i = 0; i < 500; i++) {
+                    byte[] version = new byte[(2 + i % 2) * Const.ZERO_COPY_THRESHOLD];
+                    Arrays.fill(version, (byte) i);
+                    store.write(A, BlockBuffer.wrap(version), false);
+                }
+            } finally {
+                done.set(true);
+            }
+            for (Thread reader : readers) { reader.join(); }
+            assertEquals(List.of(), failures);
+        }
+    }
+
+    @Test
+    public void testTieredStoreMovesBlocks() throws Exception {
+        String c = "replica2_c.txt_block0.blk";
+        String d = "replica0_d.txt_block0.blk";
+        FileBlockStore disk = new FileBlockStore(this.storageDir);
+        // The mover only runs when the test asks it to (pass), blocks are flushed on the first pass, and hot after 2 reads
+        try (TieredBlockStore store = new TieredBlockStore("test-tier", disk, 4096, 3_600_000, 0, 2, 3_600_000)) {
+            // Lazy-persist writes (and appends) land in RAM, with their checksums
+            write(store, A, "hello", false, TierPolicy.LAZY_PERSIST);
+            write(store, A, " world", true, TierPolicy.LAZY_PERSIST);
+            write(store, B, "scratch", false, TierPolicy.TRANSIENT);
+            assertEquals(StorageTier.RAM, store.getTier(A));
+            assertEquals(-1, disk.size(A));
+            assertEquals("o wor", read(store, A, 4, 5));
+            assertTrue(Checksums.isValid(store.read(A), store.readChecksums(A)));
+            assertEquals(2, store.getUnpersistedBlockCount());
+            assertEquals(2, store.getBlockCount());
+
+            // The mover flushes the lazy-persist block, the transient one never goes to disk
+            store.pass();
+            assertEquals("hello world", read(disk, A));
+            assertEquals(-1, disk.size(B));
+            assertEquals(1, store.getUnpersistedBlockCount());
+            assertEquals(2, store.getBlockCount());
+            assertEquals(18, store.getStorageUsed());
+
+            // A block on disk that is read often is promoted
+            write(store, c, "cold", false, TierPolicy.DISK);
+            assertEquals(StorageTier.DISK, store.getTier(c));
+            store.touch(c);
+            store.touch(c);
+            store.pass();
+            assertEquals(StorageTier.RAM, store.getTier(c));
+            assertEquals(1, store.getPromotions());
+            assertEquals("cold", read(store, c));
+
+            // A block that does not fit in RAM goes to disk, writes of disk files drop the RAM copy
+            write(store, d, "x".repeat(5000), false, TierPolicy.TRANSIENT);
+            assertEquals(StorageTier.DISK, store.getTier(d));
+            assertEquals(5000, disk.size(d));
+            write(store, c, " again", true, TierPolicy.DISK);
+            assertEquals(StorageTier.DISK, store.getTier(c));
+            assertEquals("cold again", read(store, c));
+
+            assertTrue(store.delete(B));
+            assertFalse(store.delete(B));
+            assertEquals(0, store.getUnpersistedBlockCount());
+        }
+    }
+
+    @Test
+    public void testFailedRamWriteGivesItsRoomBack() throws Exception {
+        AtomicBoolean failing = new AtomicBoolean(true);
+        FileBlockStore disk = new FileBlockStore(this.storageDir) {
+            @Override
+            public long size(String blockName) {
+                if (failing.get()) { throw new IllegalStateException("disk is gone"); }
+                return super.size(blockName);
+            }
+        };
+        try (TieredBlockStore store = new TieredBlockStore("test-tier", disk, 4096, 3_600_000, 0, 2, 3_600_000)) {
+            // The write fails after the RAM for it was reserved
+            assertThrows(IllegalStateException.class, () -> write(store, A, "x".repeat(3000), false, TierPolicy.TRANSIENT));
+            failing.set(false);
+            write(store, B, "y".repeat(3000), false, TierPolicy.TRANSIENT);
+            assertEquals(StorageTier.RAM, store.getTier(B), "The failed write should not keep its room in RAM.");
+        }
+    }
+
+    @Test
+    public void testTieredOverwriteDoesNotEvictItself() throws Exception {
+        // The block is the only (and so the coldest) clean block in RAM when its overwrite needs more room
+        try (TieredBlockStore store = new TieredBlockStore("test-tier", new FileBlockStore(this.storageDir), 4096, 3_600_000, 0, 2, 3_600_000)) {
+            write(store, A, "a".repeat(1000), false, TierPolicy.LAZY_PERSIST);
+            store.pass();
+            write(store, A, "b".repeat(3500), false, TierPolicy.LAZY_PERSIST);
+            // There is no room next to its old copy, so the block goes to disk
+            assertEquals(StorageTier.DISK, store.getTier(A));
+            assertEquals("b".repeat(3500), read(store, A));
+            assertEquals(0, store.getRamBytes());
+        }
+    }
+
+    @Test
+    public void testTieredReadsRaceWithFrees() throws Exception {
+        // Overwrites (and the mover) free the RAM copy that the reads may just have looked up
+        try (TieredBlockStore store = new TieredBlockStore("test-tier", new FileBlockStore(this.storageDir), 1 << 20, 3_600_000, 0, 2, 3_600_000)) {
+            write(store, A, "x".repeat(1000), false, TierPolicy.LAZY_PERSIST);
+            AtomicBoolean done = new AtomicBoolean(false);
+            List<Throwable> failures = new CopyOnWriteArrayList<>();
+            List<Thread> readers = new ArrayList<>();
+            for (int r = 0; r < 4; r++) {
+                readers.add(Thread.ofPlatform().start(() -> {
+                    try {
+                        while (!done.get()) {
+                            String data = read(store, A);
+                            assertEquals(String.valueOf(data.charAt(0)).repeat(1000), data, "A read should see one whole version of the block.");
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }));
+            }
+            try {
+                for (int i = 0; i < 20_000; i++) {
+                    write(store, A, String.valueOf((char) ('a' + i % 26)).repeat(1000), false, TierPolicy.LAZY_PERSIST);
+                    if (i % 100 == 0) { store.pass(); }
+                }
+            } finally {
+                done.set(true);
+            }
+            for (Thread reader : readers) { reader.join(); }
+            assertEquals(List.of(), failures);
+        }
+    }
+
+    @Test
+    public void testRangesAlignToChunks() {
+        int chunk = Const.CHECKSUM_CHUNK_SIZE;
+        assertArrayEquals(new int[] {0, chunk}, Checksums.align(10, 20));
+        assertArrayEquals(new int[] {chunk, 2 * chunk}, Checksums.align(chunk + 1, chunk));
+        assertArrayEquals(new int[] {chunk, -1}, Checksums.align(chunk, -1));
+        assertArrayEquals(new int[] {2, 3}, Checksums.slice(new int[] {1, 2, 3}, chunk, chunk + 1));
+    }
+
+    @Test
+    public void testDamagedFrameHeadersAreRejected() throws Exception {
+        try (BlockStore store = new FileBlockStore(this.storageDir)) {
+            BlockBuffer data = BlockBuffer.wrap("compressed ".repeat(50).getBytes(StandardCharsets.UTF_8));
+            BlockBuffer frame = BlockCompressor.compress(data);
+            store.write(A, frame, false);
+            store.write(A, frame, true);
+            assertEquals(2, BlockCompressor.frames(store, A).count());
+            assertEquals(2L * data.length(), BlockCompressor.logicalLength(store, A));
+            frame.release();
+            data.release();
+
+            // A stored length that would not move the scan forward (or move it backwards), or that ends past the block
+            for (int storedLength : new int[] {0, -BlockCompressor.HEADER_SIZE, 1 << 20}) {
+                ByteBuffer header = ByteBuffer.allocate(BlockCompressor.HEADER_SIZE).putInt(storedLength).putInt(10).flip();
+                BlockBuffer damaged = BlockBuffer.wrap(Arrays.copyOf(header.array(), 64));
+                store.write(B, damaged, false);
+                damaged.release();
+                assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(IOException.class, () -> BlockCompressor.logicalLength(store, B)));
+            }
+        }
+    }
+
+    private static void write(BlockStore store, String blockName, String data, boolean append) throws Exception {
+        BlockBuffer buffer = BlockBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+        store.write(blockName, buffer, append);
+        buffer.release();
+    }
+
+    private static void write(TieredBlockStore store, String blockName, String data, boolean append, TierPolicy tierPolicy) throws Exception {
+        BlockBuffer buffer = BlockBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+        store.write(blockName, buffer, append, tierPolicy);
+        buffer.release();
+    }
+
+    private static byte[] bytes(BlockBuffer buffer) {
+        byte[] bytes = buffer.getBytes();
+        buffer.release();
+        return bytes;
+    }
+
+    private static String read(BlockStore store, String blockName) throws Exception {
+        return read(store, blockName, 0, -1);
+    }
+
+    private static String read(BlockStore store, String blockName, int offset, int length) throws Exception {
+        BlockBuffer buffer = store.read(blockName, offset, length);
+        assertNotNull(buffer, blockName);
+        byte[] bytes = new byte[buffer.length()];
+        buffer.nioBuffer().get(bytes);
+        buffer.release();
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
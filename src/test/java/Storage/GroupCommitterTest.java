@@ -0,0 +1,43 @@
+package Storage;
+
+import com.lab1.distributedfs.IO.Buffer.BlockBuffer;
+import com.lab1.distributedfs.Storage.BlockStore;
+import com.lab1.distributedfs.Storage.GroupCommitter;
+import com.lab1.distributedfs.Storage.StorageEngine;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class GroupCommitterTest {
+    @TempDir
+    File storageDir;
+
+    @Test
+    public void testConcurrentWritesShareCommits() throws Exception {
+        int writes = 200;
+        try (BlockStore store = StorageEngine.FILE.open(this.storageDir)) {
+            GroupCommitter committer = new GroupCommitter("test-commit", store, 20, 64);
+            List<CompletableFuture<Void>> commits = new ArrayList<>();
+            for (int i = 0; i < writes; i++) {
+                BlockBuffer data = BlockBuffer.wrap(new byte[] {(byte) i});
+                store.write(String.format("replica0_f.txt_block%d.blk", i), data, false);
+                data.release();
+                commits.add(committer.commit());
+            }
+
+            CompletableFuture.allOf(commits.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+            assertEquals(writes, committer.getCommittedWrites());
+            assertTrue(committer.getCommits() < writes / 2, "Writes should be committed in groups.");
+
+            committer.close();
+            assertTrue(committer.commit().isCompletedExceptionally(), "A closed committer should refuse writes.");
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package Storage;
+
+import com.lab1.distributedfs.Storage.ReedSolomon;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+public class ReedSolomonTest {
+    private static final int DATA_CELLS = 6;
+    private static final int PARITY_CELLS = 3;
+    private static final int CELL_SIZE = 1000;
+
+    @Test
+    public void testAnyDataCellsAreEnough() {
+        ReedSolomon reedSolomon = new ReedSolomon(DATA_CELLS, PARITY_CELLS);
+        byte[][] cells = new byte[DATA_CELLS + PARITY_CELLS][CELL_SIZE];
+        Random random = new Random(42);
+        for (int i = 0; i < DATA_CELLS; i++) { random.nextBytes(cells[i]); }
+        reedSolomon.encode(cells);
+
+        // Lose every combination of PARITY_CELLS cells
+        int total = DATA_CELLS + PARITY_CELLS;
+        for (int lost = 0; lost < 1 << total; lost++) {
+            if (Integer.bitCount(lost) != PARITY_CELLS) { continue; }
+            byte[][] left = new byte[total][];
+            for (int i = 0; i < total; i++) { left[i] = (lost & 1 << i) == 0 ? cells[i].clone() : null; }
+            reedSolomon.reconstruct(left);
+            for (int i = 0; i < DATA_CELLS; i++) { assertArrayEquals(cells[i], left[i], "cell " + i + " after losing " + Integer.toBinaryString(lost)); }
+        }
+    }
+
+    @Test
+    public void testTooFewCellsAreRefused() {
+        ReedSolomon reedSolomon = new ReedSolomon(3, 2);
+        byte[][] cells = new byte[5][16];
+        reedSolomon.encode(cells);
+        cells[0] = cells[2] = cells[4] = null;
+        assertThrows(IllegalArgumentException.class, () -> reedSolomon.reconstruct(cells));
+    }
+}